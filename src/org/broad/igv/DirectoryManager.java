@@ -243,6 +243,42 @@ public class DirectoryManager {
 
     }
 
+    /**
+     * Return the directory for binary caches of parsed data files  ("~/igv/data").
+     */
+    public static synchronized File getDataCacheDirectory() {
+
+        File dataDir = new File(DirectoryManager.getIgvDirectory(), "data");
+        if (!dataDir.exists()) {
+            dataDir.mkdir();
+        }
+        return dataDir;
+
+    }
+
+    /**
+     * Return the directory for sorted,  compressed and indexed copies of large feature files  ("~/igv/feature-index").
+     */
+    public static synchronized File getFeatureIndexDirectory() {
+
+        File indexDir = new File(DirectoryManager.getIgvDirectory(), "feature-index");
+        if (!indexDir.exists()) {
+            indexDir.mkdir();
+        }
+        return indexDir;
+
+    }
+
+    public static synchronized File getHttpCacheDirectory() {
+
+        File cacheDir = new File(DirectoryManager.getIgvDirectory(), "http-cache");
+        if (!cacheDir.exists()) {
+            cacheDir.mkdir();
+        }
+        return cacheDir;
+
+    }
+
     public static synchronized File getLogFile() throws IOException {
 
         File logFile = new File(getIgvDirectory(), "igv.log");
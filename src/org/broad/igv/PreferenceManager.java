@@ -140,6 +140,10 @@ public class PreferenceManager implements PropertyManager {
 
     public static final String SAM_SHOW_GROUP_SEPARATOR = "SAM.SHOW_GROUP_SEPARATOR";
     public static final String SAM_COMPLETE_READS_ONLY = "SAM.COMPLETE_READS_ONLY";
+    // Keep loaded alignments in packed arrays rather than as SAM records
+    public static final String SAM_COMPACT_ALIGNMENTS = "SAM.COMPACT_ALIGNMENTS";
+    // Inflate and decode local indexed BAM files on several threads
+    public static final String SAM_PARALLEL_DECODE = "SAM.PARALLEL_DECODE";
 
     public static final String COLOR_A = "COLOR.A";
     public static final String COLOR_C = "COLOR.C";
@@ -159,6 +163,9 @@ public class PreferenceManager implements PropertyManager {
     public static final String AF_REF_COLOR = "AF_REF.COLOR";
     public static final String AF_VAR_COLOR = "AF_VAR.COLOR";
 
+    // VCFs with at least this many samples decode genotypes on demand.  A negative value disables lazy decoding.
+    public static final String VCF_LAZY_GENOTYPE_SAMPLES = "VCF.LAZY_GENOTYPE_SAMPLES";
+
     public static final String EXPAND_FEAUTRE_TRACKS = "EXPAND_FEATURE_TRACKS";
     public static final String PORT_ENABLED = "PORT_ENABLED";
     public static final String PORT_NUMBER = "PORT_NUMBER";
@@ -243,6 +250,19 @@ public class PreferenceManager implements PropertyManager {
 
     public static final String GWAS_TRACK_HEIGHT = "GWAS_TRACK_HEIGHT";
     public static final String GWAS_DESCRIPTION_CACHE_SIZE = "GWAS_DESCRIPTION_CACHE_SIZE";
+
+    // Persistent cache of byte ranges read from remote files.  Off by default,  cached content is written to disk.
+    public static final String HTTP_CACHE_ENABLED = "HTTP_CACHE_ENABLED";
+    public static final String HTTP_CACHE_SIZE_MB = "HTTP_CACHE_SIZE_MB";
+
+    // Index large non-indexed feature files in the background
+    public static final String AUTO_INDEX_FEATURE_FILES = "AUTO_INDEX_FEATURE_FILES";
+
+    // Compression of the quantile sketch used for percentile window functions,  0 for exact percentiles
+    public static final String QUANTILE_SKETCH_COMPRESSION = "QUANTILE_SKETCH_COMPRESSION";
+
+    // Maximum number of command line plugin processes running at once,  read at the first plugin run
+    public static final String PLUGIN_MAX_PROCESSES = "PLUGIN_MAX_PROCESSES";
     public static final String GWAS_MIN_POINT_SIZE = "GWAS_MIN_POINT_SIZE";
     public static final String GWAS_MAX_POINT_SIZE = "GWAS_MAX_POINT_SIZE";
     public static final String GWAS_USE_CHR_COLORS = "GWAS_USE_CHR_COLORS";
@@ -1104,6 +1124,8 @@ public class PreferenceManager implements PropertyManager {
         defaultValues.put(SAM_SORT_OPTION, "NUCLEOTIDE");
         defaultValues.put(SAM_SHOW_GROUP_SEPARATOR, "true");
         defaultValues.put(SAM_COMPLETE_READS_ONLY, "false");
+        defaultValues.put(SAM_COMPACT_ALIGNMENTS, "true");
+        defaultValues.put(SAM_PARALLEL_DECODE, "true");
         defaultValues.put(SAM_SHOW_ALL_BASES, "false");
 
         defaultValues.put(NORMALIZE_COVERAGE, "false");
@@ -1130,6 +1152,11 @@ public class PreferenceManager implements PropertyManager {
 
         defaultValues.put(GWAS_TRACK_HEIGHT, "200");
         defaultValues.put(GWAS_DESCRIPTION_CACHE_SIZE, "10000");
+        defaultValues.put(HTTP_CACHE_ENABLED, "false");
+        defaultValues.put(HTTP_CACHE_SIZE_MB, "2000");
+        defaultValues.put(AUTO_INDEX_FEATURE_FILES, "true");
+        defaultValues.put(QUANTILE_SKETCH_COMPRESSION, "0");
+        defaultValues.put(PLUGIN_MAX_PROCESSES, "4");
         defaultValues.put(GWAS_MIN_POINT_SIZE, "3");
         defaultValues.put(GWAS_MAX_POINT_SIZE, "7");
         defaultValues.put(GWAS_USE_CHR_COLORS, "true");
@@ -1211,6 +1238,7 @@ public class PreferenceManager implements PropertyManager {
         defaultValues.put(NOCALL_COLOR, "255,255,255");
         defaultValues.put(AF_REF_COLOR, "0,0,220");
         defaultValues.put(AF_VAR_COLOR, "255,0,0");
+        defaultValues.put(VCF_LAZY_GENOTYPE_SAMPLES, "100");
 
         defaultValues.put(SASHIMI_SHOW_COVERAGE, "true");
 
@@ -2256,108 +2256,6 @@ public class AGV extends IGV{
     }
 
 
-    /**
-     * Sort all groups (data and feature) by a computed score over a region.  The
-     * sort is done twice (1) groups are sorted with the featureGroup, and (2) the
-     * groups themselves are sorted.
-     *
-     * @param region
-     * @param type
-     * @param frame
-     */
-    public void sortByRegionScore(RegionOfInterest region,
-                                  final RegionScoreType type,
-                                  final ReferenceFrame frame) {
-
-        final RegionOfInterest r = region == null ? new RegionOfInterest(frame.getChrName(), (int) frame.getOrigin(),
-                (int) frame.getEnd() + 1, frame.getName()) : region;
-
-        // Create a rank order of samples.  This is done globally so sorting is consistent across groups and panels.
-        final List<String> sortedSamples = sortSamplesByRegionScore(r, type, frame);
-
-        for (TrackPanel trackPanel : getTrackPanels()) {
-            trackPanel.sortByRegionsScore(r, type, frame, sortedSamples);
-        }
-        repaintDataPanels();
-    }
-
-
-    /**
-     * Sort a collection of tracks by a score over a region.
-     *
-     * @param region
-     * @param type
-     * @param frame
-     */
-    private List<String> sortSamplesByRegionScore(final RegionOfInterest region,
-                                                  final RegionScoreType type,
-                                                  final ReferenceFrame frame) {
-
-        // Get the sortable tracks for this score (data) type
-        final List<Track> allTracks = getAllTracks();
-        final List<Track> tracksWithScore = new ArrayList(allTracks.size());
-        for (Track t : allTracks) {
-            if (t.isRegionScoreType(type)) {
-                tracksWithScore.add(t);
-            }
-        }
-
-        // Sort the "sortable" tracks
-        sortByRegionScore(tracksWithScore, region, type, frame);
-
-        // Now get sample order from sorted tracks, use to sort (tracks which do not implement the selected "sort by" score)
-        List<String> sortedSamples = new ArrayList(tracksWithScore.size());
-        for (Track t : tracksWithScore) {
-            String att = t.getSample(); //t.getAttributeValue(linkingAtt);
-            if (att != null) {
-                sortedSamples.add(att);
-            }
-
-        }
-
-        return sortedSamples;
-    }
-
-    static void sortByRegionScore(List<Track> tracks,
-                                  final RegionOfInterest region,
-                                  final RegionScoreType type,
-                                  ReferenceFrame frame) {
-        if ((tracks != null) && (region != null) && !tracks.isEmpty()) {
-            final String frameName = frame != null ? frame.getName() : null;
-            int tmpzoom = frame != null ? frame.getZoom() : 0;
-            final int zoom = Math.max(0, tmpzoom);
-            final String chr = region.getChr();
-            final int start = region.getStart();
-            final int end = region.getEnd();
-
-            Comparator<Track> c = new Comparator<Track>() {
-
-                public int compare(Track t1, Track t2) {
-                    try {
-                        if (t1 == null && t2 == null) return 0;
-                        if (t1 == null) return 1;
-                        if (t2 == null) return -1;
-
-
-                        float s1 = t1.getRegionScore(chr, start, end, zoom, type, frameName);
-                        float s2 = t2.getRegionScore(chr, start, end, zoom, type, frameName);
-
-                        return Float.compare(s2, s1);
-
-
-                    } catch (Exception e) {
-                        log.error("Error sorting tracks. Sort might not be accurate.", e);
-                        return 0;
-                    }
-
-                }
-            };
-            Collections.sort(tracks, c);
-
-        }
-    }
-
-
     ////////////////////////////////////////////////////////////////////////////////////////
     // Groups
 
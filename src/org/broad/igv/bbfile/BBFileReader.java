@@ -29,11 +29,13 @@ import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
 import org.broad.igv.util.stream.IGVSeekableBufferedStream;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
+import org.broad.igv.util.stream.MemoryMappedSeekableStream;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.List;
 
 /*
 *   Broad Institute Interactive Genome Viewer Big Binary File (BBFile) Reader
@@ -94,6 +96,7 @@ public class BBFileReader {
     private static Logger log = Logger.getLogger(BBFileReader.class);
 
     private SeekableStream fis;      // BBFile input stream handle
+    private BBIndexCache.FileId fileId;  // identity of the file in the shared index cache
     private long fileOffset;           // file offset for next item to be read
 
     private BBFileHeader fileHeader; // Big Binary file header
@@ -126,7 +129,12 @@ public class BBFileReader {
 
         log.debug("Opening BBFile source  " + path);
 
-        fis = new IGVSeekableBufferedStream(IGVSeekableStreamFactory.getInstance().getStreamFor(path), 128000);
+        // Local files are memory mapped and need no buffering
+        fis = IGVSeekableStreamFactory.getInstance().getMappedStreamFor(path);
+        if (!(fis instanceof MemoryMappedSeekableStream)) {
+            fis = new IGVSeekableBufferedStream(fis, 128000);
+        }
+        fileId = new BBIndexCache.FileId(fis);
 
         // read in file header
         fileOffset = BBFILE_HEADER_OFFSET;
@@ -152,7 +160,7 @@ public class BBFileReader {
         // Note: zoom headers Table D immediately follow the BBFile Header
         if (zoomLevelCount > 0) {
             zoomLevelOffset = fileOffset;
-            zoomLevels = new BBZoomLevels(fis, zoomLevelOffset, zoomLevelCount, isLowToHigh, uncompressBufSize);
+            zoomLevels = new BBZoomLevels(fis, fileId, zoomLevelOffset, zoomLevelCount, isLowToHigh, uncompressBufSize);
 
             // end of zoom level headers - compare with next BBFile item location
             fileOffset += zoomLevelCount * BBZoomLevelHeader.ZOOM_LEVEL_HEADER_SIZE;
@@ -176,7 +184,7 @@ public class BBFileReader {
         chromIDTreeOffset = fileHeader.getChromosomeTreeOffset();
         if (chromIDTreeOffset != 0) {
             fileOffset = chromIDTreeOffset;
-            chromosomeIDTree = new BPTree(fis, fileOffset, isLowToHigh);
+            chromosomeIDTree = new BPTree(fis, fileId, fileOffset, isLowToHigh);
         }
 
         // get R+ chromosome data location tree (Tables K, L, M, N)
@@ -184,7 +192,7 @@ public class BBFileReader {
         if (chromDataTreeOffset != 0) {
             fileOffset = chromDataTreeOffset;
             boolean forceDescend = false;
-            chromosomeDataTree = new RPTree(fis, fileOffset, isLowToHigh, uncompressBufSize, forceDescend);
+            chromosomeDataTree = new RPTree(fis, fileId, fileOffset, isLowToHigh, uncompressBufSize, forceDescend);
         }
 
 
@@ -379,6 +387,26 @@ public class BBFileReader {
     }
 
 
+    /**
+     * Returns the wig items of a chromosome region as arrays,  without creating {@link WigItem}s.  The data blocks
+     * are read in bulk and decoded in parallel,  see {@link BigWigBlockReader}.  Returns null if the file is not
+     * BigWig.
+     */
+    synchronized public BigWigBlockReader.WigData getBigWigData(String chromosome, int startBase, int endBase,
+                                                                boolean contained) throws IOException {
+
+        if (!isBigWigFile())
+            return null;
+
+        RPChromosomeRegion selectionRegion = getChromosomeBounds(chromosome, startBase, chromosome, endBase);
+        List<RPTreeLeafNodeItem> leafHits = selectionRegion == null ? new ArrayList<RPTreeLeafNodeItem>() :
+                chromosomeDataTree.getChromosomeDataHits(selectionRegion, contained);
+
+        BigWigBlockReader blockReader = new BigWigBlockReader(fis, chromosomeDataTree.isIsLowToHigh(),
+                chromosomeDataTree.getUncompressBuffSize());
+        return blockReader.read(leafHits, selectionRegion, contained);
+    }
+
     /**
      * Returns an iterator for zoom level records for the chromosome selection region.
      * <p/>
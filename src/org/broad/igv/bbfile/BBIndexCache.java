@@ -0,0 +1,277 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.bbfile;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.broad.igv.util.FileUtils;
+import org.broad.igv.util.collections.ConcurrentCache;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Process-wide cache of decoded bigWig / bigBed index structures,  shared by all readers,  iterators and zoom levels
+ * of a file.  R+ tree nodes and the chromosome B+ tree are kept in compact array form,  and the cache is bounded by
+ * their estimated size.
+ * <p/>
+ * Entries are keyed by a {@link FileId},  taken once when a reader opens the file,  and the file offset of the
+ * structure.  A local file rebuilt in place with the same length is read again.
+ */
+public class BBIndexCache {
+
+    private static BBIndexCache instance;
+
+    private final ConcurrentCache<Key, Object> cache;
+
+    public static synchronized BBIndexCache getInstance() {
+        if (instance == null) {
+            instance = new BBIndexCache(Math.min(Runtime.getRuntime().maxMemory() / 32, 128L << 20));
+        }
+        return instance;
+    }
+
+    BBIndexCache(long maxBytes) {
+        cache = new ConcurrentCache<Key, Object>(maxBytes, new ConcurrentCache.Weigher<Key, Object>() {
+            public long weigh(Key key, Object value) {
+                return value instanceof RPNode ? ((RPNode) value).bytes() : ((ChromosomeIndex) value).bytes();
+            }
+        }, false);
+    }
+
+    /**
+     * Return the R+ tree node at the file offset,  reading it on a miss
+     */
+    public RPNode getRPNode(FileId file, SeekableStream fis, long fileOffset, boolean isLowToHigh) {
+        Key key = new Key(file, fileOffset);
+        RPNode node = (RPNode) cache.get(key);
+        if (node == null) {
+            node = RPTree.readRPNode(fis, fileOffset, isLowToHigh);
+            cache.put(key, node);
+        }
+        return node;
+    }
+
+    /**
+     * Return the chromosome index of the B+ tree at the file offset,  or null
+     */
+    public ChromosomeIndex getChromosomeIndex(FileId file, long treeOffset) {
+        return (ChromosomeIndex) cache.get(new Key(file, treeOffset));
+    }
+
+    public void putChromosomeIndex(FileId file, long treeOffset, ChromosomeIndex index) {
+        cache.put(new Key(file, treeOffset), index);
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    public long getBytes() {
+        return cache.getWeight();
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * An R+ tree node.  For each item,  bounds holds start chromosome ID,  start base,  end chromosome ID and
+     * end base.  Offsets are data block offsets for leaves,  child node offsets otherwise.
+     */
+    public static class RPNode {
+
+        final boolean leaf;
+        final int[] bounds;
+        final long[] offsets;
+        final long[] sizes;
+
+        RPNode(boolean leaf, int[] bounds, long[] offsets, long[] sizes) {
+            this.leaf = leaf;
+            this.bounds = bounds;
+            this.offsets = offsets;
+            this.sizes = sizes;
+        }
+
+        public int getItemCount() {
+            return offsets.length;
+        }
+
+        long bytes() {
+            return 64 + 16L * offsets.length + (sizes == null ? 0 : 8L * sizes.length) + 8L * offsets.length;
+        }
+    }
+
+    /**
+     * Chromosome names,  IDs and sizes from the B+ tree,  in tree order
+     */
+    public static class ChromosomeIndex {
+
+        final String[] keys;
+        final int[] ids;
+        final int[] sizes;
+        private final Integer[] idOrder;
+        private final HashMap<String, Integer> keyIndex;
+
+        ChromosomeIndex(List<BPTreeLeafNodeItem> leaves) {
+            int n = leaves.size();
+            keys = new String[n];
+            ids = new int[n];
+            sizes = new int[n];
+            keyIndex = new HashMap<String, Integer>(n * 2);
+            idOrder = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                BPTreeLeafNodeItem leaf = leaves.get(i);
+                keys[i] = leaf.getChromKey();
+                ids[i] = leaf.getChromID();
+                sizes[i] = leaf.getChromSize();
+                if (!keyIndex.containsKey(keys[i])) {
+                    keyIndex.put(keys[i], i);
+                }
+                idOrder[i] = i;
+            }
+            Arrays.sort(idOrder, new Comparator<Integer>() {
+                public int compare(Integer i1, Integer i2) {
+                    return ids[i1] < ids[i2] ? -1 : (ids[i1] == ids[i2] ? 0 : 1);
+                }
+            });
+        }
+
+        /**
+         * Return the chromosome ID for the key,  or -1
+         */
+        public int getChromosomeID(String chromKey) {
+            Integer i = keyIndex.get(chromKey.trim());
+            return i == null ? -1 : ids[i];
+        }
+
+        /**
+         * Return the chromosome key for the ID,  or null
+         */
+        public String getChromosomeName(int chromID) {
+            int i = firstWithID(chromID);
+            return i < idOrder.length && ids[idOrder[i]] == chromID ? keys[idOrder[i]] : null;
+        }
+
+        public void addChromosomes(int startChromID, int endChromID, HashMap<Integer, String> chromosomeMap) {
+            for (int i = firstWithID(startChromID); i < idOrder.length && ids[idOrder[i]] <= endChromID; i++) {
+                chromosomeMap.put(ids[idOrder[i]], keys[idOrder[i]]);
+            }
+        }
+
+        /**
+         * Index into idOrder of the first chromosome with ID >= chromID
+         */
+        private int firstWithID(int chromID) {
+            int low = 0;
+            int high = idOrder.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (ids[idOrder[mid]] < chromID) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        public int size() {
+            return keys.length;
+        }
+
+        long bytes() {
+            long bytes = 64;
+            for (String key : keys) {
+                bytes += 96 + 2 * key.length();
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * The source of a file,  its length,  and the modification time of local files
+     */
+    public static final class FileId {
+
+        final String source;
+        final long length;
+        final long lastModified;
+
+        public FileId(SeekableStream fis) {
+            this.source = fis.getSource();
+            this.length = fis.length();
+            this.lastModified = source == null || FileUtils.isRemote(source) ? 0 : new File(source).lastModified();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof FileId)) return false;
+            FileId fileId = (FileId) o;
+            return length == fileId.length && lastModified == fileId.lastModified &&
+                    (source == null ? fileId.source == null : source.equals(fileId.source));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = source != null ? source.hashCode() : 0;
+            result = 31 * result + (int) (length ^ (length >>> 32));
+            result = 31 * result + (int) (lastModified ^ (lastModified >>> 32));
+            return result;
+        }
+    }
+
+    private static class Key {
+
+        final FileId file;
+        final long offset;
+
+        Key(FileId file, long offset) {
+            this.file = file;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return offset == key.offset && file.equals(key.file);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * file.hashCode() + (int) (offset ^ (offset >>> 32));
+        }
+    }
+}
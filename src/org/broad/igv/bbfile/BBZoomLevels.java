@@ -28,6 +28,7 @@ package org.broad.igv.bbfile;
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
 import org.broad.igv.util.stream.IGVSeekableBufferedStream;
+import org.broad.igv.util.stream.MemoryMappedSeekableStream;
 
 import java.util.ArrayList;
 
@@ -77,13 +78,14 @@ public class BBZoomLevels {
    *
    *  Parameters:
    *      fis - file input stream handle
+   *      fileId - identity of the file,  for the shared index cache
    *      fileOffset - file byte location for zoom level headers
    *      zoomLevels - count of zoom levels from BBFile Table C
    *      isLowToHigh - boolean flag indicates if values are arranged low to high bytes.
    *      uncompressBufSize - byte size of the buffer to use for decompression
    * */
 
-    public BBZoomLevels(SeekableStream is, long fileOffset, int zoomLevels,
+    public BBZoomLevels(SeekableStream is, BBIndexCache.FileId fileId, long fileOffset, int zoomLevels,
                         boolean isLowToHigh, int uncompressBufSize){
         int zoomLevel;
         int zoomHeadersRead;
@@ -96,7 +98,7 @@ public class BBZoomLevels {
         zoomLevelsCount = zoomLevels;
 
         // We don't know the exact size of the header fields, so use a buffered stream
-        IGVSeekableBufferedStream fis = new IGVSeekableBufferedStream(is, 512000);
+        SeekableStream fis = is instanceof MemoryMappedSeekableStream ? is : new IGVSeekableBufferedStream(is, 512000);
         
         // Note: a bad zoom header will result in a 0 count returned
         zoomHeadersRead =  readZoomHeaders(fis, zoomHeadersOffset, zoomLevels, isLowToHigh);
@@ -139,7 +141,8 @@ public class BBZoomLevels {
                 zoomIndexOffset = zoomLevelHeaders.get(index).getIndexOffset();
 
                 // get Zoom Data R+ Tree (Tables K, L, M, N): exists for zoom levels
-                RPTree zoomRPTree = new RPTree(fis, zoomIndexOffset, isLowToHigh, uncompressBufSize, true);
+                // Nodes within a chromosome are read on demand,  through the reader's stream
+                RPTree zoomRPTree = new RPTree(is, fileId, zoomIndexOffset, isLowToHigh, uncompressBufSize, false);
 
                 //if(zoomRPTree.getNodeCount() > 0)
                     zoomLevelRPTree.add(zoomRPTree);
@@ -33,6 +33,7 @@ import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -86,19 +87,24 @@ public class BPTree {
     private long itemCount;    //  number of contig/mChromosome items in tree
 
     // B+ tree nodal variables
-    private BPTreeNode rootNode;   // B+ tree root node
+    private BPTreeNode rootNode;   // B+ tree root node,  read on demand if the index is cached
     private long nodeCount;        // number of nodes defined in the B+ tree
     private long leafCount;        // number of leaves in the B+ tree
+    private boolean isLowToHigh;
+
+    // chromosome names and IDs in array form,  shared by readers of the same file
+    private BBIndexCache.ChromosomeIndex chromosomeIndex;
 
    /*
    *    Constructor for reading in a B+ tree from a BBFile/input stream.
    *
    *    Parameters:
    *        fis - file input stream handle
+   *        fileId - identity of the file,  for the shared index cache
    *        fileOffset - file offset to the B+ tree header
    *        isLowToHigh - indicates byte order is low to high, else is high to low
    * */
-    public BPTree(SeekableStream fis, long fileOffset, boolean isLowToHigh) {
+    public BPTree(SeekableStream fis, BBIndexCache.FileId fileId, long fileOffset, boolean isLowToHigh) {
 
         // Save the seekable file handle and B+ Tree file offset
         // Note: the offset is the B+ Tree Header Table E file location
@@ -122,13 +128,17 @@ public class BPTree {
         valueSize = treeHeader.getValSize();
         itemCount = treeHeader.getItemCount();
 
-        // populate the tree - read in the nodes
-        long nodeOffset = treeOffset + treeHeader.BPTREE_HEADER_SIZE;
-        BPTreeNode parentNode = null;  // parent node of the root is itself, or null
-
-        // get the root node - which recursively populates the remaining nodes
-        rootNode =  readBPTreeNode(this.fis, nodeOffset, parentNode, isLowToHigh);
+        this.isLowToHigh = isLowToHigh;
 
+        // the tree is only read if no reader of this file has indexed it yet
+        BBIndexCache indexCache = BBIndexCache.getInstance();
+        chromosomeIndex = indexCache.getChromosomeIndex(fileId, treeOffset);
+        if (chromosomeIndex == null) {
+            ArrayList<BPTreeLeafNodeItem> leaves = new ArrayList<BPTreeLeafNodeItem>();
+            findAllLeaves(getRootNode(), leaves);
+            chromosomeIndex = new BBIndexCache.ChromosomeIndex(leaves);
+            indexCache.putChromosomeIndex(fileId, treeOffset, chromosomeIndex);
+        }
     }
 
     /*
@@ -185,6 +195,7 @@ public class BPTree {
     *   Method returns the number of nodes in the B+ tree.
     * */
     public long getNodeCount() {
+        getRootNode();
         return nodeCount;
     }
 
@@ -195,7 +206,15 @@ public class BPTree {
     *   Returns:
     *       Root node
     * */
-    public BPTreeNode getRootNode() {
+    public synchronized BPTreeNode getRootNode() {
+        if (rootNode == null) {
+            // populate the tree - read in the nodes
+            long nodeOffset = treeOffset + treeHeader.BPTREE_HEADER_SIZE;
+            BPTreeNode parentNode = null;  // parent node of the root is itself, or null
+
+            // get the root node - which recursively populates the remaining nodes
+            rootNode = readBPTreeNode(this.fis, nodeOffset, parentNode, isLowToHigh);
+        }
         return rootNode;
     }
 
@@ -232,14 +251,7 @@ public class BPTree {
     *
     * */
     public int getChromosomeID(String chromKey) {
-         int chromosomeID;
-
-        // Search the B+ tree to extract the Chromosome ID.
-        BPTreeNode thisNode = rootNode;
-
-        chromosomeID = findChromosomeID(thisNode, chromKey);
-
-        return chromosomeID;
+        return chromosomeIndex.getChromosomeID(chromKey);
     }
 
     /*
@@ -254,14 +266,7 @@ public class BPTree {
     *
     * */
     public String getChromosomeName(int chromID) {
-         String chromKey;
-
-        // Search the B+ tree to extract the Chromosome ID.
-        BPTreeNode thisNode = rootNode;
-
-        chromKey = findChromosomeName(thisNode, chromID);
-
-        return chromKey;
+        return chromosomeIndex.getChromosomeName(chromID);
     }
 
     /*
@@ -271,15 +276,7 @@ public class BPTree {
     *   Collection of all (chromosome ID, chromosome name)entries
     * */
     public ArrayList<String> getChromosomeNames(){
-
-        // Search the B+ tree to extract the chromosome ID.
-        BPTreeNode thisNode = rootNode;
-
-        ArrayList<String> chromosomeList = new ArrayList<String>();
-
-        findAllChromosomeNames(thisNode, chromosomeList);
-
-        return chromosomeList;
+        return new ArrayList<String>(Arrays.asList(chromosomeIndex.keys));
     }
 
      /*
@@ -296,12 +293,9 @@ public class BPTree {
     * */
     public HashMap<Integer, String> getChromosomeIDMap(int startChromID, int endChromID){
 
-        // Search the B+ tree to extract the chromosome ID.
-        BPTreeNode thisNode = rootNode;
-
         HashMap<Integer, String> chromosomeIDMap = new HashMap<Integer, String>();
 
-        findChromosomeMap(thisNode, startChromID, endChromID, chromosomeIDMap);
+        chromosomeIndex.addChromosomes(startChromID, endChromID, chromosomeIDMap);
 
         return chromosomeIDMap;
     }
@@ -320,131 +314,10 @@ public class BPTree {
         treeHeader.print();
 
         // print  B+ tree node and leaf items - recursively
-        if(rootNode != null)
-            rootNode.printItems();
+        if(getRootNode() != null)
+            getRootNode().printItems();
    }
 
-    /*
-    *   Method finds and returns the chromosome ID for the specified chromosome key.
-    *
-    *   Note: This method recursively calls itself, traversing the full B+ tree until
-    *       either the chromosome name key is found and returns a valid chromosome ID,
-    *       or exits with a -1 value.
-    *
-    *   Parameters:
-    *       thisNode - tree node to start search
-    *       chromKey - chromosome name key of valid key size.
-    *
-    *   Returns:
-    *       Valid chromosome ID if >= 0; else -1 for not found.
-    * */
-    private int findChromosomeID( BPTreeNode thisNode, String chromKey){
-        int chromID = -1;    // until found
-
-        // search down the tree recursively starting with the root node
-        if(thisNode.isLeaf())
-        {
-           int nLeaves = thisNode.getItemCount();
-           for(int index = 0; index < nLeaves; ++index){
-               BPTreeLeafNodeItem leaf = (BPTreeLeafNodeItem)thisNode.getItem(index);
-               if(leaf == null){
-                    log.error("Error finding B+ tree leaf nodes, corruption suspected");
-                    throw new RuntimeException("Error reading B+ tree leaf nodes, corruption suspected");
-               }
-
-               // test chromosome key match
-               if(leaf.chromKeysMatch(chromKey)){
-                   chromID = leaf.getChromID();
-                   break;
-               }
-               // else check next leaf
-           }
-        }
-        else {
-           // check all child nodes
-           int nNodes = thisNode.getItemCount();
-           for(int index = 0; index < nNodes; ++index){
-
-               BPTreeChildNodeItem childItem = (BPTreeChildNodeItem)thisNode.getItem(index);              
-               BPTreeNode childNode =  childItem.getChildNode();
-
-               // check if key is in the node range
-               String lowestKey = childNode.getLowestChromKey();
-               String highestKey = childNode.getHighestChromKey();
-
-               // test name key against key range
-               if(chromKey.compareTo(lowestKey) >= 0
-                       && chromKey.compareTo(highestKey) <= 0) {
-
-                    // keep going until leaf items are checked
-                    chromID = findChromosomeID(childNode, chromKey);
-
-                    // check for chromKey match
-                    if(chromID >= 0)
-                        break;
-               }
-           }
-        }
-
-        return chromID;
-    }
-
-    /*
-    *   Method finds and returns the chromosome name for the specified chromosome ID.
-    *
-    *   Parameters:
-    *       thisNode - tree node to start search
-    *       chromID - B+ tree chromosome ID supplied for the chromosome key
-    *
-    *   Returns:
-    *       chromosome name if found; else a null string.
-    * */
-    private String findChromosomeName( BPTreeNode thisNode, int chromID){
-
-        String chromKey = null; // mark unfound condition as an empty string
-
-        // search down the tree recursively starting with the root node
-        if(thisNode.isLeaf())
-        {
-           int nLeaves = thisNode.getItemCount();
-           for(int index = 0; index < nLeaves; ++index){
-               BPTreeLeafNodeItem leaf = (BPTreeLeafNodeItem)thisNode.getItem(index);
-
-               if(leaf.getChromID() == chromID){ // mChromosome key match
-                   chromKey = leaf.getChromKey();
-                   break;
-               }
-               // else check next leaf
-           }
-        }
-        else {
-           // check all child nodes
-           int nNodes = thisNode.getItemCount();
-           for(int index = 0; index < nNodes; ++index){
-
-               BPTreeChildNodeItem childItem = (BPTreeChildNodeItem)thisNode.getItem(index);
-               BPTreeNode childNode =  childItem.getChildNode();
-
-               // check if key is in the node range
-               int lowestID = childNode.getLowestChromID();
-               int highestID = childNode.getHighestChromID();
-
-               // test chromosome ID against node ID range
-               if(chromID >= lowestID && chromID <= highestID) {
-
-                    // keep going until leaf items are checked
-                    chromKey = findChromosomeName(childNode, chromID);
-
-                    // check for chromosome ID match
-                    if(chromKey != null)
-                        break;
-               }
-           }
-        }
-
-        return chromKey;
-    }
-
     /*
     *   Method finds and returns all chromosome names in the B+ tree.
     *
@@ -485,69 +358,17 @@ public class BPTree {
     }
 
     /*
-    *   Method finds and returns (chromosome ID, chromosome key name) pairs for the specified ID range.
-    *
-    *   Parameters:
-    *       thisNode - tree node to start search
-    *       startChromID - starting chromosome ID for the chromosome range
-    *       endChromID - ending chromosome ID for the chromosome range
-    *
-    *   Returns:
-    *       (chromosome ID, chromosome key name) items are added to the collection passed in.
+    *   Method adds all leaf items of the B+ tree to the list, in tree order.
     * */
-    private void findChromosomeMap( BPTreeNode thisNode, int startChromID, int endChromID,
-                                        HashMap<Integer, String> chromosomeMap){
-        int chromID;
-        int lowestID;
-        int highestID;
-
-        // check if node is disjoint
-        lowestID = thisNode.getLowestChromID();
-        if(lowestID > endChromID)
-            return;
-
-        highestID = thisNode.getHighestChromID();
-        if(highestID < startChromID)
-            return; 
-
-        // search down the tree recursively starting with the root node
-        if(thisNode.isLeaf())
-        {
-           int nLeaves = thisNode.getItemCount();
-           for(int index = 0; index < nLeaves; ++index){
-
-               BPTreeLeafNodeItem leaf = (BPTreeLeafNodeItem)thisNode.getItem(index);
-               chromID = leaf.getChromID();
-
-               // check for chromosome range match
-               if( chromID >= startChromID && chromID <= endChromID ){
-                   chromosomeMap.put(chromID, leaf.getChromKey());
-               }
-               // leaf ID's are in ascending order; check for going out of range
-               else if(chromID > endChromID)
-                   break;
-           }
-        }
-        else {
-           // check all child nodes
-           int nNodes = thisNode.getItemCount();
-           for(int index = 0; index < nNodes; ++index){
-
-               BPTreeChildNodeItem childItem = (BPTreeChildNodeItem)thisNode.getItem(index);
-               BPTreeNode childNode =  childItem.getChildNode();
-
-               // check if keys are in the node range
-               lowestID = childNode.getLowestChromID();
-               highestID = childNode.getHighestChromID();
-
-               // test for chromosome range intersections
-               if( lowestID <= endChromID && highestID >= startChromID )
-                    findChromosomeMap(childNode, startChromID, endChromID, chromosomeMap);
-
-               // test node ID range which is always in ascending order going out of range
-               else if(lowestID > endChromID)
-                   break;   //
-           }
+    private void findAllLeaves(BPTreeNode thisNode, ArrayList<BPTreeLeafNodeItem> leaves) {
+
+        int nItems = thisNode.getItemCount();
+        for (int index = 0; index < nItems; ++index) {
+            if (thisNode.isLeaf()) {
+                leaves.add((BPTreeLeafNodeItem) thisNode.getItem(index));
+            } else {
+                findAllLeaves(((BPTreeChildNodeItem) thisNode.getItem(index)).getChildNode(), leaves);
+            }
         }
     }
 
@@ -0,0 +1,320 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.bbfile;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the data blocks of a bigWig query in bulk.  Leaf blocks which are adjacent in the file are read with one
+ * I/O,  then inflated and decoded in parallel,  directly into primitive arrays rather than {@link WigItem}s.
+ * <p/>
+ * Items are selected as by {@link BigWigIterator},  and returned in the order of the leaf hits.
+ */
+public class BigWigBlockReader {
+
+    // Blocks separated by at most this many bytes are read together
+    static final int MAX_GAP = 4096;
+
+    // Maximum size of a single read
+    static final int MAX_READ_SIZE = 8 * 1024 * 1024;
+
+    private static ExecutorService decodeExecutor;
+
+    // Inflaters are reused by each decoding thread
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater();
+        }
+    };
+
+    private final SeekableStream fis;
+    private final boolean isLowToHigh;
+    private final int uncompressBufSize;
+
+    /**
+     * @param uncompressBufSize decompression buffer size from the file header,  or 0 for uncompressed data
+     */
+    public BigWigBlockReader(SeekableStream fis, boolean isLowToHigh, int uncompressBufSize) {
+        this.fis = fis;
+        this.isLowToHigh = isLowToHigh;
+        this.uncompressBufSize = uncompressBufSize;
+    }
+
+    /**
+     * Read the items of the leaf hits in the selection region.
+     *
+     * @param contained if true items must be contained in the selection region,  else they may intersect it
+     */
+    public WigData read(final List<RPTreeLeafNodeItem> leafHits, final RPChromosomeRegion selectionRegion,
+                        final boolean contained) throws IOException {
+
+        int nHits = leafHits.size();
+        if (nHits == 0) {
+            return new WigData(new int[0], new int[0], new float[0], 0);
+        }
+
+        // Read in file order
+        Integer[] order = new Integer[nHits];
+        for (int i = 0; i < nHits; i++) order[i] = i;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                long o1 = leafHits.get(i1).getDataOffset();
+                long o2 = leafHits.get(i2).getDataOffset();
+                return o1 < o2 ? -1 : (o1 == o2 ? 0 : 1);
+            }
+        });
+
+        List<Future<WigData>> futures = new ArrayList<Future<WigData>>(nHits);
+        for (int i = 0; i < nHits; i++) futures.add(null);
+        WigData[] blocks = new WigData[nHits];
+        ExecutorService executor = nHits > 1 ? getDecodeExecutor() : null;
+
+        try {
+            int g = 0;
+            while (g < nHits) {
+                // Extend the group while the next block is close enough
+                long groupStart = leafHits.get(order[g]).getDataOffset();
+                long groupEnd = groupStart + leafHits.get(order[g]).geDataSize();
+                int next = g + 1;
+                while (next < nHits) {
+                    RPTreeLeafNodeItem item = leafHits.get(order[next]);
+                    long end = Math.max(groupEnd, item.getDataOffset() + item.geDataSize());
+                    if (item.getDataOffset() > groupEnd + MAX_GAP || end - groupStart > MAX_READ_SIZE) break;
+                    groupEnd = end;
+                    next++;
+                }
+
+                final byte[] bytes = new byte[(int) (groupEnd - groupStart)];
+                fis.seek(groupStart);
+                fis.readFully(bytes);
+
+                for (int i = g; i < next; i++) {
+                    final int hitIndex = order[i];
+                    RPTreeLeafNodeItem item = leafHits.get(hitIndex);
+                    final int offset = (int) (item.getDataOffset() - groupStart);
+                    final int length = (int) item.geDataSize();
+                    if (executor == null) {
+                        blocks[hitIndex] = decodeBlock(bytes, offset, length, selectionRegion, contained);
+                    } else {
+                        futures.set(hitIndex, executor.submit(new Callable<WigData>() {
+                            public WigData call() throws Exception {
+                                return decodeBlock(bytes, offset, length, selectionRegion, contained);
+                            }
+                        }));
+                    }
+                }
+                g = next;
+            }
+
+            if (executor != null) {
+                for (int i = 0; i < nHits; i++) {
+                    blocks[i] = futures.get(i).get();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted reading " + fis.getSource());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RuntimeException(cause);
+        } finally {
+            for (Future<WigData> f : futures) {
+                if (f != null) f.cancel(true);
+            }
+        }
+
+        return WigData.concat(blocks);
+    }
+
+    /**
+     * Inflate a data block and decode its sections,  as {@link BigWigSection#getSectionData}
+     */
+    WigData decodeBlock(byte[] bytes, int offset, int length, RPChromosomeRegion selectionRegion,
+                        boolean contained) throws IOException {
+
+        ByteBuffer buffer;
+        if (uncompressBufSize > 0) {
+            Inflater inflater = inflaters.get();
+            inflater.reset();
+            inflater.setInput(bytes, offset, length);
+            byte[] data = new byte[uncompressBufSize];
+            int n = 0;
+            try {
+                while (!inflater.finished() && n < data.length) {
+                    int count = inflater.inflate(data, n, data.length - n);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    n += count;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Error inflating bigWig data block: " + e.getMessage());
+            }
+            buffer = ByteBuffer.wrap(data, 0, n);
+        } else {
+            buffer = ByteBuffer.wrap(bytes, offset, length);
+        }
+        buffer.order(isLowToHigh ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+
+        long selectionStart = key(selectionRegion.getStartChromID(), selectionRegion.getStartBase());
+        long selectionEnd = key(selectionRegion.getEndChromID(), selectionRegion.getEndBase());
+
+        int capacity = 0;
+        int[] starts = new int[capacity];
+        int[] ends = new int[capacity];
+        float[] values = new float[capacity];
+        int size = 0;
+
+        while (buffer.remaining() >= BigWigSectionHeader.SECTION_HEADER_SIZE) {
+            int chromID = buffer.getInt();
+            int chromStart = buffer.getInt();
+            int chromEnd = buffer.getInt();
+            int itemStep = buffer.getInt();
+            int itemSpan = buffer.getInt();
+            byte type = buffer.get();
+            buffer.get();  // reserved
+            int itemCount = buffer.getShort() & 0xffff;
+            if (type < 1 || type > 3) {
+                throw new RuntimeException("Read error on wig section leaf index ");
+            }
+
+            boolean sectionContained = key(chromID, chromStart) >= selectionStart && key(chromID, chromEnd) <= selectionEnd;
+
+            if (size + itemCount > capacity) {
+                capacity = Math.max(size + itemCount, 2 * capacity);
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+
+            int start = chromStart;
+            for (int i = 0; i < itemCount; i++) {
+                int end;
+                float value;
+                if (type == 3) {            // Fixed step
+                    end = start + itemSpan;
+                    value = buffer.getFloat();
+                } else if (type == 2) {     // Variable step
+                    start = buffer.getInt();
+                    end = start + itemSpan;
+                    value = buffer.getFloat();
+                } else {                    // Bed graph
+                    start = buffer.getInt();
+                    end = buffer.getInt();
+                    value = buffer.getFloat();
+                }
+
+                boolean selected = sectionContained;
+                if (!selected) {
+                    long itemStart = key(chromID, start);
+                    long itemEnd = key(chromID, end);
+                    selected = (itemStart >= selectionStart && itemEnd <= selectionEnd) ||
+                            (!contained && itemEnd > selectionStart && itemStart < selectionEnd);
+                }
+                if (selected) {
+                    starts[size] = start;
+                    ends[size] = end;
+                    values[size] = value;
+                    size++;
+                }
+                if (type == 3) {
+                    start += itemStep;
+                }
+            }
+        }
+        return new WigData(starts, ends, values, size);
+    }
+
+    /**
+     * Order positions by chromosome ID,  then base
+     */
+    private static long key(int chromID, int base) {
+        return ((long) chromID << 32) | (base & 0xffffffffL);
+    }
+
+    private static synchronized ExecutorService getDecodeExecutor() {
+        if (decodeExecutor == null) {
+            int nThreads = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+            decodeExecutor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+                int count = 0;
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "BigWig decoder " + (count++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return decodeExecutor;
+    }
+
+    /**
+     * Start,  end and value arrays of wig items.  The arrays returned by {@link #read} hold exactly size items.
+     */
+    public static class WigData {
+
+        public final int[] starts;
+        public final int[] ends;
+        public final float[] values;
+        public final int size;
+
+        WigData(int[] starts, int[] ends, float[] values, int size) {
+            this.starts = starts;
+            this.ends = ends;
+            this.values = values;
+            this.size = size;
+        }
+
+        static WigData concat(WigData[] blocks) {
+            if (blocks.length == 1 && blocks[0].starts.length == blocks[0].size) return blocks[0];
+            int size = 0;
+            for (WigData b : blocks) size += b.size;
+            int[] starts = new int[size];
+            int[] ends = new int[size];
+            float[] values = new float[size];
+            int n = 0;
+            for (WigData b : blocks) {
+                System.arraycopy(b.starts, 0, starts, n, b.size);
+                System.arraycopy(b.ends, 0, ends, n, b.size);
+                System.arraycopy(b.values, 0, values, n, b.size);
+                n += b.size;
+            }
+            return new WigData(starts, ends, values, size);
+        }
+    }
+}
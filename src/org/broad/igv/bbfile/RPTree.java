@@ -27,11 +27,10 @@ package org.broad.igv.bbfile;
 
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
-import htsjdk.tribble.util.LittleEndianInputStream;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
 
 /**
@@ -99,12 +98,14 @@ public class RPTree {
     *
     *   Parameters:
     *       fis - file input stream handle
+    *       fileId - identity of the file,  for the shared index cache
     *       fileOffset - location for R+ tree header
     *       isLowToHigh - binary values are low to high if true; else high to low
     *       uncompressBuffSize - buffer size for decompression; else 0 for uncompressed data
     * */
 
-    public RPTree(SeekableStream fis, long fileOffset, boolean isLowToHigh, int uncompressBuffSize, boolean forceDescend) {
+    public RPTree(SeekableStream fis, BBIndexCache.FileId fileId, long fileOffset, boolean isLowToHigh,
+                  int uncompressBuffSize, boolean forceDescend) {
 
         // save the seekable file handle  and B+ Tree file offset
         // Note: the offset is the file position just after the B+ Tree Header
@@ -133,7 +134,7 @@ public class RPTree {
         RPTreeNode parentNode = null;      // parent node of the root is itself, or null
 
         // start constructing the R+ tree - get the root node
-        rootNode = readRPTreeNode(fis, nodeOffset, isLowToHigh, forceDescend);
+        rootNode = readRPTreeNode(fis, fileId, nodeOffset, isLowToHigh, forceDescend);
     }
 
     /*
@@ -530,147 +531,110 @@ public class RPTree {
     }
 
     /*
-    *   Method reads in the R+ tree nodes recursively.
+    *   Method reads in the R+ tree nodes recursively.  Node data comes from the shared index cache, so
+    *   nodes read before, by this or another tree of the same file, need no I/O.
     *
     *   Note: If node is a child node, the node is examined recursively,
     *       until the leaves are found.
     *
     *   Parameters:
     *       fis - file input stream handle
+    *       fileId - identity of the file,  for the shared index cache
     *       fileOffset - file location for node specification (Table L)
-    *       parent - parent node of this node
     *       isLowToHigh - indicates formatted data is low to high byte order if true;
     *           else is high to low byte order
+    *       forceDescend - read child nodes within a single chromosome now, rather than on demand
     *
     *   Returns:
     *       A tree node, for success, or null for failure to find the node information.
 
     * */
 
-    static RPTreeNode readRPTreeNode(SeekableStream fis, long fileOffset, boolean isLowToHigh, boolean forceDescend) {
+    static RPTreeNode readRPTreeNode(SeekableStream fis, BBIndexCache.FileId fileId, long fileOffset,
+                                     boolean isLowToHigh, boolean forceDescend) {
 
-        LittleEndianInputStream lbdis = null; // low o high byte stream reader
-        DataInputStream bdis = null;    // high to low byte stream reader
+        BBIndexCache.RPNode data = BBIndexCache.getInstance().getRPNode(fileId, fis, fileOffset, isLowToHigh);
+        RPTreeNode thisNode = new RPTreeNode(data.leaf);
 
-        byte[] buffer = new byte[RPTREE_NODE_FORMAT_SIZE];
-        RPTreeNode thisNode = null;
+        int[] bounds = data.bounds;
+        for (int item = 0; item < data.getItemCount(); ++item) {
+            int startChromID = bounds[4 * item];
+            int startBase = bounds[4 * item + 1];
+            int endChromID = bounds[4 * item + 2];
+            int endBase = bounds[4 * item + 3];
 
-        try {
+            if (data.leaf) {
+                thisNode.insertItem(new RPTreeLeafNodeItem(startChromID, startBase, endChromID, endBase,
+                        data.offsets[item], data.sizes[item]));
+            } else {
+                long nodeOffset = data.offsets[item];
 
-            // Read node format into a buffer
-            fis.seek(fileOffset);
-            fis.readFully(buffer);
+                // The test on chromIds is designed to stop the descent when the tree reaches the level of an
+                // individual chromosome.  These are loaded later on demand.
 
-            if (isLowToHigh) {
-                lbdis = new LittleEndianInputStream(new ByteArrayInputStream(buffer));
-            } else {
-                bdis = new DataInputStream(new ByteArrayInputStream(buffer));
+                RPTreeChildNodeItem childNodeItem;
+                if (startChromID != endChromID || forceDescend) {
+                    RPTreeNode childNode = readRPTreeNode(fis, fileId, nodeOffset, isLowToHigh, forceDescend);
+                    childNodeItem = new RPTreeChildNodeItem(startChromID, startBase, endChromID,
+                            endBase, childNode);
+                } else {
+                    RPTreeNodeProxy proxy = new RPTreeNodeProxy(fis, fileId, nodeOffset, isLowToHigh, startChromID);
+                    childNodeItem = new RPTreeChildNodeItem(startChromID, startBase, endChromID,
+                            endBase, proxy);
+                }
+                thisNode.insertItem(childNodeItem);
             }
+        }
 
-            // find node type
-            byte type;
-            if (isLowToHigh) {
-                type = lbdis.readByte();
-            } else {
-                type = bdis.readByte();
-            }
+        return thisNode;
+    }
 
-            boolean isLeaf;
-            int itemSize;
-            if (type == 1) {
-                isLeaf = true;
-                itemSize = RPTREE_NODE_LEAF_ITEM_SIZE;
-                thisNode = new RPTreeNode(true);
-            } else {
-                isLeaf = false;
-                itemSize = RPTREE_NODE_CHILD_ITEM_SIZE;
-                thisNode = new RPTreeNode(false);
-            }
-            //nodeCount++;
+    /*
+    *   Method reads a single R+ tree node into compact form.
+    *
+    *   Parameters:
+    *       fis - file input stream handle
+    *       fileOffset - file location for node specification (Table L)
+    *       isLowToHigh - indicates formatted data is low to high byte order if true;
+    *           else is high to low byte order
+    * */
 
-            int itemCount;
-            if (isLowToHigh) {
-                lbdis.readByte();          // reserved - not currently used
-                itemCount = lbdis.readShort();
-            } else {
-                bdis.readByte();          // reserved - not currently used
-                itemCount = bdis.readShort();
-            }
+    static BBIndexCache.RPNode readRPNode(SeekableStream fis, long fileOffset, boolean isLowToHigh) {
 
-            int itemBlockSize = itemCount * itemSize;
-            buffer = new byte[itemBlockSize];            // allocate buffer for item sisze
+        try {
+            // Read node format
+            byte[] buffer = new byte[RPTREE_NODE_FORMAT_SIZE];
+            fis.seek(fileOffset);
             fis.readFully(buffer);
-            if (isLowToHigh)
-                lbdis = new LittleEndianInputStream(new ByteArrayInputStream(buffer));
-            else
-                bdis = new DataInputStream(new ByteArrayInputStream(buffer));
-
-            // get the node items - leaves or child nodes
-            int startChromID, endChromID;
-            int startBase, endBase;
-            for (int item = 0; item < itemCount; ++item) {
+            ByteBuffer format = ByteBuffer.wrap(buffer).order(isLowToHigh ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+
+            boolean isLeaf = format.get() == 1;
+            format.get();          // reserved - not currently used
+            int itemCount = format.getShort() & 0xffff;
+            int itemSize = isLeaf ? RPTREE_NODE_LEAF_ITEM_SIZE : RPTREE_NODE_CHILD_ITEM_SIZE;
 
+            buffer = new byte[itemCount * itemSize];
+            fis.readFully(buffer);
+            ByteBuffer items = ByteBuffer.wrap(buffer).order(format.order());
+
+            int[] bounds = new int[4 * itemCount];
+            long[] offsets = new long[itemCount];
+            long[] sizes = isLeaf ? new long[itemCount] : null;
+            for (int item = 0; item < itemCount; ++item) {
                 // always extract the bounding rectangle
-                if (isLowToHigh) {
-                    startChromID = lbdis.readInt();
-                    startBase = lbdis.readInt();
-                    endChromID = lbdis.readInt();
-                    endBase = lbdis.readInt();
-                } else {
-                    startChromID = bdis.readInt();
-                    startBase = bdis.readInt();
-                    endChromID = bdis.readInt();
-                    endBase = bdis.readInt();
+                for (int k = 0; k < 4; k++) {
+                    bounds[4 * item + k] = items.getInt();
                 }
-
+                offsets[item] = items.getLong();
                 if (isLeaf) {
-                    long dataOffset;
-                    long dataSize;
-                    if (isLowToHigh) {
-                        dataOffset = lbdis.readLong();
-                        dataSize = lbdis.readLong();
-                    } else {
-                        dataOffset = bdis.readLong();
-                        dataSize = bdis.readLong();
-                    }
-
-                    thisNode.insertItem(new RPTreeLeafNodeItem(startChromID, startBase, endChromID, endBase,
-                            dataOffset, dataSize));
-                } else {
-                    // get the child node pointed to in the node item
-                    long nodeOffset;
-                    if (isLowToHigh) {
-                        nodeOffset = lbdis.readLong();
-                    } else {
-                        nodeOffset = bdis.readLong();
-                    }
-
-                    // Recursive call to read next child node
-                    // The test on chromIds is designed to stop the descent when the tree reaches the level of an
-                    // individual chromosome.  These are loaded later on demand.
-
-                    RPTreeChildNodeItem childNodeItem;
-                    if (startChromID != endChromID || forceDescend) {
-                        RPTreeNode childNode = readRPTreeNode(fis, nodeOffset, isLowToHigh, forceDescend);
-                        childNodeItem = new RPTreeChildNodeItem(startChromID, startBase, endChromID,
-                                endBase, childNode);
-                    } else {
-                        RPTreeNodeProxy proxy = new RPTreeNodeProxy(fis, nodeOffset, isLowToHigh, startChromID);
-                        childNodeItem = new RPTreeChildNodeItem(startChromID, startBase, endChromID,
-                                endBase, proxy);
-                    }
-                    thisNode.insertItem(childNodeItem);
+                    sizes[item] = items.getLong();
                 }
-
-                fileOffset += itemSize;
             }
+            return new BBIndexCache.RPNode(isLeaf, bounds, offsets, sizes);
 
         } catch (IOException ex) {
             log.error("Error reading in R+ tree nodes: " + ex);
             throw new RuntimeException("Error reading R+ tree nodes: \n", ex);
         }
-
-        // return success
-        return thisNode;
     }
 }
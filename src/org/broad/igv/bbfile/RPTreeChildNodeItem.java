@@ -42,7 +42,7 @@ public class RPTreeChildNodeItem extends RPTreeNodeItem {
 
     private static Logger log = Logger.getLogger(RPTreeChildNodeItem.class);
 
-    private RPTreeNode childNode;  // child node assigned to node item
+    private volatile RPTreeNode childNode;  // child node assigned to node item,  read on demand from the proxy
     private RPTreeNodeProxy childNodeProxy;
 
     /*  Constructor for child node items.
@@ -75,7 +75,7 @@ public class RPTreeChildNodeItem extends RPTreeNodeItem {
 
         if (childNode == null) {
             RPTreeNodeProxy proxy = childNodeProxy;
-            childNode = RPTree.readRPTreeNode(proxy.fis, proxy.fileOffset, proxy.isLowToHigh, true);
+            childNode = RPTree.readRPTreeNode(proxy.fis, proxy.fileId, proxy.fileOffset, proxy.isLowToHigh, false);
         }
 
         return childNode;
@@ -86,7 +86,7 @@ public class RPTreeChildNodeItem extends RPTreeNodeItem {
         super.print();
 
         // child node specific entries
-        childNode.printItems();
+        getChildNode().printItems();
     }
 
 }
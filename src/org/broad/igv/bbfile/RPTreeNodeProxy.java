@@ -34,14 +34,17 @@ import htsjdk.samtools.seekablestream.SeekableStream;
 public class RPTreeNodeProxy  {
 
     public SeekableStream fis;
+    public BBIndexCache.FileId fileId;
     public long fileOffset;
     public boolean isLowToHigh;
 
     // For debugging
     int chromId;
 
-    public RPTreeNodeProxy(SeekableStream fis, long fileOffset, boolean lowToHigh, int chromId) {
+    public RPTreeNodeProxy(SeekableStream fis, BBIndexCache.FileId fileId, long fileOffset, boolean lowToHigh,
+                           int chromId) {
         this.fis = fis;
+        this.fileId = fileId;
         this.fileOffset = fileOffset;
         isLowToHigh = lowToHigh;
         this.chromId = chromId;
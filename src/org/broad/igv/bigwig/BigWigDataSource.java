@@ -38,8 +38,6 @@ import org.broad.igv.track.FeatureSource;
 import org.broad.igv.track.TrackType;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.ui.color.ColorUtilities;
-import org.broad.igv.util.collections.FloatArrayList;
-import org.broad.igv.util.collections.IntArrayList;
 import htsjdk.tribble.Feature;
 
 import java.io.IOException;
@@ -299,22 +297,15 @@ public class BigWigDataSource extends AbstractDataSource implements FeatureSourc
             return currentInterval.tile;
         }
 
-        // TODO -- fetch data directly in arrays to avoid creation of multiple "WigItem" objects?
-        IntArrayList startsList = new IntArrayList(100000);
-        IntArrayList endsList = new IntArrayList(100000);
-        FloatArrayList valuesList = new FloatArrayList(100000);
-
         String chrAlias = chrNameMap.containsKey(chr) ? chrNameMap.get(chr) : chr;
-        Iterator<WigItem> iter = reader.getBigWigIterator(chrAlias, start, chrAlias, end, false);
-
-        while (iter.hasNext()) {
-            WigItem wi = iter.next();
-            startsList.add(wi.getStartBase());
-            endsList.add(wi.getEndBase());
-            valuesList.add(wi.getWigValue());
+        BigWigBlockReader.WigData data;
+        try {
+            data = reader.getBigWigData(chrAlias, start, end, false);
+        } catch (IOException e) {
+            throw new RuntimeException("Error reading wig data for " + chr + ":" + start + "-" + end, e);
         }
 
-        DataTile tile = new DataTile(startsList.toArray(), endsList.toArray(), valuesList.toArray(), null);
+        DataTile tile = new DataTile(data.starts, data.ends, data.values, null);
         currentInterval = new RawDataInterval(chr, start, end, tile);
 
         return tile;
@@ -104,6 +104,13 @@ public class Argument{
     @XmlAttribute
     private boolean remembered;
 
+    /**
+     * Whether input features are written to the standard input of the tool,
+     * rather than to a temporary file whose path is passed as the value
+     */
+    @XmlAttribute
+    private boolean stdin = false;
+
     public boolean isRemembered() {
         return remembered;
     }
@@ -149,6 +156,9 @@ public class Argument{
                 } catch (Exception e) {
                     return false;
                 }
+            case LOCUS:
+                // The value is the queried interval
+                return true;
             default:
                 return false;
         }
@@ -198,6 +208,14 @@ public class Argument{
         return visible;
     }
 
+    public boolean isStdin() {
+        return stdin;
+    }
+
+    public void setStdin(boolean stdin) {
+        this.stdin = stdin;
+    }
+
     @SubtlyImportant
     private Argument(){}
 
@@ -0,0 +1,292 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.cli_plugin;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.PreferenceManager;
+import org.broad.igv.util.collections.ConcurrentCache;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Runs command line plugin processes for {@link PluginSource}s.
+ * <p/>
+ * Decoded results are cached by a key identifying the command,  its arguments,  the content of its inputs and
+ * the queried tile,  so that panning over a plugin track does not re-run the tool.  Runs which fail are not
+ * cached.  The number of processes running at once is limited by the PLUGIN_MAX_PROCESSES preference,  which is read
+ * once,  a change takes effect after a restart.
+ */
+public class PluginExecutor {
+
+    private static Logger log = Logger.getLogger(PluginExecutor.class);
+
+    /**
+     * Queries are split into tiles of this size,  unless they span more than MAX_TILES tiles
+     */
+    static final int TILE_SIZE = 1000000;
+    static final int MAX_TILES = 8;
+
+    // Cache budget,  as a number of features
+    private static final long MAX_CACHED_FEATURES = 1000000;
+
+    private static PluginExecutor instance;
+
+    private final ConcurrentCache<String, List<?>> results;
+    private final Semaphore processPermits;
+    private ExecutorService tileExecutor;
+
+    public static synchronized PluginExecutor getInstance() {
+        if (instance == null) {
+            int maxProcesses = PreferenceManager.getInstance().getAsInt(PreferenceManager.PLUGIN_MAX_PROCESSES);
+            instance = new PluginExecutor(MAX_CACHED_FEATURES, maxProcesses);
+        }
+        return instance;
+    }
+
+    PluginExecutor(long maxCachedFeatures, int maxProcesses) {
+        results = new ConcurrentCache<String, List<?>>(maxCachedFeatures, new ConcurrentCache.Weigher<String, List<?>>() {
+            public long weigh(String key, List<?> value) {
+                return value.size() + 1;
+            }
+        }, true);
+        processPermits = new Semaphore(Math.max(1, maxProcesses), true);
+    }
+
+    /**
+     * Return the cached results for the key,  or compute them.  Concurrent requests for the same key compute the
+     * results once.
+     */
+    @SuppressWarnings("unchecked")    // The key identifies the source,  so the cached list holds its feature type
+    public <T> List<T> getResults(String key, final Callable<List<T>> compute) throws IOException {
+        try {
+            return (List<T>) results.get(key, new ConcurrentCache.Loader<String, List<?>>() {
+                public List<?> load(String key) throws Exception {
+                    return compute.call();
+                }
+            });
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Run a task which starts a process,  waiting for a permit first.  The permit is held until the task returns,  so
+     * the task should consume the process output and wait for it to finish.
+     */
+    public <T> T execute(Callable<T> task) throws Exception {
+        processPermits.acquire();
+        try {
+            return task.call();
+        } finally {
+            processPermits.release();
+        }
+    }
+
+    /**
+     * Run tasks concurrently,  returning their results in order
+     */
+    public <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+        List<T> values = new ArrayList<T>(tasks.size());
+        if (tasks.size() == 1) {
+            try {
+                values.add(tasks.get(0).call());
+            } catch (IOException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            return values;
+        }
+
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            futures.add(getTileExecutor().submit(task));
+        }
+        try {
+            for (Future<T> f : futures) {
+                values.add(f.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted running plugin");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            for (Future<T> f : futures) {
+                f.cancel(true);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Start a process,  writing {@code input} (if not null) to its standard input on a separate thread,  so a
+     * process which writes output while reading input does not block.  The standard error is read on another thread.
+     */
+    public static PluginProcess startProcess(String[] cmd, final byte[] input) throws IOException {
+        final Process pr = Runtime.getRuntime().exec(cmd);
+        if (input == null) {
+            pr.getOutputStream().close();
+        } else {
+            Thread writer = new Thread("Plugin input writer") {
+                @Override
+                public void run() {
+                    OutputStream os = pr.getOutputStream();
+                    try {
+                        os.write(input);
+                    } catch (IOException e) {
+                        // The process might exit without reading all of its input
+                        log.debug("Error writing plugin input: " + e.getMessage());
+                    } finally {
+                        try {
+                            os.close();
+                        } catch (IOException e) {
+                            log.debug("Error closing plugin input: " + e.getMessage());
+                        }
+                    }
+                }
+            };
+            writer.setDaemon(true);
+            writer.start();
+        }
+        return new PluginProcess(cmd, pr);
+    }
+
+    /**
+     * A running plugin process.  Standard error is logged,  and its last lines kept for the failure message.
+     */
+    public static class PluginProcess {
+
+        private static final int MAX_ERROR_LINES = 10;
+
+        private final String[] cmd;
+        private final Process process;
+        private final Thread errorReader;
+        private final LinkedList<String> errorLines = new LinkedList<String>();
+
+        PluginProcess(String[] cmd, Process process) {
+            this.cmd = cmd;
+            this.process = process;
+            final BufferedReader err = new BufferedReader(new InputStreamReader(process.getErrorStream()));
+            errorReader = new Thread("Plugin error reader") {
+                @Override
+                public void run() {
+                    try {
+                        String line;
+                        while ((line = err.readLine()) != null) {
+                            log.error(line);
+                            synchronized (errorLines) {
+                                errorLines.add(line);
+                                if (errorLines.size() > MAX_ERROR_LINES) {
+                                    errorLines.removeFirst();
+                                }
+                            }
+                        }
+                        err.close();
+                    } catch (IOException e) {
+                        log.error("Error reading plugin error stream", e);
+                    }
+                }
+            };
+            errorReader.setDaemon(true);
+            errorReader.start();
+        }
+
+        public InputStream getInputStream() {
+            return process.getInputStream();
+        }
+
+        /**
+         * Wait for the process to exit.  A non-zero exit status throws an IOException holding the end of the
+         * standard error.
+         */
+        public void waitFor() throws IOException, InterruptedException {
+            int exitValue = process.waitFor();
+            errorReader.join();
+            if (exitValue != 0) {
+                StringBuilder message = new StringBuilder();
+                message.append(Arrays.toString(cmd)).append(" exited with status ").append(exitValue);
+                synchronized (errorLines) {
+                    for (String line : errorLines) {
+                        message.append("\n").append(line);
+                    }
+                }
+                throw new IOException(message.toString());
+            }
+        }
+
+        public void destroy() {
+            process.destroy();
+        }
+    }
+
+    public void clear() {
+        results.clear();
+    }
+
+    public long getHitCount() {
+        return results.getHitCount();
+    }
+
+    public long getMissCount() {
+        return results.getMissCount();
+    }
+
+    private synchronized ExecutorService getTileExecutor() {
+        if (tileExecutor == null) {
+            int nThreads = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+            tileExecutor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+                int count = 0;
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Plugin tile " + (count++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return tileExecutor;
+    }
+}
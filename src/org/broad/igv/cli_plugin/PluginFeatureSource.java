@@ -28,7 +28,6 @@ package org.broad.igv.cli_plugin;
 import org.apache.log4j.Logger;
 import org.broad.igv.feature.Locus;
 import org.broad.igv.feature.LocusScore;
-import org.broad.igv.sam.Alignment;
 import org.broad.igv.sam.AlignmentTrack;
 import org.broad.igv.session.SubtlyImportant;
 import org.broad.igv.track.FeatureSource;
@@ -69,10 +68,9 @@ public class PluginFeatureSource<E extends Feature, D extends Feature> extends P
     }
 
     @Override
-    protected String createTempFile(Track track, Argument argument, String chr, int start, int end, int zoom) throws IOException {
+    protected List getInputFeatures(Track track, Argument argument, String chr, int start, int end, int zoom) throws IOException {
         if(track instanceof AlignmentTrack){
-            List<Alignment> alignments = getAlignmentsForRange((AlignmentTrack) track, chr, start, end, zoom);
-            return super.createTempFile(alignments, argument);
+            return getAlignmentsForRange((AlignmentTrack) track, chr, start, end, zoom);
         }
 
         FeatureTrack fTrack = (FeatureTrack) track;
@@ -81,12 +79,12 @@ public class PluginFeatureSource<E extends Feature, D extends Feature> extends P
         if(features.size() == 0 && forbidEmptyOutput){
             features = Arrays.<Feature>asList(new Locus("XXXchr0XXX", 0, 1));
         }
-        return super.createTempFile(features, argument);
+        return features;
     }
 
     /**
      * Perform the actual combination operation between the constituent data
-     * sources. This implementation re-runs the operation each call.
+     * sources. Results are cached, see {@link PluginSource#getFeatures(String, int, int, int)}.
      *
      * @param chr
      * @param start
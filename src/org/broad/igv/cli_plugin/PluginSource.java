@@ -52,7 +52,10 @@ import java.lang.reflect.Constructor;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * A feature source which derives its information
@@ -90,12 +93,6 @@ public abstract class PluginSource<E extends Feature, D extends Feature> {
     @XmlAttribute
     protected String specPath = null;
 
-    /**
-     * For decoding, we may need to know how many columns
-     * were written out in the first place
-     */
-    protected List<Map<String, Object>> attributes = new ArrayList<Map<String, Object>>(2);
-
     /**
      * Each time we output data, we give it a unique ID.
      * As yet
@@ -103,7 +100,8 @@ public abstract class PluginSource<E extends Feature, D extends Feature> {
     protected String lastRunId;
     private static final String RUN_ID_ATTR = "RUN_ID";
 
-    //private QueryTracker queryTracker = new QueryTracker();
+    // Runs of tools which write their output to files are serialized
+    private static final Object FILE_OUTPUT_LOCK = new Object();
 
     @SubtlyImportant
     protected PluginSource() {
@@ -148,16 +146,13 @@ public abstract class PluginSource<E extends Feature, D extends Feature> {
         return attributes;
     }
 
-    protected final String[] genFullCommand(String chr, int start, int end, int zoom) throws IOException {
-
-        List<String> fullCmd = new ArrayList<String>(commands);
-
-        attributes.clear();
-
-        String runId = createNewRunId();
+    /**
+     * Encode the inputs of all arguments for the interval.  Inputs are encoded before the cache is consulted,  as
+     * the cache key includes a hash of their content.
+     */
+    private Inputs encodeInputs(String chr, int start, int end, int zoom) throws IOException {
 
-        Map<String, String> idVariables = new HashMap<String, String>(arguments.size());
-        idVariables.put(RUN_ID_ATTR, runId);
+        Inputs inputs = new Inputs();
 
         for (Map.Entry<Argument, Object> entry : arguments.entrySet()) {
             Argument arg = entry.getKey();
@@ -167,6 +162,47 @@ public abstract class PluginSource<E extends Feature, D extends Feature> {
                 throw new IllegalArgumentException(msg);
             }
 
+            inputs.update(arg.getName() + "\t" + arg.getCmdArg() + "\t" + arg.isOutput() + "\t" + arg.isStdin());
+            switch (arg.getType()) {
+                case BOOL:
+                case LONGTEXT:
+                case TEXT:
+                    inputs.update(String.valueOf(entry.getValue()));
+                    break;
+                case ALIGNMENT_TRACK:
+                case VARIANT_TRACK:
+                case FEATURE_TRACK:
+                case DATA_TRACK:
+                    inputs.add(arg, getInputFeatures((Track) entry.getValue(), arg, chr, start, end, zoom));
+                    break;
+                case MULTI_FEATURE_TRACK:
+                    for (FeatureTrack track : (List<FeatureTrack>) entry.getValue()) {
+                        inputs.add(arg, getInputFeatures(track, arg, chr, start, end, zoom));
+                    }
+                    break;
+                case LOCUS:
+                    inputs.add(arg, Arrays.asList(new SimpleBEDFeature(start, end, chr)));
+                    break;
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Build the full command for a run.  Inputs are written to temporary files,  or,  for arguments which read
+     * standard input,  collected in {@code stdin}.
+     */
+    private String[] genFullCommand(Inputs inputs, Map<String, String> idVariables, ByteArrayOutputStream stdin,
+                                    List<File> tmpFiles) throws IOException {
+
+        List<String> fullCmd = new ArrayList<String>(commands);
+
+        String runId = createNewRunId();
+        idVariables.put(RUN_ID_ATTR, runId);
+
+        for (Map.Entry<Argument, Object> entry : arguments.entrySet()) {
+            Argument arg = entry.getKey();
+
             String[] sVal = null;
             String ts = null;
             switch (arg.getType()) {
@@ -190,21 +226,24 @@ public abstract class PluginSource<E extends Feature, D extends Feature> {
                     }
                     break;
                 case ALIGNMENT_TRACK:
-                    ts = createTempFile((AlignmentTrack) entry.getValue(), arg, chr, start, end, zoom);
-                    sVal = new String[]{ts};
-                    break;
                 case VARIANT_TRACK:
                 case FEATURE_TRACK:
                 case DATA_TRACK:
-                    ts = createTempFile((Track) entry.getValue(), arg, chr, start, end, zoom);
-                    sVal = new String[]{ts};
-                    break;
                 case MULTI_FEATURE_TRACK:
-                    sVal = createTempFiles((List<FeatureTrack>) entry.getValue(), arg, chr, start, end, zoom);
-                    break;
                 case LOCUS:
-                    ts = writeLocus(arg, chr, start, end);
-                    sVal = new String[]{ts};
+                    List<byte[]> encoded = inputs.encoded.get(arg);
+                    if (arg.isStdin()) {
+                        for (byte[] bytes : encoded) {
+                            stdin.write(bytes);
+                        }
+                    } else {
+                        sVal = new String[encoded.size()];
+                        for (int i = 0; i < sVal.length; i++) {
+                            File file = createTempFile(encoded.get(i), arg);
+                            tmpFiles.add(file);
+                            sVal[i] = file.getAbsolutePath();
+                        }
+                    }
                     break;
             }
 
@@ -224,16 +263,9 @@ public abstract class PluginSource<E extends Feature, D extends Feature> {
             }
         }
 
-        parser.source = replaceStringsFromIds(parser.source, idVariables);
-
         return fullCmd.toArray(new String[0]);
     }
 
-    protected String writeLocus(Argument arg, String chr, int start, int end) throws IOException{
-        Feature feat = new SimpleBEDFeature(start, end, chr);
-        return createTempFile(Arrays.asList(feat), arg);
-    }
-
     /**
      * Replace strings of form $"variablename", similar
      * to how the unix shell deals with variables.
@@ -265,40 +297,19 @@ public abstract class PluginSource<E extends Feature, D extends Feature> {
     }
 
     /**
-     * Convenience for calling {@link #createTempFile(org.broad.igv.track.Track, org.broad.igv.cli_plugin.Argument, String, int, int, int)};
-     * on each track
-     *
-     * @param tracks
-     * @param chr
-     * @param start
-     * @param end
-     * @param zoom
-     * @return
-     * @throws java.io.IOException
-     */
-    private String[] createTempFiles(List<FeatureTrack> tracks, Argument argument, String chr, int start, int end, int zoom) throws IOException {
-        String[] fileNames = new String[tracks.size()];
-        int fi = 0;
-        for (FeatureTrack track : tracks) {
-            fileNames[fi++] = createTempFile(track, argument, chr, start, end, zoom);
-        }
-        return fileNames;
-    }
-
-    /**
-     * Write out data from feature sources within the specified interval
-     * to temporary files.
+     * Return the features of a track within the specified interval,
+     * to be written as input to the tool.
      *
      * @param track
      * @param chr
      * @param start
      * @param end
-     * @return String with temp file name.
+     * @return
      * @throws java.io.IOException
      */
-    protected abstract String createTempFile(Track track, Argument argument, String chr, int start, int end, int zoom) throws IOException;
+    protected abstract List getInputFeatures(Track track, Argument argument, String chr, int start, int end, int zoom) throws IOException;
 
-    protected final String createTempFile(List features, Argument argument) throws IOException {
+    private File createTempFile(byte[] bytes, Argument argument) throws IOException {
         String ext = ".tmp";
         switch(argument.getType()){
             case ALIGNMENT_TRACK:
@@ -311,10 +322,13 @@ public abstract class PluginSource<E extends Feature, D extends Feature> {
         File outFile = File.createTempFile("features", ext, null);
         outFile.deleteOnExit();
 
-        Map<String, Object> attributes = writeFeaturesToStream(new FileOutputStream(outFile), features.iterator(), argument);
-        String path = outFile.getAbsolutePath();
-        this.attributes.add(attributes);
-        return path;
+        OutputStream os = new FileOutputStream(outFile);
+        try {
+            os.write(bytes);
+        } finally {
+            os.close();
+        }
+        return outFile;
     }
 
     protected List<Alignment> getAlignmentsForRange(AlignmentTrack track, String chr, int start, int end, int zoom) throws IOException {
@@ -339,6 +353,11 @@ public abstract class PluginSource<E extends Feature, D extends Feature> {
     /**
      * Perform the actual combination operation between the constituent data
      * sources.
+     * <p/>
+     * The interval is split into tiles,  each run (concurrently when the tool writes to stdout) and cached
+     * separately,  see {@link PluginExecutor}.  As in {@link org.broad.igv.feature.AbstractCacher} a feature is
+     * taken from the tile containing its start,  or from the first tile.  Intervals spanning many tiles are run
+     * as a whole.
      *
      * @param chr
      * @param start
@@ -346,57 +365,152 @@ public abstract class PluginSource<E extends Feature, D extends Feature> {
      * @return
      * @throws java.io.IOException
      */
-    protected final Iterator<D> getFeatures(String chr, int start, int end, int zoom) throws IOException {
+    protected final Iterator<D> getFeatures(final String chr, int start, int end, final int zoom) throws IOException {
         if (parser.source == null) {
             throw new IllegalStateException("Null value for source");
         }
 
-        boolean rerun = true;
-        //synchronized (this.queryTracker){
-        //    rerun = !this.queryTracker.isQuerySame(chr, start, end, zoom);
-        //}
+        int tileSize = PluginExecutor.TILE_SIZE;
+        int startTile = Math.max(0, start) / tileSize;
+        int endTile = Math.max(0, end) / tileSize;
+        if (endTile - startTile + 1 > PluginExecutor.MAX_TILES) {
+            return getResults(chr, start, end, zoom).iterator();
+        }
 
-        /**
-         * A process might generate multiple output files, we only want to run it once.
-         * e.g. Cufflinks generates transcripts.gtf, genes.fpkm_tracking, isoforms.fpkm_tracking
-         * If the file exists we just read from it
-         */
+        List<Callable<List<D>>> tasks = new ArrayList<Callable<List<D>>>();
+        for (int t = startTile; t <= endTile; t++) {
+            final int tileStart = t * tileSize;
+            final int tileEnd = (int) Math.min(Integer.MAX_VALUE, (long) tileStart + tileSize);
+            tasks.add(new Callable<List<D>>() {
+                public List<D> call() throws Exception {
+                    return getResults(chr, tileStart, tileEnd, zoom);
+                }
+            });
+        }
+
+        List<List<D>> tileResults;
+        if (isStdoutSource()) {
+            tileResults = PluginExecutor.getInstance().invokeAll(tasks);
+        } else {
+            // Tools writing to files would overwrite each other's output
+            tileResults = new ArrayList<List<D>>(tasks.size());
+            for (Callable<List<D>> task : tasks) {
+                try {
+                    tileResults.add(task.call());
+                } catch (IOException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+        }
 
-        InputStream dataStream = null;
-        if (!rerun) {
-            File inFile = new File(parser.source);
-            if (inFile.canRead()) {
-                //Use the existing file
-                dataStream = new FileInputStream(parser.source);
+        List<D> features = new ArrayList<D>(tileResults.get(0));
+        for (int i = 1; i < tileResults.size(); i++) {
+            int tileStart = (startTile + i) * tileSize;
+            for (D feature : tileResults.get(i)) {
+                if (feature.getStart() >= tileStart) {
+                    features.add(feature);
+                }
             }
         }
+        return features.iterator();
+    }
 
-        if (dataStream == null) {
-            //synchronized (this.queryTracker){
-            String[] fullCmd = genFullCommand(chr, start, end, zoom);
-            //log.debug("interval: " + Locus.getFormattedLocusString(chr, start, end));
-            //log.debug(StringUtils.join(fullCmd, " "));
+    /**
+     * Return the decoded output of the tool for the interval,  from the cache if the command,  arguments and input
+     * content are unchanged.
+     */
+    private List<D> getResults(final String chr, final int start, final int end, int zoom) throws IOException {
 
-            //Start cli_plugin process
-            Process pr = RuntimeUtils.startExternalProcess(fullCmd, null, null);
+        final Inputs inputs = encodeInputs(chr, start, end, zoom);
 
-            if (parser.source.equals(PluginSpecReader.Parser.SOURCE_STDOUT)) {
-                dataStream = pr.getInputStream();
-            } else {
-                try {
-                    pr.waitFor();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+        StringBuilder key = new StringBuilder();
+        for (String command : commands) {
+            key.append(command).append('\t');
+        }
+        key.append(parser.source).append('\t').append(parser.format).append('\t').append(parser.decodingCodec)
+                .append('\t').append(parser.strict).append('\t').append(specPath).append('\t')
+                .append(inputs.getHash()).append('\t').append(chr).append(':').append(start).append('-').append(end);
+
+        return PluginExecutor.getInstance().getResults(key.toString(), new Callable<List<D>>() {
+            public List<D> call() throws Exception {
+                if (isStdoutSource()) {
+                    return run(inputs);
+                } else {
+                    synchronized (FILE_OUTPUT_LOCK) {
+                        return run(inputs);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Run the tool and decode all of its output
+     */
+    private List<D> run(final Inputs inputs) throws Exception {
+
+        final Map<String, String> idVariables = new HashMap<String, String>(arguments.size());
+        final ByteArrayOutputStream stdin = new ByteArrayOutputStream();
+        final List<File> tmpFiles = new ArrayList<File>();
+
+        try {
+            final String[] fullCmd = genFullCommand(inputs, idVariables, stdin, tmpFiles);
+            final String source = replaceStringsFromIds(parser.source, idVariables);
+            if (log.isDebugEnabled()) {
+                log.debug("Running " + Arrays.toString(fullCmd));
+            }
+
+            return PluginExecutor.getInstance().execute(new Callable<List<D>>() {
+                public List<D> call() throws Exception {
+
+                    //Start cli_plugin process
+                    PluginExecutor.PluginProcess pr =
+                            PluginExecutor.startProcess(fullCmd, stdin.size() > 0 ? stdin.toByteArray() : null);
+                    boolean success = false;
+                    try {
+                        InputStream dataStream;
+                        if (source.equals(PluginSpecReader.Parser.SOURCE_STDOUT)) {
+                            dataStream = pr.getInputStream();
+                        } else {
+                            pr.waitFor();
+                            dataStream = new FileInputStream(source);
+                        }
+
+                        //Read back in the data which cli_plugin output
+                        List<D> features = new ArrayList<D>();
+                        try {
+                            FeatureDecoder<D> codec = getDecodingCodec(inputs.attributes);
+                            Iterator<D> iter = codec.decodeAll(dataStream, parser.strict);
+                            while (iter.hasNext()) {
+                                features.add(iter.next());
+                            }
+                        } finally {
+                            dataStream.close();
+                        }
+                        // A failed run throws,  so truncated output is not cached
+                        pr.waitFor();
+                        success = true;
+                        return features;
+                    } finally {
+                        if (!success) {
+                            pr.destroy();
+                        }
+                    }
                 }
-                dataStream = new FileInputStream(parser.source);
+            });
+        } finally {
+            for (File f : tmpFiles) {
+                f.delete();
             }
-            //this.queryTracker.setLastQuery(chr, start, end, zoom);
-            //}
         }
-        //Read back in the data which cli_plugin output
-        FeatureDecoder<D> codec = getDecodingCodec();
+    }
 
-        return codec.decodeAll(dataStream, parser.strict);
+    private boolean isStdoutSource() {
+        return PluginSpecReader.Parser.SOURCE_STDOUT.equals(parser.source);
     }
 
     /**
@@ -473,7 +587,7 @@ public abstract class PluginSource<E extends Feature, D extends Feature> {
      *
      * @return
      */
-    protected final FeatureDecoder<D> getDecodingCodec() {
+    protected final FeatureDecoder<D> getDecodingCodec(List<Map<String, Object>> attributes) {
         FeatureDecoder<D> codec = instantiateDecodingCodec(parser.decodingCodec, decodingLibURLs);
         codec.setInputs(Collections.unmodifiableList(commands), Collections.unmodifiableMap(arguments));
         codec.setAttributes(Collections.unmodifiableList(attributes));
@@ -608,9 +722,55 @@ public abstract class PluginSource<E extends Feature, D extends Feature> {
         MyMapAdapter.updateTrackReferences(arguments, allTracks);
     }
 
-//    public void setQueryTracker(QueryTracker queryTracker){
-//        this.queryTracker = queryTracker;
-//    }
+    /**
+     * Encoded input features by argument,  with the attributes reported by the encoders and a digest of the
+     * argument values and input content
+     */
+    private class Inputs {
+
+        final Map<Argument, List<byte[]>> encoded = new HashMap<Argument, List<byte[]>>();
+        final List<Map<String, Object>> attributes = new ArrayList<Map<String, Object>>(2);
+        final MessageDigest digest;
+
+        Inputs() {
+            try {
+                digest = MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        void add(Argument arg, List features) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            attributes.add(writeFeaturesToStream(bytes, features.iterator(), arg));
+            byte[] b = bytes.toByteArray();
+            List<byte[]> list = encoded.get(arg);
+            if (list == null) {
+                list = new ArrayList<byte[]>(1);
+                encoded.put(arg, list);
+            }
+            list.add(b);
+            update(String.valueOf(b.length));
+            digest.update(b);
+        }
+
+        void update(String value) {
+            try {
+                digest.update(value.getBytes("UTF-8"));
+                digest.update((byte) 0);
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        String getHash() {
+            StringBuilder buffer = new StringBuilder();
+            for (byte b : digest.digest()) {
+                buffer.append(String.format("%02x", b & 0xff));
+            }
+            return buffer.toString();
+        }
+    }
 
     static class XmlMap {
         public List<Argument> arg =
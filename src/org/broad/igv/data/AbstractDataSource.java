@@ -29,13 +29,13 @@ package org.broad.igv.data;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
+import org.broad.igv.PreferenceManager;
 import org.broad.igv.feature.Chromosome;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.tdf.Accumulator;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.ui.panel.FrameManager;
-import org.broad.igv.util.collections.LRUCache;
 
 import java.util.*;
 import org.broad.igv.feature.genome.GenomeManager;
@@ -51,7 +51,7 @@ public abstract class AbstractDataSource implements DataSource {
     // DataManager dataManager;
     boolean cacheSummaryTiles = true;
     WindowFunction windowFunction = WindowFunction.mean;
-    LRUCache<String, SummaryTile> summaryTileCache = new LRUCache(10);
+    TileCache.Source summaryTileCache = TileCache.getInstance().newSource(getClass().getSimpleName());
     protected Genome genome;
 
     public AbstractDataSource(Genome genome) {
@@ -179,16 +179,14 @@ public abstract class AbstractDataSource implements DataSource {
                 int tileStart = (int) (t * tileWidth);
                 int tileEnd = Math.min(chrLength, (int) ((t + 1) * tileWidth));
 
-                String key = chr + "_" + z + "_" + t + getWindowFunction();
-                SummaryTile summaryTile = summaryTileCache.get(key);
+                TileCache.Key key = new TileCache.Key(summaryTileCache, chr, z, t, getWindowFunction());
+                SummaryTile summaryTile = TileCache.getInstance().get(key);
                 if (summaryTile == null) {
 
                     summaryTile = computeSummaryTile(chr, tileStart, tileEnd, 700);
 
                     if (cacheSummaryTiles && !FrameManager.isGeneListMode(id)) {
-                        synchronized (summaryTileCache) {
-                            summaryTileCache.put(key, summaryTile);
-                        }
+                        TileCache.getInstance().put(key, summaryTile, TileCache.estimateBytes(summaryTile));
                     }
                 }
 
@@ -259,7 +257,8 @@ public abstract class AbstractDataSource implements DataSource {
                 List<LocusScore> scores = new ArrayList(nBins);
                 double scale = (double) (endLocation - startLocation) / nBins;
 
-                Accumulator accumulator = new Accumulator(windowFunction, 5);
+                int sketchCompression = PreferenceManager.getInstance().getAsInt(PreferenceManager.QUANTILE_SKETCH_COMPRESSION);
+                Accumulator accumulator = new Accumulator(windowFunction, 5, sketchCompression);
                 int accumulatedStart = -1;
                 int accumulatedEnd = -1;
                 int lastEndBin = 0;
@@ -293,7 +292,7 @@ public abstract class AbstractDataSource implements DataSource {
                     if (endBin > lastEndBin || endBin > startBin) {
                         if (accumulator.hasData()) {
                             scores.add(getCompositeScore(accumulator, accumulatedStart, accumulatedEnd));
-                            accumulator = new Accumulator(windowFunction, 5);
+                            accumulator = new Accumulator(windowFunction, 5, sketchCompression);
                         }
                     }
 
@@ -348,7 +347,7 @@ public abstract class AbstractDataSource implements DataSource {
 
     public void setWindowFunction(WindowFunction statType) {
         this.windowFunction = statType;
-        this.summaryTileCache.clear();
+        TileCache.getInstance().invalidate(summaryTileCache);
     }
 
 
@@ -377,7 +376,7 @@ public abstract class AbstractDataSource implements DataSource {
 
     @Override
     public void dispose() {
-        // default is to do nothing
+        TileCache.getInstance().dispose(summaryTileCache);
     }
 
 }
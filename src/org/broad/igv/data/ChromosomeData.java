@@ -52,6 +52,10 @@ public class ChromosomeData {
         data = new HashMap();
     }
 
+    public String getChr() {
+        return chr;
+    }
+
     void setStartLocations(int[] locations) {
         this.startLocations = locations;
     }
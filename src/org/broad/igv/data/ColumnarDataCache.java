@@ -0,0 +1,690 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.data;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.util.FileUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk cache of parsed chromosome data for .igv and .cn style files,  stored column-wise in a binary format.
+ * Re-opening a file maps the cached columns instead of re-parsing the text.
+ * <p/>
+ * Each data file gets a directory named by a hash of its path.  The directory holds an index file,  recording the
+ * path,  size,  modification time,  genome and data headings it was written for,  and one binary file per
+ * chromosome.  If any of these change the directory is cleared.
+ * <p/>
+ * Chromosome files are little-endian:  a header,  the start and (optional) end locations,  one float column per
+ * heading in heading order,  then the probe names as offsets into a UTF-8 block.  Columns are copied out of the
+ * mapping the first time they are requested,  because ChromosomeData hands out arrays.
+ * <p/>
+ * The directory also holds the results of the initial scan of the file (chromosome summaries,  data range and the
+ * whole genome summary),  so re-opening the file only needs to parse its header.
+ */
+public class ColumnarDataCache {
+
+    private static Logger log = Logger.getLogger(ColumnarDataCache.class);
+
+    private static final int MAGIC = 0x43564749;   // "IGVC"
+    private static final int VERSION = 1;
+    private static final String INDEX_FILE = "index";
+    private static final String SCAN_FILE = "scan";
+    private static final String SUFFIX = ".col";
+
+    // Files smaller than this are parsed quickly enough
+    public static final long MIN_FILE_SIZE = 10 * 1024 * 1024;
+
+    // Unused cache directories are removed after this time
+    private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+    private static boolean pruned = false;
+
+    private final File directory;
+    private final String[] headings;
+
+    /**
+     * Return the cache for a data file,  or null if the file should not be cached (remote or small files),  or the
+     * cache directory cannot be used.
+     *
+     * @param root      root cache directory,  see DirectoryManager.getDataCacheDirectory()
+     * @param path      path of the data file
+     * @param genomeId  genome the chromosome names were resolved against
+     * @param headings  data headings of the file
+     * @param minSize   minimum size of files to cache
+     */
+    public static ColumnarDataCache open(File root, String path, String genomeId, String[] headings, long minSize) {
+
+        if (root == null || headings == null || FileUtils.isRemote(path)) {
+            return null;
+        }
+        File file = new File(path);
+        if (!file.isFile() || file.length() < minSize) {
+            return null;
+        }
+
+        try {
+            pruneOnce(root);
+            File directory = new File(root, FileUtils.md5Hex(file.getAbsolutePath()));
+            Index index = new Index(file.getAbsolutePath(), file.length(), file.lastModified(), genomeId, headings);
+            File indexFile = new File(directory, INDEX_FILE);
+            if (!index.equals(Index.read(indexFile))) {
+                if (directory.exists()) {
+                    for (File f : directory.listFiles()) {
+                        f.delete();
+                    }
+                } else if (!directory.mkdirs()) {
+                    log.info("Could not create data cache directory " + directory);
+                    return null;
+                }
+                index.write(indexFile);
+            }
+            // Mark as used
+            indexFile.setLastModified(System.currentTimeMillis());
+            return new ColumnarDataCache(directory, headings);
+        } catch (IOException e) {
+            log.info("Data cache disabled for " + path + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    ColumnarDataCache(File directory, String[] headings) {
+        this.directory = directory;
+        this.headings = headings;
+    }
+
+    /**
+     * Return the cached data for the chromosome,  or null if it has not been cached.
+     */
+    public ChromosomeData read(String chr) {
+        File file = getFile(chr);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            // The mapping remains valid after the channel is closed
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return MappedChromosomeData.read(buffer, chr, headings);
+        } catch (Exception e) {
+            log.info("Ignoring unreadable data cache file " + file + ": " + e.getMessage());
+            file.delete();
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    log.error("Error closing " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the data for a chromosome.  Failures are logged,  the data is then re-parsed next time.
+     */
+    public void write(ChromosomeData cd) {
+
+        int[] starts = cd.getStartLocations();
+        int[] ends = cd.getEndLocations();
+        String[] probes = cd.getProbes();
+        int nRows = starts.length;
+
+        byte[] chrBytes = utf8(cd.getChr());
+        byte[][] probeBytes = new byte[nRows][];
+        long probeLength = 0;
+        for (int i = 0; i < nRows; i++) {
+            probeBytes[i] = probes == null || probes[i] == null ? new byte[0] : utf8(probes[i]);
+            probeLength += probeBytes[i].length;
+        }
+
+        long size = headerSize(chrBytes.length) + 4L * nRows * (ends == null ? 1 : 2) +
+                4L * nRows * headings.length + 4L * (nRows + 1) + probeLength;
+        if (size > Integer.MAX_VALUE) {
+            // Too large to map in one buffer
+            return;
+        }
+
+        File file = getFile(cd.getChr());
+        File tmpFile = null;
+        FileOutputStream fos = null;
+        try {
+            tmpFile = File.createTempFile(file.getName(), ".tmp", directory);
+            fos = new FileOutputStream(tmpFile);
+            ColumnWriter out = new ColumnWriter(fos.getChannel());
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(chrBytes.length);
+            out.put(chrBytes);
+            out.putInt(nRows);
+            out.putInt(ends == null ? 0 : 1);
+            out.putInt(headings.length);
+            out.pad();
+            out.putInts(starts);
+            if (ends != null) {
+                out.putInts(ends);
+            }
+            for (String h : headings) {
+                float[] values = cd.getData(h);
+                if (values == null || values.length != nRows) {
+                    throw new IOException("Missing data for " + h);
+                }
+                out.putFloats(values);
+            }
+            int offset = 0;
+            out.putInt(offset);
+            for (byte[] b : probeBytes) {
+                offset += b.length;
+                out.putInt(offset);
+            }
+            for (byte[] b : probeBytes) {
+                out.put(b);
+            }
+            out.flush();
+            fos.close();
+            fos = null;
+            if (!tmpFile.renameTo(file)) {
+                // Another thread might have written it first
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            log.info("Could not write data cache file " + file + ": " + e.getMessage());
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        } finally {
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException e) {
+                    log.error("Error closing " + tmpFile, e);
+                }
+                tmpFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Return the cached results of the initial scan,  or null if the file has not been scanned since it changed.
+     */
+    Scan readScan() {
+        File file = new File(directory, SCAN_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                throw new IOException("Not a data cache file");
+            }
+            Scan scan = new Scan();
+            int nChromosomes = dis.readInt();
+            scan.chromosomeSummaries = new ArrayList<ChromosomeSummary>(nChromosomes);
+            for (int i = 0; i < nChromosomes; i++) {
+                ChromosomeSummary summary = new ChromosomeSummary(dis.readUTF(), dis.readLong());
+                summary.setNDataPoints(dis.readInt());
+                scan.chromosomeSummaries.add(summary);
+            }
+            int nLongest = dis.readInt();
+            scan.longestFeatures = new HashMap<String, Integer>(nLongest);
+            for (int i = 0; i < nLongest; i++) {
+                scan.longestFeatures.put(dis.readUTF(), dis.readInt());
+            }
+            scan.logNormalized = dis.readBoolean();
+            scan.dataMin = dis.readFloat();
+            scan.dataMax = dis.readFloat();
+            if (dis.readBoolean()) {
+                int n = dis.readInt();
+                scan.summaryLocations = new int[n];
+                for (int i = 0; i < n; i++) {
+                    scan.summaryLocations[i] = dis.readInt();
+                }
+                scan.summaryData = new HashMap<String, float[]>(headings.length);
+                for (String h : headings) {
+                    float[] values = new float[n];
+                    for (int i = 0; i < n; i++) {
+                        values[i] = dis.readFloat();
+                    }
+                    scan.summaryData.put(h, values);
+                }
+            }
+            return scan;
+        } catch (IOException e) {
+            log.info("Ignoring unreadable data cache file " + file + ": " + e.getMessage());
+            file.delete();
+            return null;
+        } finally {
+            if (dis != null) {
+                try {
+                    dis.close();
+                } catch (IOException e) {
+                    log.error("Error closing " + file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the results of the initial scan.  Failures are logged,  the file is then scanned again next time.
+     */
+    void writeScan(Scan scan) {
+        File file = new File(directory, SCAN_FILE);
+        File tmpFile = null;
+        DataOutputStream dos = null;
+        try {
+            tmpFile = File.createTempFile(SCAN_FILE, ".tmp", directory);
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(scan.chromosomeSummaries.size());
+            for (ChromosomeSummary summary : scan.chromosomeSummaries) {
+                dos.writeUTF(summary.getName());
+                dos.writeLong(summary.getStartPosition());
+                dos.writeInt(summary.getNDataPts());
+            }
+            Map<String, Integer> longestFeatures = scan.longestFeatures == null ?
+                    new HashMap<String, Integer>() : scan.longestFeatures;
+            dos.writeInt(longestFeatures.size());
+            for (Map.Entry<String, Integer> entry : longestFeatures.entrySet()) {
+                dos.writeUTF(entry.getKey());
+                dos.writeInt(entry.getValue());
+            }
+            dos.writeBoolean(scan.logNormalized);
+            dos.writeFloat(scan.dataMin);
+            dos.writeFloat(scan.dataMax);
+            dos.writeBoolean(scan.summaryLocations != null);
+            if (scan.summaryLocations != null) {
+                int n = scan.summaryLocations.length;
+                dos.writeInt(n);
+                for (int loc : scan.summaryLocations) {
+                    dos.writeInt(loc);
+                }
+                for (String h : headings) {
+                    float[] values = scan.summaryData.get(h);
+                    if (values == null || values.length != n) {
+                        throw new IOException("Missing summary data for " + h);
+                    }
+                    for (float v : values) {
+                        dos.writeFloat(v);
+                    }
+                }
+            }
+            dos.close();
+            dos = null;
+            if (!tmpFile.renameTo(file)) {
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            log.info("Could not write data cache file " + file + ": " + e.getMessage());
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        } finally {
+            if (dos != null) {
+                try {
+                    dos.close();
+                } catch (IOException e) {
+                    log.error("Error closing " + tmpFile, e);
+                }
+                tmpFile.delete();
+            }
+        }
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    private File getFile(String chr) {
+        // Chromosome names can contain characters that are not legal in file names
+        String safeName = chr.replaceAll("[^A-Za-z0-9_.-]", "_");
+        return new File(directory, safeName + "_" + FileUtils.md5Hex(chr).substring(0, 8) + SUFFIX);
+    }
+
+    // Header fields,  padded to a multiple of 8 so the columns are aligned
+    private static int headerSize(int chrLength) {
+        int size = 4 * 3 + chrLength + 4 * 3;
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * Remove cache directories which have not been used for a while.  Done once per session.
+     */
+    private static synchronized void pruneOnce(File root) {
+        if (pruned) {
+            return;
+        }
+        pruned = true;
+        File[] dirs = root.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - MAX_AGE;
+        for (File dir : dirs) {
+            File indexFile = new File(dir, INDEX_FILE);
+            if (dir.isDirectory() && (!indexFile.exists() || indexFile.lastModified() < cutoff)) {
+                for (File f : dir.listFiles()) {
+                    f.delete();
+                }
+                dir.delete();
+            }
+        }
+    }
+
+    private static byte[] utf8(String string) {
+        try {
+            return string.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * Chromosome data backed by a mapped cache file.  Starts,  ends,  and probes are read when opened,  data columns
+     * on first use.
+     */
+    static class MappedChromosomeData extends ChromosomeData {
+
+        private final ByteBuffer buffer;
+        private final int nRows;
+        private final Map<String, Integer> columnOffsets = new HashMap<String, Integer>();
+        private final Map<String, float[]> columns = new HashMap<String, float[]>();
+
+        static MappedChromosomeData read(ByteBuffer buffer, String chr, String[] headings) throws IOException {
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a data cache file");
+            }
+            int chrLength = buffer.getInt(8);
+            byte[] chrBytes = new byte[chrLength];
+            buffer.position(12);
+            buffer.get(chrBytes);
+            if (!chr.equals(new String(chrBytes, "UTF-8"))) {
+                throw new IOException("Chromosome mismatch: " + chr);
+            }
+            int nRows = buffer.getInt();
+            boolean hasEnd = buffer.getInt() != 0;
+            int nHeadings = buffer.getInt();
+            if (nHeadings != headings.length) {
+                throw new IOException("Column count mismatch");
+            }
+            return new MappedChromosomeData(buffer, chr, nRows, hasEnd, headings, headerSize(chrLength));
+        }
+
+        private MappedChromosomeData(ByteBuffer buffer, String chr, int nRows, boolean hasEnd, String[] headings,
+                                     int offset) {
+            super(chr);
+            this.buffer = buffer;
+            this.nRows = nRows;
+
+            setStartLocations(getInts(offset, nRows));
+            offset += 4 * nRows;
+            if (hasEnd) {
+                setEndLocations(getInts(offset, nRows));
+                offset += 4 * nRows;
+            }
+            for (String h : headings) {
+                columnOffsets.put(h, offset);
+                offset += 4 * nRows;
+            }
+
+            int[] probeOffsets = getInts(offset, nRows + 1);
+            offset += 4 * (nRows + 1);
+            byte[] probeBytes = new byte[probeOffsets[nRows]];
+            ByteBuffer b = buffer.duplicate();
+            b.position(offset);
+            b.get(probeBytes);
+            String[] probes = new String[nRows];
+            try {
+                for (int i = 0; i < nRows; i++) {
+                    probes[i] = new String(probeBytes, probeOffsets[i], probeOffsets[i + 1] - probeOffsets[i], "UTF-8");
+                }
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+            setProbes(probes);
+        }
+
+        @Override
+        synchronized float[] getData(String heading) {
+            float[] values = columns.get(heading);
+            if (values == null) {
+                Integer offset = columnOffsets.get(heading);
+                if (offset == null) {
+                    return null;
+                }
+                values = new float[nRows];
+                ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+                b.position(offset);
+                b.asFloatBuffer().get(values);
+                columns.put(heading, values);
+            }
+            return values;
+        }
+
+        @Override
+        void setData(String heading, float[] x) {
+            synchronized (this) {
+                columns.put(heading, x);
+            }
+        }
+
+        private int[] getInts(int offset, int n) {
+            int[] values = new int[n];
+            ByteBuffer b = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            b.position(offset);
+            b.asIntBuffer().get(values);
+            return values;
+        }
+    }
+
+
+    /**
+     * Results of the initial scan of a data file,  everything the scan sets on the dataset except what is parsed
+     * from the header.
+     */
+    static class Scan {
+        List<ChromosomeSummary> chromosomeSummaries;
+        Map<String, Integer> longestFeatures;
+        boolean logNormalized;
+        float dataMin;
+        float dataMax;
+        int[] summaryLocations;             // Whole genome summary,  null if there is none
+        Map<String, float[]> summaryData;   // heading -> summary values
+    }
+
+
+    /**
+     * Buffered little-endian writer
+     */
+    private static class ColumnWriter {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        private long position = 0;
+
+        ColumnWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+            position += 4;
+        }
+
+        void put(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                ensure(1);
+                int n = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.put(bytes, offset, n);
+                offset += n;
+                position += n;
+            }
+        }
+
+        void putInts(int[] values) throws IOException {
+            for (int v : values) {
+                putInt(v);
+            }
+        }
+
+        void putFloats(float[] values) throws IOException {
+            for (float v : values) {
+                ensure(4);
+                buffer.putFloat(v);
+                position += 4;
+            }
+        }
+
+        void pad() throws IOException {
+            while ((position & 7) != 0) {
+                ensure(1);
+                buffer.put((byte) 0);
+                position++;
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private void ensure(int n) throws IOException {
+            if (buffer.remaining() < n) {
+                flush();
+            }
+        }
+    }
+
+
+    /**
+     * Identifies the data file version a cache directory was written for
+     */
+    private static class Index {
+
+        final String path;
+        final long length;
+        final long lastModified;
+        final String genomeId;
+        final String[] headings;
+
+        Index(String path, long length, long lastModified, String genomeId, String[] headings) {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.genomeId = genomeId == null ? "" : genomeId;
+            this.headings = headings;
+        }
+
+        static Index read(File file) {
+            if (!file.exists()) {
+                return null;
+            }
+            DataInputStream dis = null;
+            try {
+                dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                    return null;
+                }
+                String path = dis.readUTF();
+                long length = dis.readLong();
+                long lastModified = dis.readLong();
+                String genomeId = dis.readUTF();
+                String[] headings = new String[dis.readInt()];
+                for (int i = 0; i < headings.length; i++) {
+                    headings[i] = dis.readUTF();
+                }
+                return new Index(path, length, lastModified, genomeId, headings);
+            } catch (IOException e) {
+                return null;
+            } finally {
+                if (dis != null) {
+                    try {
+                        dis.close();
+                    } catch (IOException e) {
+                        log.error("Error closing " + file, e);
+                    }
+                }
+            }
+        }
+
+        void write(File file) throws IOException {
+            DataOutputStream dos = null;
+            try {
+                dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                dos.writeInt(MAGIC);
+                dos.writeInt(VERSION);
+                dos.writeUTF(path);
+                dos.writeLong(length);
+                dos.writeLong(lastModified);
+                dos.writeUTF(genomeId);
+                dos.writeInt(headings.length);
+                for (String h : headings) {
+                    dos.writeUTF(h);
+                }
+            } finally {
+                if (dos != null) {
+                    dos.close();
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Index)) return false;
+            Index index = (Index) o;
+            return length == index.length &&
+                    lastModified == index.lastModified &&
+                    path.equals(index.path) &&
+                    genomeId.equals(index.genomeId) &&
+                    Arrays.equals(headings, index.headings);
+        }
+
+        @Override
+        public int hashCode() {
+            return path.hashCode();
+        }
+    }
+}
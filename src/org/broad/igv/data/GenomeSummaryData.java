@@ -107,6 +107,19 @@ public class GenomeSummaryData {
         }
     }
 
+    /**
+     * Recreate a summary from the arrays of a previous one,  see getLocations() and getData(sample)
+     */
+    GenomeSummaryData(Genome genome, String[] samples, int[] locations, Map<String, float[]> data) {
+        this.genome = genome;
+        this.samples = samples;
+        this.locations = locations;
+        this.data = data;
+        this.nDataPts = locations.length;
+        scale = (genome.getNominalLength() / locationUnit) / nPixels;
+        locationMap = new HashMap<String, IntArrayList>();
+    }
+
     /**
      * Changes scale of summary, ie zoom in or out
      * Mainly for testing, can't use after adding any data
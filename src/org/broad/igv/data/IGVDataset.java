@@ -29,21 +29,27 @@
  */
 package org.broad.igv.data;
 
+import org.apache.log4j.Logger;
+import org.broad.igv.DirectoryManager;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.track.TrackProperties;
 import org.broad.igv.track.TrackType;
-import org.broad.igv.util.ObjectCache;
 import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.collections.ConcurrentCache;
 
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 /**
  * @author jrobinso
  */
 public class IGVDataset implements Dataset {
 
+    private static Logger log = Logger.getLogger(IGVDataset.class);
+
     private String name;
 
     private TrackType type = TrackType.OTHER;
@@ -53,7 +59,12 @@ public class IGVDataset implements Dataset {
     private Map<String, ChromosomeSummary> chromosomeSummaries = new LinkedHashMap();
     private GenomeSummaryData genomeSummary;
     private IGVDatasetParser parser;
-    private ObjectCache<String, ChromosomeData> chromsomeDataCache = new ObjectCache(30);
+    private ResourceLocator locator;
+    private Genome genome;
+    private ColumnarDataCache columnarCache;
+    private boolean scanRestored = false;
+    private ConcurrentCache<String, ChromosomeData> chromsomeDataCache =
+            new ConcurrentCache<String, ChromosomeData>(30, null, true);
     private float dataMin;
     private float dataMax;
     TrackProperties trackProperties = new TrackProperties();
@@ -61,6 +72,8 @@ public class IGVDataset implements Dataset {
 
     public IGVDataset(ResourceLocator locator, Genome genome) {
 
+        this.locator = locator;
+        this.genome = genome;
         parser = new IGVDatasetParser(locator, genome);
 
         List<ChromosomeSummary> summaries = parser.scan(this);
@@ -71,6 +84,55 @@ public class IGVDataset implements Dataset {
         for (ChromosomeSummary summary : summaries) {
             chromosomeSummaries.put(summary.getName(), summary);
         }
+
+        if (columnarCache != null && !scanRestored) {
+            columnarCache.writeScan(getScan(summaries));
+        }
+    }
+
+    /**
+     * Called by the parser once the header has been parsed and the data headings are known.  Opens the columnar
+     * cache and,  if it holds the results of a previous scan of this file,  restores them.
+     *
+     * @return the chromosome summaries,  or null if the rest of the file must be scanned
+     */
+    List<ChromosomeSummary> restoreScan() {
+        try {
+            columnarCache = ColumnarDataCache.open(DirectoryManager.getDataCacheDirectory(), locator.getPath(),
+                    genome == null ? null : genome.getId(), dataHeadings, ColumnarDataCache.MIN_FILE_SIZE);
+        } catch (Exception e) {
+            log.info("Data cache disabled: " + e.getMessage());
+        }
+        ColumnarDataCache.Scan scan = columnarCache == null ? null : columnarCache.readScan();
+        if (scan == null) {
+            return null;
+        }
+        setLongestFeatureMap(scan.longestFeatures);
+        setLogNormalized(scan.logNormalized);
+        setDataMin(scan.dataMin);
+        setDataMax(scan.dataMax);
+        if (scan.summaryLocations != null) {
+            setGenomeSummary(new GenomeSummaryData(genome, dataHeadings, scan.summaryLocations, scan.summaryData));
+        }
+        scanRestored = true;
+        return scan.chromosomeSummaries;
+    }
+
+    private ColumnarDataCache.Scan getScan(List<ChromosomeSummary> summaries) {
+        ColumnarDataCache.Scan scan = new ColumnarDataCache.Scan();
+        scan.chromosomeSummaries = summaries;
+        scan.longestFeatures = longestFeatureMap;
+        scan.logNormalized = logNormalized;
+        scan.dataMin = dataMin;
+        scan.dataMax = dataMax;
+        if (genomeSummary != null) {
+            scan.summaryLocations = genomeSummary.getLocations();
+            scan.summaryData = new HashMap<String, float[]>();
+            for (String h : dataHeadings) {
+                scan.summaryData.put(h, genomeSummary.getData(h));
+            }
+        }
+        return scan;
     }
 
     public void setName(String name) {
@@ -128,28 +190,38 @@ public class IGVDataset implements Dataset {
     /**
      * Get the data for all samples (tracks) for the given chromosome.
      * <p/>
-     * This method is synchronized to insure that the data for a chromosome
-     * is only loaded once.
+     * The data for a chromosome is only loaded once,  but different chromosomes can be loaded concurrently.  Large
+     * local files are parsed once,  and then read from the columnar cache.
      *
      * @param chr
      * @return
      */
-    private synchronized ChromosomeData getChromosomeData(String chr) {
-        ChromosomeData cd = chromsomeDataCache.get(chr);
-        if (cd == null) {
-            ChromosomeSummary sum = chromosomeSummaries.get(chr);
-            if (sum == null) {
-                //todo -- throw exception
-                return null;
+    private ChromosomeData getChromosomeData(String chr) {
+        final ChromosomeSummary sum = chromosomeSummaries.get(chr);
+        if (sum == null) {
+            //todo -- throw exception
+            return null;
+        }
+        try {
+            return chromsomeDataCache.get(chr, new ConcurrentCache.Loader<String, ChromosomeData>() {
+                public ChromosomeData load(String chr) {
+                    ChromosomeData cd = columnarCache == null ? null : columnarCache.read(chr);
+                    if (cd == null) {
+                        cd = parser.loadChromosomeData(sum, dataHeadings);
+                        if (columnarCache != null) {
+                            columnarCache.write(cd);
+                        }
+                    }
+                    return cd;
+                }
+            });
+        } catch (ExecutionException e) {
+            log.error("Error loading data for chromosome " + chr, e.getCause());
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
             }
-            //synchronized (sum) {
-
-            cd = parser.loadChromosomeData(sum, dataHeadings);
-            chromsomeDataCache.put(chr, cd);
-            //}
-
+            throw new RuntimeException(e.getCause());
         }
-        return cd;
     }
 
     public GenomeSummaryData getGenomeSummary() {
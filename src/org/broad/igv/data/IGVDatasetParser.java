@@ -230,6 +230,12 @@ public class IGVDatasetParser {
 
             dataset.setDataHeadings(headings);
 
+            // The rest of the scan is skipped if the dataset has its results cached
+            List<ChromosomeSummary> cachedSummaries = dataset.restoreScan();
+            if (cachedSummaries != null) {
+                return cachedSummaries;
+            }
+
             // Infer if the data is logNormalized by looking for negative data values.
             // Assume it is not until proven otherwise
             logNormalized = false;
@@ -0,0 +1,282 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.data;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.util.collections.ConcurrentCache;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of decoded data tiles and summary tiles,  shared by all data sources and bounded by the
+ * estimated size of the cached tiles rather than an entry count.
+ * <p/>
+ * Each data source registers a {@link Source},  which identifies its entries and keeps its statistics.  Sources
+ * should be invalidated when their tiles become stale,  e.g. when the window function changes,  and when they are
+ * disposed.
+ */
+public class TileCache {
+
+    private static Logger log = Logger.getLogger(TileCache.class);
+
+    // A single tile may use at most this fraction of the budget
+    private static final int MAX_TILE_FRACTION = 16;
+
+    // Rough sizes used to estimate tile memory
+    static final int OBJECT_OVERHEAD = 16;
+    static final int REFERENCE_SIZE = 8;
+    static final int SCORE_SIZE = 48;
+
+    private static TileCache instance;
+
+    private final ConcurrentCache<Key, Entry> cache;
+
+    public static synchronized TileCache getInstance() {
+        if (instance == null) {
+            instance = new TileCache(defaultMaxBytes());
+        }
+        return instance;
+    }
+
+    /**
+     * Default budget is 1/8 of the maximum heap size,  up to 1 GB.
+     */
+    static long defaultMaxBytes() {
+        return Math.min(Runtime.getRuntime().maxMemory() / 8, 1L << 30);
+    }
+
+    TileCache(long maxBytes) {
+        cache = new ConcurrentCache<Key, Entry>(maxBytes, new ConcurrentCache.Weigher<Key, Entry>() {
+            public long weigh(Key key, Entry entry) {
+                return entry.bytes;
+            }
+        }, false);
+        cache.setRemovalListener(new ConcurrentCache.RemovalListener<Key, Entry>() {
+            public void onRemoval(Key key, Entry entry, boolean evicted) {
+                // A replaced entry is removed after its successor is added,  keep the successor
+                key.source.entries.remove(key, entry);
+                key.source.bytes.addAndGet(-entry.bytes);
+                if (evicted) {
+                    key.source.evictions.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    public Source newSource(String name) {
+        return new Source(name);
+    }
+
+    public long getMaxBytes() {
+        return cache.getMaxWeight();
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        cache.setMaxWeight(maxBytes);
+    }
+
+    /**
+     * Return the estimated size of all cached tiles.
+     */
+    public long getBytes() {
+        return cache.getWeight();
+    }
+
+    /**
+     * Return the cached tile for the key,  or null.
+     */
+    @SuppressWarnings("unchecked")    // Tiles are stored as Object,  callers know the type they put for a key
+    public <T> T get(Key key) {
+        Entry entry = cache.get(key);
+        if (entry == null) {
+            key.source.misses.incrementAndGet();
+            return null;
+        } else {
+            key.source.hits.incrementAndGet();
+            return (T) entry.value;
+        }
+    }
+
+    /**
+     * Add a tile.  Tiles larger than 1/16 of the budget are not cached.
+     *
+     * @param bytes estimated size of the tile,  see the estimate methods
+     */
+    public void put(Key key, Object value, long bytes) {
+        if (value == null || bytes > getMaxBytes() / MAX_TILE_FRACTION || key.source.disposed) {
+            return;
+        }
+        Entry entry = new Entry(value, bytes);
+        key.source.bytes.addAndGet(bytes);
+        key.source.entries.put(key, entry);
+        cache.put(key, entry);
+        // dispose() marks the source before removing its tiles,  so a tile added concurrently is either seen by
+        // dispose() or removed here
+        if (key.source.disposed) {
+            cache.remove(key);
+        }
+    }
+
+    public void remove(Key key) {
+        cache.remove(key);
+    }
+
+    /**
+     * Remove all tiles of the source.
+     */
+    public void invalidate(Source source) {
+        for (Key key : source.entries.keySet()) {
+            cache.remove(key);
+        }
+    }
+
+    /**
+     * Remove all tiles of the source,  and stop caching new ones.  For use when the source is disposed.
+     */
+    public void dispose(Source source) {
+        source.disposed = true;
+        invalidate(source);
+        if (log.isDebugEnabled()) {
+            log.debug("Disposed tile cache source " + source);
+        }
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Estimated size of a list of scores.
+     */
+    public static long estimateBytes(List<?> scores) {
+        return OBJECT_OVERHEAD + (long) scores.size() * (REFERENCE_SIZE + SCORE_SIZE);
+    }
+
+    public static long estimateBytes(SummaryTile tile) {
+        return OBJECT_OVERHEAD + estimateBytes(tile.getScores());
+    }
+
+
+    private static class Entry {
+        final Object value;
+        final long bytes;
+
+        Entry(Object value, long bytes) {
+            this.value = value;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Identifies the tiles of one data source,  and records cache statistics for it.
+     */
+    public static class Source {
+
+        final String name;
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        volatile boolean disposed = false;
+
+        // Cached entries of this source,  so they can be removed without scanning the whole cache
+        final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+
+        Source(String name) {
+            this.name = name;
+        }
+
+        public long getHits() {
+            return hits.get();
+        }
+
+        public long getMisses() {
+            return misses.get();
+        }
+
+        public long getEvictions() {
+            return evictions.get();
+        }
+
+        /**
+         * Estimated size of the cached tiles of this source
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        @Override
+        public String toString() {
+            return name + " hits=" + getHits() + " misses=" + getMisses() + " evictions=" + getEvictions() +
+                    " bytes=" + getBytes();
+        }
+    }
+
+    /**
+     * Key for a tile:  the source,  a name (dataset or chromosome),  zoom level,  tile number,  and an optional
+     * qualifier such as the window function.
+     */
+    public static class Key {
+
+        final Source source;
+        final String name;
+        final int zoom;
+        final int tileNumber;
+        final Object qualifier;
+
+        public Key(Source source, String name, int zoom, int tileNumber, Object qualifier) {
+            this.source = source;
+            this.name = name;
+            this.zoom = zoom;
+            this.tileNumber = tileNumber;
+            this.qualifier = qualifier;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return source == key.source &&
+                    zoom == key.zoom &&
+                    tileNumber == key.tileNumber &&
+                    name.equals(key.name) &&
+                    (qualifier == null ? key.qualifier == null : qualifier.equals(key.qualifier));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(source);
+            result = 31 * result + name.hashCode();
+            result = 31 * result + zoom;
+            result = 31 * result + tileNumber;
+            result = 31 * result + (qualifier != null ? qualifier.hashCode() : 0);
+            return result;
+        }
+    }
+}
@@ -28,7 +28,9 @@ package org.broad.igv.data.seg;
 //~--- non-JDK imports --------------------------------------------------------
 
 import org.apache.log4j.Logger;
+import org.broad.igv.DirectoryManager;
 import org.broad.igv.Globals;
+import org.broad.igv.data.ColumnarDataCache;
 import org.broad.igv.exceptions.DataLoadException;
 import org.broad.igv.exceptions.ParserException;
 import org.broad.igv.feature.genome.Genome;
@@ -37,6 +39,9 @@ import org.broad.igv.util.ParsingUtils;
 import org.broad.igv.util.ResourceLocator;
 import htsjdk.tribble.readers.AsciiLineReader;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
  * Example
  * CCLE_name	chrom	loc.start	loc.end	num.mark	seg.mean
@@ -56,6 +61,8 @@ public class SegmentFileParser implements SegFileParser {
 
     private static Logger log = Logger.getLogger(SegmentFileParser.class);
 
+    private static final String STORE_FILE = "segments.seg";
+
     boolean birdsuite = false;
     int sampleColumn = 0;
     int chrColumn = 1;
@@ -94,6 +101,7 @@ public class SegmentFileParser implements SegFileParser {
         AsciiLineReader reader = null;
         String nextLine = null;
         int lineNumber = 0;
+        File storeFile = null;
         try {
             reader = ParsingUtils.openAsciiReader(locator);
 
@@ -127,6 +135,19 @@ public class SegmentFileParser implements SegFileParser {
                 dataColumn = headings.length - 1;
             }
 
+            // Segments of large local files are cached in columnar form,  and mapped when the file is loaded again
+            storeFile = getStoreFile(genome, headings);
+            if (storeFile != null && storeFile.exists()) {
+                try {
+                    dataset.setStore(SegmentStore.read(storeFile));
+                    storeFile.setLastModified(System.currentTimeMillis());
+                    return dataset;
+                } catch (IOException e) {
+                    log.info("Ignoring unreadable segment cache file " + storeFile + ": " + e.getMessage());
+                    storeFile.delete();
+                }
+            }
+
             while ((nextLine = reader.readLine()) != null && (nextLine.trim().length() > 0)) {
                 lineNumber++;
 
@@ -203,9 +224,44 @@ public class SegmentFileParser implements SegFileParser {
         }
 
         dataset.sortLists();
+        if (storeFile != null) {
+            writeStore(dataset.getStore(), storeFile);
+        }
         return dataset;
     }
 
+    /**
+     * Return the file to cache the segments in,  or null if the file should not be cached (remote or small files).
+     */
+    private File getStoreFile(Genome genome, String[] headings) {
+        try {
+            ColumnarDataCache cache = ColumnarDataCache.open(DirectoryManager.getDataCacheDirectory(),
+                    locator.getPath(), genome == null ? null : genome.getId(), headings,
+                    ColumnarDataCache.MIN_FILE_SIZE);
+            return cache == null ? null : new File(cache.getDirectory(), STORE_FILE);
+        } catch (Exception e) {
+            log.info("Segment cache disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeStore(SegmentStore store, File storeFile) {
+        File tmpFile = null;
+        try {
+            tmpFile = File.createTempFile(storeFile.getName(), ".tmp", storeFile.getParentFile());
+            store.write(tmpFile);
+            if (!tmpFile.renameTo(storeFile)) {
+                // Another thread might have written it first
+                tmpFile.delete();
+            }
+        } catch (IOException e) {
+            log.info("Could not write segment cache file " + storeFile + ": " + e.getMessage());
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        }
+    }
+
 
     /**
      * Note:  This is an exact copy of the method in ExpressionFileParser.  Refactor to merge these
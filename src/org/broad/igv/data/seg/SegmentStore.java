@@ -0,0 +1,652 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.data.seg;
+
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.util.collections.FloatArrayList;
+import org.broad.igv.util.collections.IntArrayList;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Column-wise store of segments.  Each chromosome keeps primitive start,  end and value columns,  sorted by sample
+ * and then start,  and a table of the row offsets of each sample.  Descriptions,  if any,  are kept as UTF-8 bytes.
+ * <p/>
+ * {@link LocusScore} objects are only created by the list views returned from {@link #getSegments(String, String)}
+ * and {@link #getWholeGenomeScores(String, Genome)},  as elements are requested.  Whole genome coordinates are
+ * computed on the fly.
+ * <p/>
+ * A store can be written to a file and mapped back into memory,  see {@link #write(File)} and {@link #read(File)}.
+ */
+public class SegmentStore {
+
+    private static final int MAGIC = 0x53564749;   // "IGVS"
+    private static final int VERSION = 1;
+
+    private final List<String> sampleNames;
+    private final Map<String, Integer> sampleIndexes;
+    private final Map<String, Columns> chromosomes;
+    private final float dataMin;
+    private final float dataMax;
+
+    private SegmentStore(List<String> sampleNames, Map<String, Columns> chromosomes, float dataMin, float dataMax) {
+        this.sampleNames = Collections.unmodifiableList(sampleNames);
+        this.sampleIndexes = new HashMap<String, Integer>();
+        for (int i = 0; i < sampleNames.size(); i++) {
+            sampleIndexes.put(sampleNames.get(i), i);
+        }
+        this.chromosomes = chromosomes;
+        this.dataMin = dataMin;
+        this.dataMax = dataMax;
+    }
+
+    /**
+     * Sample names,  in the order they were first added
+     */
+    public List<String> getSampleNames() {
+        return sampleNames;
+    }
+
+    public Set<String> getChromosomes() {
+        return Collections.unmodifiableSet(chromosomes.keySet());
+    }
+
+    public float getDataMin() {
+        return dataMin;
+    }
+
+    public float getDataMax() {
+        return dataMax;
+    }
+
+    /**
+     * Return the total number of segments
+     */
+    public int size() {
+        int size = 0;
+        for (Columns columns : chromosomes.values()) {
+            size += columns.size();
+        }
+        return size;
+    }
+
+    /**
+     * Return a view of the segments of a sample on a chromosome,  sorted by start,  or null if there are none.
+     */
+    public List<LocusScore> getSegments(String sample, String chr) {
+        Integer sampleIndex = sampleIndexes.get(sample);
+        Columns columns = chromosomes.get(chr);
+        if (sampleIndex == null || columns == null) {
+            return null;
+        }
+        int from = columns.sampleOffsets.get(sampleIndex);
+        int to = columns.sampleOffsets.get(sampleIndex + 1);
+        return from == to ? null : new SegmentList(columns, from, to);
+    }
+
+    /**
+     * Return a view of the segments of a sample in whole genome coordinates (kbp),  in the order of the genome's
+     * long chromosomes.  Segments shorter than 1 kbp in these coordinates are omitted.
+     */
+    public List<LocusScore> getWholeGenomeScores(String sample, Genome genome) {
+        Integer sampleIndex = sampleIndexes.get(sample);
+        List<Columns> chrColumns = new ArrayList<Columns>();
+        List<Long> offsets = new ArrayList<Long>();
+        IntArrayList rows = new IntArrayList();
+        IntArrayList counts = new IntArrayList();
+        if (sampleIndex != null) {
+            for (String chr : genome.getLongChromosomeNames()) {
+                Columns columns = chromosomes.get(chr);
+                if (columns == null) {
+                    continue;
+                }
+                long offset = genome.getCumulativeOffset(chr);
+                int from = columns.sampleOffsets.get(sampleIndex);
+                int to = columns.sampleOffsets.get(sampleIndex + 1);
+                int count = 0;
+                for (int row = from; row < to; row++) {
+                    if (toGenomeCoordinate(offset, columns.ends.get(row)) >
+                            toGenomeCoordinate(offset, columns.starts.get(row))) {
+                        rows.add(row);
+                        count++;
+                    }
+                }
+                if (count > 0) {
+                    chrColumns.add(columns);
+                    offsets.add(offset);
+                    counts.add(count);
+                }
+            }
+        }
+        return new WholeGenomeList(chrColumns, offsets, counts.toArray(), rows.toArray());
+    }
+
+    // See Genome.getGenomeCoordinate
+    private static int toGenomeCoordinate(long offset, int position) {
+        return (int) ((offset + position) / 1000);
+    }
+
+    /**
+     * Write the store to a file,  which can be mapped with {@link #read(File)}.  The file is little-endian:  a header
+     * with the sample names and,  for each chromosome,  its name,  size and section offset.  Each section holds the
+     * start,  end and value columns,  the sample offsets,  and the description offsets and bytes if any.
+     */
+    public void write(File file) throws IOException {
+
+        byte[][] sampleBytes = new byte[sampleNames.size()][];
+        int headerSize = 4 * 3 + 4 * 2 + 4;
+        for (int i = 0; i < sampleBytes.length; i++) {
+            sampleBytes[i] = utf8(sampleNames.get(i));
+            headerSize += 4 + sampleBytes[i].length;
+        }
+        headerSize += 4;
+        List<byte[]> chrBytes = new ArrayList<byte[]>();
+        for (String chr : chromosomes.keySet()) {
+            byte[] b = utf8(chr);
+            chrBytes.add(b);
+            headerSize += 4 + b.length + 4 + 4 + 8;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(headerSize);
+        header.putFloat(dataMin);
+        header.putFloat(dataMax);
+        header.putInt(sampleBytes.length);
+        for (byte[] b : sampleBytes) {
+            header.putInt(b.length);
+            header.put(b);
+        }
+        header.putInt(chromosomes.size());
+        long offset = align(headerSize);
+        int c = 0;
+        for (Columns columns : chromosomes.values()) {
+            if (columns.sectionSize() > Integer.MAX_VALUE) {
+                throw new IOException("Too many segments to write");
+            }
+            byte[] b = chrBytes.get(c++);
+            header.putInt(b.length);
+            header.put(b);
+            header.putInt(columns.size());
+            header.putInt(columns.descBytes == null ? -1 : columns.descBytes.limit());
+            header.putLong(offset);
+            offset = align(offset + columns.sectionSize());
+        }
+        header.flip();
+
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            FileChannel channel = fos.getChannel();
+            writeFully(channel, header, 0);
+            offset = align(headerSize);
+            for (Columns columns : chromosomes.values()) {
+                ByteBuffer section = columns.toSection();
+                writeFully(channel, section, offset);
+                offset = align(offset + columns.sectionSize());
+            }
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Map a store written by {@link #write(File)}.  Columns are read from the mappings as needed.
+     */
+    public static SegmentStore read(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // The mappings remain valid after the channel is closed
+            FileChannel channel = raf.getChannel();
+            ByteBuffer b = channel.map(FileChannel.MapMode.READ_ONLY, 0, 12).order(ByteOrder.LITTLE_ENDIAN);
+            if (b.getInt(0) != MAGIC || b.getInt(4) != VERSION) {
+                throw new IOException("Not a segment store file: " + file);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, b.getInt(8)).order(ByteOrder.LITTLE_ENDIAN);
+            header.position(12);
+            float dataMin = header.getFloat();
+            float dataMax = header.getFloat();
+            int nSamples = header.getInt();
+            List<String> sampleNames = new ArrayList<String>(nSamples);
+            for (int i = 0; i < nSamples; i++) {
+                sampleNames.add(readString(header));
+            }
+            int nChromosomes = header.getInt();
+            Map<String, Columns> chromosomes = new LinkedHashMap<String, Columns>();
+            for (int i = 0; i < nChromosomes; i++) {
+                String chr = readString(header);
+                int nRows = header.getInt();
+                int descLength = header.getInt();
+                long offset = header.getLong();
+                long size = Columns.sectionSize(nRows, nSamples, descLength);
+                ByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+                chromosomes.put(chr, Columns.fromSection(section, nRows, nSamples, descLength));
+            }
+            return new SegmentStore(sampleNames, chromosomes, dataMin, dataMax);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated segment store file: " + file);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static byte[] utf8(String string) {
+        try {
+            return string.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    /**
+     * The columns of one chromosome.  Rows are sorted by sample and then start,  the rows of sample i are
+     * [sampleOffsets[i], sampleOffsets[i + 1]).
+     */
+    static class Columns {
+
+        final IntBuffer starts;
+        final IntBuffer ends;
+        final FloatBuffer values;
+        final IntBuffer sampleOffsets;
+        final IntBuffer descOffsets;
+        final ByteBuffer descBytes;
+
+        Columns(IntBuffer starts, IntBuffer ends, FloatBuffer values, IntBuffer sampleOffsets,
+                IntBuffer descOffsets, ByteBuffer descBytes) {
+            this.starts = starts;
+            this.ends = ends;
+            this.values = values;
+            this.sampleOffsets = sampleOffsets;
+            this.descOffsets = descOffsets;
+            this.descBytes = descBytes;
+        }
+
+        int size() {
+            return starts.limit();
+        }
+
+        String getDescription(int row) {
+            if (descOffsets == null) {
+                return null;
+            }
+            int from = descOffsets.get(row);
+            int to = descOffsets.get(row + 1);
+            if (from == to) {
+                return null;
+            }
+            byte[] bytes = new byte[to - from];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = descBytes.get(from + i);
+            }
+            try {
+                return new String(bytes, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        long sectionSize() {
+            return sectionSize(size(), sampleOffsets.limit() - 1, descBytes == null ? -1 : descBytes.limit());
+        }
+
+        static long sectionSize(int nRows, int nSamples, int descLength) {
+            long size = 4L * nRows * 3 + 4L * (nSamples + 1);
+            if (descLength >= 0) {
+                size += 4L * (nRows + 1) + descLength;
+            }
+            return size;
+        }
+
+        ByteBuffer toSection() {
+            ByteBuffer section = ByteBuffer.allocate((int) sectionSize()).order(ByteOrder.LITTLE_ENDIAN);
+            int n = size();
+            for (int i = 0; i < n; i++) section.putInt(starts.get(i));
+            for (int i = 0; i < n; i++) section.putInt(ends.get(i));
+            for (int i = 0; i < n; i++) section.putFloat(values.get(i));
+            for (int i = 0; i < sampleOffsets.limit(); i++) section.putInt(sampleOffsets.get(i));
+            if (descBytes != null) {
+                for (int i = 0; i <= n; i++) section.putInt(descOffsets.get(i));
+                ByteBuffer b = descBytes.duplicate();
+                b.rewind();
+                section.put(b);
+            }
+            section.flip();
+            return section;
+        }
+
+        static Columns fromSection(ByteBuffer section, int nRows, int nSamples, int descLength) {
+            section.order(ByteOrder.LITTLE_ENDIAN);
+            IntBuffer starts = intSlice(section, 0, nRows);
+            IntBuffer ends = intSlice(section, 4 * nRows, nRows);
+            section.position(8 * nRows);
+            FloatBuffer values = section.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            values.limit(nRows);
+            IntBuffer sampleOffsets = intSlice(section, 12 * nRows, nSamples + 1);
+            IntBuffer descOffsets = null;
+            ByteBuffer descBytes = null;
+            if (descLength >= 0) {
+                int offset = 12 * nRows + 4 * (nSamples + 1);
+                descOffsets = intSlice(section, offset, nRows + 1);
+                section.position(offset + 4 * (nRows + 1));
+                descBytes = section.slice();
+                descBytes.limit(descLength);
+            }
+            return new Columns(starts, ends, values, sampleOffsets, descOffsets, descBytes);
+        }
+
+        private static IntBuffer intSlice(ByteBuffer buffer, int offset, int n) {
+            buffer.position(offset);
+            IntBuffer ints = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+            ints.limit(n);
+            return ints;
+        }
+    }
+
+
+    /**
+     * View of rows [from, to) of a chromosome
+     */
+    private static class SegmentList extends AbstractList<LocusScore> implements RandomAccess {
+
+        private final Columns columns;
+        private final int from;
+        private final int to;
+
+        SegmentList(Columns columns, int from, int to) {
+            this.columns = columns;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public LocusScore get(int index) {
+            if (index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+            }
+            int row = from + index;
+            int start = columns.starts.get(row);
+            int end = columns.ends.get(row);
+            return new Segment(start, start, end, end, columns.values.get(row), columns.getDescription(row));
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+
+    /**
+     * View of the rows of one sample on several chromosomes,  in whole genome coordinates
+     */
+    private static class WholeGenomeList extends AbstractList<LocusScore> implements RandomAccess {
+
+        private final Columns[] columns;
+        private final long[] offsets;
+        private final int[] firstIndexes;
+        private final int[] rows;
+
+        WholeGenomeList(List<Columns> columns, List<Long> offsets, int[] counts, int[] rows) {
+            this.columns = columns.toArray(new Columns[columns.size()]);
+            this.offsets = new long[offsets.size()];
+            this.firstIndexes = new int[counts.length];
+            int index = 0;
+            for (int i = 0; i < counts.length; i++) {
+                this.offsets[i] = offsets.get(i);
+                firstIndexes[i] = index;
+                index += counts[i];
+            }
+            this.rows = rows;
+        }
+
+        @Override
+        public LocusScore get(int index) {
+            if (index < 0 || index >= rows.length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+            }
+            int c = Arrays.binarySearch(firstIndexes, index);
+            if (c < 0) {
+                c = -c - 2;
+            }
+            Columns chrColumns = columns[c];
+            int row = rows[index];
+            int gStart = toGenomeCoordinate(offsets[c], chrColumns.starts.get(row));
+            int gEnd = toGenomeCoordinate(offsets[c], chrColumns.ends.get(row));
+            return new Segment(gStart, gStart, gEnd, gEnd, chrColumns.values.get(row), chrColumns.getDescription(row));
+        }
+
+        @Override
+        public int size() {
+            return rows.length;
+        }
+    }
+
+
+    /**
+     * Collects segments in per-chromosome growable columns,  with a sample index column.  {@link #build()} sorts
+     * them into a store.
+     */
+    public static class Builder {
+
+        private final List<String> sampleNames = new ArrayList<String>();
+        private final Map<String, Integer> sampleIndexes = new HashMap<String, Integer>();
+        private final Map<String, ChrBuilder> chromosomes = new LinkedHashMap<String, ChrBuilder>();
+        private float dataMin = Float.MAX_VALUE;
+        private float dataMax = -Float.MAX_VALUE;
+
+        public Builder() {
+        }
+
+        /**
+         * Start with the segments of an existing store
+         */
+        public Builder(SegmentStore store) {
+            for (String sample : store.getSampleNames()) {
+                getSampleIndex(sample);
+            }
+            for (Map.Entry<String, Columns> entry : store.chromosomes.entrySet()) {
+                Columns columns = entry.getValue();
+                for (int s = 0; s < store.sampleNames.size(); s++) {
+                    int to = columns.sampleOffsets.get(s + 1);
+                    for (int row = columns.sampleOffsets.get(s); row < to; row++) {
+                        add(s, entry.getKey(), columns.starts.get(row), columns.ends.get(row),
+                                columns.values.get(row), columns.getDescription(row));
+                    }
+                }
+            }
+        }
+
+        public void add(String sample, String chr, int start, int end, float value, String description) {
+            add(getSampleIndex(sample), chr, start, end, value, description);
+        }
+
+        private void add(int sampleIndex, String chr, int start, int end, float value, String description) {
+            ChrBuilder cb = chromosomes.get(chr);
+            if (cb == null) {
+                cb = new ChrBuilder();
+                chromosomes.put(chr, cb);
+            }
+            cb.add(sampleIndex, start, end, value, description);
+            dataMin = Math.min(dataMin, value);
+            dataMax = Math.max(dataMax, value);
+        }
+
+        public boolean containsSample(String sample) {
+            return sampleIndexes.containsKey(sample);
+        }
+
+        public List<String> getSampleNames() {
+            return sampleNames;
+        }
+
+        private int getSampleIndex(String sample) {
+            Integer index = sampleIndexes.get(sample);
+            if (index == null) {
+                index = sampleNames.size();
+                sampleNames.add(sample);
+                sampleIndexes.put(sample, index);
+            }
+            return index;
+        }
+
+        public SegmentStore build() {
+            Map<String, Columns> columns = new LinkedHashMap<String, Columns>();
+            for (Map.Entry<String, ChrBuilder> entry : chromosomes.entrySet()) {
+                columns.put(entry.getKey(), entry.getValue().build(sampleNames.size()));
+            }
+            return new SegmentStore(new ArrayList<String>(sampleNames), columns, dataMin, dataMax);
+        }
+    }
+
+
+    private static class ChrBuilder {
+
+        final IntArrayList samples = new IntArrayList();
+        final IntArrayList starts = new IntArrayList();
+        final IntArrayList ends = new IntArrayList();
+        final FloatArrayList values = new FloatArrayList();
+        IntArrayList descOffsets;
+        ByteArrayOutputStream descBytes;
+
+        void add(int sampleIndex, int start, int end, float value, String description) {
+            if (description != null && descOffsets == null) {
+                // First description,  earlier rows have none
+                descOffsets = new IntArrayList(starts.size() + 2);
+                for (int i = 0; i <= starts.size(); i++) {
+                    descOffsets.add(0);
+                }
+                descBytes = new ByteArrayOutputStream();
+            }
+            samples.add(sampleIndex);
+            starts.add(start);
+            ends.add(end);
+            values.add(value);
+            if (descOffsets != null) {
+                if (description != null) {
+                    byte[] b = utf8(description);
+                    descBytes.write(b, 0, b.length);
+                }
+                descOffsets.add(descBytes.size());
+            }
+        }
+
+        Columns build(int nSamples) {
+            int n = starts.size();
+            int[] sampleArray = samples.toArray();
+            int[] startArray = starts.toArray();
+
+            // Counting sort by sample,  which keeps the input order within a sample
+            int[] sampleOffsets = new int[nSamples + 1];
+            for (int i = 0; i < n; i++) {
+                sampleOffsets[sampleArray[i] + 1]++;
+            }
+            for (int s = 0; s < nSamples; s++) {
+                sampleOffsets[s + 1] += sampleOffsets[s];
+            }
+            int[] order = new int[n];
+            int[] next = Arrays.copyOf(sampleOffsets, nSamples);
+            for (int i = 0; i < n; i++) {
+                order[next[sampleArray[i]]++] = i;
+            }
+
+            // Then a stable sort by start within each sample,  if not already sorted
+            for (int s = 0; s < nSamples; s++) {
+                sortByStart(order, sampleOffsets[s], sampleOffsets[s + 1], startArray);
+            }
+
+            int[] sortedStarts = new int[n];
+            int[] sortedEnds = new int[n];
+            float[] sortedValues = new float[n];
+            for (int i = 0; i < n; i++) {
+                int row = order[i];
+                sortedStarts[i] = startArray[row];
+                sortedEnds[i] = ends.get(row);
+                sortedValues[i] = values.get(row);
+            }
+
+            IntBuffer descOffsetBuffer = null;
+            ByteBuffer descByteBuffer = null;
+            if (descOffsets != null) {
+                byte[] bytes = descBytes.toByteArray();
+                byte[] sortedBytes = new byte[bytes.length];
+                int[] sortedOffsets = new int[n + 1];
+                for (int i = 0; i < n; i++) {
+                    int row = order[i];
+                    int from = descOffsets.get(row);
+                    int length = descOffsets.get(row + 1) - from;
+                    System.arraycopy(bytes, from, sortedBytes, sortedOffsets[i], length);
+                    sortedOffsets[i + 1] = sortedOffsets[i] + length;
+                }
+                descOffsetBuffer = IntBuffer.wrap(sortedOffsets);
+                descByteBuffer = ByteBuffer.wrap(sortedBytes);
+            }
+
+            return new Columns(IntBuffer.wrap(sortedStarts), IntBuffer.wrap(sortedEnds),
+                    FloatBuffer.wrap(sortedValues), IntBuffer.wrap(sampleOffsets), descOffsetBuffer, descByteBuffer);
+        }
+
+        private static void sortByStart(int[] order, int from, int to, int[] starts) {
+            boolean sorted = true;
+            for (int i = from + 1; i < to && sorted; i++) {
+                sorted = starts[order[i]] >= starts[order[i - 1]];
+            }
+            if (sorted) {
+                return;
+            }
+            // Start in the high bits,  position in the low bits for stability
+            long[] keys = new long[to - from];
+            for (int i = from; i < to; i++) {
+                keys[i - from] = ((long) starts[order[i]] << 32) | (i - from);
+            }
+            Arrays.sort(keys);
+            int[] tmp = Arrays.copyOfRange(order, from, to);
+            for (int i = 0; i < keys.length; i++) {
+                order[from + i] = tmp[(int) keys[i]];
+            }
+        }
+    }
+}
@@ -32,7 +32,6 @@ package org.broad.igv.data.seg;
 
 //~--- non-JDK imports --------------------------------------------------------
 
-import org.broad.igv.feature.FeatureUtils;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.track.TrackProperties;
@@ -40,6 +39,7 @@ import org.broad.igv.track.TrackType;
 import org.broad.igv.util.ResourceLocator;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -49,24 +49,12 @@ public class SegmentedAsciiDataSet implements SegmentedDataSet {
 
     //SegFileParser parser;
     TrackType trackType = TrackType.COPY_NUMBER;
-    float dataMax = -Float.MAX_VALUE;
-    float dataMin = Float.MAX_VALUE;
     /**
-     * Assume data is non-log value until suggested otherwise by the precense
-     * of negative numbers.  TODO This is a fragile assumption, the user should
-     * input this information directly.
+     * Segments are collected by the builder,  and sorted into the columnar store on first use
      */
-    private boolean logNormalized = false;
-    /**
-     * Map of [heading ->  [chr -> [list of chrSegments]]]
-     */
-    private Map<String, Map<String, List<LocusScore>>> segments = new HashMap();
-    /**
-     * Set of chromosomes represented in this dataset
-     */
-    private Set<String> chromosomes = new HashSet();
-    private List<String> headings = new ArrayList();
-    private Map<String, List<LocusScore>> wholeGenomeScoresCache = new HashMap();
+    private SegmentStore.Builder builder = new SegmentStore.Builder();
+    private SegmentStore store;
+    private Map<String, List<LocusScore>> wholeGenomeScoresCache = new ConcurrentHashMap<String, List<LocusScore>>();
     private long lastRefreshTime = 0;
     private TrackProperties trackProperties;
     Genome genome;
@@ -87,43 +75,43 @@ public class SegmentedAsciiDataSet implements SegmentedDataSet {
 
 
     public void sortLists() {
-        for (Map.Entry<String, Map<String, List<LocusScore>>> sampleEntry : segments.entrySet()) {
-            for (Map.Entry<String, List<LocusScore>> chrEntry : sampleEntry.getValue().entrySet()) {
-                List<LocusScore> tmp = chrEntry.getValue();
-                FeatureUtils.sortFeatureList(tmp);
-            }
-        }
+        getStore();
     }
 
 
     /**
      *
      */
-    public void addSegment(String heading, String c, int start, int end, float value, String desc) {
+    public synchronized void addSegment(String heading, String c, int start, int end, float value, String desc) {
 
         String chr = genome == null ? c : genome.getChromosomeAlias(c);
 
-        Map<String, List<LocusScore>> chrSegments = segments.get(heading);
-        if (chrSegments == null) {
-            headings.add(heading);
-            chrSegments = new HashMap();
-            segments.put(heading, chrSegments);
+        if (builder == null) {
+            builder = new SegmentStore.Builder(store);
+            store = null;
+            wholeGenomeScoresCache.clear();
         }
+        builder.add(heading, chr, start, end, value, desc);
+    }
 
-        List<LocusScore> segmentList = chrSegments.get(chr);
-        if (segmentList == null) {
-            segmentList = new ArrayList<LocusScore>();
-            chrSegments.put(chr, segmentList);
-        }
-        segmentList.add(new Segment(start, start, end, end, value, desc));
-        dataMax = Math.max(dataMax, value);
-        dataMin = Math.min(dataMin, value);
-        if (value < 0) {
-            logNormalized = true;
+    /**
+     * Return the columnar store,  sorting the segments added so far into it if needed.
+     */
+    public synchronized SegmentStore getStore() {
+        if (store == null) {
+            store = builder.build();
+            builder = null;
         }
+        return store;
+    }
 
-        chromosomes.add(chr);
-
+    /**
+     * Use segments from a store,  e.g. one read from a file,  in place of any added segments.
+     */
+    synchronized void setStore(SegmentStore store) {
+        this.store = store;
+        this.builder = null;
+        wholeGenomeScoresCache.clear();
     }
 
 
@@ -133,7 +121,7 @@ public class SegmentedAsciiDataSet implements SegmentedDataSet {
      * @return
      */
     public Set<String> getChromosomes() {
-        return chromosomes;
+        return getStore().getChromosomes();
     }
 
     /**
@@ -144,12 +132,11 @@ public class SegmentedAsciiDataSet implements SegmentedDataSet {
      * @return
      */
     public List<LocusScore> getSegments(String heading, String chr) {
-        Map<String, List<LocusScore>> chrSegments = segments.get(heading);
-        return (chrSegments == null) ? null : chrSegments.get(chr);
+        return getStore().getSegments(heading, chr);
     }
 
     public List<String> getSampleNames() {
-        return headings;
+        return getStore().getSampleNames();
     }
 
     /**
@@ -167,7 +154,10 @@ public class SegmentedAsciiDataSet implements SegmentedDataSet {
      * @return
      */
     public boolean isLogNormalized() {
-        return logNormalized;
+        // Assume data is non-log value until suggested otherwise by the precense
+        // of negative numbers.  TODO This is a fragile assumption, the user should
+        // input this information directly.
+        return getStore().getDataMin() < 0;
     }
 
     /**
@@ -177,7 +167,7 @@ public class SegmentedAsciiDataSet implements SegmentedDataSet {
      * @return
      */
     public double getDataMax(String chr) {
-        return dataMax;
+        return getStore().getDataMax();
     }
 
     /**
@@ -187,7 +177,7 @@ public class SegmentedAsciiDataSet implements SegmentedDataSet {
      * @return
      */
     public double getDataMin(String chr) {
-        return dataMin;
+        return getStore().getDataMin();
     }
 
     /**
@@ -201,31 +191,8 @@ public class SegmentedAsciiDataSet implements SegmentedDataSet {
 
         List<LocusScore> wholeGenomeScores = wholeGenomeScoresCache.get(heading);
         if ((wholeGenomeScores == null) || wholeGenomeScores.isEmpty()) {
-
-            // Compute the smallest concievable feature that could be viewed on the
-            // largest screen.  Be conservative.   The smallest feature is one at
-            // the screen resolution scale in <chr units> / <pixel>
-            double minFeatureSize = 0; // ((double) genome.getLength()) / (maxScreenSize * locationUnit);
-
-            long offset = 0;
-            wholeGenomeScores = new ArrayList(1000);
-            for (String chr : genome.getLongChromosomeNames()) {
-                List<LocusScore> chrSegments = getSegments(heading, chr);
-                if (chrSegments != null) {
-                    int lastgEnd = -1;
-                    for (LocusScore score : chrSegments) {
-                        Segment seg = (Segment) score;
-                        int gStart = genome.getGenomeCoordinate(chr, seg.getStart());
-                        int gEnd = genome.getGenomeCoordinate(chr, seg.getEnd());
-                         if ((gEnd - gStart) > minFeatureSize) {
-                            wholeGenomeScores.add(new Segment(gStart, gStart, gEnd,
-                                    gEnd, seg.getScore(), seg.getDescription()));
-                        }
-                    }
-
-                }
-                offset += genome.getChromosome(chr).getLength();
-            }
+            // A view over the columns,  whole genome coordinates are computed as segments are requested
+            wholeGenomeScores = getStore().getWholeGenomeScores(heading, genome);
             wholeGenomeScoresCache.put(heading, wholeGenomeScores);
         }
         return wholeGenomeScores;
@@ -34,8 +34,14 @@ import org.broad.igv.util.ResourceLocator;
 
 import java.awt.*;
 import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.*;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Class for database connections.  Manages connections based on
@@ -48,8 +54,29 @@ public class DBManager {
 
     private static Logger log = Logger.getLogger(DBManager.class);
 
-    static Map<String, Connection> connectionPool =
-            Collections.synchronizedMap(new HashMap<String, Connection>());
+    static Map<String, ConnectionPool> connectionPool =
+            Collections.synchronizedMap(new HashMap<String, ConnectionPool>());
+
+    /**
+     * Pooled physical connections,  so connections obtained from statements and result sets can be released
+     * back to their pool.
+     */
+    private static Map<Connection, PooledConnection> pooledConnections =
+            Collections.synchronizedMap(new IdentityHashMap<Connection, PooledConnection>());
+
+    /**
+     * Maximum number of open connections per database.  When all are in use callers wait up to
+     * {@link #CONNECTION_WAIT_MS} for one to be released,  then open an extra connection.
+     */
+    static int maxConnections = 4;
+    static final long CONNECTION_WAIT_MS = 10000;
+
+    /**
+     * Prepared statements kept per connection
+     */
+    static final int MAX_STATEMENTS = 32;
+
+    static final int FETCH_SIZE = 1000;
 
     private static Map<String, String> driverMap;
 
@@ -61,45 +88,86 @@ public class DBManager {
         driverMap.put("oracle", "oracle.jdbc.driver.OracleDriver");
     }
 
+    /**
+     * Return a connection from the pool for the locator's database.  Closing the connection returns it to the
+     * pool,  as does {@link #closeAll(ResultSet)} on a result set obtained from it.
+     *
+     * @param locator
+     * @return a connection,  or null if the database could not be connected to
+     */
     public static Connection getConnection(ResourceLocator locator) {
         String url = locator.getPath();
-        if (connectionPool.containsKey(url)) {
-            Connection conn = connectionPool.get(url);
-            try {
-                if (conn == null || conn.isClosed()) {
-                    connectionPool.remove(url);
-                } else {
-                    return conn;
-                }
-            } catch (SQLException e) {
-                log.error("Bad connection", e);
-                connectionPool.remove(url);
+        ConnectionPool pool;
+        synchronized (connectionPool) {
+            pool = connectionPool.get(url);
+            if (pool == null) {
+                pool = new ConnectionPool(url);
+                connectionPool.put(url, pool);
             }
         }
+        return pool.acquire(locator);
+    }
 
-        // No valid connections
-        Connection conn = connect(locator);
-        if (conn != null) {
-            connectionPool.put(url, conn);
-            log.info("Connection pool size: " + connectionPool.size());
+    public static void closeConnection(ResourceLocator locator) {
+        ConnectionPool pool = connectionPool.remove(locator.getPath());
+        if (pool != null) {
+            pool.close();
         }
-        return conn;
+    }
 
+    /**
+     * Return the connection to its pool,  or close it if it did not come from one.
+     *
+     * @param conn
+     * @throws SQLException
+     */
+    static void releaseConnection(Connection conn) throws SQLException {
+        PooledConnection pc = pooledConnections.get(conn);
+        if (pc != null) {
+            pc.release();
+        } else {
+            // Pooled proxies release themselves
+            conn.close();
+        }
     }
 
-    public static void closeConnection(ResourceLocator locator) {
-        String url = locator.getPath();
-        if (connectionPool.containsKey(url)) {
-            Connection conn = connectionPool.get(url);
-            try {
-                if (conn != null && !conn.isClosed()) {
-                    conn.close();
-                    connectionPool.remove(url);
-                }
-            } catch (SQLException e) {
-                log.error(e.getMessage(), e);
+    /**
+     * Return a prepared statement for {@code sql},  reusing one prepared earlier on the same physical connection
+     * when possible.  Cached statements are closed along with their connection,  so callers should close only
+     * the ResultSet,  not the statement.
+     *
+     * @param conn a connection obtained from {@link #getConnection(ResourceLocator)}
+     * @param sql
+     * @return
+     * @throws SQLException
+     */
+    public static PreparedStatement prepareStatement(Connection conn, String sql) throws SQLException {
+        PooledConnection pc = getPooledConnection(conn);
+        if (pc == null) {
+            return conn.prepareStatement(sql);
+        }
+        return pc.prepareStatement(sql);
+    }
+
+    /**
+     * Fetch size for reading large result sets without buffering them entirely in the driver.  MySQL only
+     * streams rows with a fetch size of Integer.MIN_VALUE.
+     *
+     * @param locator
+     * @return
+     */
+    public static int getStreamingFetchSize(ResourceLocator locator) {
+        return "mysql".equals(getSubprotocol(locator.getPath())) ? Integer.MIN_VALUE : FETCH_SIZE;
+    }
+
+    private static PooledConnection getPooledConnection(Connection conn) {
+        if (Proxy.isProxyClass(conn.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(conn);
+            if (handler instanceof Lease) {
+                return ((Lease) handler).pooled;
             }
         }
+        return pooledConnections.get(conn);
     }
 
     private static String getSubprotocol(String url) {
@@ -136,16 +204,14 @@ public class DBManager {
     }
 
     public static void shutdown() {
-        for (Connection conn : connectionPool.values()) {
-            if (conn != null) {
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                    log.error("Error shutting down " + conn.toString(), e);
-                }
-            }
+        List<ConnectionPool> pools;
+        synchronized (connectionPool) {
+            pools = new ArrayList<ConnectionPool>(connectionPool.values());
+            connectionPool.clear();
+        }
+        for (ConnectionPool pool : pools) {
+            pool.close();
         }
-        connectionPool.clear();
     }
 
     public static java.lang.Class<?> createDriver(String subprotocol) {
@@ -242,8 +308,7 @@ public class DBManager {
         }
         if (conn != null) {
             try {
-                conn.close();
-                pruneConnectionPool();
+                releaseConnection(conn);
             } catch (SQLException e) {
                 log.error("Error closing sql connection", e);
             }
@@ -251,22 +316,6 @@ public class DBManager {
 
     }
 
-    /**
-     * Remove all closed connection objects from the connection pool.
-     * @throws SQLException
-     */
-    private static void pruneConnectionPool() throws SQLException{
-        Set<String> toRemove = new HashSet<String>();
-        for(Map.Entry<String, Connection> entry: connectionPool.entrySet()){
-            if(entry.getValue().isClosed()){
-                toRemove.add(entry.getKey());
-            }
-        }
-        for(String url: toRemove){
-            connectionPool.remove(url);
-        }
-    }
-
     /**
      * Convert the ResultSet into a string array, re-arranging columns according to
      * {@code columnIndexMap}, which is a map from array indexes -> sql column indexes
@@ -352,4 +401,240 @@ public class DBManager {
         }
     }
 
+
+    /**
+     * Connections to a single database.  Idle connections are reused most recently released first.
+     */
+    static class ConnectionPool {
+
+        private final String url;
+        private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+        private int openCount = 0;
+        private boolean closed = false;
+
+        ConnectionPool(String url) {
+            this.url = url;
+        }
+
+        Connection acquire(ResourceLocator locator) {
+            int count;
+            synchronized (this) {
+                long deadline = System.currentTimeMillis() + CONNECTION_WAIT_MS;
+                while (true) {
+                    while (!idle.isEmpty()) {
+                        PooledConnection pc = idle.removeFirst();
+                        if (pc.isValid()) {
+                            return pc.checkOut();
+                        }
+                        discard(pc);
+                    }
+                    if (openCount < maxConnections) {
+                        break;
+                    }
+                    long wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        log.warn("All " + maxConnections + " connections to " + url + " are in use, opening another");
+                        break;
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                count = ++openCount;
+            }
+
+            Connection conn = null;
+            try {
+                conn = connect(locator);
+            } finally {
+                if (conn == null) {
+                    synchronized (this) {
+                        openCount--;
+                        notifyAll();
+                    }
+                }
+            }
+            if (conn == null) {
+                return null;
+            }
+            PooledConnection pc = new PooledConnection(this, conn);
+            pooledConnections.put(conn, pc);
+            log.info("Opened connection " + count + " to " + url);
+            return pc.checkOut();
+        }
+
+        synchronized void release(PooledConnection pc) {
+            if (closed || openCount > maxConnections || !pc.isValid()) {
+                discard(pc);
+            } else {
+                idle.addFirst(pc);
+            }
+            notifyAll();
+        }
+
+        synchronized int getOpenCount() {
+            return openCount;
+        }
+
+        synchronized int getIdleCount() {
+            return idle.size();
+        }
+
+        /**
+         * Close idle connections.  Connections in use are closed when they are released.
+         */
+        synchronized void close() {
+            closed = true;
+            for (PooledConnection pc : idle) {
+                discard(pc);
+            }
+            idle.clear();
+            notifyAll();
+        }
+
+        private void discard(PooledConnection pc) {
+            openCount--;
+            pc.closePhysical();
+        }
+    }
+
+    /**
+     * A physical connection and its prepared statements.
+     */
+    static class PooledConnection {
+
+        private final ConnectionPool pool;
+        private final Connection connection;
+        private final Map<String, PreparedStatement> statements;
+        private volatile Lease lease;
+
+        PooledConnection(ConnectionPool pool, Connection connection) {
+            this.pool = pool;
+            this.connection = connection;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > MAX_STATEMENTS) {
+                        closeStatement(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        /**
+         * Hand out the connection.  Each caller gets its own proxy,  so closing a stale proxy cannot release
+         * the connection from under its next user.
+         */
+        Connection checkOut() {
+            Lease newLease = new Lease(this);
+            lease = newLease;
+            return newLease.proxy;
+        }
+
+        void release() {
+            Lease current = lease;
+            if (current != null) {
+                current.release();
+            }
+        }
+
+        PreparedStatement prepareStatement(String sql) throws SQLException {
+            synchronized (statements) {
+                PreparedStatement st = statements.get(sql);
+                if (st == null) {
+                    st = connection.prepareStatement(sql);
+                    statements.put(sql, st);
+                } else {
+                    st.clearParameters();
+                }
+                return st;
+            }
+        }
+
+        boolean isValid() {
+            try {
+                return !connection.isClosed();
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void closePhysical() {
+            pooledConnections.remove(connection);
+            synchronized (statements) {
+                for (PreparedStatement st : statements.values()) {
+                    closeStatement(st);
+                }
+                statements.clear();
+            }
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                log.error("Error closing sql connection", e);
+            }
+        }
+
+        private static void closeStatement(PreparedStatement st) {
+            try {
+                st.close();
+            } catch (SQLException e) {
+                log.error("Error closing statement", e);
+            }
+        }
+    }
+
+    /**
+     * One checkout of a pooled connection.  The proxy delegates to the physical connection until it is closed,
+     * which returns the connection to the pool.
+     */
+    private static class Lease implements InvocationHandler {
+
+        private final PooledConnection pooled;
+        private final Connection proxy;
+        private final AtomicBoolean active = new AtomicBoolean(true);
+
+        Lease(PooledConnection pooled) {
+            this.pooled = pooled;
+            this.proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class[]{Connection.class}, this);
+        }
+
+        void release() {
+            if (active.compareAndSet(true, false)) {
+                pooled.pool.release(pooled);
+            }
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            int nArgs = args == null ? 0 : args.length;
+            if (name.equals("close") && nArgs == 0) {
+                release();
+                return null;
+            } else if (name.equals("isClosed") && nArgs == 0) {
+                return !active.get() || pooled.connection.isClosed();
+            } else if (name.equals("equals") && nArgs == 1) {
+                return proxy == args[0];
+            } else if (name.equals("hashCode") && nArgs == 0) {
+                return System.identityHashCode(proxy);
+            } else if (name.equals("toString") && nArgs == 0) {
+                return "Pooled " + pooled.connection;
+            }
+
+            if (!active.get()) {
+                throw new SQLException("Connection has been returned to the pool");
+            }
+            try {
+                return method.invoke(pooled.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
 }
@@ -82,14 +82,23 @@ public class DBReader {
         }
     }
 
+    /**
+     * Execute the query.  The caller must release the statement and connection with
+     * {@link DBManager#closeAll(ResultSet)},  they are released here if the query fails.
+     */
     protected ResultSet executeQuery(String queryString) {
 
+        Connection conn = DBManager.getConnection(locator);
+        if (conn == null) {
+            throw new RuntimeException("Unable to connect to " + locator.getPath());
+        }
+        Statement st = null;
         try {
-            Connection conn = DBManager.getConnection(locator);
-            Statement st = conn.createStatement();
+            st = conn.createStatement();
             return st.executeQuery(queryString);
         } catch (SQLException e) {
             log.error("Database error", e);
+            DBManager.closeResources(null, st, conn);
             throw new RuntimeException("Database error", e);
         }
     }
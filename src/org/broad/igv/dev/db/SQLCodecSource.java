@@ -26,6 +26,7 @@
 package org.broad.igv.dev.db;
 
 import org.apache.log4j.Logger;
+import org.broad.igv.feature.AbstractCacher;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.feature.genome.GenomeManager;
 import org.broad.igv.feature.tribble.CodecFactory;
@@ -41,10 +42,10 @@ import htsjdk.tribble.readers.LineIteratorImpl;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Types;
 import java.util.*;
 
 
@@ -105,7 +106,22 @@ public class SQLCodecSource extends DBQueryReader<Feature> implements FeatureSou
     protected int endColIndex = Integer.MAX_VALUE;
     private int featureWindowSize = (int) 1e6;
 
-    private static final int MAX_BINS = 20;
+    /**
+     * Results are cached in tiles aligned with the 1 Mb level of the bin index
+     */
+    private static final int TILE_SIZE = 1 << 20;
+    private static final int MAX_TILES = 64;
+
+    private final AbstractCacher cacher = new AbstractCacher(MAX_TILES, TILE_SIZE) {
+        @Override
+        protected Iterator<Feature> queryRaw(String chr, int start, int end) throws IOException {
+            // AbstractCacher passes a 1-based start
+            return query(chr, Math.max(0, start - 1), end).iterator();
+        }
+    };
+
+    private String rangeQuery;
+    private String extendedRangeQuery;
 
     SQLCodecSource(DBProfile.DBTable table, AsciiFeatureCodec codec) {
         super(table);
@@ -116,6 +132,8 @@ public class SQLCodecSource extends DBQueryReader<Feature> implements FeatureSou
         this.posEndColName = table.getPosEndColName();
         this.startColIndex = table.getStartColIndex();
         this.endColIndex = table.getEndColIndex();
+        this.rangeQuery = buildRangeQuery(false);
+        this.extendedRangeQuery = buildRangeQuery(true);
 
         readHeader();
     }
@@ -236,109 +254,112 @@ public class SQLCodecSource extends DBQueryReader<Feature> implements FeatureSou
     }
 
     /**
-     * @param useBinning Whether to query using bin column, for efficiency
-     * @throws IOException
+     * Build the range query.  When the table has a bin column the query is restricted to the bins which can
+     * hold overlapping features,  one "bin BETWEEN ? AND ?" per level.
+     *
+     * @param extended Whether to include the extended bins,  needed for queries ending beyond 512 Mb
+     * @return
      */
-    private PreparedStatement generateQueryStatement(boolean useBinning) throws IOException {
-        PreparedStatement queryStatement;
-
+    private String buildRangeQuery(boolean extended) {
         String prependWord = baseQueryString.contains("WHERE") ? " AND " : " WHERE ";
-        String queryString = baseQueryString + prependWord + String.format("%s = ? AND ( (%s >= ? AND %s < ?)",
-                chromoColName, posStartColName, posStartColName);
+        StringBuilder query = new StringBuilder(baseQueryString);
         //Don't always have an end position, just assume locations are single base
-        if (posEndColName != null) {
-            queryString += String.format(" OR (%s < ? AND %s >= ?)", posStartColName, posEndColName);
-        }
-        queryString += " )";
-
-        String orderClause = "ORDER BY " + posStartColName;
+        String endCol = posEndColName != null ? posEndColName : posStartColName;
+        query.append(prependWord).append(chromoColName).append(" = ? AND ").append(posStartColName).append(" < ? AND ")
+                .append(endCol).append(" >= ?");
 
-        try {
-            if (useBinning) {
-                String[] qs = new String[MAX_BINS];
-                Arrays.fill(qs, "?");
-                String binnedQueryString = queryString + String.format(" AND %s IN (%s) %s", binColName, StringUtils.join(qs, ","), orderClause);
-                queryStatement = DBManager.getConnection(locator).prepareStatement(binnedQueryString);
-            } else {
-                queryStatement = DBManager.getConnection(locator).prepareStatement(queryString + " " + orderClause);
+        if (binColName != null) {
+            int levels = binOffsets.length + (extended ? binOffsetsExtended.length : 0);
+            query.append(" AND (");
+            for (int i = 0; i < levels; i++) {
+                query.append(binColName).append(" BETWEEN ? AND ? OR ");
             }
-            return queryStatement;
-        } catch (SQLException e) {
-            log.error("Error initializing query statement", e);
-            throw new IOException(e);
+            query.append(binColName).append(" = ").append(_binOffsetOldToExtended).append(")");
         }
-
+        query.append(" ORDER BY ").append(posStartColName);
+        return query.toString();
     }
 
-    private Iterator query(String chr, int start, int end) throws IOException {
+    /**
+     * Query the database for features overlapping [start, end).  Statements are prepared once per connection
+     * and rows are streamed,  see {@link DBManager#getStreamingFetchSize(org.broad.igv.util.ResourceLocator)}.
+     */
+    List<Feature> query(String chr, int start, int end) throws IOException {
+        boolean extended = end > BINRANGE_MAXEND_512M;
+        String queryString = extended ? extendedRangeQuery : rangeQuery;
 
-        Set<Integer> bins = null;
-        boolean useBinning = false;
-        if (binColName != null) {
-            bins = calculateBins(start, end);
-            useBinning = bins.size() < MAX_BINS;
+        Connection conn = DBManager.getConnection(locator);
+        if (conn == null) {
+            throw new IOException("Unable to connect to " + locator.getPath());
         }
-        PreparedStatement statement = generateQueryStatement(useBinning);
-
+        ResultSet rs = null;
         try {
-            statement.clearParameters();
-            statement.setString(1, chr);
-            statement.setInt(3, end);
-
-            int[] startCols = new int[]{2};
-            if (this.posEndColName != null) {
-                startCols = new int[]{2, 4, 5};
-            }
-
-            for (Integer cc : startCols) {
-                statement.setInt(cc, start);
-            }
-
-            if (useBinning) {
-                int qnum = 6;
-                for (Integer bin : bins) {
-                    statement.setInt(qnum, bin);
-                    qnum++;
+            PreparedStatement statement = DBManager.prepareStatement(conn, queryString);
+            statement.setFetchSize(DBManager.getStreamingFetchSize(locator));
+            int qnum = 1;
+            statement.setString(qnum++, chr);
+            statement.setInt(qnum++, end);
+            statement.setInt(qnum++, start);
+            if (binColName != null) {
+                for (int bin : binRanges(start, end)) {
+                    statement.setInt(qnum++, bin);
                 }
+            }
 
-                for (; qnum <= statement.getParameterMetaData().getParameterCount(); qnum++) {
-                    statement.setNull(qnum, Types.INTEGER);
+            rs = statement.executeQuery();
+            List<Feature> features = new ArrayList<Feature>();
+            while (rs.next()) {
+                Feature feature = processResult(rs);
+                if (feature != null) {
+                    features.add(feature);
                 }
             }
-
+            return features;
         } catch (SQLException e) {
             log.error(e.getMessage(), e);
             throw new IOException(e);
+        } finally {
+            // The statement is cached with the connection
+            DBManager.closeResources(rs, null, conn);
         }
-
-        return loadIterator(statement);
     }
 
-
-    private static final int SMALLEST_BIN_SIZE = 128 * 1024;
-
-    private Set<Integer> calculateBins(int start, int end) {
-        int length = end - start;
-        int sweepLength = SMALLEST_BIN_SIZE;
-        Set<Integer> bins = new HashSet<Integer>(2 * (length) / SMALLEST_BIN_SIZE);
-
-        while (sweepLength < BINRANGE_MAXEND_512M) {
-            int tstStart = Math.max(start - sweepLength / 2, 0);
-            while (tstStart < end) {
-                bins.add(binFromRange(tstStart, tstStart += sweepLength));
-                if (tstStart < 0) {
-                    throw new IllegalArgumentException("Overflow while calculating bins");
-                }
-            }
-            sweepLength *= 2;
+    /**
+     * Bins which can hold features overlapping [start, end),  as inclusive (first, last) pairs per level.  From
+     * hAddBinToQueryGeneral in the UCSC source,  see http://genomewiki.ucsc.edu/index.php/Bin_indexing_system
+     */
+    static int[] binRanges(int start, int end) {
+        end = Math.max(end, start + 1);
+        boolean extended = end > BINRANGE_MAXEND_512M;
+        int[] ranges = new int[2 * (binOffsets.length + (extended ? binOffsetsExtended.length : 0))];
+        int n = addBinRanges(ranges, 0, start, Math.min(end, BINRANGE_MAXEND_512M), binOffsets, 0);
+        if (extended) {
+            addBinRanges(ranges, n, start, end, binOffsetsExtended, _binOffsetOldToExtended);
         }
-        bins.add(binFromRange(start, end));
+        return ranges;
+    }
 
-        return bins;
+    private static int addBinRanges(int[] ranges, int n, int start, int end, int[] offsets, int extraOffset) {
+        int startBin = start >> _binFirstShift;
+        int endBin = (end - 1) >> _binFirstShift;
+        for (int offset : offsets) {
+            ranges[n++] = startBin + offset + extraOffset;
+            ranges[n++] = endBin + offset + extraOffset;
+            startBin >>= _binNextShift;
+            endBin >>= _binNextShift;
+        }
+        return n;
     }
 
     private static final int BINRANGE_MAXEND_512M = 512 * 1024 * 1024;
     private static final int _binOffsetOldToExtended = 4681;
+    /** How much to shift to get to first bin. */
+    private static final int _binFirstShift = 17;
+    /** How much to shift to get to next larger bin.*/
+    private static final int _binNextShift = 3;
+
+    private static final int[] binOffsets = {512 + 64 + 8 + 1, 64 + 8 + 1, 8 + 1, 1, 0};
+    private static final int[] binOffsetsExtended = {4096 + 512 + 64 + 8 + 1, 512 + 64 + 8 + 1, 64 + 8 + 1, 8 + 1, 1, 0};
 
     /**
      * From http://genomewiki.ucsc.edu/index.php/Bin_indexing_system
@@ -354,22 +375,7 @@ public class SQLCodecSource extends DBQueryReader<Feature> implements FeatureSou
             extended = true;
         }
 
-        final int binOffsetsExtended[] = {
-                4096 + 512 + 64 + 8 + 1,
-                512 + 64 + 8 + 1,
-                64 + 8 + 1,
-                8 + 1,
-                1,
-                0};
-
-        int[] binOffsets = Arrays.copyOfRange(binOffsetsExtended,
-                extended ? 0 : 1, binOffsetsExtended.length);
-
-
-        /** How much to shift to get to first bin. */
-        final int _binFirstShift = 17;
-        /** How much to shift to get to next larger bin.*/
-        final int _binNextShift = 3;
+        int[] offsets = extended ? binOffsetsExtended : binOffsets;
 
         int startBin = start;
         int endBin = end - 1;
@@ -378,7 +384,7 @@ public class SQLCodecSource extends DBQueryReader<Feature> implements FeatureSou
         endBin >>= _binFirstShift;
         int bin = -1;
 
-        for (int binOffset : binOffsets) {
+        for (int binOffset : offsets) {
 
             if (startBin == endBin) {
                 bin = binOffset + startBin;
@@ -424,7 +430,7 @@ public class SQLCodecSource extends DBQueryReader<Feature> implements FeatureSou
         if (end - start > featureWindowSize) {
             return null;
         }
-        return query(chr, start, end);
+        return cacher.queryCached(chr, start, end);
     }
 
     @Override
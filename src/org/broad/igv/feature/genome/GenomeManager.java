@@ -107,7 +107,8 @@ public class GenomeManager {
         if (theInstance == null) {
             theInstance = new GenomeManager();
         }
-        return IGV.getInstance().getGenomeManager();//theInstance;
+        // igvtools and other headless callers run without an IGV instance
+        return IGV.hasInstance() ? IGV.getInstance().getGenomeManager() : theInstance;
     }
     
     public synchronized static GenomeManager createInstance() {
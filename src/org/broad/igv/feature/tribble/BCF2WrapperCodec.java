@@ -39,6 +39,7 @@ import htsjdk.variant.variantcontext.VariantContext;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
 /**
  * @author Jacob Silterra
@@ -51,6 +52,9 @@ public class BCF2WrapperCodec implements FeatureCodec<VCFVariant, PositionalBuff
     FeatureCodec<VariantContext, PositionalBufferedStream> wrappedCodec;
     Genome genome;
 
+    // Header samples,  if genotypes are decoded lazily
+    List<String> lazySampleNames;
+
     public BCF2WrapperCodec(FeatureCodec<VariantContext, PositionalBufferedStream> wrappedCodec, Genome genome) {
         this.wrappedCodec = wrappedCodec;
         this.genome = genome;
@@ -63,7 +67,7 @@ public class BCF2WrapperCodec implements FeatureCodec<VCFVariant, PositionalBuff
             return null;
         }
         String chr = genome == null ? vc.getChr() : genome.getChromosomeAlias(vc.getChr());
-        return new VCFVariant(vc, chr);
+        return new VCFVariant(vc, chr, lazySampleNames);
 
     }
 
@@ -74,7 +78,9 @@ public class BCF2WrapperCodec implements FeatureCodec<VCFVariant, PositionalBuff
 
     @Override
     public FeatureCodecHeader readHeader(PositionalBufferedStream stream) throws IOException {
-        return this.wrappedCodec.readHeader(stream);
+        FeatureCodecHeader header = this.wrappedCodec.readHeader(stream);
+        lazySampleNames = VCFWrapperCodec.getLazySampleNames(header.getHeaderValue());
+        return header;
     }
 
     @Override
@@ -0,0 +1,375 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.feature.tribble;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import htsjdk.tribble.readers.AsciiLineReader;
+import org.apache.log4j.Logger;
+import org.broad.igv.Globals;
+import org.broad.igv.track.GFFFeatureSource;
+import org.broad.igv.tools.sort.Sorter;
+import org.broad.igv.util.FileUtils;
+
+import java.io.*;
+import java.util.concurrent.*;
+
+/**
+ * Creates sorted,  bgzipped and tabix indexed copies of large local BED and GFF files,  so they can be queried by
+ * region instead of loaded whole.
+ * <p/>
+ * Each file gets a directory,  named by a hash of its path,  holding the compressed copy,  its ".tbi" index,  and a
+ * "source" file recording the path,  size and modification time it was made from.  The source file is written
+ * last,  so a copy is only used if it is complete and the original has not changed since.  Copies are made on a
+ * single background thread.
+ */
+public class FeatureFileIndexer {
+
+    private static Logger log = Logger.getLogger(FeatureFileIndexer.class);
+
+    private static final String SOURCE_FILE = "source";
+
+    // Smaller files are loaded quickly enough
+    public static final long MIN_FILE_SIZE = 10 * 1024 * 1024;
+
+    // Unused copies are removed after this time
+    private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+
+    private static boolean pruned = false;
+
+    private static ExecutorService executor;
+
+    private final File file;
+    private final File directory;
+    private final TabixFormat format;
+    private Future<File> future;
+
+    /**
+     * Called on the indexing thread when the indexed copy has been created,  or could not be.
+     */
+    public interface Listener {
+        void indexCreated(File indexedFile);
+
+        void indexFailed(Exception e);
+    }
+
+    /**
+     * Return the indexer for a feature file,  or null if the file should not be indexed (remote,  compressed,  small,
+     * or not BED or GFF),  or the directory cannot be used.
+     *
+     * @param root    root directory,  see DirectoryManager.getFeatureIndexDirectory()
+     * @param path    path of the feature file
+     * @param minSize minimum size of files to index
+     */
+    public static FeatureFileIndexer open(File root, String path, long minSize) {
+
+        if (root == null || FileUtils.isRemote(path) || path.toLowerCase().endsWith(".gz")) {
+            return null;
+        }
+        TabixFormat format = getTabixFormat(path);
+        File file = new File(path);
+        if (format == null || !file.isFile() || file.length() < minSize) {
+            return null;
+        }
+
+        pruneOnce(root);
+        File directory = new File(root, FileUtils.md5Hex(file.getAbsolutePath()));
+        if (!directory.exists() && !directory.mkdirs()) {
+            log.info("Could not create feature index directory " + directory);
+            return null;
+        }
+        return new FeatureFileIndexer(file, directory, format);
+    }
+
+    FeatureFileIndexer(File file, File directory, TabixFormat format) {
+        this.file = file;
+        this.directory = directory;
+        this.format = format;
+    }
+
+    /**
+     * Return the tabix format for the file type,  or null if indexing is not supported.
+     */
+    static TabixFormat getTabixFormat(String path) {
+        String fn = path.toLowerCase();
+        if (fn.endsWith(".txt")) {
+            fn = fn.substring(0, fn.length() - 4);
+        }
+        if (fn.endsWith(".bed")) {
+            return TabixFormat.BED;
+        } else if (GFFFeatureSource.isGFF(fn)) {
+            return TabixFormat.GFF;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * The compressed copy.  Its name keeps the original extension,  so the same codec is used to read it.
+     */
+    public File getIndexedFile() {
+        return new File(directory, file.getName() + ".gz");
+    }
+
+    /**
+     * Return true if a complete copy exists for the current version of the file.
+     */
+    public boolean isIndexed() {
+        File sourceFile = new File(directory, SOURCE_FILE);
+        File indexedFile = getIndexedFile();
+        if (!sourceFile.exists() || !indexedFile.exists() || !new File(indexedFile.getPath() + ".tbi").exists()) {
+            return false;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(sourceFile));
+            if (getSourceString().equals(reader.readLine())) {
+                // Mark as used
+                sourceFile.setLastModified(System.currentTimeMillis());
+                return true;
+            }
+            return false;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private String getSourceString() {
+        return file.getAbsolutePath() + "\t" + file.length() + "\t" + file.lastModified();
+    }
+
+    /**
+     * Create the indexed copy on the background thread,  unless it exists or is being created.  The listener,
+     * if any,  is called when the copy has been created or indexing has failed.
+     */
+    public synchronized Future<File> submit(final Listener listener) {
+        if (future == null) {
+            future = getExecutor().submit(new Callable<File>() {
+                public File call() throws Exception {
+                    File indexedFile;
+                    try {
+                        indexedFile = isIndexed() ? getIndexedFile() : createIndexedFile();
+                    } catch (Exception e) {
+                        log.error("Error indexing " + file.getAbsolutePath(), e);
+                        if (listener != null) {
+                            listener.indexFailed(e);
+                        }
+                        throw e;
+                    }
+                    if (listener != null) {
+                        listener.indexCreated(indexedFile);
+                    }
+                    return indexedFile;
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * Sort the file,  then compress and index the sorted copy.
+     */
+    File createIndexedFile() throws IOException {
+
+        long t0 = System.currentTimeMillis();
+        File sourceFile = new File(directory, SOURCE_FILE);
+        sourceFile.delete();
+
+        File sortedFile = null;
+        File tmpFile = null;
+        File tmpIndexFile = null;
+        try {
+            sortedFile = File.createTempFile(file.getName(), ".tmp", directory);
+            tmpFile = File.createTempFile(getIndexedFile().getName(), ".tmp", directory);
+            tmpIndexFile = File.createTempFile(getIndexedFile().getName() + ".tbi", ".tmp", directory);
+
+            Sorter sorter = Sorter.getSorter(file, sortedFile);
+            if (sorter == null) {
+                throw new IOException("Sorting not supported for " + file.getName());
+            }
+            sorter.setTmpDir(directory);
+            sorter.run();
+
+            TabixIndex index = compressAndIndex(sortedFile, tmpFile);
+            index.write(tmpIndexFile);
+
+            File indexedFile = getIndexedFile();
+            File indexFile = new File(indexedFile.getPath() + ".tbi");
+            indexedFile.delete();
+            indexFile.delete();
+            if (!tmpFile.renameTo(indexedFile) || !tmpIndexFile.renameTo(indexFile)) {
+                throw new IOException("Could not rename " + tmpFile);
+            }
+
+            PrintWriter pw = new PrintWriter(new FileWriter(sourceFile));
+            pw.println(getSourceString());
+            pw.close();
+
+            log.info("Indexed " + file.getAbsolutePath() + " in " + (System.currentTimeMillis() - t0) + " ms");
+            return indexedFile;
+        } finally {
+            for (File f : new File[]{sortedFile, tmpFile, tmpIndexFile}) {
+                if (f != null) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the sorted file to a block compressed file,  indexing the features as they are written.
+     */
+    TabixIndex compressAndIndex(File sortedFile, File outputFile) throws IOException {
+
+        boolean zeroBased = (format.flags & TabixFormat.ZERO_BASED) != 0;
+        int seqCol = format.sequenceColumn - 1;
+        int startCol = format.startPositionColumn - 1;
+        int endCol = format.endPositionColumn - 1;
+        int nCols = Math.max(seqCol, Math.max(startCol, endCol)) + 1;
+
+        // Header lines which do not start with the meta character are skipped by count
+        TabixFormat outputFormat = format.clone();
+        outputFormat.numHeaderLinesToSkip = countHeaderLines(sortedFile);
+        TabixIndexCreator indexCreator = new TabixIndexCreator(outputFormat);
+
+        AsciiLineReader reader = null;
+        BlockCompressedOutputStream os = null;
+        try {
+            reader = new AsciiLineReader(new BufferedInputStream(new FileInputStream(sortedFile)));
+            os = new BlockCompressedOutputStream(outputFile);
+
+            int lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long position = os.getFilePointer();
+                os.write(line.getBytes());
+                os.write('\n');
+
+                if (lineNumber++ < outputFormat.numHeaderLinesToSkip ||
+                        line.length() == 0 || line.charAt(0) == format.metaCharacter) {
+                    continue;
+                }
+
+                String[] tokens = Globals.tabPattern.split(line, -1);
+                if (tokens.length < nCols) {
+                    tokens = Globals.whitespacePattern.split(line);
+                    if (tokens.length < nCols) {
+                        continue;
+                    }
+                }
+                try {
+                    int start = Integer.parseInt(tokens[startCol].trim());
+                    int end = endCol >= 0 ? Integer.parseInt(tokens[endCol].trim()) : start;
+                    if (zeroBased) {
+                        start++;
+                    }
+                    indexCreator.addFeature(new SimpleFeature(tokens[seqCol], start, Math.max(start, end)), position);
+                } catch (NumberFormatException e) {
+                    // Not a feature line,  the codec will skip it too
+                }
+            }
+            os.flush();
+            return (TabixIndex) indexCreator.finalizeIndex(os.getFilePointer());
+        } finally {
+            if (reader != null) reader.close();
+            if (os != null) os.close();
+        }
+    }
+
+    /**
+     * Count the header lines at the start of the file,  up to the last "track" or "browser" line.
+     */
+    private int countHeaderLines(File sortedFile) throws IOException {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(sortedFile));
+            int count = 0;
+            int n = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                n++;
+                if (line.startsWith("track") || line.startsWith("browser")) {
+                    count = n;
+                } else if (line.length() > 0 && line.charAt(0) != format.metaCharacter) {
+                    break;
+                }
+            }
+            return count;
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Feature file indexer");
+                    t.setDaemon(true);
+                    t.setPriority(Thread.MIN_PRIORITY);
+                    return t;
+                }
+            });
+        }
+        return executor;
+    }
+
+    /**
+     * Remove copies which have not been used for a while.  Done once per session.
+     */
+    private static synchronized void pruneOnce(File root) {
+        if (pruned) {
+            return;
+        }
+        pruned = true;
+        File[] dirs = root.listFiles();
+        if (dirs == null) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - MAX_AGE;
+        for (File dir : dirs) {
+            File sourceFile = new File(dir, SOURCE_FILE);
+            if (dir.isDirectory() && sourceFile.exists() && sourceFile.lastModified() < cutoff) {
+                FileUtils.deleteDir(dir);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                log.error("Error closing " + c, e);
+            }
+        }
+    }
+}
@@ -26,6 +26,7 @@
 package org.broad.igv.feature.tribble;
 
 import org.apache.log4j.Logger;
+import org.broad.igv.PreferenceManager;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.variant.Variant;
 import org.broad.igv.variant.vcf.VCFVariant;
@@ -33,8 +34,10 @@ import htsjdk.tribble.AsciiFeatureCodec;
 import htsjdk.tribble.Feature;
 import htsjdk.tribble.readers.LineIterator;
 import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFHeader;
 
 import java.io.IOException;
+import java.util.List;
 
 /**
  * @author Jim Robinson
@@ -47,6 +50,9 @@ public class VCFWrapperCodec extends AsciiFeatureCodec<VCFVariant> {
     AsciiFeatureCodec wrappedCodec;
     Genome genome;
 
+    // Header samples,  if genotypes are decoded lazily
+    List<String> lazySampleNames;
+
     public VCFWrapperCodec(AsciiFeatureCodec wrappedCodec, Genome genome) {
         super(VCFVariant.class);
         this.wrappedCodec = wrappedCodec;
@@ -64,12 +70,15 @@ public class VCFWrapperCodec extends AsciiFeatureCodec<VCFVariant> {
         // but does not currently support missing only certain elements of a field.
         // IGV is much more permissive.
 
+        // Lines which might need reformatting are parsed eagerly,  so the fix below can be applied
+        boolean lazy = lazySampleNames != null && !line.contains(",.") && !line.contains(".,");
+
         VariantContext vc = null;
         try {
             vc = (VariantContext) wrappedCodec.decode(line);
             //The genotype fields are loaded lazily, we force parsing here to
             //catch the exception if necessary
-            if (vc != null) vc.getSampleNames();
+            if (vc != null && !lazy) vc.getSampleNames();
         } catch (NumberFormatException e) {
             String msg = String.format("NumberFormatException on line: %s \n Attempting to reformat by replacing ,., with ,0,", line);
             log.warn(msg);
@@ -83,13 +92,29 @@ public class VCFWrapperCodec extends AsciiFeatureCodec<VCFVariant> {
             return null;
         }
         String chr = genome == null ? vc.getChr() : genome.getChromosomeAlias(vc.getChr());
-        return new VCFVariant(vc, chr);
+        return new VCFVariant(vc, chr, lazy ? lazySampleNames : null);
 
     }
 
     @Override
     public Object readActualHeader(LineIterator reader) {
-        return wrappedCodec.readActualHeader(reader);
+        Object header = wrappedCodec.readActualHeader(reader);
+        lazySampleNames = getLazySampleNames(header);
+        return header;
+    }
+
+    /**
+     * Return the header samples if there are enough of them that genotypes should be decoded lazily,  otherwise null.
+     */
+    static List<String> getLazySampleNames(Object header) {
+        if (header instanceof VCFHeader) {
+            int threshold = PreferenceManager.getInstance().getAsInt(PreferenceManager.VCF_LAZY_GENOTYPE_SAMPLES);
+            List<String> samples = ((VCFHeader) header).getGenotypeSamples();
+            if (threshold >= 0 && samples.size() >= threshold) {
+                return samples;
+            }
+        }
+        return null;
     }
 
     /**
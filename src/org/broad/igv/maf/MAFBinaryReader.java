@@ -0,0 +1,224 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.maf;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import org.broad.igv.util.collections.LRUCache;
+import org.broad.igv.util.index.Interval;
+import org.broad.igv.util.index.IntervalIndex;
+import org.broad.igv.util.stream.IGVSeekableStreamFactory;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Reader for binary MAF files,  see {@link MAFBinaryWriter}.  Only the sequences of the requested species are
+ * decoded,  and decoded tiles are kept in an LRU cache.
+ */
+public class MAFBinaryReader implements MAFReader {
+
+    static final int MAX_CACHED_TILES = 20;
+
+    private String path;
+    private MAFIndex index;
+    private String trackName;
+    private List<String> speciesOrder;
+    private Map<String, Integer> speciesIndex;
+    private MAFTileCodec codec = new MAFTileCodec();
+    private LRUCache<Long, MAFTile> tileCache = new LRUCache<Long, MAFTile>(MAX_CACHED_TILES);
+
+    public MAFBinaryReader(String path) throws IOException {
+        this.path = path;
+        index = MAFIndex.loadIndex(MAFBinaryWriter.getIndexPath(path));
+        speciesIndex = new HashMap<String, Integer>();
+        List<String> species = index.getSpecies();
+        for (int i = 0; i < species.size(); i++) {
+            speciesIndex.put(species.get(i), i);
+        }
+
+        BlockCompressedInputStream bgzf = openStream();
+        try {
+            DataInputStream is = new DataInputStream(bgzf);
+            if (is.readInt() != MAFBinaryWriter.MAGIC) {
+                throw new IOException(path + " is not a binary MAF file");
+            }
+            int version = is.readInt();
+            if (version > MAFBinaryWriter.VERSION) {
+                throw new IOException("Unsupported binary MAF version " + version + ": " + path);
+            }
+            trackName = is.readUTF();
+            if (trackName.length() == 0) {
+                trackName = null;
+            }
+            int nSpecies = is.readInt();
+            if (nSpecies > 0) {
+                speciesOrder = new ArrayList<String>(nSpecies);
+                for (int i = 0; i < nSpecies; i++) {
+                    speciesOrder.add(is.readUTF());
+                }
+            }
+        } finally {
+            bgzf.close();
+        }
+    }
+
+    private BlockCompressedInputStream openStream() throws IOException {
+        return new BlockCompressedInputStream(IGVSeekableStreamFactory.getInstance().getStreamFor(path));
+    }
+
+    public String getTrackName() {
+        return trackName;
+    }
+
+    @Override
+    public List<MultipleAlignmentBlock> loadAlignments(String chr, int start, int end) throws IOException {
+        return loadAlignments(chr, start, end, index.getSpecies());
+    }
+
+    @Override
+    public synchronized List<MultipleAlignmentBlock> loadAlignments(String chr, int start, int end,
+                                                                    Collection<String> species) throws IOException {
+
+        IntervalIndex ivIndex = index.getIntervalIndex(chr);
+        if (ivIndex == null) return null;
+
+        List<Interval> intervals = ivIndex.findOverlapping(start, end);
+        if (intervals.isEmpty()) {
+            return null;
+        }
+
+        List<MultipleAlignmentBlock> alignments = new ArrayList<MultipleAlignmentBlock>();
+        for (Interval iv : intervals) {
+            MAFTile tile = getTile(iv.getValue(), species);
+            for (MultipleAlignmentBlock block : tile.getAlignments()) {
+                if (block.getEnd() >= start && block.getStart() <= end) {
+                    alignments.add(block);
+                }
+            }
+        }
+        return alignments;
+    }
+
+    /**
+     * Return the tile whose directory is at {@code offset},  decoding the sequences of any species not decoded yet.
+     * Blocks already returned to callers are never modified,  a new set of blocks is built instead.
+     */
+    private MAFTile getTile(long offset, Collection<String> species) throws IOException {
+
+        BlockCompressedInputStream bgzf = null;
+        try {
+            MAFTile tile = tileCache.get(offset);
+            boolean changed = false;
+            if (tile == null) {
+                bgzf = openStream();
+                bgzf.seek(offset);
+                tile = codec.decodeDirectory(new DataInputStream(bgzf));
+
+                // The sections of the reference species come first
+                for (int sp : tile.refSpecies) {
+                    if (!tile.sections.containsKey(sp)) {
+                        tile.sections.put(sp, readSection(bgzf, tile, sp));
+                    }
+                }
+                tileCache.put(offset, tile);
+                changed = true;
+            }
+
+            for (String sp : species) {
+                Integer idx = speciesIndex.get(sp);
+                if (idx != null && !tile.sections.containsKey(idx)) {
+                    MultipleAlignmentBlock.Sequence[] section = null;
+                    if (tile.sectionOffsets.containsKey(idx)) {
+                        if (bgzf == null) bgzf = openStream();
+                        section = readSection(bgzf, tile, idx);
+                    }
+                    tile.sections.put(idx, section);
+                    changed = true;
+                }
+            }
+
+            if (changed) {
+                tile.alignments = buildAlignments(tile);
+            }
+            return tile;
+        } finally {
+            if (bgzf != null) {
+                bgzf.close();
+            }
+        }
+    }
+
+    private MultipleAlignmentBlock.Sequence[] readSection(BlockCompressedInputStream bgzf, MAFTile tile, int sp)
+            throws IOException {
+        bgzf.seek(tile.sectionOffsets.get(sp));
+        return codec.decodeSection(new DataInputStream(bgzf), index.getSpecies().get(sp), tile.refSpecies.length);
+    }
+
+    /**
+     * Build the blocks of a tile from its decoded sections:  the reference sequence first,  then the other species
+     * in decoding order.
+     */
+    private static List<MultipleAlignmentBlock> buildAlignments(MAFTile tile) {
+        int nBlocks = tile.refSpecies.length;
+        List<MultipleAlignmentBlock> alignments = new ArrayList<MultipleAlignmentBlock>(nBlocks);
+        for (int i = 0; i < nBlocks; i++) {
+            MultipleAlignmentBlock block = new MultipleAlignmentBlock();
+            block.addSequence(tile.sections.get(tile.refSpecies[i])[i]);
+            for (Map.Entry<Integer, MultipleAlignmentBlock.Sequence[]> entry : tile.sections.entrySet()) {
+                MultipleAlignmentBlock.Sequence[] sequences = entry.getValue();
+                if (entry.getKey() != tile.refSpecies[i] && sequences != null && sequences[i] != null) {
+                    block.addSequence(sequences[i]);
+                }
+            }
+            alignments.add(block);
+        }
+        return alignments;
+    }
+
+    @Override
+    public Collection<String> getChrNames() {
+        return index.getChromosomes();
+    }
+
+    /**
+     * The species order from the track line,  if any,  otherwise all species.
+     */
+    @Override
+    public Collection<String> getSpecies() {
+        return speciesOrder != null ? speciesOrder : index.getSpecies();
+    }
+
+    @Override
+    public String getSpeciesName(String speciesId) {
+        return speciesId;
+    }
+
+    @Override
+    public String getRefId() {
+        return index.getRefId();
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.maf;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import org.apache.log4j.Logger;
+import org.broad.igv.util.ParsingUtils;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Converts a MAF file to the binary MAF format read by {@link MAFBinaryReader}.
+ * <p/>
+ * The file is BGZF compressed.  It starts with a header (magic number, version, track name,  and the species order
+ * from the track line if any) followed by tiles of
+ * alignment blocks,  grouped by the reference start position.  Each tile holds one section per species,  encoded
+ * by {@link MAFTileCodec},  followed by a directory of the section offsets.  The tiles are indexed in a
+ * {@link MAFIndex} file,  "[file].index",  whose offsets are BGZF virtual offsets of the tile directories.
+ */
+public class MAFBinaryWriter {
+
+    private static Logger log = Logger.getLogger(MAFBinaryWriter.class);
+
+    public static final String EXTENSION = ".maf.bin";
+    public static final int DEFAULT_TILE_SIZE = 10000;
+
+    static final int MAGIC = 0x4D414642;  // "MAFB"
+    static final int VERSION = 1;
+
+    private final int tileSize;
+    private final MAFTileCodec codec = new MAFTileCodec();
+    private final List<String> species;
+    private final Map<String, Integer> speciesIndex = new HashMap<String, Integer>();
+    private final MAFIndex index = new MAFIndex();
+
+    private BlockCompressedOutputStream bgzf;
+    private DataOutputStream os;
+    private int tileCount = 0;
+
+    public static String getIndexPath(String path) {
+        return path + ".index";
+    }
+
+    public static void convert(String mafPath, String outputPath) throws IOException {
+        convert(mafPath, outputPath, DEFAULT_TILE_SIZE);
+    }
+
+    public static void convert(String mafPath, String outputPath, int tileSize) throws IOException {
+        // The text index supplies the species,  ordered by their position in the alignment blocks
+        MAFParser parser = new MAFParser(mafPath);
+        MAFBinaryWriter writer = new MAFBinaryWriter(parser.getSpecies(), tileSize);
+        writer.write(mafPath, outputPath, parser.getTrackName(), parser.species);
+    }
+
+    MAFBinaryWriter(Collection<String> species, int tileSize) {
+        this.tileSize = tileSize;
+        this.species = new ArrayList<String>();
+        for (String sp : species) {
+            getSpeciesIndex(sp);
+        }
+    }
+
+    /**
+     * @param speciesOrder species to display,  from the track line.  Can be null.
+     */
+    void write(String mafPath, String outputPath, String trackName, List<String> speciesOrder) throws IOException {
+
+        BufferedReader reader = null;
+        bgzf = new BlockCompressedOutputStream(new File(outputPath));
+        os = new DataOutputStream(bgzf);
+        try {
+            os.writeInt(MAGIC);
+            os.writeInt(VERSION);
+            os.writeUTF(trackName == null ? "" : trackName);
+            os.writeInt(speciesOrder == null ? 0 : speciesOrder.size());
+            if (speciesOrder != null) {
+                for (String sp : speciesOrder) {
+                    os.writeUTF(sp);
+                }
+            }
+
+            reader = ParsingUtils.openBufferedReader(mafPath);
+            List<MultipleAlignmentBlock> tile = new ArrayList<MultipleAlignmentBlock>();
+            String tileChr = null;
+            int tileNumber = -1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("a ")) {
+                    MultipleAlignmentBlock block = MAFParser.parseBlock(reader);
+                    if (block.getSequences().isEmpty()) {
+                        continue;
+                    }
+                    int t = block.getStart() / tileSize;
+                    if (!block.getChr().equals(tileChr) || t != tileNumber) {
+                        writeTile(tileChr, tile);
+                        tile.clear();
+                        tileChr = block.getChr();
+                        tileNumber = t;
+                    }
+                    tile.add(block);
+                }
+            }
+            writeTile(tileChr, tile);
+        } finally {
+            if (reader != null) reader.close();
+            os.close();
+        }
+
+        index.setSpecies(species);
+        MAFIndex.writeIndex(index, getIndexPath(outputPath));
+        log.info("Wrote " + tileCount + " tiles to " + outputPath);
+    }
+
+    private void writeTile(String chr, List<MultipleAlignmentBlock> blocks) throws IOException {
+        if (blocks.isEmpty()) {
+            return;
+        }
+
+        int start = Integer.MAX_VALUE;
+        int end = 0;
+        int[] refSpecies = new int[blocks.size()];
+        Set<Integer> tileSpecies = new TreeSet<Integer>();
+        for (int i = 0; i < blocks.size(); i++) {
+            MultipleAlignmentBlock block = blocks.get(i);
+            start = Math.min(start, block.getStart());
+            end = Math.max(end, block.getEnd());
+            refSpecies[i] = getSpeciesIndex(block.getRefSequence().getSpecies());
+            for (MultipleAlignmentBlock.Sequence seq : block.getSequences()) {
+                tileSpecies.add(getSpeciesIndex(seq.getSpecies()));
+            }
+        }
+
+        Map<Integer, Long> sectionOffsets = new LinkedHashMap<Integer, Long>();
+        for (Integer sp : tileSpecies) {
+            sectionOffsets.put(sp, bgzf.getFilePointer());
+            codec.encodeSection(blocks, species.get(sp), os);
+        }
+        long directoryOffset = bgzf.getFilePointer();
+        codec.encodeDirectory(chr, start, end, refSpecies, sectionOffsets, os);
+
+        index.insertInterval(chr, start, end, directoryOffset);
+        tileCount++;
+    }
+
+    /**
+     * Species missing from the text index,  e.g. when the track line lists only some species,  are added at the end.
+     */
+    private int getSpeciesIndex(String sp) {
+        Integer idx = speciesIndex.get(sp);
+        if (idx == null) {
+            idx = species.size();
+            species.add(sp);
+            speciesIndex.put(sp, idx);
+        }
+        return idx;
+    }
+}
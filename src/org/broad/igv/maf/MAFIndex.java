@@ -29,7 +29,7 @@ import org.broad.igv.Globals;
 import org.broad.igv.util.ParsingUtils;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.index.Interval;
-import org.broad.igv.util.index.IntervalTree;
+import org.broad.igv.util.index.IntervalIndex;
 import htsjdk.tribble.readers.AsciiLineReader;
 
 import java.io.*;
@@ -45,9 +45,14 @@ public class MAFIndex {
     private List<String> species;
 
     /**
-     * Map of chromosome name -> interval tree
+     * Map of chromosome name -> interval index
      */
-    private Map<String, IntervalTree> intervalTrees;
+    private Map<String, IntervalIndex> intervalIndexes;
+
+    /**
+     * Intervals inserted but not yet indexed,  by chromosome.  Indexes are built on first access.
+     */
+    private Map<String, IntervalIndex.Builder> builders;
 
     /**
      * The # of alignments represented by an interval in the tree.
@@ -56,7 +61,8 @@ public class MAFIndex {
     public static int blockSize = 50;
 
     public MAFIndex() {
-        intervalTrees = new HashMap<String, IntervalTree>();
+        intervalIndexes = new LinkedHashMap<String, IntervalIndex>();
+        builders = new LinkedHashMap<String, IntervalIndex.Builder>();
     }
 
     /**
@@ -77,32 +83,53 @@ public class MAFIndex {
         return species == null || species.isEmpty() ? null : species.get(0);
     }
 
-    public Collection<String> getChromosomes() {
-        return intervalTrees.keySet();
+    public synchronized Collection<String> getChromosomes() {
+        Set<String> chrs = new LinkedHashSet<String>(intervalIndexes.keySet());
+        chrs.addAll(builders.keySet());
+        return chrs;
     }
 
-    public IntervalTree getIntervalTree(String chr) {
+    public IntervalIndex getIntervalIndex(String chr) {
 
-        IntervalTree iv = intervalTrees.get(chr);
+        IntervalIndex iv = getIndex(chr);
         if(iv == null) {
-            iv = intervalTrees.get("*"); // To support legacy MAF indeces, files are split by chromosome
+            iv = getIndex("*"); // To support legacy MAF indeces, files are split by chromosome
+        }
+        return iv;
+    }
+
+    private synchronized IntervalIndex getIndex(String chr) {
+        IntervalIndex iv = intervalIndexes.get(chr);
+        if (iv == null) {
+            IntervalIndex.Builder builder = builders.remove(chr);
+            if (builder != null) {
+                iv = builder.build();
+                intervalIndexes.put(chr, iv);
+            }
         }
         return iv;
     }
 
 
-    public void putIntervalTree(String s, IntervalTree iv) {
+    public synchronized void putIntervalIndex(String s, IntervalIndex iv) {
 
-        intervalTrees.put(s, iv);
+        builders.remove(s);
+        intervalIndexes.put(s, iv);
     }
 
-    public void insertInterval(String lastChr, int intervalStart, int intervalEnd, long value) {
-        IntervalTree iv = intervalTrees.get(lastChr);
-        if (iv == null) {
-            iv = new IntervalTree();
-            intervalTrees.put(lastChr, iv);
+    public synchronized void insertInterval(String lastChr, int intervalStart, int intervalEnd, long value) {
+        IntervalIndex.Builder builder = builders.get(lastChr);
+        if (builder == null) {
+            builder = new IntervalIndex.Builder();
+            IntervalIndex iv = intervalIndexes.remove(lastChr);
+            if (iv != null) {
+                for (int i = 0; i < iv.size(); i++) {
+                    builder.add(iv.getStart(i), iv.getEnd(i), iv.getValue(i));
+                }
+            }
+            builders.put(lastChr, builder);
         }
-        iv.insert(new Interval(intervalStart, intervalEnd, value));
+        builder.add(intervalStart, intervalEnd, value);
     }
 
 
@@ -115,7 +142,6 @@ public class MAFIndex {
         MAFIndex index = new MAFIndex();
         index.species = new ArrayList<String>();
 
-        //index = new IntervalTree<Long>();
         BufferedReader br = null;
         try {
             br = ParsingUtils.openBufferedReader(idxFile);
@@ -131,19 +157,17 @@ public class MAFIndex {
                     index.species.add(line.trim());
                 }
 
-                IntervalTree iv = null;
+                String chr = null;
                 while ((line = br.readLine()) != null) {
                     if (line.trim().length() == 0) continue;
                     if (line.startsWith("#chr=")) {
-                        String chr = ParsingUtils.EQ_PATTERN.split(line)[1];
-                        iv = new IntervalTree();
-                        index.putIntervalTree(chr, iv);
-                    } else if (iv != null) {
+                        chr = ParsingUtils.EQ_PATTERN.split(line)[1];
+                    } else if (chr != null) {
                         String[] info = Globals.tabPattern.split(line);
                         int start = Integer.parseInt(info[0]);
                         int end = Integer.parseInt(info[1]) + start;
                         long offset = Long.parseLong(info[2]);
-                        iv.insert(new Interval(start, end, offset));
+                        index.insertInterval(chr, start, end, offset);
                     } else {
                         // log.info("Skipping line " + line);
                     }
@@ -152,7 +176,7 @@ public class MAFIndex {
             } else {
                 // A "legacy" index, created for Broad hosted files that are separated by chromosome.
                 // Every alignment is indexed, which is overkill.  Below we lump them into blocks of 50.
-                IntervalTree iv = new IntervalTree();
+                IntervalIndex.Builder iv = new IntervalIndex.Builder();
                 int l = 0;
                 int intervalStart = 0;
                 int intervalEnd = 0;
@@ -162,7 +186,7 @@ public class MAFIndex {
                     int start = Integer.parseInt(info[0]);
                     intervalEnd = Integer.parseInt(info[1]) + start;
                     if (l % 50 == 0) {
-                        iv.insert(new Interval(intervalStart, intervalEnd, lastOffset));
+                        iv.add(intervalStart, intervalEnd, lastOffset);
                         intervalStart = intervalEnd;
                         lastOffset = Long.parseLong(info[2]);
                     }
@@ -170,10 +194,10 @@ public class MAFIndex {
                 }
 
                 if(intervalEnd > intervalStart) {
-                    iv.insert(new Interval(intervalStart, intervalEnd, lastOffset));
+                    iv.add(intervalStart, intervalEnd, lastOffset);
                 }
 
-                index.putIntervalTree("*", iv);
+                index.putIntervalIndex("*", iv.build());
             }
         } finally {
             if (br != null) br.close();
@@ -345,8 +369,8 @@ public class MAFIndex {
             Collection<String> chrList = index.getChromosomes();
             for (String chr : chrList) {
                 pw.println("#chr=" + chr);
-                IntervalTree tree = index.getIntervalTree(chr);
-                Collection<Interval> intervals = tree.getIntervals();
+                IntervalIndex iv = index.getIntervalIndex(chr);
+                Collection<Interval> intervals = iv.getIntervals();
                 for (Interval node : intervals) {
                     pw.print(String.valueOf(node.getLow()));
                     pw.print("\t");
@@ -69,14 +69,14 @@ public class MAFListReader implements MAFReader {
     // Map of chr name -> MAF file path
     Map<String, String> filenameMap;
 
-    // Map of chr name -> MAFLocalReader
-    Map<String, MAFParser> readerMap;
+    // Map of chr name -> MAFParser or MAFBinaryReader
+    Map<String, MAFReader> readerMap;
 
     public MAFListReader(String mappingFile) throws IOException {
 
         loadDictionaryFile(mappingFile);
         loadSpeciesNames(mappingFile);
-        readerMap = new HashMap<String, MAFParser>();
+        readerMap = new HashMap<String, MAFReader>();
 
     }
 
@@ -178,15 +178,21 @@ public class MAFListReader implements MAFReader {
         return reader == null ? null : reader.loadAlignments(chr, start, end);
     }
 
-    private MAFParser getReader(final String chr) {
-        MAFParser reader = readerMap.get(chr);
+    @Override
+    public List<MultipleAlignmentBlock> loadAlignments(String chr, int start, int end, Collection<String> species) throws IOException {
+        MAFReader reader = getReader(chr);
+        return reader == null ? null : reader.loadAlignments(chr, start, end, species);
+    }
+
+    private MAFReader getReader(final String chr) {
+        MAFReader reader = readerMap.get(chr);
         if (reader == null) {
             final String path = filenameMap.get(chr);
             if (path == null) {
                 log.info("No MAF file found for chromosome: " + chr);
             } else {
                 try {
-                    reader = new MAFParser(path);
+                    reader = path.endsWith(MAFBinaryWriter.EXTENSION) ? new MAFBinaryReader(path) : new MAFParser(path);
                     readerMap.put(chr, reader);
                 } catch (Exception e) {
                     log.error("Error loading MAF reader (" + path + "):  ", e);
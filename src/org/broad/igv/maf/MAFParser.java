@@ -29,7 +29,7 @@ import htsjdk.samtools.seekablestream.SeekableStream;
 import org.broad.igv.Globals;
 import org.broad.igv.util.ParsingUtils;
 import org.broad.igv.util.index.Interval;
-import org.broad.igv.util.index.IntervalTree;
+import org.broad.igv.util.index.IntervalIndex;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
 
 import java.io.BufferedReader;
@@ -83,10 +83,10 @@ public class MAFParser implements MAFReader {
     @Override
     public List<MultipleAlignmentBlock> loadAlignments(String chr, int start, int end) throws IOException {
 
-        IntervalTree ivTree = index.getIntervalTree(chr);
-        if (ivTree == null) return null;
+        IntervalIndex ivIndex = index.getIntervalIndex(chr);
+        if (ivIndex == null) return null;
 
-        List<Interval> intervals = ivTree.findOverlapping(start, end);
+        List<Interval> intervals = ivIndex.findOverlapping(start, end);
         if (intervals.isEmpty()) {
             return null;
         }
@@ -129,6 +129,14 @@ public class MAFParser implements MAFReader {
     }
 
 
+    /**
+     * The text format stores all species together,  so they are all returned.
+     */
+    @Override
+    public List<MultipleAlignmentBlock> loadAlignments(String chr, int start, int end, Collection<String> species) throws IOException {
+        return loadAlignments(chr, start, end);
+    }
+
     @Override
     public Collection<String> getChrNames() {
         return index.getChromosomes();
@@ -222,7 +230,7 @@ public class MAFParser implements MAFReader {
      *
      * @param reader
      */
-    private MultipleAlignmentBlock parseBlock(BufferedReader reader) throws IOException {
+    static MultipleAlignmentBlock parseBlock(BufferedReader reader) throws IOException {
 
         String line;
         MultipleAlignmentBlock ma = new MultipleAlignmentBlock();
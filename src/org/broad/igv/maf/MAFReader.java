@@ -41,6 +41,11 @@ public interface MAFReader {
 
     List<MultipleAlignmentBlock> loadAlignments(String chr, int start, int end) throws IOException;
 
+    /**
+     * Load alignments with sequences for at least the given species.  Sequences of other species may be included.
+     */
+    List<MultipleAlignmentBlock> loadAlignments(String chr, int start, int end, Collection<String> species) throws IOException;
+
     /**
      * Return the chromosome names represented in this file.   Can return null if unknown.
      *
@@ -27,10 +27,7 @@ package org.broad.igv.maf;
 
 //~--- non-JDK imports --------------------------------------------------------
 
-import java.util.ArrayList;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 
 /**
  * @author jrobinso
@@ -47,9 +44,34 @@ public class MAFTile {
      */
     Map<String, MASequence> alignedSequences;
 
+    /**
+     * Tiles of binary MAF files (see {@link MAFBinaryReader}):  the alignment blocks,  the reference species of each
+     * block,  the file offsets of each species' sequences,  and the sections decoded so far in decoding order (null
+     * for species with no sequences in the tile).  The blocks are rebuilt,  never modified,  when a section is added.
+     */
+    String chr;
+    List<MultipleAlignmentBlock> alignments;
+    int[] refSpecies;
+    Map<Integer, Long> sectionOffsets;
+    Map<Integer, MultipleAlignmentBlock.Sequence[]> sections;
+
     public MAFTile() {
     }
 
+    MAFTile(String chr, int start, int end, int[] refSpecies, Map<Integer, Long> sectionOffsets) {
+        this.chr = chr;
+        this.start = start;
+        this.end = end;
+        this.refSpecies = refSpecies;
+        this.sectionOffsets = sectionOffsets;
+        this.sections = new LinkedHashMap<Integer, MultipleAlignmentBlock.Sequence[]>();
+        this.alignments = Collections.emptyList();
+    }
+
+    public List<MultipleAlignmentBlock> getAlignments() {
+        return alignments;
+    }
+
     // Constructor for an empty maf tile (no alignments)
     public MAFTile(int start, int end) {
         this.start = start;
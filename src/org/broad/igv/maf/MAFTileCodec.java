@@ -31,9 +31,13 @@ package org.broad.igv.maf;
 
 import org.broad.igv.maf.MAFTile.MASequence;
 
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -41,6 +45,22 @@ import java.util.Map;
  */
 public class MAFTileCodec {
 
+    /**
+     * Sequences using only these characters are packed 2 per byte
+     */
+    static final String PACKED_ALPHABET = "-ACGTNacgtn.";
+    private static final byte[] PACK_CODES = new byte[128];
+
+    static {
+        Arrays.fill(PACK_CODES, (byte) -1);
+        for (int i = 0; i < PACKED_ALPHABET.length(); i++) {
+            PACK_CODES[PACKED_ALPHABET.charAt(i)] = (byte) i;
+        }
+    }
+
+    private static final byte PACKED = 0;
+    private static final byte RAW = 1;
+
     /**
      * Serialize an MATile to a stream
      */
@@ -97,4 +117,135 @@ public class MAFTileCodec {
         }
     }
 
+
+    /**
+     * Write the sequences of one species for a tile of alignment blocks (binary MAF format).  Each block is
+     * preceded by a flag,  as most species are missing from some blocks.
+     */
+    public void encodeSection(List<MultipleAlignmentBlock> blocks, String species, DataOutputStream os) throws IOException {
+        for (MultipleAlignmentBlock block : blocks) {
+            MultipleAlignmentBlock.Sequence seq = block.getSequence(species);
+            os.writeBoolean(seq != null);
+            if (seq != null) {
+                os.writeUTF(seq.getChr());
+                os.writeInt(seq.getStart());
+                os.writeInt(seq.getSize());
+                os.writeByte(seq.getStrand());
+                os.writeInt(seq.getSrcSize());
+                String text = seq.getText();
+                byte[] packed = packBases(text);
+                os.writeInt(text.length());
+                if (packed != null) {
+                    os.writeByte(PACKED);
+                    os.write(packed);
+                } else {
+                    os.writeByte(RAW);
+                    os.write(text.getBytes());
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the sequences written by {@link #encodeSection}.  Blocks without a sequence for the species are null.
+     */
+    public MultipleAlignmentBlock.Sequence[] decodeSection(DataInputStream is, String species, int nBlocks) throws IOException {
+        MultipleAlignmentBlock.Sequence[] sequences = new MultipleAlignmentBlock.Sequence[nBlocks];
+        for (int i = 0; i < nBlocks; i++) {
+            if (is.readBoolean()) {
+                String chr = is.readUTF();
+                int start = is.readInt();
+                int size = is.readInt();
+                char strand = (char) is.readByte();
+                int srcSize = is.readInt();
+                int length = is.readInt();
+                String text;
+                if (is.readByte() == PACKED) {
+                    byte[] packed = new byte[(length + 1) / 2];
+                    is.readFully(packed);
+                    text = unpackBases(packed, length);
+                } else {
+                    byte[] bytes = new byte[length];
+                    is.readFully(bytes);
+                    text = new String(bytes);
+                }
+                sequences[i] = new MultipleAlignmentBlock.Sequence(species, chr, start, size, strand, srcSize, text);
+            }
+        }
+        return sequences;
+    }
+
+    /**
+     * Write the directory of a tile,  which follows its sections.
+     *
+     * @param refSpecies     index of the reference species of each block
+     * @param sectionOffsets species index -> file offset of the species' section
+     */
+    public void encodeDirectory(String chr, int start, int end, int[] refSpecies, Map<Integer, Long> sectionOffsets,
+                                DataOutputStream os) throws IOException {
+        os.writeUTF(chr);
+        os.writeInt(start);
+        os.writeInt(end);
+        os.writeInt(refSpecies.length);
+        for (int sp : refSpecies) {
+            os.writeInt(sp);
+        }
+        os.writeInt(sectionOffsets.size());
+        for (Map.Entry<Integer, Long> entry : sectionOffsets.entrySet()) {
+            os.writeInt(entry.getKey());
+            os.writeLong(entry.getValue());
+        }
+    }
+
+    /**
+     * Read a tile directory.  The tile's alignment blocks are empty until sections are decoded.
+     */
+    public MAFTile decodeDirectory(DataInputStream is) throws IOException {
+        String chr = is.readUTF();
+        int start = is.readInt();
+        int end = is.readInt();
+        int[] refSpecies = new int[is.readInt()];
+        for (int i = 0; i < refSpecies.length; i++) {
+            refSpecies[i] = is.readInt();
+        }
+        int nSections = is.readInt();
+        Map<Integer, Long> sectionOffsets = new LinkedHashMap<Integer, Long>(nSections);
+        for (int i = 0; i < nSections; i++) {
+            int sp = is.readInt();
+            sectionOffsets.put(sp, is.readLong());
+        }
+        return new MAFTile(chr, start, end, refSpecies, sectionOffsets);
+    }
+
+    /**
+     * Pack the sequence 2 bases per byte,  or return null if it uses characters outside {@link #PACKED_ALPHABET}.
+     */
+    static byte[] packBases(String text) {
+        int length = text.length();
+        byte[] packed = new byte[(length + 1) / 2];
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            int code = c < PACK_CODES.length ? PACK_CODES[c] : -1;
+            if (code < 0) {
+                return null;
+            }
+            if ((i & 1) == 0) {
+                packed[i >> 1] = (byte) (code << 4);
+            } else {
+                packed[i >> 1] |= code;
+            }
+        }
+        return packed;
+    }
+
+    static String unpackBases(byte[] packed, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            int b = packed[i >> 1];
+            int code = (i & 1) == 0 ? (b >> 4) & 0xF : b & 0xF;
+            chars[i] = PACKED_ALPHABET.charAt(code);
+        }
+        return new String(chars);
+    }
+
 }
@@ -91,6 +91,12 @@ public class MultipleAlignmentTrack extends AbstractTrack {
             reader = new MAFListReader(locator.getPath());
             //        speciesNames.put(genome.getId(), genome.getDisplayName());
 
+        } else if (locator.getPath().endsWith(MAFBinaryWriter.EXTENSION)) {
+            MAFBinaryReader binaryReader = new MAFBinaryReader(locator.getPath());
+            if (binaryReader.getTrackName() != null) {
+                setName(binaryReader.getTrackName());
+            }
+            reader = binaryReader;
         } else {
 
             MAFParser parser = new MAFParser(locator.getPath()); //  new MAFLocalReader(locator.getPath());
@@ -125,6 +131,8 @@ public class MultipleAlignmentTrack extends AbstractTrack {
      */
     public void setSelectedSpecies(List<String> selectedSpecies) {
         this.selectedSpecies = selectedSpecies;
+        // Readers may have loaded only the previously selected species
+        loadedAlignments = null;
     }
 
     public String getSpeciesName(String speciesId) {
@@ -217,7 +225,7 @@ public class MultipleAlignmentTrack extends AbstractTrack {
                 alignments = loadedAlignments.getAlignments();
             } else {
                 String mafChr = chrMappings == null ? chr : chrMappings.get(chr);
-                alignments = reader.loadAlignments(mafChr, start, end);
+                alignments = reader.loadAlignments(mafChr, start, end, getSelectedSpecies());
                 loadedAlignments = new MAFCache(chr, start, end, alignments);
             }
 
@@ -69,6 +69,22 @@ public class AlignmentBlock {
         this.counts = null;
     }
 
+    /**
+     * A block whose bases match the reference,  as if reduced.  See reduce(Genome)
+     */
+    AlignmentBlock(String chr, int start, int length, byte[] qualities, Genome genome) {
+        this.chr = chr;
+        this.start = start;
+        this.length = length;
+        this.genome = genome;
+        if (qualities == null || qualities.length < length) {
+            this.qualities = new byte[length];
+            Arrays.fill(this.qualities, (byte) 126);
+        } else {
+            this.qualities = qualities;
+        }
+    }
+
     protected AlignmentBlock(String chr, int start, byte[] bases, byte[] qualities, FlowSignalContext fContext) {
         this(chr, start, bases, qualities);
         if (fContext != null && fContext.getNrSignals() == bases.length) {
@@ -47,6 +47,7 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class AlignmentDataManager implements IAlignmentDataManager {
 
@@ -56,7 +57,8 @@ public class AlignmentDataManager implements IAlignmentDataManager {
      * Caches for loaded alignments and the relevant packing
      */
     private PositionCache<AlignmentInterval> loadedIntervalCache = new PositionCache<AlignmentInterval>();
-    private PositionCache<PackedAlignments> packedAlignmentsCache = new PositionCache<PackedAlignments>();
+    // Replaced,  never modified,  once published so readers never see a partial packing
+    private volatile PositionCache<PackedAlignments> packedAlignmentsCache = new PositionCache<PackedAlignments>();
 
     private HashMap<String, String> chrMappings = new HashMap();
     private volatile boolean isLoading = false;
@@ -71,6 +73,10 @@ public class AlignmentDataManager implements IAlignmentDataManager {
 
     private Object loadLock = new Object();
 
+    // Incremented for each packing request.  Only the packing of the latest request is kept.
+    private final AtomicInteger packGeneration = new AtomicInteger();
+    private final Object packLock = new Object();
+
     /**
      * This {@code EventBus} is typically used to notify listeners when new data
      * is loaded
@@ -192,35 +198,108 @@ public class AlignmentDataManager implements IAlignmentDataManager {
         return true;
     }
 
-    public void setViewAsPairs(boolean option, AlignmentTrack.RenderOptions renderOptions) {
+    /**
+     * Set the pairs option and repack in the background.  The option is applied to {@code renderOptions} when the
+     * new packing is published,  so the current packing is never rendered with it.
+     */
+    public void setViewAsPairs(final boolean option, final AlignmentTrack.RenderOptions renderOptions,
+                               Runnable callback) {
         if (option == renderOptions.isViewPairs()) {
             return;
         }
-        renderOptions.setViewPairs(option);
+        AlignmentTrack.RenderOptions packOptions = renderOptions.copy();
+        packOptions.setViewPairs(option);
+
+        packAlignmentsInBackground(packOptions, false, new Runnable() {
+            public void run() {
+                renderOptions.setViewPairs(option);
+            }
+        }, callback);
+    }
 
-        packAlignments(renderOptions);
+    private void clearPackings() {
+        for (AlignmentInterval interval : loadedIntervalCache.values()) {
+            interval.clearPackings();
+        }
     }
 
     /**
-     * Repack currently loaded alignments across frames
-     * All relevant intervals must be loaded
+     * Pack currently loaded alignments across frames
+     * All relevant intervals must be loaded.  Intervals previously packed with equivalent options are not repacked.
      *
      * @param renderOptions
      * @return Whether repacking was performed
      */
     boolean packAlignments(AlignmentTrack.RenderOptions renderOptions) {
+        return packAlignments(renderOptions, packGeneration.incrementAndGet(), null);
+    }
 
-        List<ReferenceFrame> frameList = FrameManager.getFrames();
-        List<AlignmentInterval> intervalList = new ArrayList<AlignmentInterval>(frameList.size());
+    /**
+     * Pack alignments on a background thread.  The current packing is rendered until the new one is swapped in,
+     * then the callback,  if any,  is run.  In batch and headless mode packing is done on the calling thread.
+     *
+     * @param repack discard previous packings
+     */
+    void packAlignmentsInBackground(AlignmentTrack.RenderOptions renderOptions, boolean repack, Runnable callback) {
+        packAlignmentsInBackground(renderOptions, repack, null, callback);
+    }
 
-        this.packedAlignmentsCache.clear();
-        this.packedAlignmentsCache.setMaxEntries(2 * intervalList.size());
+    /**
+     * @param onPublish run when the new packing is swapped in,  or when a later request supersedes it,  to apply
+     *                  the option change the packing was made for
+     */
+    private void packAlignmentsInBackground(final AlignmentTrack.RenderOptions renderOptions, final boolean repack,
+                                            final Runnable onPublish, final Runnable callback) {
+
+        final int generation = packGeneration.incrementAndGet();
+        if (Globals.isHeadless() || Globals.isBatch()) {
+            if (repack) clearPackings();
+            packAlignments(renderOptions, generation, onPublish);
+            if (callback != null) callback.run();
+            return;
+        }
 
+        LongRunningTask.submit(new NamedRunnable() {
+            public String getName() {
+                return "packAlignments";
+            }
+
+            public void run() {
+                if (repack) clearPackings();
+                if (packAlignments(renderOptions, generation, onPublish) && callback != null) {
+                    callback.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Start a packing request,  superseding any in progress
+     */
+    int nextPackGeneration() {
+        return packGeneration.incrementAndGet();
+    }
+
+    /**
+     * Pack the intervals of all frames,  then swap in the new packings unless a later request has been made.
+     * If an interval is not loaded the current packings are kept,  unless there is an option change to publish,
+     * in which case the frames packed so far are swapped in and the others are packed when next drawn.
+     *
+     * @return Whether the new packings were swapped in
+     */
+    boolean packAlignments(AlignmentTrack.RenderOptions renderOptions, int generation, Runnable onPublish) {
+
+        List<ReferenceFrame> frameList = FrameManager.getFrames();
+        PositionCache<PackedAlignments> packings = new PositionCache<PackedAlignments>();
+        packings.setMaxEntries(2 * frameList.size());
+
+        boolean complete = true;
         for (ReferenceFrame frame : frameList) {
             AlignmentInterval interval = loadedIntervalCache.getForRange(frame.getCurrentRange());
 
             if (interval == null) {
-                return false;
+                complete = false;
+                break;
             }
 
             final AlignmentPacker alignmentPacker = new AlignmentPacker();
@@ -229,9 +308,19 @@ public class AlignmentDataManager implements IAlignmentDataManager {
             //We cache by the interval range because this will generally be buffered/expanded, whereas the frame
             //will be to-the-pixel (meaning a slight scroll triggers a repack
 
-            this.packedAlignmentsCache.put(interval.getRange(), packedAlignments);
+            packings.put(interval.getRange(), packedAlignments);
         }
 
+        synchronized (packLock) {
+            // A superseded option change is still applied so it is not lost
+            if (onPublish != null) {
+                onPublish.run();
+            }
+            if (generation != packGeneration.get() || !(complete || onPublish != null)) {
+                return false;
+            }
+            this.packedAlignmentsCache = packings;
+        }
         return true;
     }
 
@@ -269,19 +358,25 @@ public class AlignmentDataManager implements IAlignmentDataManager {
 
     }
 
-    public synchronized PackedAlignments getGroups(RenderContext context, AlignmentTrack.RenderOptions renderOptions) {
+    /**
+     * Return the packed alignments for the frame.  This does not wait for background packing,  the previous packing
+     * is returned until the new one is ready.
+     */
+    public PackedAlignments getGroups(RenderContext context, AlignmentTrack.RenderOptions renderOptions) {
         load(context, renderOptions, false);
         Range range = context.getReferenceFrame().getCurrentRange();
-        if (!packedAlignmentsCache.containsRange(range)) {
+        PackedAlignments packedAlignments = packedAlignmentsCache.getForRange(range);
+        if (packedAlignments == null) {
             packAlignments(renderOptions);
+            packedAlignments = packedAlignmentsCache.getForRange(range);
         }
-        return packedAlignmentsCache.getForRange(context.getReferenceFrame().getCurrentRange());
+        return packedAlignments;
     }
 
     public void clear() {
         // reader.clearCache();
         loadedIntervalCache.clear();
-        packedAlignmentsCache.clear();
+        packedAlignmentsCache = new PositionCache<PackedAlignments>();
     }
 
     public synchronized void loadAlignments(final String chr, final int start, final int end,
@@ -305,7 +400,7 @@ public class AlignmentDataManager implements IAlignmentDataManager {
                 log.debug("Loading alignments: " + chr + ":" + start + "-" + end + " for " + AlignmentDataManager.this);
 
                 AlignmentInterval loadedInterval = loadInterval(chr, start, end, renderOptions);
-                loadedIntervalCache.put(loadedInterval.getRange(), loadedInterval);
+                putLoadedInterval(loadedInterval);
 
                 List<ReferenceFrame> frameList = context != null ? Arrays.asList(context.getReferenceFrame()) : null;
                 packAlignments(renderOptions);
@@ -317,6 +412,10 @@ public class AlignmentDataManager implements IAlignmentDataManager {
         LongRunningTask.submit(runnable);
     }
 
+    void putLoadedInterval(AlignmentInterval interval) {
+        loadedIntervalCache.put(interval.getRange(), interval);
+    }
+
     AlignmentInterval loadInterval(String chr, int start, int end, AlignmentTrack.RenderOptions renderOptions) {
 
         String sequence = chrMappings.containsKey(chr) ? chrMappings.get(chr) : chr;
@@ -46,6 +46,16 @@ public class AlignmentInterval extends Locus {
     private SpliceJunctionHelper spliceJunctionHelper;
     private List<DownsampledInterval> downsampledIntervals;
 
+    // Packing state,  reused when render options change.  See AlignmentPacker
+    private Alignment[] sortedAlignments;
+    private final Map<String, PackedAlignments> packings = new LinkedHashMap<String, PackedAlignments>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PackedAlignments> eldest) {
+            return size() > MAX_PACKINGS;
+        }
+    };
+    private static final int MAX_PACKINGS = 4;
+
     public AlignmentInterval(String chr, int start, int end,
                              List<Alignment> alignments,
                              AlignmentCounts counts,
@@ -163,6 +173,29 @@ public class AlignmentInterval extends Locus {
         return new Range(getChr(), getStart(), getEnd());
     }
 
+    synchronized Alignment[] getSortedAlignments() {
+        return sortedAlignments;
+    }
+
+    synchronized void setSortedAlignments(Alignment[] sortedAlignments) {
+        this.sortedAlignments = sortedAlignments;
+    }
+
+    synchronized PackedAlignments getPacking(String key) {
+        return packings.get(key);
+    }
+
+    synchronized void putPacking(String key, PackedAlignments packedAlignments) {
+        packings.put(key, packedAlignments);
+    }
+
+    /**
+     * Discard packings,  the next pack will start afresh
+     */
+    synchronized void clearPackings() {
+        packings.clear();
+    }
+
 
     /**
      * An alignment iterator that iterates over packed rows.  Used for
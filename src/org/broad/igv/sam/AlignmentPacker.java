@@ -29,13 +29,11 @@
  */
 package org.broad.igv.sam;
 
-import com.google.common.collect.HashBasedTable;
-import com.google.common.collect.Table;
 import org.apache.log4j.Logger;
-import org.broad.igv.feature.Range;
 import org.broad.igv.feature.Strand;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Packs alignments such that there is no overlap
@@ -50,21 +48,19 @@ public class AlignmentPacker {
      * Minimum gap between the end of one alignment and start of another.
      */
     public static final int MIN_ALIGNMENT_SPACING = 5;
-    private static final Comparator<Alignment> lengthComparator = new Comparator<Alignment>() {
-        public int compare(Alignment row1, Alignment row2) {
-            return (row2.getEnd() - row2.getStart()) -
-                    (row1.getEnd() - row2.getStart());
 
-        }
-    };
+    // Minimum number of alignments for packing groups concurrently
+    static final int PARALLEL_PACK_THRESHOLD = 5000;
+
+    private static ExecutorService packExecutor;
 
     private static final String NULL_GROUP_VALUE = "Because google-guava tables don't support a null key, we use a special value" +
             " for null keys. It doesn't matter much what it is, but we want to avoid collisions. I find it unlikely that " +
             " this sentence will ever be used as a group value";
-    public static final int tenMB = 10000000;
 
     /**
-     * Allocates each alignment to row such that there is no overlap.
+     * Allocates each alignment to row such that there is no overlap.  Packings are reused for render options which
+     * do not change the layout.
      */
     public PackedAlignments packAlignments(
             AlignmentInterval interval,
@@ -72,22 +68,28 @@ public class AlignmentPacker {
 
         if (renderOptions == null) renderOptions = new AlignmentTrack.RenderOptions();
 
-        LinkedHashMap<String, List<Row>> packedAlignments = new LinkedHashMap<String, List<Row>>();
-
         boolean isPairedAlignments = renderOptions.isViewPairs() || renderOptions.isPairedArcView();
 
+        String packingKey = getPackingKey(renderOptions, isPairedAlignments);
+        if (packingKey != null) {
+            PackedAlignments packed = interval.getPacking(packingKey);
+            if (packed != null) {
+                return packed;
+            }
+        }
+
+        LinkedHashMap<String, List<Row>> packedAlignments = new LinkedHashMap<String, List<Row>>();
+        Alignment[] sortedAlignments = getSortedAlignments(interval);
 
         if (renderOptions.groupByOption == null) {
             List<Row> alignmentRows = new ArrayList<Row>(10000);
-            pack(interval.getAlignments(), isPairedAlignments, alignmentRows);
+            pack(Arrays.asList(sortedAlignments), isPairedAlignments, alignmentRows);
             packedAlignments.put("", alignmentRows);
         } else {
 
-            // Separate alignments into groups.
+            // Separate alignments into groups.  Groups keep the start order of the sorted alignments.
             Map<String, List<Alignment>> groupedAlignments = new HashMap<String, List<Alignment>>();
-            Iterator<Alignment> iter = interval.getAlignmentIterator();
-            while (iter.hasNext()) {
-                Alignment alignment = iter.next();
+            for (Alignment alignment : sortedAlignments) {
                 String groupKey = getGroupValue(alignment, renderOptions);
                 if (groupKey == null) {
                     groupKey = NULL_GROUP_VALUE;
@@ -106,173 +108,216 @@ public class AlignmentPacker {
             Comparator<String> groupComparator = getGroupComparator(renderOptions.groupByOption);
             Collections.sort(keys, groupComparator);
 
+            //Put null valued group at end
+            keys.remove(NULL_GROUP_VALUE);
+            keys.add(NULL_GROUP_VALUE);
+
+            List<List<Alignment>> groups = new ArrayList<List<Alignment>>(keys.size());
             for (String key : keys) {
-                if(key.equals(NULL_GROUP_VALUE)) continue;
-                List<Row> alignmentRows = new ArrayList<Row>(10000);
-                List<Alignment> group = groupedAlignments.get(key);
-                pack(group, isPairedAlignments, alignmentRows);
-                packedAlignments.put(key, alignmentRows);
+                groups.add(groupedAlignments.get(key));
+            }
+            List<List<Row>> groupRows = packGroups(groups, isPairedAlignments, sortedAlignments.length);
+            for (int i = 0; i < keys.size(); i++) {
+                String key = keys.get(i);
+                packedAlignments.put(key.equals(NULL_GROUP_VALUE) ? "" : key, groupRows.get(i));
             }
-
-            //Put null valued group at end
-            List<Row> alignmentRows = new ArrayList<Row>(10000);
-            List<Alignment> group = groupedAlignments.get(NULL_GROUP_VALUE);
-            pack(group, isPairedAlignments, alignmentRows);
-            packedAlignments.put("", alignmentRows);
         }
 
         List<AlignmentInterval> tmp = new ArrayList<AlignmentInterval>();
         tmp.add(interval);
-        return new PackedAlignments(tmp, packedAlignments);
+        PackedAlignments packed = new PackedAlignments(tmp, packedAlignments);
+        if (packingKey != null) {
+            interval.putPacking(packingKey, packed);
+        }
+        return packed;
     }
 
+    /**
+     * Pack each group.  Groups are packed concurrently if there are enough alignments to make it worthwhile.
+     */
+    private List<List<Row>> packGroups(List<List<Alignment>> groups, final boolean isPairedAlignments, int alignmentCount) {
 
-    private void pack(List<Alignment> alList, boolean pairAlignments, List<Row> alignmentRows) {
-
-        Map<String, PairedAlignment> pairs = null;
-        if (pairAlignments) {
-            pairs = new HashMap<String, PairedAlignment>(1000);
+        List<List<Row>> groupRows = new ArrayList<List<Row>>(groups.size());
+        if (groups.size() < 2 || alignmentCount < PARALLEL_PACK_THRESHOLD) {
+            for (List<Alignment> group : groups) {
+                List<Row> alignmentRows = new ArrayList<Row>(10000);
+                pack(group, isPairedAlignments, alignmentRows);
+                groupRows.add(alignmentRows);
+            }
+            return groupRows;
         }
 
-        // Allocate alignemnts to buckets for each range.
-        // We use priority queues to keep the buckets sorted by alignment length.  However this  is probably a needless
-        // complication,  any collection type would do.
-
-        int totalCount = 0;
+        List<Future<List<Row>>> futures = new ArrayList<Future<List<Row>>>(groups.size());
+        for (final List<Alignment> group : groups) {
+            futures.add(getPackExecutor().submit(new Callable<List<Row>>() {
+                public List<Row> call() {
+                    List<Row> alignmentRows = new ArrayList<Row>();
+                    pack(group, isPairedAlignments, alignmentRows);
+                    return alignmentRows;
+                }
+            }));
+        }
+        try {
+            for (Future<List<Row>> future : futures) {
+                groupRows.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException("Interrupted packing alignments", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error packing alignments", e.getCause());
+        }
+        return groupRows;
+    }
 
+    private static synchronized ExecutorService getPackExecutor() {
+        if (packExecutor == null) {
+            int nThreads = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+            packExecutor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+                int count = 0;
 
-        if (alList == null || alList.size() == 0) return;
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Alignment packer " + (count++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return packExecutor;
+    }
 
-        Range curRange = getAlignmentListRange(alList);
+    /**
+     * Key identifying the options which determine the packing,  or null if the packing should not be reused.
+     * Pair orientation groups depend on insert size statistics,  which can change.
+     */
+    private String getPackingKey(AlignmentTrack.RenderOptions renderOptions, boolean isPairedAlignments) {
+        AlignmentTrack.GroupOption groupBy = renderOptions.groupByOption;
+        if (groupBy == AlignmentTrack.GroupOption.PAIR_ORIENTATION) {
+            return null;
+        }
+        String key = String.valueOf(groupBy) + ":" + isPairedAlignments;
+        if (groupBy == AlignmentTrack.GroupOption.TAG) {
+            key += ":" + renderOptions.getGroupByTag();
+        }
+        return key;
+    }
 
-        BucketCollection bucketCollection;
+    /**
+     * Return the mapped alignments of the interval sorted by start,  and longest first for equal starts.  The sort
+     * is done once per interval.
+     */
+    static Alignment[] getSortedAlignments(AlignmentInterval interval) {
+        Alignment[] sorted = interval.getSortedAlignments();
+        if (sorted != null) {
+            return sorted;
+        }
 
-        // Use dense buckets for < 10,000,000 bp windows sparse otherwise
-        int bpLength = curRange.getLength();
+        List<Alignment> alignments = interval.getAlignments();
+        int n = 0;
+        long[] keys = new long[alignments.size()];
+        for (int i = 0; i < alignments.size(); i++) {
+            Alignment al = alignments.get(i);
+            if (al.isMapped()) {
+                keys[n++] = ((long) al.getStart() << 32) | i;
+            }
+        }
+        Arrays.sort(keys, 0, n);
+
+        sorted = new Alignment[n];
+        int[] starts = new int[n];
+        int[] ends = new int[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = alignments.get((int) keys[i]);
+            starts[i] = sorted[i].getStart();
+            ends[i] = sorted[i].getEnd();
+        }
+        sortTies(sorted, starts, ends);
+        interval.setSortedAlignments(sorted);
+        return sorted;
+    }
 
-        if (bpLength < tenMB) {
-            bucketCollection = new DenseBucketCollection(bpLength, curRange);
-        } else {
-            bucketCollection = new SparseBucketCollection(curRange);
+    /**
+     * Order alignments with equal starts longest first.  Runs of equal starts are short,  an insertion sort is used.
+     */
+    private static void sortTies(Alignment[] alignments, int[] starts, int[] ends) {
+        for (int i = 1; i < alignments.length; i++) {
+            Alignment al = alignments[i];
+            int end = ends[i];
+            int j = i - 1;
+            while (j >= 0 && starts[j] == starts[i] && ends[j] < end) {
+                alignments[j + 1] = alignments[j];
+                ends[j + 1] = ends[j];
+                j--;
+            }
+            alignments[j + 1] = al;
+            ends[j + 1] = end;
         }
+    }
+
+    /**
+     * Allocate alignments,  sorted by start,  to rows.  Each alignment goes to the first row with room for it,  which
+     * gives the same rows as filling one row at a time from left to right.
+     */
+    private void pack(List<Alignment> alList, boolean pairAlignments, List<Row> alignmentRows) {
 
+        if (alList == null || alList.size() == 0) return;
 
-        int curRangeStart = curRange.getStart();
-        for (Alignment al : alList) {
+        long t0 = System.currentTimeMillis();
 
-            if (al.isMapped()) {
-                Alignment alignment = al;
-                if (pairAlignments && al.isPaired() && al.getMate().isMapped() && al.getMate().getChr().equals(al.getChr())) {
+        Alignment[] items;
+        if (pairAlignments) {
+            List<Alignment> pairedList = new ArrayList<Alignment>(alList.size());
+            Map<String, PairedAlignment> pairs = new HashMap<String, PairedAlignment>(1000);
+            for (Alignment al : alList) {
+                if (al.isPaired() && al.getMate().isMapped() && al.getMate().getChr().equals(al.getChr())) {
                     String readName = al.getReadName();
-                    PairedAlignment pair = pairs.get(readName);
+                    PairedAlignment pair = pairs.remove(readName);
                     if (pair == null) {
                         pair = new PairedAlignment(al);
                         pairs.put(readName, pair);
-                        alignment = pair;
+                        pairedList.add(pair);
                     } else {
                         // Add second alignment to pair.
                         pair.setSecondAlignment(al);
-                        pairs.remove(readName);
-                        continue;
-
                     }
-                }
-
-                // Negative "bucketNumbers" can arise with soft clips at the left edge of the chromosome. Allocate
-                // these alignments to the first bucket.
-                int bucketNumber = Math.max(0, al.getStart() - curRangeStart);
-                if (bucketNumber < bucketCollection.getBucketCount()) {
-                    PriorityQueue<Alignment> bucket = bucketCollection.get(bucketNumber);
-                    if (bucket == null) {
-                        bucket = new PriorityQueue<Alignment>(5, lengthComparator);
-                        bucketCollection.set(bucketNumber, bucket);
-                    }
-                    bucket.add(alignment);
-                    totalCount++;
                 } else {
-                    log.debug("Alignment out of bounds. name: " + alignment.getReadName() + " startPos:" + alignment.getStart());
+                    pairedList.add(al);
                 }
             }
+            items = pairedList.toArray(new Alignment[pairedList.size()]);
+        } else {
+            items = alList.toArray(new Alignment[alList.size()]);
         }
-        bucketCollection.finishedAdding();
-
-
-        // Now allocate alignments to rows.
-        long t0 = System.currentTimeMillis();
-        int allocatedCount = 0;
-        Row currentRow = new Row();
-
-        while (allocatedCount < totalCount) {
-
-
-            curRange = bucketCollection.getRange();
-
-            curRangeStart = curRange.getStart();
-            int nextStart = curRangeStart;
-            List<Integer> emptyBuckets = new ArrayList<Integer>(100);
-
-            while (true) {
-                int bucketNumber = nextStart - curRangeStart;
-                PriorityQueue<Alignment> bucket = bucketCollection.getNextBucket(bucketNumber, emptyBuckets);
-
-                // Pull the next alignment out of the bucket and add to the current row
-                if (bucket != null) {
-                    Alignment alignment = bucket.remove();
-                    currentRow.addAlignment(alignment);
-                    allocatedCount++;
-
-                    nextStart = alignment.getEnd() + MIN_ALIGNMENT_SPACING;
-
-                }
-
-                //Reached the end of this range, move to the next
-                if (bucket == null || nextStart > curRange.getEnd()) {
-                    //Remove empty buckets.  This has no affect on the dense implementation,
-                    //they are removed on the fly, but is needed for the sparse implementation
-                    bucketCollection.removeBuckets(emptyBuckets);
-                    emptyBuckets.clear();
-                    break;
-                }
-            }
 
+        int n = items.length;
+        int[] starts = new int[n];
+        int[] ends = new int[n];
+        for (int i = 0; i < n; i++) {
+            starts[i] = items[i].getStart();
+            ends[i] = items[i].getEnd();
+        }
+        if (pairAlignments) {
+            // Pairs may be longer than their first alignment
+            sortTies(items, starts, ends);
+        }
 
-            // We've reached the end of the interval,  start a new row
-            if (currentRow.alignments.size() > 0) {
-                alignmentRows.add(currentRow);
+        // Alignments starting before the first,  e.g. with soft clips at the left edge of the chromosome,  are
+        // treated as starting with it.
+        int minStart = starts[0];
+        RowEnds rowEnds = new RowEnds(n);
+        for (int i = 0; i < n; i++) {
+            int start = Math.max(minStart, starts[i]);
+            int rowNumber = rowEnds.firstRowEndingBy(start - MIN_ALIGNMENT_SPACING);
+            if (rowNumber == alignmentRows.size()) {
+                alignmentRows.add(new Row());
             }
-            currentRow = new Row();
+            alignmentRows.get(rowNumber).addAlignment(items[i]);
+            rowEnds.set(rowNumber, ends[i]);
         }
+
         if (log.isDebugEnabled()) {
             long dt = System.currentTimeMillis() - t0;
             log.debug("Packed alignments in " + dt);
         }
-
-        // Add the last row
-        if (currentRow != null && currentRow.alignments.size() > 0) {
-            alignmentRows.add(currentRow);
-        }
-
-
-    }
-
-
-    /**
-     * Gets the range over which alignmentsList spans. Asssumes all on same chr, and sorted
-     *
-     * @param alignmentsList
-     * @return
-     */
-    private Range getAlignmentListRange(List<Alignment> alignmentsList) {
-        if (alignmentsList == null || alignmentsList.size() == 0) return null;
-        Alignment firstAlignment = alignmentsList.get(0);
-
-        int minStart = firstAlignment.getStart();
-        int maxEnd = firstAlignment.getEnd();
-        for (Alignment alignment : alignmentsList) {
-            maxEnd = Math.max(maxEnd, alignment.getEnd());
-        }
-        return new Range(firstAlignment.getChr(), minStart,
-                maxEnd);
     }
 
     private Comparator<String> getGroupComparator(AlignmentTrack.GroupOption groupByOption) {
@@ -335,190 +380,48 @@ public class AlignmentPacker {
         return null;
     }
 
-    static interface BucketCollection {
-
-        Range getRange();
-
-        void set(int idx, PriorityQueue<Alignment> bucket);
-
-        PriorityQueue<Alignment> get(int idx);
-
-        PriorityQueue<Alignment> getNextBucket(int bucketNumber, Collection<Integer> emptyBuckets);
-
-        void removeBuckets(Collection<Integer> emptyBuckets);
-
-        void finishedAdding();
-
-        int getBucketCount();
-    }
-
     /**
-     * Dense array implementation of BucketCollection.  Assumption is all or nearly all the genome region is covered
-     * with reads.
+     * End positions of rows,  in a tree of minimums for finding the first row with room for an alignment.
      */
-    static class DenseBucketCollection implements BucketCollection {
-
-        Range range;
-        int lastBucketNumber = -1;
-        final PriorityQueue[] bucketArray;
-
-        DenseBucketCollection(int bucketCount, Range range) {
-            this.bucketArray = new PriorityQueue[bucketCount];
-            this.range = range;
-        }
+    static class RowEnds {
 
-        public void set(int idx, PriorityQueue<Alignment> bucket) {
-            bucketArray[idx] = bucket;
-        }
-
-        public PriorityQueue<Alignment> get(int idx) {
-            return bucketArray[idx];
-        }
-
-        public int getBucketCount() {
-            return this.bucketArray.length;
-        }
-
-        public Range getRange() {
-            return range;
-        }
+        final int leafCount;
+        final int[] minEnds;
 
         /**
-         * Return the next occupied bucket after bucketNumber
-         *
-         * @param bucketNumber
-         * @param emptyBuckets ignored
-         * @return
+         * @param capacity maximum number of rows
          */
-        public PriorityQueue<Alignment> getNextBucket(int bucketNumber, Collection<Integer> emptyBuckets) {
-
-            if (bucketNumber == lastBucketNumber) {
-                // TODO -- detect inf loop here
-            }
-
-            PriorityQueue<Alignment> bucket = null;
-            while (bucketNumber < bucketArray.length) {
-
-                if (bucketNumber < 0) {
-                    System.out.println();
-                }
-
-                bucket = bucketArray[bucketNumber];
-                if (bucket != null) {
-                    if (bucket.isEmpty()) {
-                        bucketArray[bucketNumber] = null;
-                        bucket = null;
-                    } else {
-                        return bucket;
-                    }
-                }
-                bucketNumber++;
-            }
-            return null;
-        }
-
-        public void removeBuckets(Collection<Integer> emptyBuckets) {
-            // Nothing to do, empty buckets are removed "on the fly"
-        }
-
-        public void finishedAdding() {
-            // nothing to do
-        }
-    }
-
-
-    /**
-     * "Sparse" implementation of an alignment BucketCollection.  Assumption is there are small clusters of alignments
-     * along the genome, with mostly "white space".
-     */
-    static class SparseBucketCollection implements BucketCollection {
-
-        Range range;
-        boolean finished = false;
-        List<Integer> keys;
-        final HashMap<Integer, PriorityQueue<Alignment>> buckets;
-
-        SparseBucketCollection(Range range) {
-            this.range = range;
-            this.buckets = new HashMap(1000);
-        }
-
-        public void set(int idx, PriorityQueue<Alignment> bucket) {
-            if (finished) {
-                log.error("Error: bucket added after finishAdding() called");
-            }
-            buckets.put(idx, bucket);
-        }
-
-        public PriorityQueue<Alignment> get(int idx) {
-            return buckets.get(idx);
-        }
-
-        public Range getRange() {
-            return range;
+        RowEnds(int capacity) {
+            int n = 1;
+            while (n < capacity) n <<= 1;
+            leafCount = n;
+            minEnds = new int[2 * n];
+            Arrays.fill(minEnds, Integer.MIN_VALUE);     // Empty rows
         }
 
         /**
-         * Return the next occupied bucket at or after after bucketNumber.
-         *
-         * @param bucketNumber -- the hash bucket index for the alignments, essential the position relative to the start
-         *                     of this packing interval
-         * @return the next occupied bucket at or after bucketNumber, or null if there are none.
+         * Return the first row ending at or before the position,  or -1 if there is none
          */
-        public PriorityQueue<Alignment> getNextBucket(int bucketNumber, Collection<Integer> emptyBuckets) {
-
-            PriorityQueue<Alignment> bucket = null;
-            int min = 0;
-            int max = keys.size() - 1;
-
-            // Get close to the right index, rather than scan from the beginning
-            while ((max - min) > 5) {
-                int mid = (max + min) / 2;
-                Integer key = keys.get(mid);
-                if (key > bucketNumber) {
-                    max = mid;
-                } else {
-                    min = mid;
-                }
+        int firstRowEndingBy(int position) {
+            if (minEnds[1] > position) {
+                return -1;
             }
-
-            // Now march from min to max until we cross bucketNumber
-            for (int i = min; i < keys.size(); i++) {
-                Integer key = keys.get(i);
-                if (key >= bucketNumber) {
-                    bucket = buckets.get(key);
-                    if (bucket.isEmpty()) {
-                        emptyBuckets.add(key);
-                        bucket = null;
-                    } else {
-                        return bucket;
-                    }
+            int node = 1;
+            while (node < leafCount) {
+                node <<= 1;
+                if (minEnds[node] > position) {
+                    node++;
                 }
             }
-            return null;     // No bucket found
+            return node - leafCount;
         }
 
-        public void removeBuckets(Collection<Integer> emptyBuckets) {
-
-            if (emptyBuckets.isEmpty()) {
-                return;
-            }
-
-            for (Integer i : emptyBuckets) {
-                buckets.remove(i);
+        void set(int row, int end) {
+            int node = row + leafCount;
+            minEnds[node] = end;
+            for (node >>= 1; node > 0; node >>= 1) {
+                minEnds[node] = Math.min(minEnds[2 * node], minEnds[2 * node + 1]);
             }
-            keys = new ArrayList<Integer>(buckets.keySet());
-            Collections.sort(keys);
-        }
-
-        public void finishedAdding() {
-            finished = true;
-            keys = new ArrayList<Integer>(buckets.keySet());
-            Collections.sort(keys);
-        }
-
-        public int getBucketCount() {
-            return Integer.MAX_VALUE;
         }
     }
 
@@ -31,6 +31,7 @@ import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
 import org.broad.igv.PreferenceManager;
 import org.broad.igv.feature.SpliceJunctionFeature;
+import org.broad.igv.feature.genome.GenomeManager;
 import org.broad.igv.sam.reader.AlignmentReader;
 import org.broad.igv.sam.reader.ReadGroupFilter;
 import org.broad.igv.ui.IGV;
@@ -145,6 +146,18 @@ public class AlignmentTileLoader {
 
                 Alignment record = iter.next();
 
+                boolean filtered = !record.isMapped() || (!showDuplicates && record.isDuplicate()) ||
+                        (filterFailedReads && record.isVendorFailedRead()) ||
+                        (filterSecondaryAlignments && !record.isPrimary()) ||
+                        (filterSupplementaryAlignments && record.isSupplementary()) ||
+                        record.getMappingQuality() < qualityThreshold ||
+                        (filter != null && filter.filterAlignment(record));
+
+                if (!filtered) {
+                    // The tile might keep a packed copy of the record,  mate sequences are set on the copy
+                    record = t.addRecord(record);
+                }
+
                 // Set mate sequence of unmapped mates
                 // Put a limit on the total size of this collection.
                 String readName = record.getReadName();
@@ -177,17 +190,10 @@ public class AlignmentTileLoader {
                 }
 
 
-                if (!record.isMapped() || (!showDuplicates && record.isDuplicate()) ||
-                        (filterFailedReads && record.isVendorFailedRead()) ||
-                        (filterSecondaryAlignments && !record.isPrimary()) ||
-                        (filterSupplementaryAlignments && record.isSupplementary()) ||
-                        record.getMappingQuality() < qualityThreshold ||
-                        (filter != null && filter.filterAlignment(record))) {
+                if (filtered) {
                     continue;
                 }
 
-                t.addRecord(record);
-
                 alignmentCount++;
                 int interval = Globals.isTesting() ? 100000 : 1000;
                 if (alignmentCount % interval == 0) {
@@ -335,6 +341,11 @@ public class AlignmentTileLoader {
         private int downsampledCount = 0;
         private int offset = 0;
 
+        /**
+         * Packed storage for the retained alignments,  or null to keep the alignments as loaded
+         */
+        private CompactAlignmentStore store;
+
         AlignmentTile(int start, int end,
                       SpliceJunctionHelper spliceJunctionHelper,
                       AlignmentDataManager.DownsampleOptions downsampleOptions,
@@ -369,6 +380,10 @@ public class AlignmentTileLoader {
             } else {
                 alignments = new ArrayList<Alignment>(16000);
             }
+
+            if (PreferenceManager.getInstance().getAsBoolean(PreferenceManager.SAM_COMPACT_ALIGNMENTS)) {
+                store = new CompactAlignmentStore(GenomeManager.getInstance().getCurrentGenome());
+            }
         }
 
         public int getStart() {
@@ -384,11 +399,11 @@ public class AlignmentTileLoader {
         /**
          * Add an alignment record to this tile.  This record is not necessarily retained after down-sampling.
          *
-        // * @param alignment
+         * @param alignment
+         * @return the alignment as retained,  which might be a packed copy,  or the alignment itself if it was
+         * not retained
          */
-        public void addRecord(Alignment alignment) {
-
-           // alignment = new ReducedMemoryAlignment(alignment);
+        public Alignment addRecord(Alignment alignment) {
 
             counts.incCounts(alignment);
 
@@ -396,6 +411,8 @@ public class AlignmentTileLoader {
                 spliceJunctionHelper.addAlignment(alignment);
             }
 
+            alignment.finish();
+
             if (downsample) {
                 final int alignmentStart = alignment.getAlignmentStart();
                 int currentSamplingBucketEnd = currentSamplingWindowStart + samplingWindowSize;
@@ -403,13 +420,17 @@ public class AlignmentTileLoader {
                     setCurrentSamplingBucket(alignmentStart);
                 }
 
-                attemptAddRecordDownsampled(alignment);
+                return attemptAddRecordDownsampled(alignment);
 
             } else {
+                alignment = pack(alignment);
                 alignments.add(alignment);
+                return alignment;
             }
+        }
 
-            alignment.finish();
+        private Alignment pack(Alignment alignment) {
+            return store == null ? alignment : store.add(alignment);
         }
 
         /**
@@ -420,8 +441,9 @@ public class AlignmentTileLoader {
          * reservoir sampling
          *
          * @param alignment
+         * @return the alignment as retained
          */
-        private void attemptAddRecordDownsampled(Alignment alignment) {
+        private Alignment attemptAddRecordDownsampled(Alignment alignment) {
             String readName = alignment.getReadName();
             //A simple way to turn off the same-readName-checking is to replace the read name with a random string
             //so that there are no repeats
@@ -435,12 +457,14 @@ public class AlignmentTileLoader {
                 boolean haveOther = mateAlignments != null;
                 if (haveOther) {
                     //We keep the alignment if others have been kept
+                    alignment = pack(alignment);
                     imAlignments.append(readName, alignment);
                 } else {
                     currentDownsampledInterval.incCount();
                 }
             } else {
                 if (curEffSamplingWindowDepth < samplingDepth) {
+                    alignment = pack(alignment);
                     imAlignments.append(readName, alignment);
                     curEffSamplingWindowDepth++;
                 } else {
@@ -449,6 +473,7 @@ public class AlignmentTileLoader {
                         int rndInt = (int) (RAND.nextDouble() * (samplingDepth - 1));
                         int idx = offset + rndInt;
                         // Replace random record with this one
+                        alignment = pack(alignment);
                         List<Alignment> removedValues = imAlignments.replace(idx, readName, alignment);
                         incrementDownsampledIntervals(removedValues);
                     } else {
@@ -459,6 +484,7 @@ public class AlignmentTileLoader {
                     downsampledCount++;
                 }
             }
+            return alignment;
         }
 
         private void setCurrentSamplingBucket(int alignmentStart) {
@@ -557,6 +583,10 @@ public class AlignmentTileLoader {
             if (downsample) {
                 sortFilterDownsampled();
             }
+            if (store != null && alignments != null) {
+                // Drop alignments replaced while downsampling,  and unused capacity
+                store.retain(alignments);
+            }
             finalizeSpliceJunctions();
             counts.finish();
         }
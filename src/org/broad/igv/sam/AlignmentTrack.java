@@ -467,12 +467,12 @@ public class AlignmentTrack extends AbstractTrack implements AlignmentTrackEvent
     public void groupAlignments(GroupOption option, List<ReferenceFrame> referenceFrames) {
         if (renderOptions.groupByOption != option) {
             renderOptions.groupByOption = (option == GroupOption.NONE ? null : option);
-            dataManager.packAlignments(renderOptions);
+            dataManager.packAlignmentsInBackground(renderOptions, false, refreshCallback);
         }
     }
 
     public void packAlignments() {
-        dataManager.packAlignments(renderOptions);
+        dataManager.packAlignmentsInBackground(renderOptions, true, refreshCallback);
     }
 
     /**
@@ -924,6 +924,17 @@ public class AlignmentTrack extends AbstractTrack implements AlignmentTrackEvent
         dataManager.clear();
     }
 
+    // Repaints when background packing completes
+    private static final Runnable refreshCallback = new Runnable() {
+        public void run() {
+            UIUtilities.invokeOnEventThread(new Runnable() {
+                public void run() {
+                    refresh();
+                }
+            });
+        }
+    };
+
     public static void refresh() {
         IGV.getInstance().getContentPane().getMainPanel().invalidate();
         IGV.getInstance().repaintDataPanels();
@@ -995,7 +1006,7 @@ public class AlignmentTrack extends AbstractTrack implements AlignmentTrackEvent
             }
         }
 
-        dataManager.setViewAsPairs(vAP, renderOptions);
+        dataManager.setViewAsPairs(vAP, renderOptions, refreshCallback);
         refresh();
     }
 
@@ -1015,13 +1026,13 @@ public class AlignmentTrack extends AbstractTrack implements AlignmentTrackEvent
         }
 
         renderOptions.setPairedArcView(option);
-        dataManager.packAlignments(renderOptions);
+        dataManager.packAlignmentsInBackground(renderOptions, false, refreshCallback);
         refresh();
     }
 
     @XmlType(name = RenderOptions.NAME)
     @XmlAccessorType(XmlAccessType.NONE)
-    public static class RenderOptions {
+    public static class RenderOptions implements Cloneable {
 
         public static final String NAME = "RenderOptions";
 
@@ -1147,6 +1158,17 @@ public class AlignmentTrack extends AbstractTrack implements AlignmentTrackEvent
 
         }
 
+        /**
+         * A shallow copy,  for packing with a pending option change
+         */
+        RenderOptions copy() {
+            try {
+                return (RenderOptions) clone();
+            } catch (CloneNotSupportedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
         public boolean isViewPairs() {
             return viewPairs;
         }
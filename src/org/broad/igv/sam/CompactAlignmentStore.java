@@ -0,0 +1,968 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import htsjdk.samtools.*;
+import htsjdk.samtools.util.BinaryCodec;
+import org.apache.log4j.Logger;
+import org.broad.igv.feature.Strand;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.track.WindowFunction;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.List;
+
+/**
+ * Packed storage for the alignments of one tile.  Alignments are copied into shared primitive arrays and
+ * represented by small {@link CompactAlignment} views,  so the SAM records they came from can be collected.
+ * <p/>
+ * Bases are packed 2 per byte using the BAM 4-bit code,  qualities are stored 1 per byte,  and alignment blocks are
+ * stored as offsets into the read.  Read names and optional fields are kept as bytes,  other strings (chromosomes,
+ * cigars,  read groups, ...) are interned per store.
+ * <p/>
+ * Only {@link PicardAlignment}s are packed.  Alignments which cannot be represented exactly (e.g. missing
+ * sequence,  flow signals,  or non-standard bases) are returned unchanged by {@link #add(Alignment)}.
+ * <p/>
+ * Alignments are added by a single loading thread.  Once loading is finished the store is read-only,  apart from mate
+ * sequences.
+ */
+class CompactAlignmentStore {
+
+    private static Logger log = Logger.getLogger(CompactAlignmentStore.class);
+
+    // Fields of a read,  FIELDS ints per read
+    private static final int START = 0;
+    private static final int END = 1;
+    private static final int ALIGNMENT_START = 2;
+    private static final int ALIGNMENT_END = 3;
+    private static final int FLAGS = 4;              // SAM flags,  mapping quality,  pair strands,  see below
+    private static final int INSERT_SIZE = 5;
+    private static final int MATE_START = 6;
+    private static final int CHRS = 7;               // chr | mate chr << 16
+    private static final int REFERENCES = 8;         // reference name | mate reference name << 16
+    private static final int GROUP = 9;              // read group | sample << 16
+    private static final int LIBRARY = 10;           // library | pair orientation << 16
+    private static final int CIGAR = 11;
+    private static final int COLOR = 12;
+    private static final int NAME = 13;              // offset of the read name in data
+    private static final int TAGS = 14;              // offset of the optional fields in data
+    private static final int GAPS = 15;              // offset of the gap types in data
+    private static final int SEQUENCE = 16;          // offset of the first base in bases and qualities
+    private static final int BLOCKS = 17;            // index of the first block
+    private static final int FIELDS = 18;
+
+    private static final int SAM_FLAG_MASK = 0xfff;
+    private static final int MAPQ_SHIFT = 12;
+    private static final int FIRST_OF_PAIR_STRAND_SHIFT = 20;
+    private static final int SECOND_OF_PAIR_STRAND_SHIFT = 22;
+    private static final int NO_QUALITIES = 1 << 24;
+
+    private static final int READ_PAIRED_FLAG = 0x1;
+    private static final int PROPER_PAIR_FLAG = 0x2;
+    private static final int READ_UNMAPPED_FLAG = 0x4;
+    private static final int MATE_UNMAPPED_FLAG = 0x8;
+    private static final int READ_STRAND_FLAG = 0x10;
+    private static final int MATE_STRAND_FLAG = 0x20;
+    private static final int FIRST_OF_PAIR_FLAG = 0x40;
+    private static final int SECOND_OF_PAIR_FLAG = 0x80;
+    private static final int NOT_PRIMARY_ALIGNMENT_FLAG = 0x100;
+    private static final int READ_FAILS_VENDOR_QUALITY_CHECK_FLAG = 0x200;
+    private static final int DUPLICATE_READ_FLAG = 0x400;
+    private static final int SUPPLEMENTARY_ALIGNMENT_FLAG = 0x800;
+
+    // Block types
+    private static final byte SOFT_CLIPPED = 1;
+    private static final byte INSERTION = 2;
+    private static final byte REFERENCE = 4;     // Bases match the reference (reduced)
+
+    private static final int MAX_STRINGS = 0xffff;
+    private static final byte NO_QUALITY = (byte) 126;
+
+    // BAM 4-bit base codes
+    private static final byte[] CODE_TO_BASE = "=ACMGRSVTWYHKDBN".getBytes();
+    private static final byte[] BASE_TO_CODE = new byte[256];
+
+    static {
+        Arrays.fill(BASE_TO_CODE, (byte) -1);
+        for (int i = 0; i < CODE_TO_BASE.length; i++) {
+            BASE_TO_CODE[CODE_TO_BASE[i]] = (byte) i;
+        }
+    }
+
+    private static final Strand[] STRANDS = {Strand.NONE, Strand.POSITIVE, Strand.NEGATIVE, null};
+
+    private final Genome genome;
+
+    private int[] reads = new int[FIELDS * 64];
+    private int size = 0;
+
+    private byte[] data = new byte[4096];
+    private int dataSize = 0;
+
+    private byte[] bases = new byte[4096];       // 2 bases per byte
+    private byte[] qualities = new byte[8192];
+    private int baseCount = 0;
+
+    private int[] blockStarts = new int[128];
+    private int[] blockOffsets = new int[128];   // Offset of the block in the read
+    private int[] blockLengths = new int[128];
+    private byte[] blockTypes = new byte[128];
+    private int blockCount = 0;
+
+    private final StringTable strings = new StringTable();
+    private final StringTable cigars = new StringTable();
+    private final List<Color> colors = new ArrayList<Color>();
+
+    private Map<Integer, String> mateSequences;
+
+    private int fallbackCount = 0;
+
+    CompactAlignmentStore(Genome genome) {
+        this.genome = genome;
+        colors.add(null);
+    }
+
+    /**
+     * Add an alignment.
+     *
+     * @return a view of the packed alignment,  or the alignment itself if it could not be packed
+     */
+    Alignment add(Alignment alignment) {
+        if (!(alignment instanceof PicardAlignment)) {
+            return alignment;
+        }
+        int mark = dataSize;
+        int baseMark = baseCount;
+        int blockMark = blockCount;
+        boolean added = false;
+        try {
+            added = append((PicardAlignment) alignment);
+        } catch (Exception e) {
+            log.debug("Alignment not packed: " + alignment.getReadName(), e);
+        }
+        if (!added) {
+            dataSize = mark;
+            baseCount = baseMark;
+            blockCount = blockMark;
+            fallbackCount++;
+            return alignment;
+        }
+        size++;
+        return new CompactAlignment(this, size - 1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Number of alignments which could not be packed
+     */
+    int getFallbackCount() {
+        return fallbackCount;
+    }
+
+    /**
+     * Discard all packed alignments except the given ones,  e.g. those kept after downsampling,  and release
+     * unused space.  Views of the retained alignments are renumbered,  in the order given.  Views of other alignments
+     * are no longer valid.
+     */
+    void retain(List<Alignment> alignments) {
+
+        CompactAlignmentStore copy = new CompactAlignmentStore(genome);
+        List<CompactAlignment> views = new ArrayList<CompactAlignment>(alignments.size());
+        for (Alignment al : alignments) {
+            if (al instanceof CompactAlignment && ((CompactAlignment) al).store == this) {
+                CompactAlignment view = (CompactAlignment) al;
+                copy.copyFrom(this, view.index);
+                views.add(view);
+            }
+        }
+
+        Map<Integer, String> newMateSequences = null;
+        for (int i = 0; i < views.size(); i++) {
+            CompactAlignment view = views.get(i);
+            String mateSequence = getMateSequence(view.index);
+            if (mateSequence != null) {
+                if (newMateSequences == null) newMateSequences = new HashMap<Integer, String>();
+                newMateSequences.put(i, mateSequence);
+            }
+            view.index = i;
+        }
+
+        reads = Arrays.copyOf(copy.reads, copy.size * FIELDS);
+        size = copy.size;
+        data = Arrays.copyOf(copy.data, copy.dataSize);
+        dataSize = copy.dataSize;
+        bases = Arrays.copyOf(copy.bases, (copy.baseCount + 1) / 2);
+        qualities = Arrays.copyOf(copy.qualities, copy.baseCount);
+        baseCount = copy.baseCount;
+        blockStarts = Arrays.copyOf(copy.blockStarts, copy.blockCount);
+        blockOffsets = Arrays.copyOf(copy.blockOffsets, copy.blockCount);
+        blockLengths = Arrays.copyOf(copy.blockLengths, copy.blockCount);
+        blockTypes = Arrays.copyOf(copy.blockTypes, copy.blockCount);
+        blockCount = copy.blockCount;
+        strings.set(copy.strings);
+        cigars.set(copy.cigars);
+        colors.clear();
+        colors.addAll(copy.colors);
+        synchronized (this) {
+            mateSequences = newMateSequences;
+        }
+    }
+
+    /**
+     * Estimated size of the packed data in bytes,  excluding views and interned strings
+     */
+    long getRetainedBytes() {
+        return 4L * reads.length + data.length + bases.length + qualities.length +
+                13L * blockStarts.length;
+    }
+
+
+    private boolean append(PicardAlignment al) {
+
+        SAMRecord record = al.getRecord();
+        byte[] readBases = record.getReadBases();
+        byte[] readQualities = record.getBaseQualities();
+        if (readBases == null || readBases.length == 0 || record.getReadName() == null) {
+            return false;
+        }
+        boolean hasQualities = readQualities != null && readQualities.length > 0;
+        if (hasQualities && readQualities.length != readBases.length) {
+            return false;
+        }
+
+        int colorIndex = 0;
+        if (al.getColor() != null) {
+            colorIndex = colors.indexOf(al.getColor());
+            if (colorIndex < 0) {
+                colors.add(al.getColor());
+                colorIndex = colors.size() - 1;
+            }
+        }
+
+        int chr = strings.intern(al.getChr());
+        int reference = strings.intern(record.getReferenceName());
+        ReadMate mate = al.getMate();
+        int mateChr = mate == null ? 0 : strings.intern(mate.getChr());
+        int mateReference = mate == null ? 0 : strings.intern(record.getMateReferenceName());
+        int readGroup = strings.intern(al.getReadGroup());
+        int sample = strings.intern(al.getSample());
+        int library = strings.intern(al.getLibrary());
+        int orientation = strings.intern(al.getPairOrientation());
+        if (strings.size() > MAX_STRINGS) {
+            return false;
+        }
+
+        int nameOffset = dataSize;
+        String readName = record.getReadName();
+        for (int i = 0; i < readName.length(); i++) {
+            char c = readName.charAt(i);
+            if (c > 127) {
+                return false;
+            }
+            putData((byte) c);
+        }
+
+        int tagsOffset = dataSize;
+        List<SAMRecord.SAMTagAndValue> attributes = record.getAttributes();
+        if (attributes != null && !attributes.isEmpty()) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            BinaryTagCodec tagCodec = new BinaryTagCodec(new BinaryCodec(bos));
+            SAMTagUtil tagUtil = SAMTagUtil.getSingleton();
+            for (SAMRecord.SAMTagAndValue tag : attributes) {
+                tagCodec.writeTag(tagUtil.makeBinaryTag(tag.tag), tag.value, false);
+            }
+            for (byte b : bos.toByteArray()) {
+                putData(b);
+            }
+        }
+
+        int gapsOffset = dataSize;
+        char[] gapTypes = al.getGapTypes();
+        if (gapTypes != null) {
+            for (char c : gapTypes) {
+                if (c > 127) {
+                    return false;
+                }
+                putData((byte) c);
+            }
+        }
+
+        int sequenceOffset = baseCount;
+        for (int i = 0; i < readBases.length; i++) {
+            byte code = BASE_TO_CODE[readBases[i] & 0xff];
+            if (code < 0) {
+                return false;
+            }
+            putBase(code, hasQualities ? readQualities[i] : NO_QUALITY);
+        }
+
+        int blocksOffset = blockCount;
+        if (!appendBlocks(al, record, readBases, readQualities)) {
+            return false;
+        }
+
+        int flags = (record.getFlags() & SAM_FLAG_MASK) |
+                ((record.getMappingQuality() & 0xff) << MAPQ_SHIFT) |
+                (strandCode(al.getFirstOfPairStrand()) << FIRST_OF_PAIR_STRAND_SHIFT) |
+                (strandCode(al.getSecondOfPairStrand()) << SECOND_OF_PAIR_STRAND_SHIFT) |
+                (hasQualities ? 0 : NO_QUALITIES);
+
+        ensureReadCapacity();
+        int r = size * FIELDS;
+        reads[r + START] = al.getStart();
+        reads[r + END] = al.getEnd();
+        reads[r + ALIGNMENT_START] = al.getAlignmentStart();
+        reads[r + ALIGNMENT_END] = al.getAlignmentEnd();
+        reads[r + FLAGS] = flags;
+        reads[r + INSERT_SIZE] = record.getInferredInsertSize();
+        reads[r + MATE_START] = mate == null ? 0 : mate.getStart();
+        reads[r + CHRS] = chr | (mateChr << 16);
+        reads[r + REFERENCES] = reference | (mateReference << 16);
+        reads[r + GROUP] = readGroup | (sample << 16);
+        reads[r + LIBRARY] = library | (orientation << 16);
+        reads[r + CIGAR] = cigars.intern(record.getCigarString());
+        reads[r + COLOR] = colorIndex;
+        reads[r + NAME] = nameOffset;
+        reads[r + TAGS] = tagsOffset;
+        reads[r + GAPS] = gapsOffset;
+        reads[r + SEQUENCE] = sequenceOffset;
+        reads[r + BLOCKS] = blocksOffset;
+        return true;
+    }
+
+    /**
+     * Record the alignment blocks and insertions as offsets into the read,  checking that they are exact copies of
+     * the read bases and qualities.
+     */
+    private boolean appendBlocks(Alignment al, SAMRecord record, byte[] readBases, byte[] readQualities) {
+
+        AlignmentBlock[] blocks = al.getAlignmentBlocks();
+        AlignmentBlock[] insertions = al.getInsertions();
+        if (blocks == null) {
+            return false;
+        }
+        if (insertions == null) {
+            insertions = new AlignmentBlock[0];
+        }
+
+        // Bases preceding the first block,  i.e. soft clipped bases which are not shown
+        int readOffset = 0;
+        if (blocks.length > 0 && !blocks[0].isSoftClipped()) {
+            for (CigarElement element : record.getCigar().getCigarElements()) {
+                CigarOperator op = element.getOperator();
+                if (op == CigarOperator.S) {
+                    readOffset += element.getLength();
+                } else if (op != CigarOperator.H) {
+                    break;
+                }
+            }
+        }
+
+        // Blocks and insertions in read order.  An insertion precedes the block starting at the same position.
+        int b = 0;
+        int i = 0;
+        while (b < blocks.length || i < insertions.length) {
+            boolean isInsertion = b == blocks.length ||
+                    (i < insertions.length && insertions[i].getStart() <= blocks[b].getStart());
+            AlignmentBlock block = isInsertion ? insertions[i++] : blocks[b++];
+            if (block.hasFlowSignals() || block.hasCounts()) {
+                return false;
+            }
+            int length = block.getLength();
+            if (readOffset + length > readBases.length) {
+                return false;
+            }
+            if (block.hasBases()) {
+                byte[] blockBases = block.getBases();
+                for (int k = 0; k < length; k++) {
+                    if (blockBases[k] != readBases[readOffset + k]) {
+                        return false;
+                    }
+                }
+            }
+            byte[] blockQualities = block.getQualities();
+            for (int k = 0; k < length; k++) {
+                byte q = readQualities == null || readQualities.length == 0 ? NO_QUALITY : readQualities[readOffset + k];
+                if (blockQualities[k] != q) {
+                    return false;
+                }
+            }
+
+            byte type = 0;
+            if (block.isSoftClipped()) type |= SOFT_CLIPPED;
+            if (isInsertion) type |= INSERTION;
+            if (!block.hasBases()) type |= REFERENCE;
+            putBlock(block.getStart(), readOffset, length, type);
+
+            readOffset += length;
+        }
+        return true;
+    }
+
+    private void copyFrom(CompactAlignmentStore source, int index) {
+
+        int[] sourceReads = source.reads;
+        int s = index * FIELDS;
+        ensureReadCapacity();
+        int r = size * FIELDS;
+        System.arraycopy(sourceReads, s, reads, r, FIELDS);
+
+        reads[r + CHRS] = strings.intern(source.strings.get(sourceReads[s + CHRS] & 0xffff)) |
+                (strings.intern(source.strings.get(sourceReads[s + CHRS] >>> 16)) << 16);
+        reads[r + REFERENCES] = strings.intern(source.strings.get(sourceReads[s + REFERENCES] & 0xffff)) |
+                (strings.intern(source.strings.get(sourceReads[s + REFERENCES] >>> 16)) << 16);
+        reads[r + GROUP] = strings.intern(source.strings.get(sourceReads[s + GROUP] & 0xffff)) |
+                (strings.intern(source.strings.get(sourceReads[s + GROUP] >>> 16)) << 16);
+        reads[r + LIBRARY] = strings.intern(source.strings.get(sourceReads[s + LIBRARY] & 0xffff)) |
+                (strings.intern(source.strings.get(sourceReads[s + LIBRARY] >>> 16)) << 16);
+        reads[r + CIGAR] = cigars.intern(source.cigars.get(sourceReads[s + CIGAR]));
+        Color color = source.colors.get(sourceReads[s + COLOR]);
+        int colorIndex = colors.indexOf(color);
+        if (colorIndex < 0) {
+            colors.add(color);
+            colorIndex = colors.size() - 1;
+        }
+        reads[r + COLOR] = colorIndex;
+
+        // Names,  tags,  and gaps are contiguous in data
+        int dataStart = sourceReads[s + NAME];
+        int dataEnd = source.end(index, NAME, source.dataSize);
+        reads[r + NAME] = dataSize;
+        reads[r + TAGS] = dataSize + sourceReads[s + TAGS] - dataStart;
+        reads[r + GAPS] = dataSize + sourceReads[s + GAPS] - dataStart;
+        for (int k = dataStart; k < dataEnd; k++) {
+            putData(source.data[k]);
+        }
+
+        int sequenceStart = sourceReads[s + SEQUENCE];
+        int sequenceEnd = source.end(index, SEQUENCE, source.baseCount);
+        reads[r + SEQUENCE] = baseCount;
+        for (int k = sequenceStart; k < sequenceEnd; k++) {
+            putBase(source.getBaseCode(k), source.qualities[k]);
+        }
+
+        int blockStart = sourceReads[s + BLOCKS];
+        int blockEnd = source.end(index, BLOCKS, source.blockCount);
+        reads[r + BLOCKS] = blockCount;
+        for (int k = blockStart; k < blockEnd; k++) {
+            putBlock(source.blockStarts[k], source.blockOffsets[k], source.blockLengths[k], source.blockTypes[k]);
+        }
+
+        size++;
+    }
+
+    // End (exclusive) of a variable length field,  i.e. the start of the next read's field
+    private int end(int index, int field, int total) {
+        return index + 1 < size ? reads[(index + 1) * FIELDS + field] : total;
+    }
+
+    // End of the data section of a field stored contiguously in data
+    private int dataEnd(int index, int field) {
+        switch (field) {
+            case NAME:
+                return reads[index * FIELDS + TAGS];
+            case TAGS:
+                return reads[index * FIELDS + GAPS];
+            default:
+                return end(index, NAME, dataSize);
+        }
+    }
+
+    private void ensureReadCapacity() {
+        if ((size + 1) * FIELDS > reads.length) {
+            reads = Arrays.copyOf(reads, Math.max(FIELDS * 64, reads.length * 2));
+        }
+    }
+
+    private void putData(byte b) {
+        if (dataSize == data.length) {
+            data = Arrays.copyOf(data, Math.max(1024, data.length * 2));
+        }
+        data[dataSize++] = b;
+    }
+
+    private void putBase(byte code, byte quality) {
+        if (baseCount == qualities.length) {
+            qualities = Arrays.copyOf(qualities, Math.max(1024, qualities.length * 2));
+            bases = Arrays.copyOf(bases, qualities.length / 2);
+        }
+        int i = baseCount >> 1;
+        if ((baseCount & 1) == 0) {
+            bases[i] = (byte) (code << 4);
+        } else {
+            bases[i] = (byte) (bases[i] | code);
+        }
+        qualities[baseCount] = quality;
+        baseCount++;
+    }
+
+    private byte getBaseCode(int i) {
+        int b = bases[i >> 1];
+        return (byte) ((i & 1) == 0 ? (b >> 4) & 0xf : b & 0xf);
+    }
+
+    private byte getBase(int i) {
+        return CODE_TO_BASE[getBaseCode(i)];
+    }
+
+    private void putBlock(int start, int offset, int length, byte type) {
+        if (blockCount == blockStarts.length) {
+            int capacity = Math.max(64, blockStarts.length * 2);
+            blockStarts = Arrays.copyOf(blockStarts, capacity);
+            blockOffsets = Arrays.copyOf(blockOffsets, capacity);
+            blockLengths = Arrays.copyOf(blockLengths, capacity);
+            blockTypes = Arrays.copyOf(blockTypes, capacity);
+        }
+        blockStarts[blockCount] = start;
+        blockOffsets[blockCount] = offset;
+        blockLengths[blockCount] = length;
+        blockTypes[blockCount] = type;
+        blockCount++;
+    }
+
+    private static int strandCode(Strand strand) {
+        if (strand == null) return 3;
+        switch (strand) {
+            case POSITIVE:
+                return 1;
+            case NEGATIVE:
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+    private synchronized String getMateSequence(int index) {
+        return mateSequences == null ? null : mateSequences.get(index);
+    }
+
+    private synchronized void setMateSequence(int index, String sequence) {
+        if (mateSequences == null) {
+            mateSequences = new HashMap<Integer, String>();
+        }
+        mateSequences.put(index, sequence);
+    }
+
+
+    /**
+     * Interned strings,  index 0 is null
+     */
+    private static class StringTable {
+
+        private List<String> values = new ArrayList<String>();
+        private Map<String, Integer> indices = new HashMap<String, Integer>();
+
+        StringTable() {
+            values.add(null);
+        }
+
+        int intern(String s) {
+            if (s == null) {
+                return 0;
+            }
+            Integer index = indices.get(s);
+            if (index == null) {
+                index = values.size();
+                values.add(s);
+                indices.put(s, index);
+            }
+            return index;
+        }
+
+        String get(int index) {
+            return values.get(index);
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        void set(StringTable other) {
+            values = other.values;
+            indices = other.indices;
+        }
+    }
+
+
+    /**
+     * A view of a packed alignment
+     */
+    static class CompactAlignment implements Alignment {
+
+        final CompactAlignmentStore store;
+        int index;
+
+        CompactAlignment(CompactAlignmentStore store, int index) {
+            this.store = store;
+            this.index = index;
+        }
+
+        private int field(int field) {
+            return store.reads[index * FIELDS + field];
+        }
+
+        private int samFlags() {
+            return field(FLAGS) & SAM_FLAG_MASK;
+        }
+
+        private String string(int field, boolean high) {
+            int value = field(field);
+            return store.strings.get(high ? value >>> 16 : value & 0xffff);
+        }
+
+        public String getReadName() {
+            int start = field(NAME);
+            int end = store.dataEnd(index, NAME);
+            char[] chars = new char[end - start];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = (char) store.data[start + i];
+            }
+            return new String(chars);
+        }
+
+        public String getReadSequence() {
+            int start = field(SEQUENCE);
+            int end = store.end(index, SEQUENCE, store.baseCount);
+            byte[] seq = new byte[end - start];
+            for (int i = 0; i < seq.length; i++) {
+                seq[i] = store.getBase(start + i);
+            }
+            return new String(seq);
+        }
+
+        public String getChr() {
+            return string(CHRS, false);
+        }
+
+        public String getContig() {
+            return getChr();
+        }
+
+        public int getStart() {
+            return field(START);
+        }
+
+        public int getEnd() {
+            return field(END);
+        }
+
+        public void setStart(int start) {
+            store.reads[index * FIELDS + START] = start;
+        }
+
+        public void setEnd(int end) {
+            store.reads[index * FIELDS + END] = end;
+        }
+
+        public int getAlignmentStart() {
+            return field(ALIGNMENT_START);
+        }
+
+        public int getAlignmentEnd() {
+            return field(ALIGNMENT_END);
+        }
+
+        public boolean contains(double location) {
+            return location >= getStart() && location < getEnd();
+        }
+
+        public AlignmentBlock[] getAlignmentBlocks() {
+            return getBlocks(false);
+        }
+
+        public AlignmentBlock[] getInsertions() {
+            return getBlocks(true);
+        }
+
+        private AlignmentBlock[] getBlocks(boolean insertions) {
+            int first = field(BLOCKS);
+            int end = store.end(index, BLOCKS, store.blockCount);
+            int n = 0;
+            for (int b = first; b < end; b++) {
+                if (((store.blockTypes[b] & INSERTION) != 0) == insertions) n++;
+            }
+            String chr = getChr();
+            int sequenceStart = field(SEQUENCE);
+            boolean hasQualities = (field(FLAGS) & NO_QUALITIES) == 0;
+            AlignmentBlock[] blocks = new AlignmentBlock[n];
+            int i = 0;
+            for (int b = first; b < end; b++) {
+                byte type = store.blockTypes[b];
+                if (((type & INSERTION) != 0) != insertions) {
+                    continue;
+                }
+                int length = store.blockLengths[b];
+                int offset = sequenceStart + store.blockOffsets[b];
+                byte[] quals = null;
+                if (hasQualities) {
+                    quals = new byte[length];
+                    System.arraycopy(store.qualities, offset, quals, 0, length);
+                }
+                AlignmentBlock block;
+                if ((type & REFERENCE) != 0) {
+                    block = new AlignmentBlock(chr, store.blockStarts[b], length, quals, store.genome);
+                } else {
+                    byte[] blockBases = new byte[length];
+                    for (int k = 0; k < length; k++) {
+                        blockBases[k] = store.getBase(offset + k);
+                    }
+                    block = new AlignmentBlock(chr, store.blockStarts[b], blockBases, quals);
+                }
+                if ((type & SOFT_CLIPPED) != 0) {
+                    block.setSoftClipped(true);
+                }
+                blocks[i++] = block;
+            }
+            return blocks;
+        }
+
+        /**
+         * Offset of the base at the position in the packed sequence,  or -1 if not in an alignment block
+         */
+        private int baseIndex(int position) {
+            int end = store.end(index, BLOCKS, store.blockCount);
+            for (int b = field(BLOCKS); b < end; b++) {
+                if ((store.blockTypes[b] & INSERTION) == 0) {
+                    int offset = position - store.blockStarts[b];
+                    if (offset >= 0 && offset < store.blockLengths[b]) {
+                        return field(SEQUENCE) + store.blockOffsets[b] + offset;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        public byte getBase(double position) {
+            // Bases of reduced blocks are equal to the reference
+            int i = baseIndex((int) position);
+            return i < 0 ? 0 : store.getBase(i);
+        }
+
+        public byte getPhred(double position) {
+            int i = baseIndex((int) position);
+            return i < 0 ? 0 : store.qualities[i];
+        }
+
+        public String getCigarString() {
+            return store.cigars.get(field(CIGAR));
+        }
+
+        public char[] getGapTypes() {
+            int start = field(GAPS);
+            int end = store.dataEnd(index, GAPS);
+            if (end == start) {
+                return null;
+            }
+            char[] gapTypes = new char[end - start];
+            for (int i = 0; i < gapTypes.length; i++) {
+                gapTypes[i] = (char) store.data[start + i];
+            }
+            return gapTypes;
+        }
+
+        public int getInferredInsertSize() {
+            return field(INSERT_SIZE);
+        }
+
+        public int getMappingQuality() {
+            return (field(FLAGS) >>> MAPQ_SHIFT) & 0xff;
+        }
+
+        public ReadMate getMate() {
+            if (!isPaired()) {
+                return null;
+            }
+            int flags = samFlags();
+            return new ReadMate(string(CHRS, true), field(MATE_START),
+                    (flags & MATE_STRAND_FLAG) != 0, (flags & MATE_UNMAPPED_FLAG) != 0);
+        }
+
+        public Strand getReadStrand() {
+            return isNegativeStrand() ? Strand.NEGATIVE : Strand.POSITIVE;
+        }
+
+        public boolean isProperPair() {
+            return isPaired() && (samFlags() & PROPER_PAIR_FLAG) != 0;
+        }
+
+        public boolean isMapped() {
+            return (samFlags() & READ_UNMAPPED_FLAG) == 0;
+        }
+
+        public boolean isPaired() {
+            return (samFlags() & READ_PAIRED_FLAG) != 0;
+        }
+
+        public boolean isFirstOfPair() {
+            return isPaired() && (samFlags() & FIRST_OF_PAIR_FLAG) != 0;
+        }
+
+        public boolean isSecondOfPair() {
+            return isPaired() && (samFlags() & SECOND_OF_PAIR_FLAG) != 0;
+        }
+
+        public boolean isNegativeStrand() {
+            return (samFlags() & READ_STRAND_FLAG) != 0;
+        }
+
+        public boolean isDuplicate() {
+            return (samFlags() & DUPLICATE_READ_FLAG) != 0;
+        }
+
+        public boolean isPrimary() {
+            return (samFlags() & NOT_PRIMARY_ALIGNMENT_FLAG) == 0;
+        }
+
+        public boolean isSupplementary() {
+            return (samFlags() & SUPPLEMENTARY_ALIGNMENT_FLAG) != 0;
+        }
+
+        public boolean isVendorFailedRead() {
+            return (samFlags() & READ_FAILS_VENDOR_QUALITY_CHECK_FLAG) != 0;
+        }
+
+        public Object getAttribute(String key) {
+            // SAM alignment tag keys must be of length 2
+            if (key.length() == 2) {
+                short tag = SAMTagUtil.getSingleton().makeBinaryTag(key);
+                for (SAMBinaryTagAndValue t = getTags(); t != null; t = t.getNext()) {
+                    if (t.tag == tag) {
+                        return t.value;
+                    }
+                }
+                return null;
+            }
+            return key.equals("TEMPLATE_ORIENTATION") ? getPairOrientation() : null;
+        }
+
+        private SAMBinaryTagAndValue getTags() {
+            int start = field(TAGS);
+            int end = store.dataEnd(index, TAGS);
+            return end == start ? null :
+                    BinaryTagCodec.readTags(store.data, start, end - start, ValidationStringency.SILENT);
+        }
+
+        private List<SAMRecord.SAMTagAndValue> getAttributes() {
+            List<SAMRecord.SAMTagAndValue> attributes = new ArrayList<SAMRecord.SAMTagAndValue>();
+            SAMTagUtil tagUtil = SAMTagUtil.getSingleton();
+            for (SAMBinaryTagAndValue t = getTags(); t != null; t = t.getNext()) {
+                attributes.add(new SAMRecord.SAMTagAndValue(tagUtil.makeStringTag(t.tag), t.value));
+            }
+            return attributes;
+        }
+
+        public void setMateSequence(String sequence) {
+            store.setMateSequence(index, sequence);
+        }
+
+        public String getPairOrientation() {
+            String orientation = string(LIBRARY, true);
+            return orientation == null ? "" : orientation;
+        }
+
+        public Strand getFirstOfPairStrand() {
+            return STRANDS[(field(FLAGS) >>> FIRST_OF_PAIR_STRAND_SHIFT) & 3];
+        }
+
+        public Strand getSecondOfPairStrand() {
+            return STRANDS[(field(FLAGS) >>> SECOND_OF_PAIR_STRAND_SHIFT) & 3];
+        }
+
+        public Color getColor() {
+            return store.colors.get(field(COLOR));
+        }
+
+        public String getSample() {
+            return string(GROUP, true);
+        }
+
+        public String getReadGroup() {
+            return string(GROUP, false);
+        }
+
+        public String getLibrary() {
+            return string(LIBRARY, false);
+        }
+
+        public float getScore() {
+            return getMappingQuality();
+        }
+
+        public String getClipboardString(double location) {
+            return SAMAlignment.getValueString(this, location,
+                    PicardAlignment.getAttributeString(getAttributes(), false), store.getMateSequence(index));
+        }
+
+        public String getValueString(double position, WindowFunction windowFunction) {
+            return SAMAlignment.getValueString(this, position,
+                    PicardAlignment.getAttributeString(getAttributes(), true), store.getMateSequence(index));
+        }
+
+        public void finish() {
+            // Already reduced when packed
+        }
+
+        /**
+         * Recreate the SAM record,  e.g. for export.
+         */
+        SAMRecord toSAMRecord(SAMFileHeader header) {
+            SAMRecord record = new SAMRecord(header);
+            record.setReadName(getReadName());
+            record.setFlags(samFlags());
+            record.setReferenceName(string(REFERENCES, false));
+            record.setAlignmentStart(getAlignmentStart() + 1);
+            record.setMappingQuality(getMappingQuality());
+            record.setCigarString(getCigarString());
+            if (isPaired()) {
+                record.setMateReferenceName(string(REFERENCES, true));
+                record.setMateAlignmentStart(field(MATE_START) + 1);
+            }
+            record.setInferredInsertSize(getInferredInsertSize());
+            record.setReadString(getReadSequence());
+            if ((field(FLAGS) & NO_QUALITIES) == 0) {
+                int start = field(SEQUENCE);
+                int end = store.end(index, SEQUENCE, store.baseCount);
+                record.setBaseQualities(Arrays.copyOfRange(store.qualities, start, end));
+            } else {
+                record.setBaseQualities(SAMRecord.NULL_QUALS);
+            }
+            for (SAMRecord.SAMTagAndValue tag : getAttributes()) {
+                record.setAttribute(tag.tag, tag.value);
+            }
+            return record;
+        }
+
+        @Override
+        public String toString() {
+            return getReadName() + " " + getChr() + ":" + (getAlignmentStart() + 1) + " " + getCigarString();
+        }
+    }
+}
@@ -227,10 +227,12 @@ public class PicardAlignment extends SAMAlignment implements Alignment {
     }
 
     protected String getAttributeString(boolean truncate) {
+        return getAttributeString(getRecord().getAttributes(), truncate);
+    }
+
+    static String getAttributeString(List<SAMRecord.SAMTagAndValue> attributes, boolean truncate) {
 
         StringBuffer buf = new StringBuffer();
-        SAMRecord record = getRecord();
-        List<SAMRecord.SAMTagAndValue> attributes = record.getAttributes();
         if (attributes != null && !attributes.isEmpty()) {
 
             for (SAMRecord.SAMTagAndValue tag : attributes) {
@@ -503,41 +503,53 @@ public abstract class SAMAlignment implements Alignment {
     }
 
     private String getValueStringImpl(double position, boolean truncate) {
+        return getValueString(this, position, getAttributeString(truncate), mateSequence);
+    }
+
+    /**
+     * Popup text for an alignment.  Shared with alignments which are not SAMAlignment subclasses but describe SAM
+     * records, see CompactAlignmentStore.
+     *
+     * @param attributeString formatted optional fields,  or null
+     * @param mateSequence    sequence of an unmapped mate,  or null
+     */
+    static String getValueString(Alignment alignment, double position, String attributeString, String mateSequence) {
 
         StringBuffer buf = new StringBuffer();
 
-        buf.append("Read name = " + getReadName() + "<br>");
+        buf.append("Read name = " + alignment.getReadName() + "<br>");
 
-        String sample = getSample();
+        String sample = alignment.getSample();
         if (sample != null) {
             buf.append("Sample = " + sample + "<br>");
         }
-        String readGroup = getReadGroup();
+        String readGroup = alignment.getReadGroup();
         if (sample != null) {
             buf.append("Read group = " + readGroup + "<br>");
         }
 
-        String cigarString = getCigarString();
+        String cigarString = alignment.getCigarString();
         if (cigarString.length() > 80) {
             cigarString = cigarString.substring(0, 80) + "...";
         }
 
         buf.append("----------------------" + "<br>");
         int basePosition = (int) position;
-        buf.append("Location = " + getChr() + ":" + DECIMAL_FORMAT.format(1 + (long) position) + "<br>");
-        buf.append("Alignment start = " + DECIMAL_FORMAT.format(getAlignmentStart() + 1) + " (" + (isNegativeStrand() ? "-" : "+") + ")<br>");
+        buf.append("Location = " + alignment.getChr() + ":" + DECIMAL_FORMAT.format(1 + (long) position) + "<br>");
+        buf.append("Alignment start = " + DECIMAL_FORMAT.format(alignment.getAlignmentStart() + 1) + " (" + (alignment.isNegativeStrand() ? "-" : "+") + ")<br>");
         buf.append("Cigar = " + cigarString + "<br>");
-        buf.append("Mapped = " + (isMapped() ? "yes" : "no") + "<br>");
-        buf.append("Mapping quality = " + getMappingQuality() + "<br>");
-        buf.append("Secondary = " + (isPrimary() ? "no" : "yes") + "<br>");
-        buf.append("Supplementary = " + (isSupplementary() ? "yes" : "no") + "<br>");
-        buf.append("Duplicate = " + (isDuplicate() ? "yes" : "no") + "<br>");
-        buf.append("Failed QC = " + (isVendorFailedRead() ? "yes" : "no") + "<br>");
+        buf.append("Mapped = " + (alignment.isMapped() ? "yes" : "no") + "<br>");
+        buf.append("Mapping quality = " + alignment.getMappingQuality() + "<br>");
+        buf.append("Secondary = " + (alignment.isPrimary() ? "no" : "yes") + "<br>");
+        buf.append("Supplementary = " + (alignment.isSupplementary() ? "yes" : "no") + "<br>");
+        buf.append("Duplicate = " + (alignment.isDuplicate() ? "yes" : "no") + "<br>");
+        buf.append("Failed QC = " + (alignment.isVendorFailedRead() ? "yes" : "no") + "<br>");
         buf.append("----------------------<br>");
 
         // First check insertions.  Position is zero based, block coords 1 based
-        if (this.insertions != null) {
-            for (AlignmentBlock block : this.insertions) {
+        AlignmentBlock[] insertions = alignment.getInsertions();
+        if (insertions != null) {
+            for (AlignmentBlock block : insertions) {
                 double insertionLeft = block.getStart() - .25;
                 double insertionRight = block.getStart() + .25;
                 if (position > insertionLeft && position < insertionRight) {
@@ -568,7 +580,7 @@ public abstract class SAMAlignment implements Alignment {
             }
         }
 
-        for (AlignmentBlock block : this.alignmentBlocks) {
+        for (AlignmentBlock block : alignment.getAlignmentBlocks()) {
             if (block.contains(basePosition)) {
                 int offset = basePosition - block.getStart();
                 byte base = block.getBase(offset);
@@ -585,31 +597,30 @@ public abstract class SAMAlignment implements Alignment {
             }
         }
 
-        if (this.isPaired()) {
+        if (alignment.isPaired()) {
             buf.append("----------------------<br>");
-            buf.append("Mate is mapped = " + (getMate().isMapped() ? "yes" : "no") + "<br>");
-            if (getMate().isMapped()) {
-                buf.append("Mate start = " + getMate().positionString() + "<br>");
+            buf.append("Mate is mapped = " + (alignment.getMate().isMapped() ? "yes" : "no") + "<br>");
+            if (alignment.getMate().isMapped()) {
+                buf.append("Mate start = " + alignment.getMate().positionString() + "<br>");
                 //buf.append("Pair is proper = " + (getProperPairFlag() ? "yes" : "no") + "<br>");
-                if (getChr().equals(getMate().getChr())) {
-                    buf.append("Insert size = " + getInferredInsertSize() + "<br>");
+                if (alignment.getChr().equals(alignment.getMate().getChr())) {
+                    buf.append("Insert size = " + alignment.getInferredInsertSize() + "<br>");
                 }
             }
-            if (isFirstOfPair()) {
+            if (alignment.isFirstOfPair()) {
                 buf.append("First in pair<br>");
             }
-            if (isSecondOfPair()) {
+            if (alignment.isSecondOfPair()) {
                 buf.append("Second in pair<br>");
             }
-            if (getPairOrientation().length() > 0) {
-                buf.append("Pair orientation = " + getPairOrientation() + "<br>");
+            if (alignment.getPairOrientation().length() > 0) {
+                buf.append("Pair orientation = " + alignment.getPairOrientation() + "<br>");
             }
         }
 
-        String attributeString = getAttributeString(truncate);
         if (attributeString != null && attributeString.length() > 0) {
             buf.append("----------------------");
-            buf.append(getAttributeString(truncate));
+            buf.append(attributeString);
         }
 
 
@@ -168,7 +168,8 @@ public class SAMWriter {
     /**
      * Takes an iterator of Alignments, and returns an iterable/iterator
      * consisting only of the SamAlignments contained therein.
-     * Can also be used to filter by position
+     * Can also be used to filter by position.  If a header is supplied packed alignments
+     * (see CompactAlignmentStore) are converted back to SamAlignments.
      */
     public static class SamAlignmentIterable implements Iterable<PicardAlignment>, Iterator<PicardAlignment> {
 
@@ -177,8 +178,15 @@ public class SAMWriter {
         private String chr = null;
         private int start = -1;
         private int end = -1;
+        private SAMFileHeader header;
 
         public SamAlignmentIterable(Iterator<Alignment> alignments, String chr, int start, int end) {
+            this(alignments, chr, start, end, null);
+        }
+
+        public SamAlignmentIterable(Iterator<Alignment> alignments, String chr, int start, int end,
+                                    SAMFileHeader header) {
+            this.header = header;
             this.alignments = alignments;
             this.chr = chr;
             this.start = start;
@@ -193,6 +201,10 @@ public class SAMWriter {
                 next = alignments.next();
                 if (next instanceof PicardAlignment && passLocFilter(next)) {
                     nextAlignment = (PicardAlignment) next;
+                } else if (next instanceof CompactAlignmentStore.CompactAlignment && header != null &&
+                        passLocFilter(next)) {
+                    SAMRecord record = ((CompactAlignmentStore.CompactAlignment) next).toSAMRecord(header);
+                    nextAlignment = new PicardAlignment(record);
                 }
             }
         }
@@ -255,7 +267,7 @@ public class SAMWriter {
 
         Range range = new Range(sequence, start, end);
         Iterator<Alignment> iter = dataManager.getLoadedInterval(range).getAlignmentIterator();
-        Iterator<PicardAlignment> samIter = new SamAlignmentIterable(iter, sequence, start, end);
+        Iterator<PicardAlignment> samIter = new SamAlignmentIterable(iter, sequence, start, end, fileHeader);
 
         SAMWriter writer = new SAMWriter(fileHeader);
         return writer.writeToFile(outFile, samIter, true);
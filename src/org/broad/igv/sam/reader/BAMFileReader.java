@@ -36,6 +36,7 @@ import htsjdk.samtools.SAMRecordIterator;
 import htsjdk.samtools.SAMSequenceRecord;
 import htsjdk.samtools.util.CloseableIterator;
 import org.apache.log4j.Logger;
+import org.broad.igv.PreferenceManager;
 import org.broad.igv.sam.EmptyAlignmentIterator;
 import org.broad.igv.sam.PicardAlignment;
 import org.broad.igv.ui.util.MessageUtils;
@@ -54,8 +55,10 @@ public class BAMFileReader implements AlignmentReader<PicardAlignment> {
     private static Logger log = Logger.getLogger(BAMFileReader.class);
     SAMFileReader reader;
     SAMFileHeader header;
+    File bamFile;
 
     public BAMFileReader(File bamFile) {
+        this.bamFile = bamFile;
         try {
             File indexFile = findIndexFile(bamFile);
             reader = new SAMFileReader(bamFile, indexFile);
@@ -109,6 +112,15 @@ public class BAMFileReader implements AlignmentReader<PicardAlignment> {
     public CloseableIterator<PicardAlignment> query(String sequence, int start, int end, boolean contained) {
         SAMRecordIterator query = null;
         try {
+            if (reader.hasIndex() && PreferenceManager.getInstance().getAsBoolean(PreferenceManager.SAM_PARALLEL_DECODE)) {
+                int referenceIndex = getFileHeader().getSequenceIndex(sequence);
+                long[] chunks = referenceIndex < 0 ? null :
+                        ParallelBAMQueryIterator.getChunks(reader.getIndex(), referenceIndex, start + 1, end);
+                if (chunks != null) {
+                    return new ParallelBAMQueryIterator(bamFile, getFileHeader(), referenceIndex, start + 1, end,
+                            contained, chunks);
+                }
+            }
             query = reader.query(sequence, start + 1, end, contained);
             return new WrappedIterator(query);
         } catch (ArrayIndexOutOfBoundsException e) {
@@ -0,0 +1,516 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam.reader;
+
+import htsjdk.samtools.BAMIndex;
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMFileSpan;
+import htsjdk.samtools.SAMFormatException;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.seekablestream.SeekableBufferedStream;
+import htsjdk.samtools.seekablestream.SeekableFileStream;
+import htsjdk.samtools.seekablestream.SeekableStream;
+import htsjdk.samtools.util.BlockCompressedFilePointerUtil;
+import htsjdk.samtools.util.CloseableIterator;
+import org.apache.log4j.Logger;
+import org.broad.igv.sam.PicardAlignment;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Iterator over the alignments of an indexed local BAM file overlapping a region,  decoded by a pipeline.
+ * <p/>
+ * A reader thread reads the compressed BGZF blocks covered by the index chunks for the region.  Blocks are inflated,
+ * and the records decoded into alignments,  in batches on a shared thread pool.  Batches are returned in file order,
+ * so iteration yields the same alignments in the same order as a query of the SAMFileReader.
+ */
+public class ParallelBAMQueryIterator implements CloseableIterator<PicardAlignment> {
+
+    private static Logger log = Logger.getLogger(ParallelBAMQueryIterator.class);
+
+    // Approximate size of the uncompressed records in a decode batch
+    static final int BATCH_SIZE = 256 * 1024;
+
+    private static final int BGZF_HEADER_SIZE = 18;
+    private static final int BGZF_FOOTER_SIZE = 8;
+
+    private static ExecutorService decodeExecutor;
+
+    private static final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    // Marks the end of the batches
+    private static final Future<Batch> END = new FutureTask<Batch>(new Callable<Batch>() {
+        public Batch call() {
+            return null;
+        }
+    });
+
+    private final Reader reader;
+    private final Thread readerThread;
+
+    private Iterator<PicardAlignment> current = Collections.<PicardAlignment>emptyList().iterator();
+    private boolean finished = false;
+
+    /**
+     * Return the BAM file chunks,  as pairs of start and end virtual file offsets,  for the region or null if
+     * the index cannot be used.  The chunks of a {@code BAMFileSpan} are not public in the htsjdk version bundled
+     * with IGV,  they are parsed from its string form,  a list of "block:offset-block:offset" chunks.
+     */
+    static long[] getChunks(BAMIndex index, int referenceIndex, int start, int end) {
+        SAMFileSpan span = index.getSpanOverlapping(referenceIndex, start, end);
+        if (span == null || span.isEmpty()) {
+            return new long[0];
+        }
+        String[] chunks = span.toString().split(";");
+        long[] coordinates = new long[2 * chunks.length];
+        try {
+            for (int i = 0; i < chunks.length; i++) {
+                String[] bounds = chunks[i].split("-");
+                coordinates[2 * i] = parseFilePointer(bounds[0]);
+                coordinates[2 * i + 1] = parseFilePointer(bounds[1]);
+            }
+        } catch (RuntimeException e) {
+            log.debug("BAM index chunks not available: " + span, e);
+            return null;
+        }
+        return coordinates;
+    }
+
+    private static long parseFilePointer(String pointer) {
+        int colon = pointer.indexOf(':');
+        long blockAddress = Long.parseLong(pointer.substring(0, colon).trim());
+        int blockOffset = Integer.parseInt(pointer.substring(colon + 1).trim());
+        if (blockOffset < 0 || blockOffset > 0xffff) {
+            throw new NumberFormatException("Invalid block offset: " + pointer);
+        }
+        return (blockAddress << 16) | blockOffset;
+    }
+
+    /**
+     * @param start     1-based start position
+     * @param end       1-based inclusive end position,  or <= 0 for the end of the sequence
+     * @param chunks    see {@link #getChunks}
+     */
+    public ParallelBAMQueryIterator(File file, SAMFileHeader header, int referenceIndex, int start, int end,
+                                    boolean contained, long[] chunks) {
+        reader = new Reader(this, file, header, referenceIndex, start, end <= 0 ? Integer.MAX_VALUE : end,
+                contained, chunks);
+        readerThread = new Thread(reader, "BAM block reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    Thread getReaderThread() {
+        return readerThread;
+    }
+
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (finished || reader.closed) {
+                return false;
+            }
+            Future<Batch> future;
+            try {
+                future = reader.batches.take();
+            } catch (InterruptedException e) {
+                close();
+                return false;
+            }
+            if (future == END) {
+                finished = true;
+                return false;
+            }
+            Batch batch = getBatch(future);
+            current = batch.alignments.iterator();
+            if (batch.stop) {
+                // The remaining batches are beyond the region
+                finished = true;
+                stopReading();
+            }
+        }
+        return true;
+    }
+
+    public PicardAlignment next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stop the reader thread and discard pending batches.
+     */
+    public void close() {
+        current = Collections.<PicardAlignment>emptyList().iterator();
+        stopReading();
+    }
+
+    private void stopReading() {
+        if (reader.closed) return;
+        reader.closed = true;
+        readerThread.interrupt();
+        Future<Batch> future;
+        while ((future = reader.batches.poll()) != null) {
+            future.cancel(false);
+        }
+    }
+
+    private Batch getBatch(Future<Batch> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            close();
+            return new Batch(Collections.<PicardAlignment>emptyList(), true);
+        } catch (ExecutionException e) {
+            close();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else {
+                throw new RuntimeException("Error reading " + reader.file.getName(), cause);
+            }
+        }
+    }
+
+    /**
+     * Reader thread.  Inflation of a window of blocks is queued ahead of the block being split into records.  The
+     * thread holds only a weak reference to the iterator,  so it stops if the iterator is dropped without being
+     * closed.
+     */
+    private static class Reader implements Runnable {
+
+        private final WeakReference<ParallelBAMQueryIterator> owner;
+        private final File file;
+        private final SAMFileHeader header;
+        private final int referenceIndex;
+        private final int start;
+        private final int end;
+        private final boolean contained;
+        private final long[] chunks;
+
+        private final int nThreads;
+        private final BlockingQueue<Future<Batch>> batches;
+        private volatile boolean closed = false;
+
+        // Set when a decoded record lies beyond the region,  there is no need to read further
+        private volatile boolean stopped = false;
+
+        Reader(ParallelBAMQueryIterator owner, File file, SAMFileHeader header, int referenceIndex, int start,
+               int end, boolean contained, long[] chunks) {
+            this.owner = new WeakReference<ParallelBAMQueryIterator>(owner);
+            this.file = file;
+            this.header = header;
+            this.referenceIndex = referenceIndex;
+            this.start = start;
+            this.end = end;
+            this.contained = contained;
+            this.chunks = chunks;
+            nThreads = getThreadCount();
+            batches = new ArrayBlockingQueue<Future<Batch>>(2 * nThreads + 1);
+        }
+
+        public void run() {
+            SeekableStream stream = null;
+            try {
+                stream = new SeekableBufferedStream(new SeekableFileStream(file));
+                int window = 4 * nThreads;
+                LinkedList<Block> blocks = new LinkedList<Block>();
+                RecordBuffer buffer = new RecordBuffer();
+
+                for (int c = 0; c < chunks.length && !isDone(); c += 2) {
+                    long blockAddress = BlockCompressedFilePointerUtil.getBlockAddress(chunks[c]);
+                    long endAddress = BlockCompressedFilePointerUtil.getBlockAddress(chunks[c + 1]);
+                    int endOffset = BlockCompressedFilePointerUtil.getBlockOffset(chunks[c + 1]);
+                    int from = BlockCompressedFilePointerUtil.getBlockOffset(chunks[c]);
+
+                    while (!isDone() && (blockAddress < endAddress || (blockAddress == endAddress && endOffset > 0))) {
+                        final byte[] compressed = readBlock(stream, blockAddress);
+                        int to = blockAddress == endAddress ? endOffset : -1;
+                        Future<byte[]> inflated = getDecodeExecutor().submit(new Callable<byte[]>() {
+                            public byte[] call() throws Exception {
+                                return inflate(compressed);
+                            }
+                        });
+                        blocks.add(new Block(inflated, from, to));
+                        if (blocks.size() > window) {
+                            split(blocks.removeFirst(), buffer);
+                        }
+                        blockAddress += compressed.length;
+                        from = 0;
+                    }
+                }
+                while (!blocks.isEmpty() && !isDone()) {
+                    split(blocks.removeFirst(), buffer);
+                }
+                if (buffer.length > 0 && !isDone()) {
+                    submit(buffer.take(buffer.length));
+                }
+                put(END);
+
+            } catch (InterruptedException e) {
+                // Closed
+            } catch (final Exception e) {
+                FutureTask<Batch> failed = new FutureTask<Batch>(new Callable<Batch>() {
+                    public Batch call() throws Exception {
+                        throw e;
+                    }
+                });
+                failed.run();
+                try {
+                    put(failed);
+                } catch (InterruptedException e1) {
+                    // Closed
+                }
+            } finally {
+                if (stream != null) {
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                        log.error("Error closing " + file.getName(), e);
+                    }
+                }
+            }
+        }
+
+        private boolean isDone() {
+            return closed || stopped;
+        }
+
+        /**
+         * Queue a batch,  waiting while the queue is full.  Throws InterruptedException if the iterator is closed,
+         * or has been garbage collected without being closed,  while waiting.
+         */
+        private void put(Future<Batch> batch) throws InterruptedException {
+            while (!batches.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+                if (closed || owner.get() == null) {
+                    closed = true;
+                    throw new InterruptedException("BAM query iterator closed");
+                }
+            }
+        }
+
+        /**
+         * Add the bytes of an inflated block to the buffer,  and submit complete records for decoding once there
+         * is a batch.
+         */
+        private void split(Block block, RecordBuffer buffer) throws InterruptedException, ExecutionException {
+            byte[] bytes = block.inflated.get();
+            int to = block.to < 0 ? bytes.length : Math.min(block.to, bytes.length);
+            buffer.append(bytes, block.from, to - block.from);
+            int complete = buffer.completeRecords();
+            if (complete >= BATCH_SIZE) {
+                submit(buffer.take(complete));
+            }
+        }
+
+        private void submit(final byte[] records) throws InterruptedException {
+            Future<Batch> future = getDecodeExecutor().submit(new Callable<Batch>() {
+                public Batch call() throws Exception {
+                    return decode(records);
+                }
+            });
+            put(future);
+        }
+
+        private Batch decode(byte[] records) {
+            BAMRecordCodec codec = new BAMRecordCodec(header);
+            codec.setInputStream(new ByteArrayInputStream(records));
+            List<PicardAlignment> alignments = new ArrayList<PicardAlignment>();
+            SAMRecord record;
+            while (!closed && (record = codec.decode()) != null) {
+                record.setValidationStringency(ValidationStringency.SILENT);
+
+                // As the SAMFileReader query filter
+                int recordReferenceIndex = record.getReferenceIndex();
+                int alignmentStart = record.getAlignmentStart();
+                int alignmentEnd = record.getReadUnmappedFlag() && alignmentStart != 0 ?
+                        alignmentStart : record.getAlignmentEnd();
+                if (recordReferenceIndex > referenceIndex ||
+                        (recordReferenceIndex == referenceIndex && alignmentStart > end)) {
+                    stopped = true;
+                    return new Batch(alignments, true);
+                }
+                if (recordReferenceIndex < referenceIndex || alignmentEnd < start) {
+                    continue;
+                }
+                if (contained && (alignmentStart < start || alignmentEnd > end)) {
+                    continue;
+                }
+                alignments.add(new PicardAlignment(record));
+            }
+            return new Batch(alignments, false);
+        }
+    }
+
+    static byte[] readBlock(SeekableStream stream, long address) throws IOException {
+        byte[] header = new byte[BGZF_HEADER_SIZE];
+        stream.seek(address);
+        readFully(stream, header, 0, header.length);
+        if (header[0] != 31 || (header[1] & 0xff) != 139 || header[2] != 8 || (header[3] & 4) == 0) {
+            throw new SAMFormatException("Invalid BGZF block header at " + address);
+        }
+        int blockSize = ((header[16] & 0xff) | ((header[17] & 0xff) << 8)) + 1;
+        byte[] block = new byte[blockSize];
+        System.arraycopy(header, 0, block, 0, header.length);
+        readFully(stream, block, header.length, blockSize - header.length);
+        return block;
+    }
+
+    private static void readFully(SeekableStream stream, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int n = stream.read(buffer, offset, length);
+            if (n < 0) {
+                throw new EOFException("Premature end of BAM file");
+            }
+            offset += n;
+            length -= n;
+        }
+    }
+
+    static byte[] inflate(byte[] block) throws DataFormatException {
+        int n = block.length;
+        int size = (block[n - 4] & 0xff) | ((block[n - 3] & 0xff) << 8) | ((block[n - 2] & 0xff) << 16) |
+                ((block[n - 1] & 0xff) << 24);
+        byte[] inflated = new byte[size];
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(block, BGZF_HEADER_SIZE, n - BGZF_HEADER_SIZE - BGZF_FOOTER_SIZE);
+        int count = 0;
+        while (count < size) {
+            int k = inflater.inflate(inflated, count, size - count);
+            if (k == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                throw new SAMFormatException("Corrupt BGZF block");
+            }
+            count += k;
+        }
+        return inflated;
+    }
+
+    private static int getThreadCount() {
+        return Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    }
+
+    private static synchronized ExecutorService getDecodeExecutor() {
+        if (decodeExecutor == null) {
+            decodeExecutor = Executors.newFixedThreadPool(getThreadCount(), new ThreadFactory() {
+                int count = 0;
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "BAM decoder " + (count++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return decodeExecutor;
+    }
+
+
+    private static class Block {
+        final Future<byte[]> inflated;
+        final int from;
+        final int to;
+
+        Block(Future<byte[]> inflated, int from, int to) {
+            this.inflated = inflated;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private static class Batch {
+        final List<PicardAlignment> alignments;
+        final boolean stop;
+
+        Batch(List<PicardAlignment> alignments, boolean stop) {
+            this.alignments = alignments;
+            this.stop = stop;
+        }
+    }
+
+    /**
+     * Uncompressed bytes,  split at record boundaries.
+     */
+    static class RecordBuffer {
+        byte[] bytes = new byte[2 * BATCH_SIZE];
+        int length = 0;
+        int scanned = 0;   // end of the last complete record found
+
+        void append(byte[] b, int offset, int n) {
+            if (length + n > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + n));
+            }
+            System.arraycopy(b, offset, bytes, length, n);
+            length += n;
+        }
+
+        /**
+         * @return the number of bytes at the start of the buffer holding complete records
+         */
+        int completeRecords() {
+            while (scanned + 4 <= length) {
+                int blockSize = (bytes[scanned] & 0xff) | ((bytes[scanned + 1] & 0xff) << 8) |
+                        ((bytes[scanned + 2] & 0xff) << 16) | ((bytes[scanned + 3] & 0xff) << 24);
+                if (blockSize < 0 || scanned + 4 + blockSize > length) {
+                    break;
+                }
+                scanned += 4 + blockSize;
+            }
+            return scanned;
+        }
+
+        /**
+         * Remove and return the first n bytes
+         */
+        byte[] take(int n) {
+            byte[] taken = Arrays.copyOf(bytes, n);
+            System.arraycopy(bytes, n, bytes, 0, length - n);
+            length -= n;
+            scanned = Math.max(0, scanned - n);
+            return taken;
+        }
+    }
+}
@@ -33,6 +33,7 @@ import org.apache.commons.math.stat.StatUtils;
 import org.apache.log4j.Logger;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.util.collections.DownsampledDoubleArrayList;
+import org.broad.igv.util.stats.QuantileSketch;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -58,6 +59,7 @@ public class Accumulator {
     float value = Float.NaN;
 
     DownsampledDoubleArrayList valueList;  // List used to accumulate values for percentile calculations
+    QuantileSketch sketch;                 // Alternative to valueList,  constant memory
 
 
     // Optional -- keep some representative data and probe names for popup text
@@ -66,7 +68,23 @@ public class Accumulator {
     String[] repProbes;
 
     public Accumulator(WindowFunction windowFunction, int nRepValues) {
-        this(windowFunction);
+        this(windowFunction, nRepValues, 0);
+    }
+
+    /**
+     * @param sketchCompression if > 0 percentiles are estimated with a {@link QuantileSketch} of this compression.
+     *                          Otherwise up to MAX_VALUE_COUNT values are kept,  and percentiles are exact below
+     *                          that count.
+     */
+    public Accumulator(WindowFunction windowFunction, int nRepValues, int sketchCompression) {
+        this.windowFunction = windowFunction;
+        if (PERCENTILE_WINDOW_FUNCTIONS.contains(windowFunction)) {
+            if (sketchCompression > 0) {
+                sketch = new QuantileSketch(sketchCompression);
+            } else {
+                valueList = new DownsampledDoubleArrayList(100, MAX_VALUE_COUNT);
+            }
+        }
         if (nRepValues > 0) {
             this.nRepValues = nRepValues;
             this.repData = new float[nRepValues];
@@ -76,10 +94,7 @@ public class Accumulator {
 
 
     public Accumulator(WindowFunction windowFunction) {
-        this.windowFunction = windowFunction;
-        if (PERCENTILE_WINDOW_FUNCTIONS.contains(windowFunction)) {
-            valueList = new DownsampledDoubleArrayList(100, MAX_VALUE_COUNT);
-        }
+        this(windowFunction, 0);
     }
 
     public boolean hasData() {
@@ -113,7 +128,9 @@ public class Accumulator {
                     sum += nBases * v;
                     break;
                 default:
-                    if (valueList != null) {
+                    if (sketch != null) {
+                        sketch.add(v);
+                    } else if (valueList != null) {
                         valueList.add(v);
                     }
             }
@@ -131,6 +148,9 @@ public class Accumulator {
 
         if (windowFunction == WindowFunction.mean) {
             value = Float.isNaN(sum) ? Float.NaN : sum / basesCovered;
+        } else if (sketch != null) {
+            double p = this.getPercentile(windowFunction);
+            value = p > 0 ? (float) sketch.percentile(p) : Float.NaN;
         } else if (valueList != null) {
             if (valueList.size() == 0) {
                 value = Float.NaN;
@@ -149,6 +169,7 @@ public class Accumulator {
         }
 
         valueList = null;
+        sketch = null;
         isFinished = true;
 
     }
@@ -36,13 +36,13 @@ import org.broad.igv.data.BasicScore;
 import org.broad.igv.data.CompositeScore;
 import org.broad.igv.data.CoverageDataSource;
 import org.broad.igv.data.NamedScore;
+import org.broad.igv.data.TileCache;
 import org.broad.igv.feature.Chromosome;
 import org.broad.igv.feature.LocusScore;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.track.TrackType;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.ui.panel.FrameManager;
-import org.broad.igv.util.collections.LRUCache;
 
 import java.util.*;
 import org.broad.igv.feature.genome.GenomeManager;
@@ -58,7 +58,7 @@ public class TDFDataSource implements CoverageDataSource {
     int maxPrecomputedZoom = 6;
     private int trackNumber = 0;
     String trackName;
-    LRUCache<String, List<LocusScore>> summaryScoreCache = new LRUCache(20);
+    TileCache.Source summaryScoreCache;
     Genome genome;
     WindowFunction windowFunction = WindowFunction.mean;
     List<WindowFunction> availableFunctions;
@@ -75,6 +75,7 @@ public class TDFDataSource implements CoverageDataSource {
         this.trackNumber = trackNumber;
         this.trackName = trackName;
         this.reader = reader;
+        this.summaryScoreCache = TileCache.getInstance().newSource(reader.getPath() + " " + trackName);
         this.availableFunctions = reader.getWindowFunctions();
 
         TDFGroup rootGroup = reader.getGroup("/");
@@ -142,6 +143,7 @@ public class TDFDataSource implements CoverageDataSource {
         } else {
             normalizationFactor = 1;
         }
+        TileCache.getInstance().invalidate(summaryScoreCache);
 
     }
 
@@ -163,9 +165,9 @@ public class TDFDataSource implements CoverageDataSource {
 
     private List<LocusScore> getCachedSummaryScores(String querySeq, int zoom, int tileNumber, double tileWidth) {
 
-        String key = querySeq + "_" + zoom + "_" + tileNumber + "_" + windowFunction;
+        TileCache.Key key = new TileCache.Key(summaryScoreCache, querySeq, zoom, tileNumber, windowFunction);
 
-        List<LocusScore> scores = summaryScoreCache.get(key);
+        List<LocusScore> scores = TileCache.getInstance().get(key);
         if (scores == null) {
 
             int startLocation = (int) (tileNumber * tileWidth);
@@ -173,7 +175,7 @@ public class TDFDataSource implements CoverageDataSource {
 
             scores = getSummaryScores(querySeq, startLocation, endLocation, zoom);
 
-            summaryScoreCache.put(key, scores);
+            TileCache.getInstance().put(key, scores, TileCache.estimateBytes(scores));
         }
 
         return scores;
@@ -282,7 +284,8 @@ public class TDFDataSource implements CoverageDataSource {
                 } else {
 
 
-                    Accumulator accumulator = new Accumulator(windowFunction, 5);
+                    int sketchCompression = PreferenceManager.getInstance().getAsInt(PreferenceManager.QUANTILE_SKETCH_COMPRESSION);
+                    Accumulator accumulator = new Accumulator(windowFunction, 5, sketchCompression);
                     int accumulatedStart = -1;
                     int accumulatedEnd = -1;
                     int lastEndBin = 0;
@@ -322,7 +325,7 @@ public class TDFDataSource implements CoverageDataSource {
                                 if (endBin > lastEndBin || endBin > startBin) {
                                     if (accumulator.hasData()) {
                                         scores.add(getCompositeScore(accumulator, accumulatedStart, accumulatedEnd));
-                                        accumulator = new Accumulator(windowFunction, 5);
+                                        accumulator = new Accumulator(windowFunction, 5, sketchCompression);
                                     }
                                 }
 
@@ -422,6 +425,7 @@ public class TDFDataSource implements CoverageDataSource {
 
     public void setWindowFunction(WindowFunction wf) {
         this.windowFunction = wf;
+        TileCache.getInstance().invalidate(summaryScoreCache);
     }
 
     public boolean isLogNormalized() {
@@ -443,7 +447,7 @@ public class TDFDataSource implements CoverageDataSource {
 
     @Override
     public void dispose() {
-
+        TileCache.getInstance().dispose(summaryScoreCache);
     }
 
     /**
@@ -29,14 +29,19 @@
  */
 package org.broad.igv.tdf;
 
+import org.apache.log4j.Logger;
 import org.broad.igv.util.StringUtils;
-import org.broad.igv.util.collections.LRUCache;
+import org.broad.igv.data.TileCache;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Represents the data for a particular chromosome and zoom level
@@ -45,6 +50,8 @@ import java.util.List;
  */
 public class TDFDataset extends TDFEntity {
 
+    private static Logger log = Logger.getLogger(TDFDataset.class);
+
     public enum DataType {
 
         BYTE, SHORT, INT, FLOAT, DOUBLE, STRING
@@ -55,7 +62,6 @@ public class TDFDataset extends TDFEntity {
     long[] tilePositions;  // File position in TDF file
     int[] tileSizes;       // Tile size in bytes
     int nTiles;
-    LRUCache<String, TDFTile> cache = new LRUCache(20);
     // TODO -- refactor this dependency out
     TDFReader reader;
 
@@ -118,15 +124,14 @@ public class TDFDataset extends TDFEntity {
 
     // TODO -- this uses an implied linear index.  Abstract index or replace
     // with general interval index
-    // TODO -- gather all non-cached tiles and read in one chunk.  See BAM
-    // alignment reader class
     public List<TDFTile> getTiles(int startLocation, int endLocation) {
 
         List<TDFTile> tiles = new ArrayList();
         int startTile = (int) (startLocation / tileWidth);
         int endTile = (int) (endLocation / tileWidth);
+        Map<Integer, TDFTile> tileMap = getTileMap(startTile, endTile);
         for (int t = startTile; t <= endTile; t++) {
-            TDFTile tile = getTile(t);
+            TDFTile tile = tileMap.get(t);
             if (tile != null && tile.getSize() > 0) {
                 tiles.add(tile);
             }
@@ -137,8 +142,9 @@ public class TDFDataset extends TDFEntity {
 
     public List<TDFTile> getTiles() {
         List<TDFTile> tiles = new ArrayList<TDFTile>();
+        Map<Integer, TDFTile> tileMap = getTileMap(0, nTiles - 1);
         for (int t = 0; t < nTiles; t++) {
-            TDFTile tile = getTile(t);
+            TDFTile tile = tileMap.get(t);
             if (tile != null) {
                 tiles.add(tile);
             }
@@ -146,22 +152,88 @@ public class TDFDataset extends TDFEntity {
         return tiles;
     }
 
+    /**
+     * Return a map of tile number -> tile for the non-empty tiles in the range.  Tiles that are not cached are read,
+     * in parallel if there is more than one.
+     */
+    private Map<Integer, TDFTile> getTileMap(int startTile, int endTile) {
+        Map<Integer, TDFTile> tileMap = new HashMap<Integer, TDFTile>();
+        List<Integer> missing = new ArrayList<Integer>();
+        for (int t = Math.max(0, startTile); t <= endTile && t < nTiles; t++) {
+            if (tilePositions[t] >= 0) {
+                TDFTile tile = TileCache.getInstance().get(getKey(t));
+                if (tile == null) {
+                    missing.add(t);
+                } else {
+                    tileMap.put(t, tile);
+                }
+            }
+        }
+        if (missing.size() == 1) {
+            int t = missing.get(0);
+            TDFTile tile = reader.readTile(this, t);
+            putTile(t, tile);
+            tileMap.put(t, tile);
+        } else if (missing.size() > 1) {
+            List<Future<TDFTile>> futures = reader.readTiles(this, missing);
+            for (int i = 0; i < missing.size(); i++) {
+                try {
+                    TDFTile tile = futures.get(i).get();
+                    tileMap.put(missing.get(i), tile);
+                    putTile(missing.get(i), tile);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException e) {
+                    log.error("Error reading tile " + getName() + " " + missing.get(i), e.getCause());
+                }
+            }
+        }
+        return tileMap;
+    }
+
     // TDFTile computeTile(TDFDataset ds, int t, List<LocusScore> scores, String chr)
-    synchronized TDFTile getTile(int t) {
-        String key = getName() + "_" + t;
-
-        TDFTile tile = null;
-        if (!cache.containsKey(key)) {
-            tile = reader.readTile(this, t);
-            cache.put(key, tile);
-        } else {
-            tile = cache.get(key);
+    TDFTile getTile(int t) {
+        if (t < 0 || t >= nTiles || tilePositions[t] < 0) {
+            return null;
         }
+
+        TDFTile tile = TileCache.getInstance().get(getKey(t));
+        if (tile != null) {
+            return tile;
+        }
+
+        // Read outside the lock so other threads can read other tiles of this dataset
+        tile = reader.readTile(this, t);
+        putTile(t, tile);
         return tile;
     }
 
+    private void putTile(int t, TDFTile tile) {
+        if (tile != null) {
+            TileCache.getInstance().put(getKey(t), tile, estimateBytes(tile));
+        }
+    }
+
+    private TileCache.Key getKey(int t) {
+        return new TileCache.Key(reader.getTileCacheSource(), getName(), 0, t, null);
+    }
+
+    /**
+     * Estimated size of a decoded tile:  start and end positions,  and a value per track
+     */
+    private long estimateBytes(TDFTile tile) {
+        int nTracks = reader.getTrackNames() == null ? 1 : reader.getTrackNames().length;
+        String[] names = tile.getNames();
+        return 64 + (long) tile.getSize() * (8 + 4 * nTracks) + (names == null ? 0 : names.length * 48L);
+    }
+
     public void clearCache() {
-        cache.clear();
+        for (int t = 0; t < nTiles; t++) {
+            if (tilePositions[t] >= 0) {
+                TileCache.getInstance().remove(getKey(t));
+            }
+        }
     }
 
 
@@ -32,21 +32,26 @@ package org.broad.igv.tdf;
 import htsjdk.samtools.seekablestream.SeekableStream;
 import org.apache.log4j.Logger;
 import org.broad.igv.Globals;
+import org.broad.igv.data.TileCache;
 import org.broad.igv.exceptions.DataLoadException;
 import org.broad.igv.feature.genome.Genome;
 import org.broad.igv.track.TrackType;
 import org.broad.igv.track.WindowFunction;
 import org.broad.igv.util.CompressionUtils;
+import org.broad.igv.util.FileUtils;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.StringUtils;
 import org.broad.igv.util.collections.LRUCache;
+import org.broad.igv.util.stream.CoalescingSeekableStream;
 import org.broad.igv.util.stream.IGVSeekableStreamFactory;
+import org.broad.igv.util.stream.MemoryMappedSeekableStream;
 
 import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author jrobinso
@@ -56,7 +61,17 @@ public class TDFReader {
     static final Logger log = Logger.getLogger(TDFReader.class);
     public static final int GZIP_FLAG = 0x1;
 
-    private SeekableStream seekableStream = null;
+    // Maximum number of concurrent connections to a remote file
+    static final int MAX_HTTP_STREAMS = 4;
+
+    private static ExecutorService tileExecutor;
+
+    // Local files are memory mapped,  reads do not block each other.  Other sources are read through a small
+    // pool of streams.
+    private MemoryMappedSeekableStream mappedStream = null;
+    private final LinkedList<SeekableStream> streamPool = new LinkedList<SeekableStream>();
+    private int maxStreams = 1;
+    private int nStreams = 0;
     private int version;
     private Map<String, IndexEntry> datasetIndex;
     private Map<String, IndexEntry> groupIndex;
@@ -67,6 +82,7 @@ public class TDFReader {
     LRUCache<String, TDFGroup> groupCache = new LRUCache(20);
     LRUCache<String, TDFDataset> datasetCache = new LRUCache(20);
     TDFTile wgTile;
+    private final TileCache.Source tileCacheSource;
 
     Map<WindowFunction, Double> valueCache = new HashMap();
     private List<WindowFunction> windowFunctions;
@@ -75,7 +91,14 @@ public class TDFReader {
     boolean compressed = false;
 
     Set<String> chrNames;
-    private final CompressionUtils compressionUtils;
+
+    // Decompression is synchronized in CompressionUtils,  so each reading thread gets its own
+    private final ThreadLocal<CompressionUtils> compressionUtils = new ThreadLocal<CompressionUtils>() {
+        @Override
+        protected CompressionUtils initialValue() {
+            return new CompressionUtils();
+        }
+    };
 
     //private String path;
 
@@ -90,9 +113,17 @@ public class TDFReader {
     public TDFReader(ResourceLocator locator) {
         //this.path = path;
         this.locator = locator;
+        this.tileCacheSource = TileCache.getInstance().newSource(locator.getPath());
         try {
-            log.debug("Getting stream");
-            seekableStream = IGVSeekableStreamFactory.getInstance().getStreamFor(locator.getPath());
+            String path = locator.getPath();
+            SeekableStream stream = IGVSeekableStreamFactory.getInstance().getMappedStreamFor(path);
+            if (stream instanceof MemoryMappedSeekableStream) {
+                mappedStream = (MemoryMappedSeekableStream) stream;
+            } else {
+                streamPool.add(stream);
+                nStreams = 1;
+                maxStreams = FileUtils.isRemote(path) && path.toLowerCase().startsWith("http") ? MAX_HTTP_STREAMS : 1;
+            }
             log.debug("Reading header");
             readHeader();
             log.debug("Done reading header");
@@ -101,12 +132,20 @@ public class TDFReader {
             log.error("Error loading file: " + locator.getPath(), ex);
             throw new DataLoadException("Error loading file: " + ex.toString(), locator.getPath());
         }
-        compressionUtils = new CompressionUtils();
     }
 
     public void close() {
+        TileCache.getInstance().dispose(tileCacheSource);
         try {
-            seekableStream.close();
+            if (mappedStream != null) {
+                mappedStream.close();
+            }
+            synchronized (streamPool) {
+                for (SeekableStream stream : streamPool) {
+                    stream.close();
+                }
+                streamPool.clear();
+            }
         } catch (IOException e) {
             log.error("Error closing reader for: " + getPath(), e);
         }
@@ -116,6 +155,13 @@ public class TDFReader {
         return locator.getPath();
     }
 
+    /**
+     * Identifies this reader's decoded tiles in the shared {@link TileCache}
+     */
+    TileCache.Source getTileCacheSource() {
+        return tileCacheSource;
+    }
+
     private void readHeader() throws IOException {
 
         // Buffer for the magic number, version, index position, and index
@@ -316,6 +362,13 @@ public class TDFReader {
     // TODO -- move to dataset class
 
     public TDFTile readTile(TDFDataset ds, int tileNumber) {
+        return readTile(ds, tileNumber, null);
+    }
+
+    /**
+     * @param prefetched stream holding prefetched tile bytes,  or null
+     */
+    private TDFTile readTile(TDFDataset ds, int tileNumber, CoalescingSeekableStream prefetched) {
 
         try {
             if (tileNumber >= ds.tilePositions.length) {
@@ -332,12 +385,17 @@ public class TDFReader {
             }
 
             int nBytes = ds.tileSizes[tileNumber];
-            //fis.seek(position);
-            //byte[] buffer = new byte[nBytes];
-            //readFully(buffer);
-            byte[] buffer = readBytes(position, nBytes);
+            if (mappedStream != null && !compressed) {
+                // Decode directly from the mapped file
+                return TileFactory.createTile(mappedStream.slice(position, nBytes), trackNames.length);
+            }
+
+            byte[] buffer = prefetched == null ? null : prefetched.getBuffered(position, nBytes);
+            if (buffer == null) {
+                buffer = readBytes(position, nBytes);
+            }
             if (compressed) {
-                buffer = compressionUtils.decompress(buffer);
+                buffer = compressionUtils.get().decompress(buffer);
 
             }
 
@@ -432,13 +490,126 @@ public class TDFReader {
     }
 
 
-    public synchronized byte[] readBytes(long position, int nBytes) throws IOException {
-        seekableStream.seek(position);
+    /**
+     * Read a block of bytes.  This method can be called concurrently.
+     */
+    public byte[] readBytes(long position, int nBytes) throws IOException {
         byte[] buffer = new byte[nBytes];
-        int read = seekableStream.read(buffer, 0, nBytes);
+        if (mappedStream != null) {
+            mappedStream.read(position, buffer, 0, nBytes);
+        } else {
+            SeekableStream stream = borrowStream();
+            try {
+                stream.seek(position);
+                int n = 0;
+                while (n < nBytes) {
+                    int count = stream.read(buffer, n, nBytes - n);
+                    if (count < 0) {
+                        break;
+                    }
+                    n += count;
+                }
+            } finally {
+                returnStream(stream);
+            }
+        }
         return buffer;
     }
 
+    private SeekableStream borrowStream() throws IOException {
+        synchronized (streamPool) {
+            while (streamPool.isEmpty() && nStreams >= maxStreams) {
+                try {
+                    streamPool.wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted waiting for stream: " + getPath());
+                }
+            }
+            if (!streamPool.isEmpty()) {
+                return streamPool.removeFirst();
+            }
+            nStreams++;
+        }
+        try {
+            return IGVSeekableStreamFactory.getInstance().getStreamFor(locator.getPath());
+        } catch (IOException e) {
+            synchronized (streamPool) {
+                nStreams--;
+                streamPool.notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    private void returnStream(SeekableStream stream) {
+        synchronized (streamPool) {
+            streamPool.addFirst(stream);
+            streamPool.notifyAll();
+        }
+    }
+
+    /**
+     * Read a set of tiles from a dataset in parallel.  Futures are returned in the order of tileNumbers,  each
+     * completes when its tile has been read and decompressed.
+     */
+    public List<Future<TDFTile>> readTiles(final TDFDataset ds, List<Integer> tileNumbers) {
+        final CoalescingSeekableStream prefetched = maxStreams > 1 ? prefetchTiles(ds, tileNumbers) : null;
+        ExecutorService executor = getTileExecutor();
+        List<Future<TDFTile>> futures = new ArrayList<Future<TDFTile>>(tileNumbers.size());
+        for (final Integer t : tileNumbers) {
+            futures.add(executor.submit(new Callable<TDFTile>() {
+                public TDFTile call() throws Exception {
+                    return readTile(ds, t, prefetched);
+                }
+            }));
+        }
+        return futures;
+    }
+
+    /**
+     * Fetch the bytes of a set of tiles of a remote file with as few requests as possible.  Tiles of a dataset are
+     * usually adjacent in the file.  Returns null on error,  the tiles are then read individually.
+     */
+    private CoalescingSeekableStream prefetchTiles(TDFDataset ds, List<Integer> tileNumbers) {
+        long[] starts = new long[tileNumbers.size()];
+        int[] lengths = new int[tileNumbers.size()];
+        for (int i = 0; i < tileNumbers.size(); i++) {
+            int t = tileNumbers.get(i);
+            starts[i] = t < ds.tilePositions.length ? ds.tilePositions[t] : -1;
+            lengths[i] = t < ds.tileSizes.length ? ds.tileSizes[t] : 0;
+        }
+        CoalescingSeekableStream stream = new CoalescingSeekableStream(getPath());
+        try {
+            stream.prefetch(starts, lengths);
+            return stream;
+        } catch (IOException e) {
+            log.error("Error prefetching tiles of " + ds.getName(), e);
+            return null;
+        } finally {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                log.error("Error closing " + getPath(), e);
+            }
+        }
+    }
+
+    private static synchronized ExecutorService getTileExecutor() {
+        if (tileExecutor == null) {
+            int nThreads = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+            tileExecutor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+                int count = 0;
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "TDF tile reader " + (count++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return tileExecutor;
+    }
+
     /**
      * @return the windowFunctions
      */
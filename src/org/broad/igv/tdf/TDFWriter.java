@@ -225,13 +225,16 @@ public class TDFWriter {
     public TDFDataset createDataset(String name, TDFDataset.DataType dataType,
                                     int tileWidth, int nTiles) {
 
-        if (datasetCache.containsKey(name)) {
-            throw new RuntimeException("Dataset: " + name + " already exists");
-        }
+        // Datasets may be created while tiles of previous datasets are written from another thread
+        synchronized (datasetCache) {
+            if (datasetCache.containsKey(name)) {
+                throw new RuntimeException("Dataset: " + name + " already exists");
+            }
 
-        TDFDataset ds = new TDFDataset(name, dataType, tileWidth, nTiles);
-        datasetCache.put(name, ds);
-        return ds;
+            TDFDataset ds = new TDFDataset(name, dataType, tileWidth, nTiles);
+            datasetCache.put(name, ds);
+            return ds;
+        }
     }
 
     // Note this will only work for "fixed step" format.  Others need location arrays
@@ -239,40 +242,69 @@ public class TDFWriter {
 
     public void writeTile(String dsId, int tileNumber, TDFTile tile) throws IOException {
 
-        TDFDataset dataset = datasetCache.get(dsId);
-        if (dataset == null) {
-            throw new java.lang.NoSuchFieldError("Dataset: " + dsId + " doese not exist.  " +
-                    "Call createDataset first");
-        }
-        long pos = bytesWritten;
+        TDFDataset dataset = getDataset(dsId);
 
         if (tileNumber < dataset.tilePositions.length) {
-            dataset.tilePositions[tileNumber] = pos;
+            writeTile(dataset, tileNumber, encodeTile(tile, compressionUtils));
+        } else {
+            warnTileNumber(dataset, tileNumber);
+        }
 
-            // Write the tile contents to a byte buffer first,  so we can optionally gzip it
+    }
 
+    /**
+     * Write a tile previously serialized with {@link #encodeTile(TDFTile, CompressionUtils)}.
+     */
+    public void writeTile(String dsId, int tileNumber, byte[] encodedTile) throws IOException {
 
-            BufferedByteWriter buffer = new BufferedByteWriter();
-            tile.writeTo(buffer);
+        TDFDataset dataset = getDataset(dsId);
 
-            byte[] bytes = buffer.getBytes();
-            if (compressed) {
-                bytes = compressionUtils.compress(bytes);
-            }
+        if (tileNumber < dataset.tilePositions.length) {
+            writeTile(dataset, tileNumber, encodedTile);
+        } else {
+            warnTileNumber(dataset, tileNumber);
+        }
+    }
 
-            write(bytes);
-            int nBytes = bytes.length;
+    /**
+     * Serialize a tile, and compress it if this file is compressed.  This does not modify the writer and can be
+     * called from any thread,  provided each thread uses its own CompressionUtils.
+     */
+    public byte[] encodeTile(TDFTile tile, CompressionUtils compressionUtils) throws IOException {
+        BufferedByteWriter buffer = new BufferedByteWriter();
+        tile.writeTo(buffer);
 
-            dataset.tileSizes[tileNumber] = nBytes;
-        } else {
-            // The occasional tile number == tile array size is expected, but tile
-            // numbers larger than that are not
-            if (tileNumber > dataset.tilePositions.length) {
-                System.out.println("Unexpected tile number: " + tileNumber + " (max of " + dataset.tilePositions.length + " expected).");
-            }
+        byte[] bytes = buffer.getBytes();
+        if (compressed) {
+            bytes = compressionUtils.compress(bytes);
+        }
+        return bytes;
+    }
 
+    private TDFDataset getDataset(String dsId) {
+        TDFDataset dataset;
+        synchronized (datasetCache) {
+            dataset = datasetCache.get(dsId);
         }
+        if (dataset == null) {
+            throw new java.lang.NoSuchFieldError("Dataset: " + dsId + " doese not exist.  " +
+                    "Call createDataset first");
+        }
+        return dataset;
+    }
 
+    private void writeTile(TDFDataset dataset, int tileNumber, byte[] bytes) throws IOException {
+        dataset.tilePositions[tileNumber] = bytesWritten;
+        write(bytes);
+        dataset.tileSizes[tileNumber] = bytes.length;
+    }
+
+    private void warnTileNumber(TDFDataset dataset, int tileNumber) {
+        // The occasional tile number == tile array size is expected, but tile
+        // numbers larger than that are not
+        if (tileNumber > dataset.tilePositions.length) {
+            System.out.println("Unexpected tile number: " + tileNumber + " (max of " + dataset.tilePositions.length + " expected).");
+        }
     }
 
     private void writeGroups() throws IOException {
@@ -37,13 +37,16 @@ import org.broad.igv.sam.ReadMate;
 import org.broad.igv.sam.reader.AlignmentReader;
 import org.broad.igv.sam.reader.AlignmentReaderFactory;
 import org.broad.igv.tools.parsers.DataConsumer;
+import org.broad.igv.track.TrackType;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Class to compute coverage on an alignment or feature file.  This class is designed to be instantiated and executed
- * from a single thread.
+ * from a single thread.  If more than one thread is requested with setNumThreads() the chromosomes of an indexed
+ * BAM file are counted on worker threads internally.
  */
 public class CoverageCounter {
 
@@ -154,17 +157,32 @@ public class CoverageCounter {
      */
     private float[] buffer;
 
-    private final static Set<Byte> nucleotidesKeep = new HashSet<Byte>();
     private final static byte[] nucleotides = new byte[]{'A', 'C', 'G', 'T', 'N'};
 
+    /**
+     * Lookup table of byte value -> index into nucleotides, or -1 for bases which are not counted
+     */
+    private final static int[] nucleotideIndex = new int[256];
+
     /**
      * Whether to write wig data to standard out (stdout)
      */
     private boolean writeStdOut;
 
+    /**
+     * Number of threads used to count.  If > 1 chromosomes of an indexed BAM file are counted in parallel.
+     */
+    private int nThreads = 1;
+
+    /**
+     * Directory for temporary files used by multi-threaded counting.  If null the system default is used.
+     */
+    private File tmpDir = null;
+
     static {
-        for (byte b : nucleotides) {
-            nucleotidesKeep.add(b);
+        Arrays.fill(nucleotideIndex, -1);
+        for (int i = 0; i < nucleotides.length; i++) {
+            nucleotideIndex[nucleotides[i]] = i;
         }
     }
 
@@ -213,6 +231,14 @@ public class CoverageCounter {
         this.postExtFactor = postExtFactor;
     }
 
+    public void setNumThreads(int nThreads) {
+        this.nThreads = Math.max(1, nThreads);
+    }
+
+    public void setTmpDir(File tmpDir) {
+        this.tmpDir = tmpDir;
+    }
+
     /**
      * Take additional optional command line arguments and parse them
      *
@@ -285,8 +311,7 @@ public class CoverageCounter {
         AlignmentReader reader = null;
         CloseableIterator<Alignment> iter = null;
 
-        String lastChr = "";
-        ReadCounter counter = null;
+        AlignmentCounter alignmentCounter = null;
 
         WigWriter wigWriter = null;
         if (wigFile != null || writeStdOut) {
@@ -297,155 +322,310 @@ public class CoverageCounter {
 
             if (queryInterval == null) {
                 reader = AlignmentReaderFactory.getReader(alignmentFile, false);
-                iter = reader.iterator();
+                if (nThreads > 1 && canParseParallel(reader)) {
+                    List<String> sequenceNames = reader.getSequenceNames();
+                    reader.close();
+                    reader = null;
+                    totalCount = parseParallel(sequenceNames, tolerance, wigWriter);
+                } else {
+                    iter = reader.iterator();
+                }
             } else {
                 reader = AlignmentReaderFactory.getReader(alignmentFile, true);
                 iter = reader.query(queryInterval.getChr(), queryInterval.getStart() - 1, queryInterval.getEnd(), false);
             }
 
-            while (iter != null && iter.hasNext()) {
-                Alignment alignment = iter.next();
-                if (passFilter(alignment)) {
-                    //Sort into the read strand or first-in-pair strand,
-                    //depending on input flag. Note that this can
-                    //be very unreliable depending on data
-                    Strand strand;
-                    if (firstInPair) {
-                        strand = alignment.getFirstOfPairStrand();
-                    } else if (secondInPair) {
-                        strand = alignment.getSecondOfPairStrand();
-                    } else {
-                        strand = alignment.getReadStrand();
+            if (iter != null) {
+                alignmentCounter = new AlignmentCounter(consumer, wigWriter, buffer, tolerance);
+                while (iter.hasNext()) {
+                    alignmentCounter.count(iter.next());
+                }
+                alignmentCounter.finish();
+                totalCount = alignmentCounter.totalCount;
+            }
+
+            consumer.setAttribute("totalCount", String.valueOf(totalCount));
+            consumer.parsingComplete();
+
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+
+            if (alignmentCounter != null) {
+                alignmentCounter.finish();
+            }
+            if (iter != null) {
+                iter.close();
+            }
+            if (reader != null) {
+                reader.close();
+            }
+            if (wigWriter != null) {
+                wigWriter.close();
+            }
+
+        }
+    }
+
+    /**
+     * Chromosomes can be counted independently only for indexed BAM files,  which are guaranteed to be sorted
+     * by chromosome in header order.
+     */
+    private boolean canParseParallel(AlignmentReader reader) {
+        if (!alignmentFile.toLowerCase().endsWith(".bam") || !reader.hasIndex()) {
+            log.info("Multi-threaded counting requires an indexed bam file.  Counting on a single thread.");
+            return false;
+        }
+        List<String> sequenceNames = reader.getSequenceNames();
+        return sequenceNames != null && sequenceNames.size() > 1;
+    }
+
+    /**
+     * Count each chromosome on a pool of worker threads,  each with its own reader and counter.  Results are
+     * spilled to a temporary file per chromosome and replayed to the consumer (and wig writer) on this thread in
+     * header order,  so output is identical to a single threaded count.
+     *
+     * @return the total number of alignments counted
+     */
+    private int parseParallel(List<String> sequenceNames, final int tolerance, WigWriter wigWriter)
+            throws IOException, InterruptedException {
+
+        log.info("Counting " + sequenceNames.size() + " sequences using " + nThreads + " threads");
+
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        List<Future<SpillFile>> futures = new ArrayList<Future<SpillFile>>(sequenceNames.size());
+        int count = 0;
+        try {
+            for (final String sequence : sequenceNames) {
+                futures.add(executor.submit(new Callable<SpillFile>() {
+                    public SpillFile call() throws Exception {
+                        return countSequence(sequence, tolerance);
                     }
-                    if (strand.equals(Strand.NONE)) {
-                        //TODO move this into passFilter, or move passFilter here
-                        continue;
+                }));
+            }
+            executor.shutdown();
+
+            for (Future<SpillFile> future : futures) {
+                SpillFile spillFile;
+                try {
+                    spillFile = future.get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Error counting " + alignmentFile, e.getCause());
+                }
+                try {
+                    spillFile.replay(consumer, wigWriter, buffer);
+                    count += spillFile.totalCount;
+                } finally {
+                    spillFile.delete();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+            for (Future<SpillFile> future : futures) {
+                if (future.isDone() && !future.isCancelled()) {
+                    try {
+                        future.get().delete();
+                    } catch (ExecutionException e) {
+                        // Already reported
                     }
-                    boolean readNegStrand = alignment.isNegativeStrand();
+                }
+            }
+        }
+        return count;
+    }
 
-                    totalCount++;
+    /**
+     * Count all alignments on a single sequence with a private reader,  spilling the results to a temporary file.
+     * Called from worker threads.
+     */
+    private SpillFile countSequence(String sequence, int tolerance) throws IOException {
 
-                    String alignmentChr = alignment.getChr();
+        AlignmentReader reader = null;
+        CloseableIterator<Alignment> iter = null;
+        SpillFile spillFile = new SpillFile(File.createTempFile("igvtools_count", ".bin", tmpDir));
+        try {
+            reader = AlignmentReaderFactory.getReader(alignmentFile, true);
+            iter = reader.query(sequence, 0, Integer.MAX_VALUE - 1, false);
+            AlignmentCounter alignmentCounter = new AlignmentCounter(spillFile, null, new float[buffer.length], tolerance);
+            while (iter.hasNext()) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Counting cancelled");
+                }
+                alignmentCounter.count(iter.next());
+            }
+            alignmentCounter.finish();
+            spillFile.totalCount = alignmentCounter.totalCount;
+            spillFile.parsingComplete();
+            return spillFile;
+        } catch (IOException e) {
+            spillFile.delete();
+            throw e;
+        } catch (RuntimeException e) {
+            spillFile.delete();
+            throw e;
+        } finally {
+            if (iter != null) {
+                iter.close();
+            }
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
 
-                    // Close all counters with position < alignment.getStart()
-                    if (alignmentChr.equals(lastChr)) {
-                        if (counter != null) {
-                            counter.closeBucketsBefore(alignment.getAlignmentStart() - tolerance, wigWriter);
-                        }
-                    } else {  // New chromosome
-                        if (counter != null) {
-                            counter.closeBucketsBefore(Integer.MAX_VALUE, wigWriter);
-                        }
-                        counter = new ReadCounter(alignmentChr);
-                        lastChr = alignmentChr;
-                    }
+    /**
+     * Counts a stream of sorted alignments,  creating a new ReadCounter for each chromosome.  Windows are flushed to
+     * the consumer, and optionally a wig writer,  as they are closed.
+     */
+    class AlignmentCounter {
+
+        DataConsumer consumer;
+        WigWriter wigWriter;
+        float[] buffer;
+        int tolerance;
+
+        String lastChr = "";
+        ReadCounter counter = null;
+        int totalCount = 0;
+
+        AlignmentCounter(DataConsumer consumer, WigWriter wigWriter, float[] buffer, int tolerance) {
+            this.consumer = consumer;
+            this.wigWriter = wigWriter;
+            this.buffer = buffer;
+            this.tolerance = tolerance;
+        }
+
+        void count(Alignment alignment) {
+
+            if (!passFilter(alignment)) {
+                return;
+            }
+
+            //Sort into the read strand or first-in-pair strand,
+            //depending on input flag. Note that this can
+            //be very unreliable depending on data
+            Strand strand;
+            if (firstInPair) {
+                strand = alignment.getFirstOfPairStrand();
+            } else if (secondInPair) {
+                strand = alignment.getSecondOfPairStrand();
+            } else {
+                strand = alignment.getReadStrand();
+            }
+            if (strand.equals(Strand.NONE)) {
+                //TODO move this into passFilter, or move passFilter here
+                return;
+            }
+            boolean readNegStrand = alignment.isNegativeStrand();
+
+            totalCount++;
+
+            String alignmentChr = alignment.getChr();
+
+            // Close all counters with position < alignment.getStart()
+            if (alignmentChr.equals(lastChr)) {
+                if (counter != null) {
+                    counter.closeBucketsBefore(alignment.getAlignmentStart() - tolerance);
+                }
+            } else {  // New chromosome
+                if (counter != null) {
+                    counter.closeBucketsBefore(Integer.MAX_VALUE);
+                }
+                counter = new ReadCounter(alignmentChr, consumer, wigWriter, buffer);
+                lastChr = alignmentChr;
+            }
+
+            AlignmentBlock[] blocks = alignment.getAlignmentBlocks();
+
+            if (blocks != null && !pairedCoverage) {
+                for (AlignmentBlock block : blocks) {
+
+                    if (!block.isSoftClipped()) {
+
+                        byte[] bases = block.getBases();
+                        int blockStart = block.getStart();
+                        int blockEnd = block.getEnd();
 
-                    AlignmentBlock[] blocks = alignment.getAlignmentBlocks();
-
-                    if (blocks != null && !pairedCoverage) {
-                        for (AlignmentBlock block : blocks) {
-
-                            if (!block.isSoftClipped()) {
-
-                                byte[] bases = block.getBases();
-                                int blockStart = block.getStart();
-                                int blockEnd = block.getEnd();
-
-
-                                int adjustedStart = block.getStart();
-                                int adjustedEnd = block.getEnd();
-
-
-                                if (preExtFactor > 0) {
-                                    if (readNegStrand) {
-                                        adjustedEnd = blockEnd + preExtFactor;
-                                    } else {
-                                        adjustedStart = Math.max(0, blockStart - preExtFactor);
-                                    }
-                                }
-
-                                // If both postExtFactor and extFactor are specified, postExtFactor takes precedence
-                                if (postExtFactor > 0) {
-                                    if (readNegStrand) {
-                                        adjustedStart = Math.max(0, blockEnd - postExtFactor);
-                                    } else {
-                                        adjustedEnd = blockStart + postExtFactor;
-                                    }
-
-                                } else if (extFactor > 0) {
-                                    // Standard extension option -- extend read on 3' end
-                                    if (readNegStrand) {
-                                        adjustedStart = Math.max(0, adjustedStart - extFactor);
-                                    } else {
-                                        adjustedEnd += extFactor;
-                                    }
-                                }
-
-
-                                if (queryInterval != null) {
-                                    adjustedStart = Math.max(queryInterval.getStart() - 1, adjustedStart);
-                                    adjustedEnd = Math.min(queryInterval.getEnd(), adjustedEnd);
-                                }
-
-                                for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
-                                    byte base = 0;
-                                    int baseIdx = pos - blockStart;
-                                    if (bases != null && baseIdx >= 0 && baseIdx < bases.length) {
-                                        base = bases[baseIdx];
-                                    }
-                                    //int idx = pos - blockStart;
-                                    //byte quality = (idx >= 0 && idx < block.qualities.length) ?
-                                            //block.qualities[pos - blockStart] : (byte) 0;
-                                    counter.incrementCount(pos, base, strand);
-                                }
+
+                        int adjustedStart = block.getStart();
+                        int adjustedEnd = block.getEnd();
+
+
+                        if (preExtFactor > 0) {
+                            if (readNegStrand) {
+                                adjustedEnd = blockEnd + preExtFactor;
+                            } else {
+                                adjustedStart = Math.max(0, blockStart - preExtFactor);
                             }
                         }
-                    } else {
-                        int adjustedStart = alignment.getAlignmentStart();
-                        int adjustedEnd = pairedCoverage ?
-                                adjustedStart + Math.abs(alignment.getInferredInsertSize()) :
-                                alignment.getAlignmentEnd();
-
-                        if (readNegStrand) {
-                            adjustedStart = Math.max(0, adjustedStart - extFactor);
-                        } else {
-                            adjustedEnd += extFactor;
+
+                        // If both postExtFactor and extFactor are specified, postExtFactor takes precedence
+                        if (postExtFactor > 0) {
+                            if (readNegStrand) {
+                                adjustedStart = Math.max(0, blockEnd - postExtFactor);
+                            } else {
+                                adjustedEnd = blockStart + postExtFactor;
+                            }
+
+                        } else if (extFactor > 0) {
+                            // Standard extension option -- extend read on 3' end
+                            if (readNegStrand) {
+                                adjustedStart = Math.max(0, adjustedStart - extFactor);
+                            } else {
+                                adjustedEnd += extFactor;
+                            }
                         }
 
+
                         if (queryInterval != null) {
                             adjustedStart = Math.max(queryInterval.getStart() - 1, adjustedStart);
                             adjustedEnd = Math.min(queryInterval.getEnd(), adjustedEnd);
                         }
 
-
                         for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
-                            counter.incrementCount(pos, (byte) 'N', strand);
+                            byte base = 0;
+                            int baseIdx = pos - blockStart;
+                            if (bases != null && baseIdx >= 0 && baseIdx < bases.length) {
+                                base = bases[baseIdx];
+                            }
+                            //int idx = pos - blockStart;
+                            //byte quality = (idx >= 0 && idx < block.qualities.length) ?
+                                    //block.qualities[pos - blockStart] : (byte) 0;
+                            counter.incrementCount(pos, base, strand);
                         }
                     }
+                }
+            } else {
+                int adjustedStart = alignment.getAlignmentStart();
+                int adjustedEnd = pairedCoverage ?
+                        adjustedStart + Math.abs(alignment.getInferredInsertSize()) :
+                        alignment.getAlignmentEnd();
+
+                if (readNegStrand) {
+                    adjustedStart = Math.max(0, adjustedStart - extFactor);
+                } else {
+                    adjustedEnd += extFactor;
+                }
 
+                if (queryInterval != null) {
+                    adjustedStart = Math.max(queryInterval.getStart() - 1, adjustedStart);
+                    adjustedEnd = Math.min(queryInterval.getEnd(), adjustedEnd);
                 }
 
-            }
-            consumer.setAttribute("totalCount", String.valueOf(totalCount));
-            consumer.parsingComplete();
 
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
+                for (int pos = adjustedStart; pos < adjustedEnd; pos++) {
+                    counter.incrementCount(pos, (byte) 'N', strand);
+                }
+            }
+        }
 
+        /**
+         * Flush all remaining windows.  Safe to call more than once.
+         */
+        void finish() {
             if (counter != null) {
-                counter.closeBucketsBefore(Integer.MAX_VALUE, wigWriter);
-            }
-            if (iter != null) {
-                iter.close();
-            }
-            if (reader != null) {
-                reader.close();
+                counter.closeBucketsBefore(Integer.MAX_VALUE);
             }
-            if (wigWriter != null) {
-                wigWriter.close();
-            }
-
         }
     }
 
@@ -486,16 +666,76 @@ public class CoverageCounter {
         this.writeStdOut = writeStdOut;
     }
 
+    /**
+     * Counts coverage for a single chromosome.  Counts are accumulated in a ring buffer of primitive int arrays,
+     * one slot per window, which slides forward with the (sorted) alignment stream.  Windows are flushed to the
+     * consumer in order as they are closed, and their slots reused.
+     */
     class ReadCounter {
 
+        static final int INITIAL_CAPACITY = 1024;
+
         String chr;
+
+        /**
+         * Chromosome length, used to truncate the last window.  Integer.MAX_VALUE if unknown.
+         */
+        int chrLength;
+
+        /**
+         * Number of window slots in the ring.  Always a power of 2 so the slot index is (window index & mask)
+         */
+        int capacity;
+        int mask;
+
+        /**
+         * Window index range currently in the ring,  inclusive.  The ring is empty if lastIdx < firstIdx.
+         */
+        int firstIdx = 0;
+        int lastIdx = -1;
+
+        /**
+         * Total counts per window
+         */
+        int[] totalCounts;
+
+        /**
+         * Counts per window and strand, indexed by slot * NUM_STRANDS + strand.  Null unless outputting strands
+         * separately.
+         */
+        int[] strandCounts;
+
         /**
-         * Map of window index -> counter
+         * Counts per window, strand, and nucleotide, indexed by (slot * NUM_STRANDS + strand) * nucleotides.length + base.
+         * Null unless outputting bases.
          */
-        TreeMap<Integer, Counter> counts = new TreeMap<Integer, Counter>();
+        int[] baseCounts;
 
-        ReadCounter(String chr) {
+        DataConsumer consumer;
+        WigWriter wigWriter;
+        float[] buffer;
+
+        ReadCounter(String chr, DataConsumer consumer, WigWriter wigWriter, float[] buffer) {
             this.chr = chr;
+            this.consumer = consumer;
+            this.wigWriter = wigWriter;
+            this.buffer = buffer;
+            chrLength = Integer.MAX_VALUE;
+            if (genome != null) {
+                Chromosome chromosome = genome.getChromosome(chr);
+                if (chromosome != null) {
+                    chrLength = chromosome.getLength();
+                }
+            }
+            allocate(INITIAL_CAPACITY);
+        }
+
+        private void allocate(int capacity) {
+            this.capacity = capacity;
+            this.mask = capacity - 1;
+            totalCounts = new int[capacity];
+            strandCounts = outputSeparate ? new int[capacity * NUM_STRANDS] : null;
+            baseCounts = outputBases ? new int[capacity * NUM_STRANDS * nucleotides.length] : null;
         }
 
         /**
@@ -504,22 +744,66 @@ public class CoverageCounter {
          * @param strand   - which strand to increment count. Should be POSITIVE or NEGATIVE
          */
         void incrementCount(int position, byte base, Strand strand) {
-            final Counter counter = getCounterForPosition(position);
-            int strandNum = strand.equals(Strand.POSITIVE) ? 0 : 1;
-            counter.increment(base, strandNum);
-        }
 
-
-        private Counter getCounterForPosition(int position) {
             int idx = position / windowSize;
-            return getCounter(idx);
+            if (lastIdx < firstIdx) {
+                firstIdx = lastIdx = idx;
+            } else if (idx > lastIdx) {
+                ensureCapacity(idx - firstIdx + 1);
+                lastIdx = idx;
+            } else if (idx < firstIdx) {
+                // Only possible if the input is not sorted within the sort tolerance.  The window is recreated
+                // and flushed again, as it would be for any other window.
+                ensureCapacity(lastIdx - idx + 1);
+                firstIdx = idx;
+            }
+
+            int slot = idx & mask;
+            int strandNum = strand == Strand.POSITIVE ? 0 : 1;
+
+            totalCounts[slot]++;
+            if (outputSeparate) {
+                strandCounts[slot * NUM_STRANDS + strandNum]++;
+            }
+            if (outputBases) {
+                int baseIdx = nucleotideIndex[base & 0xFF];
+                if (baseIdx >= 0) {
+                    baseCounts[(slot * NUM_STRANDS + strandNum) * nucleotides.length + baseIdx]++;
+                }
+            }
         }
 
-        private Counter getCounter(int idx) {
-            if (!counts.containsKey(idx)) {
-                counts.put(idx, new Counter());
+        /**
+         * Grow the ring, if needed, so it can hold the given number of windows.  Live windows are copied to
+         * their slots in the new arrays.
+         */
+        private void ensureCapacity(int nWindows) {
+            if (nWindows <= capacity) {
+                return;
+            }
+            int newCapacity = capacity;
+            while (newCapacity < nWindows) {
+                newCapacity <<= 1;
+            }
+
+            int oldMask = mask;
+            int[] oldTotals = totalCounts;
+            int[] oldStrands = strandCounts;
+            int[] oldBases = baseCounts;
+            allocate(newCapacity);
+
+            int baseStride = NUM_STRANDS * nucleotides.length;
+            for (int idx = firstIdx; idx <= lastIdx; idx++) {
+                int oldSlot = idx & oldMask;
+                int newSlot = idx & mask;
+                totalCounts[newSlot] = oldTotals[oldSlot];
+                if (outputSeparate) {
+                    System.arraycopy(oldStrands, oldSlot * NUM_STRANDS, strandCounts, newSlot * NUM_STRANDS, NUM_STRANDS);
+                }
+                if (outputBases) {
+                    System.arraycopy(oldBases, oldSlot * baseStride, baseCounts, newSlot * baseStride, baseStride);
+                }
             }
-            return counts.get(idx);
         }
 
 
@@ -529,176 +813,188 @@ public class CoverageCounter {
          *
          * @param position - genomic position
          */
-        void closeBucketsBefore(int position, WigWriter wigWriter) {
-            List<Integer> bucketsToClose = new ArrayList<Integer>();
+        void closeBucketsBefore(int position) {
+
+            if (lastIdx < firstIdx) {
+                return;
+            }
 
             int bucket = position / windowSize;
-            for (Map.Entry<Integer, Counter> entry : counts.entrySet()) {
-                if (entry.getKey() < bucket) {
-
-                    // Divide total count by window size.  This is the average count per
-                    // base over the window,  so for example 30x coverage remains 30x irrespective of window size.
-                    int bucketStartPosition = entry.getKey() * windowSize;
-                    int bucketEndPosition = bucketStartPosition + windowSize;
-                    if (genome != null) {
-                        Chromosome chromosome = genome.getChromosome(chr);
-                        if (chromosome != null) {
-                            bucketEndPosition = Math.min(bucketEndPosition, chromosome.getLength());
-                        }
-                    }
-                    int bucketSize = bucketEndPosition - bucketStartPosition;
+            int end = Math.min(bucket, lastIdx + 1);
+            int baseStride = NUM_STRANDS * nucleotides.length;
 
-                    final Counter counter = entry.getValue();
+            for (int idx = firstIdx; idx < end; idx++) {
 
-                    int col = 0;
+                int slot = idx & mask;
+                int total = totalCounts[slot];
+                if (total == 0) {
+                    continue;    // Nothing counted in this window
+                }
 
-                    //Not outputting base info, just totals
-                    if (!outputBases) {
-                        if (outputSeparate) {
-                            //Output strand specific information, if applicable
-                            for (int strandNum : output_strands) {
-                                buffer[col] = ((float) counter.getCount(strandNum)) / bucketSize;
-                                col++;
-                            }
+                // Divide total count by window size.  This is the average count per
+                // base over the window,  so for example 30x coverage remains 30x irrespective of window size.
+                int bucketStartPosition = idx * windowSize;
+                int bucketEndPosition = Math.min(bucketStartPosition + windowSize, chrLength);
+                int bucketSize = bucketEndPosition - bucketStartPosition;
 
-                        } else {
-                            buffer[col] = ((float) counter.getTotalCounts()) / bucketSize;
+                int col = 0;
+
+                //Not outputting base info, just totals
+                if (!outputBases) {
+                    if (outputSeparate) {
+                        //Output strand specific information, if applicable
+                        for (int strandNum : output_strands) {
+                            buffer[col] = ((float) strandCounts[slot * NUM_STRANDS + strandNum]) / bucketSize;
                             col++;
                         }
 
-                        //Output counts of each base
                     } else {
-                        if (outputSeparate) {
-                            for (int strandNum : output_strands) {
-                                for (byte base : nucleotides) {
-                                    buffer[col] = ((float) counter.getBaseCount(base, strandNum)) / bucketSize;
-                                    col++;
-                                }
-                            }
-                        } else {
-                            for (byte base : nucleotides) {
-                                buffer[col] = ((float) counter.getBaseCount(base)) / bucketSize;
+                        buffer[col] = ((float) total) / bucketSize;
+                        col++;
+                    }
+
+                    //Output counts of each base
+                } else {
+                    int offset = slot * baseStride;
+                    if (outputSeparate) {
+                        for (int strandNum : output_strands) {
+                            for (int b = 0; b < nucleotides.length; b++) {
+                                buffer[col] = ((float) baseCounts[offset + strandNum * nucleotides.length + b]) / bucketSize;
                                 col++;
                             }
                         }
+                    } else {
+                        for (int b = 0; b < nucleotides.length; b++) {
+                            int count = 0;
+                            for (int strandNum = 0; strandNum < NUM_STRANDS; strandNum++) {
+                                count += baseCounts[offset + strandNum * nucleotides.length + b];
+                            }
+                            buffer[col] = ((float) count) / bucketSize;
+                            col++;
+                        }
                     }
+                }
 
 
-                    consumer.addData(chr, bucketStartPosition, bucketEndPosition, buffer, null);
-
-                    if (wigWriter != null) {
-                        wigWriter.addData(chr, bucketStartPosition, bucketEndPosition, buffer);
-                    }
+                consumer.addData(chr, bucketStartPosition, bucketEndPosition, buffer, null);
 
+                if (wigWriter != null) {
+                    wigWriter.addData(chr, bucketStartPosition, bucketEndPosition, buffer);
+                }
 
-                    bucketsToClose.add(entry.getKey());
+                // Clear the slot for reuse
+                totalCounts[slot] = 0;
+                if (outputSeparate) {
+                    Arrays.fill(strandCounts, slot * NUM_STRANDS, (slot + 1) * NUM_STRANDS, 0);
+                }
+                if (outputBases) {
+                    Arrays.fill(baseCounts, slot * baseStride, (slot + 1) * baseStride, 0);
                 }
             }
 
-            for (Integer key : bucketsToClose) {
-                counts.remove(key);
+            if (end > firstIdx) {
+                firstIdx = end;
             }
-
-
         }
 
     }
 
 
     /**
-     * Class for counting nucleotides and strands over an interval.
+     * Records the data produced for one sequence by a worker thread in a temporary file,  to be replayed to the
+     * real consumer in genome order.  A chromosome name record (start == -1) precedes the data for each chromosome.
      */
+    static class SpillFile implements DataConsumer {
 
-    class Counter {
-        /**
-         * The total number of counts on this Counter. Will
-         * be the sum of baseCount over the second index.
-         */
-        int[] strandCount;
+        File file;
+        DataOutputStream out;
+        String lastChr = null;
         int totalCount = 0;
-        //int qualityCount = 0;
-
-        //String chr;
-        //int start;
-        //int end;
-        //byte[] ref;
-        /**
-         * The number of times a particular base has been encountered (ie # of reads of that base)
-         */
-        //int[][] baseCount = new int[NUM_STRANDS][];
-
-        private Map<Byte, Integer>[] baseTypeCounts;
 
-        Counter() {
-            //this.chr = chr;
-            //this.start = start;
-            //this.end = end;
+        SpillFile(File file) throws IOException {
+            this.file = file;
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64000));
+        }
 
-            if (outputBases) {
-                baseTypeCounts = new HashMap[NUM_STRANDS];
-                for (int ii = 0; ii < NUM_STRANDS; ii++) {
-                    baseTypeCounts[ii] = new HashMap<Byte, Integer>();
+        public void addData(String chr, int start, int end, float[] data, String name) {
+            try {
+                if (!chr.equals(lastChr)) {
+                    out.writeInt(-1);
+                    out.writeUTF(chr);
+                    lastChr = chr;
                 }
+                out.writeInt(start);
+                out.writeInt(end);
+                for (float f : data) {
+                    out.writeFloat(f);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Error writing temporary file " + file.getAbsolutePath(), e);
             }
-
-            if (outputSeparate) {
-                strandCount = new int[NUM_STRANDS];
-            }
-        }
-
-
-        int getCount(int strand) {
-            return strandCount[strand];
         }
 
-        public int getTotalCounts() {
-            return totalCount;
+        public void parsingComplete() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Error writing temporary file " + file.getAbsolutePath(), e);
+            }
         }
 
-        void increment(byte base, int strand) {
-
-            if (outputBases) {
-                incrementNucleotide(base, strand);
+        /**
+         * Pass the recorded data to the consumer and wig writer, using the buffer to hold each record.
+         */
+        void replay(DataConsumer consumer, WigWriter wigWriter, float[] buffer) throws IOException {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64000));
+            try {
+                String chr = null;
+                while (true) {
+                    int start;
+                    try {
+                        start = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (start < 0) {
+                        chr = in.readUTF();
+                        continue;
+                    }
+                    int end = in.readInt();
+                    for (int i = 0; i < buffer.length; i++) {
+                        buffer[i] = in.readFloat();
+                    }
+                    consumer.addData(chr, start, end, buffer, null);
+                    if (wigWriter != null) {
+                        wigWriter.addData(chr, start, end, buffer);
+                    }
+                }
+            } finally {
+                in.close();
             }
+        }
 
-            if (outputSeparate) {
-                this.strandCount[strand]++;
+        void delete() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // Ignore, file is being deleted
             }
+            file.delete();
+        }
 
-            this.totalCount++;
+        public void setType(String type) {
         }
 
-        /**
-         * Increment the nucleotide counts.
-         *
-         * @param base   65, 67, 71, 84, 78
-         *               aka A, C, G, T, N (upper case).
-         *               Anything else is stored as 0
-         * @param strand index of strand, 0 for positive and 1 for negative
-         */
-        private void incrementNucleotide(byte base, int strand) {
-            Map<Byte, Integer> btc = baseTypeCounts[strand];
-            if (!nucleotidesKeep.contains(base)) {
-                base = 0;
-            }
+        public void setTrackParameters(TrackType trackType, String trackLine, String[] trackNames) {
+        }
 
-            int orig = 0;
-            if (btc.containsKey(base)) {
-                orig = btc.get(base);
-            }
-            btc.put(base, orig + 1);
+        public void setTrackParameters(TrackType trackType, String trackLine, String[] trackNames, boolean b) {
         }
 
-        public int getBaseCount(byte base, int strand) {
-            return baseTypeCounts[strand].containsKey(base) ? baseTypeCounts[strand].get(base) : 0;
+        public void setSortTolerance(int tolerance) {
         }
 
-        public int getBaseCount(byte base) {
-            int count = 0;
-            for (int strand = 0; strand < NUM_STRANDS; strand++) {
-                count += getBaseCount(base, strand);
-            }
-            return count;
+        public void setAttribute(String key, String value) {
         }
     }
 
@@ -43,6 +43,7 @@ import org.broad.igv.feature.genome.GenomeManager;
 import org.broad.igv.feature.tribble.CodecFactory;
 import org.broad.igv.feature.tribble.GFFCodec;
 import org.broad.igv.feature.tribble.IGVBEDCodec;
+import org.broad.igv.maf.MAFBinaryWriter;
 import org.broad.igv.sam.reader.AlignmentIndexer;
 import org.broad.igv.tdf.TDFUtils;
 import org.broad.igv.tools.converters.BamToBed;
@@ -89,6 +90,7 @@ public class IgvTools {
     static final String CMD_HELP = "help";
     static final String CMD_BAMTOBED = "bamtobed";
     static final String CMD_TDFTOBEDGRAPH = "tdftobedgraph";
+    static final String CMD_MAFTOBIN = "maftobin";
 
     /**
      * Stream for writing messages to the user, which we
@@ -96,6 +98,11 @@ public class IgvTools {
      * permanently log should use {@link #log}
      */
     static PrintStream userMessageWriter = System.out;
+
+    /**
+     * Compression of the quantile sketch used for percentile window functions,  0 for exact percentiles.
+     */
+    private int sketchCompression = 0;
     private static final String CONSOLE_APPENDER_NAME = "console";
 
     /**
@@ -116,6 +123,7 @@ public class IgvTools {
             "toTDF    convert an input file (cn, gct, wig) to tiled data format (tdf)",
             "count   compute coverage density for an alignment file",
             "formatexp  center, scale, and log2 normalize an expression file",
+            "mafToBin  convert a multiple alignment (.maf) file to the indexed binary format (.maf.bin)",
             "gui      Start the gui",
             "help <command>     display this help message, or help on a specific command",
             "See http://www.broadinstitute.org/software/igv/igvtools_commandline for more detailed help"
@@ -134,6 +142,7 @@ public class IgvTools {
     private static CmdLineParser.Option windowFunctions = null;
     private static CmdLineParser.Option tmpDirOption = null;
     private static CmdLineParser.Option maxZoomOption = null;
+    private static CmdLineParser.Option sketchOption = null;
     private static CmdLineParser.Option typeOption = null;
 
     // options for sort
@@ -155,6 +164,7 @@ public class IgvTools {
     private static CmdLineParser.Option minMapQualityOpt = null;
     private static CmdLineParser.Option includeDupsOpt = null;
     private static CmdLineParser.Option pairedCoverageOpt = null;
+    private static CmdLineParser.Option threadsOption = null;
 
     // options for index
     private static CmdLineParser.Option indexTypeOption = null;
@@ -326,6 +336,7 @@ public class IgvTools {
                 // Parse out options common to both count and tile
                 validateArgsLength(nonOptionArgs, 4, basic_syntax);
                 int maxZoomValue = (Integer) parser.getOptionValue(maxZoomOption, MAX_ZOOM);
+                setSketchCompression((Integer) parser.getOptionValue(sketchOption, 0));
                 String ofile = nonOptionArgs[2];
                 setWriteToStdOout(ofile);
 
@@ -354,12 +365,15 @@ public class IgvTools {
                     int minMapQuality = (Integer) parser.getOptionValue(minMapQualityOpt, 0);
 
                     int windowSizeValue = (Integer) parser.getOptionValue(windowSizeOption, WINDOW_SIZE);
+                    int nThreads = (Integer) parser.getOptionValue(threadsOption, 1);
                     doCount(ifile, ofile, genomeId, maxZoomValue, wfList, windowSizeValue, extFactorValue,
                             preFactorValue, posFactorValue,
-                            trackLine, queryString, minMapQuality, countFlags);
+                            trackLine, queryString, minMapQuality, countFlags, nThreads, tmpDirName);
                 } else {
                     String probeFile = (String) parser.getOptionValue(probeFileOption, PROBE_FILE);
-                    toTDF(typeString, ifile, ofile, probeFile, genomeId, maxZoomValue, wfList, tmpDirName, maxRecords);
+                    int nThreads = command.equals(CMD_TOTDF) ? (Integer) parser.getOptionValue(threadsOption, 1) : 1;
+                    toTDF(typeString, ifile, ofile, probeFile, genomeId, maxZoomValue, wfList, tmpDirName, maxRecords,
+                            nThreads);
                 }
 
             } else if (command.equals(CMD_SORT)) {
@@ -440,6 +454,14 @@ public class IgvTools {
                     DensitiesToBedGraph.convert(inputDir, outputDir);
                 }
 
+            } else if (command.equals(CMD_MAFTOBIN)) {
+                validateArgsLength(nonOptionArgs, 3, basic_syntax);
+                String ofile = nonOptionArgs[2];
+                // Output files must have .maf.bin extension
+                if (!ofile.endsWith(MAFBinaryWriter.EXTENSION)) {
+                    ofile = ofile + MAFBinaryWriter.EXTENSION;
+                }
+                MAFBinaryWriter.convert(ifile, ofile);
             } else if (command.equals(CMD_BAMTOBED)) {
                 validateArgsLength(nonOptionArgs, 3, basic_syntax);
                 String ofile = nonOptionArgs[2];
@@ -536,6 +558,10 @@ public class IgvTools {
             // general options
             windowFunctions = parser.addStringOption('f', "windowFunctions");
             maxZoomOption = parser.addIntegerOption('z', "maxZoom");
+            if (command.equals(CMD_COUNT) || command.equals(CMD_TOTDF)) {
+                threadsOption = parser.addIntegerOption("threads");
+            }
+            sketchOption = parser.addIntegerOption("sketch");
 
             // extended options for coverage
             if (command.equals(CMD_COUNT) || command.equals(CMD_BAMTOBED)) {
@@ -552,6 +578,10 @@ public class IgvTools {
                 includeDupsOpt = parser.addBooleanOption("includeDuplicates");
                 pairedCoverageOpt = parser.addBooleanOption("pairs");
 
+                if (command.equals(CMD_COUNT)) {
+                    tmpDirOption = parser.addStringOption('t', "tmpDir");
+                }
+
                 // Trackline
                 colorOption = parser.addStringOption("color");
             } else {
@@ -619,9 +649,31 @@ public class IgvTools {
 
     }
 
+    /**
+     * Estimate percentile window functions (median, p2, p10, p90, p98) for toTDF and count with a constant memory
+     * quantile sketch.  Larger values are more accurate,  0 computes exact percentiles.
+     */
+    public void setSketchCompression(int sketchCompression) {
+        if (sketchCompression != 0 && sketchCompression < 10) {
+            throw new PreprocessingException("Sketch compression must be at least 10: " + sketchCompression);
+        }
+        this.sketchCompression = sketchCompression;
+    }
+
     public void toTDF(String typeString, String ifile, String ofile, String probeFile, String genomeId, int maxZoomValue,
                       Collection<WindowFunction> windowFunctions, String tmpDirName, int maxRecords)
             throws IOException, PreprocessingException {
+        toTDF(typeString, ifile, ofile, probeFile, genomeId, maxZoomValue, windowFunctions, tmpDirName, maxRecords, 1);
+    }
+
+    /**
+     * Convert a file to TDF format.
+     *
+     * @param nThreads Number of threads used to compute and compress tiles while the input is parsed
+     */
+    public void toTDF(String typeString, String ifile, String ofile, String probeFile, String genomeId, int maxZoomValue,
+                      Collection<WindowFunction> windowFunctions, String tmpDirName, int maxRecords, int nThreads)
+            throws IOException, PreprocessingException {
 
         if (!ifile.endsWith(".affective.csv")) validateIsTilable(typeString);
 
@@ -675,8 +727,11 @@ public class IgvTools {
 
         // Convert to tdf
         File outputFile = new File(ofile);
+        Preprocessor p = null;
         try {
-            Preprocessor p = new Preprocessor(outputFile, genome, windowFunctions, nLines, null);
+            p = new Preprocessor(outputFile, genome, windowFunctions, nLines, null);
+            p.setNumThreads(nThreads);
+            p.setSketchCompression(sketchCompression);
             if (inputFileOrDir.isDirectory() || inputFileOrDir.getName().endsWith(".list")) {
                 p.setSizeEstimate(0);
                 List<File> files = getFilesFromDirOrList(inputFileOrDir);
@@ -694,6 +749,9 @@ public class IgvTools {
                 outputFile.delete();
             }
         } finally {
+            if (p != null) {
+                p.shutdown();
+            }
             if (deleteme != null && deleteme.exists()) {
                 deleteme.delete();
             }
@@ -787,6 +845,23 @@ public class IgvTools {
                         Collection<WindowFunction> windowFunctions, int windowSizeValue,
                         int extFactorValue, int preExtFactorValue, int postExtFactorValue,
                         String trackLine, String queryString, int minMapQuality, int countFlags) throws IOException {
+        doCount(ifile, ofile, genomeId, maxZoomValue, windowFunctions, windowSizeValue, extFactorValue,
+                preExtFactorValue, postExtFactorValue, trackLine, queryString, minMapQuality, countFlags, 1, null);
+    }
+
+    /**
+     * Compute coverage or density of an alignment or feature file, optionally using multiple threads.
+     *
+     * @param nThreads   Number of threads.  If > 1 the chromosomes of an indexed BAM file are counted in parallel,
+     *                   and tiles are computed in parallel with counting
+     * @param tmpDirName Directory for temporary files written by the worker threads, null for the system default
+     * @see #doCount(String, String, String, int, java.util.Collection, int, int, int, int, String, String, int, int)
+     */
+    public void doCount(String ifile, String ofile, String genomeId, int maxZoomValue,
+                        Collection<WindowFunction> windowFunctions, int windowSizeValue,
+                        int extFactorValue, int preExtFactorValue, int postExtFactorValue,
+                        String trackLine, String queryString, int minMapQuality, int countFlags,
+                        int nThreads, String tmpDirName) throws IOException {
 
 
         log.info("Computing coverage.  File = " + ifile);
@@ -798,7 +873,15 @@ public class IgvTools {
         }
         log.info(wfString);
         log.info("Ext factor = " + extFactorValue);
+        log.info("Threads = " + nThreads);
 
+        File tmpDir = null;
+        if (tmpDirName != null && tmpDirName.trim().length() > 0) {
+            tmpDir = new File(tmpDirName);
+            if (!tmpDir.exists() || !tmpDir.isDirectory()) {
+                throw new PreprocessingException("Specified tmp directory does not exist or is not directory: " + tmpDirName);
+            }
+        }
 
         Genome genome = loadGenome(genomeId);
         if (genome == null) {
@@ -825,17 +908,22 @@ public class IgvTools {
             tdfFile = new File(tdfFile.getAbsolutePath() + ".tdf");
         }
 
+        Preprocessor p = null;
         try {
 
-            Preprocessor p = new Preprocessor(tdfFile, genome, windowFunctions, -1, null);
+            p = new Preprocessor(tdfFile, genome, windowFunctions, -1, null);
 
             p.setSkipZeroes(true);
+            p.setNumThreads(nThreads);
+            p.setSketchCompression(sketchCompression);
 
             CoverageCounter counter = new CoverageCounter(ifile, p, windowSizeValue, extFactorValue, wigFile,
                     genome, queryString, minMapQuality, countFlags);
             counter.setWriteStdOut(wigStdOut);
             counter.setPreExtFactor(preExtFactorValue);
             counter.setPosExtFactor(postExtFactorValue);
+            counter.setNumThreads(nThreads);
+            counter.setTmpDir(tmpDir);
 
             String prefix = FilenameUtils.getName(ifile);
             String[] tracknames = counter.getTrackNames(prefix + " ");
@@ -856,6 +944,10 @@ public class IgvTools {
             if (tdfFile != null && wigFile.exists()) {
                 wigFile.delete();
             }
+        } finally {
+            if (p != null) {
+                p.shutdown();
+            }
         }
 
         userMessageWriter.flush();
@@ -33,6 +33,7 @@ import org.broad.igv.util.collections.DoubleArrayList;
 import org.apache.commons.math.stat.StatUtils;
 import org.apache.log4j.Logger;
 import org.broad.igv.track.WindowFunction;
+import org.broad.igv.util.stats.QuantileSketch;
 
 import java.util.*;
 
@@ -60,8 +61,9 @@ public class ListAccumulator {
 
     List<WindowFunction> windowFunctions;
     List<WindowFunction> quantileFunctions;
-    Map<WindowFunction, List<PercentileValue>> percentiles = new HashMap();
+    Map<WindowFunction, List<PercentileValue>> percentiles;
     DoubleArrayList values = null;
+    QuantileSketch sketch = null;
     float sum = 0.0f;
     int basesCovered = 0;
     int nPts = 0;
@@ -77,14 +79,26 @@ public class ListAccumulator {
 
 
     public ListAccumulator(Collection<WindowFunction> windowFunctions) {
+        this(windowFunctions, 0);
+    }
+
+    /**
+     * @param sketchCompression if > 0 percentiles are estimated with a {@link QuantileSketch} of this compression,
+     *                          which uses constant memory.  Otherwise all values are kept and percentiles are exact.
+     */
+    public ListAccumulator(Collection<WindowFunction> windowFunctions, int sketchCompression) {
         this.windowFunctions = new ArrayList(windowFunctions);
         quantileFunctions = new ArrayList();
         for (WindowFunction wf : windowFunctions) {
             if (PERCENTILE_WINDOW_FUNCTIONS.contains(wf)) {
                 quantileFunctions.add(wf);
-                if (values == null) {
-                    values = new DoubleArrayList();
-                }
+            }
+        }
+        if (quantileFunctions.size() > 0) {
+            if (sketchCompression > 0) {
+                sketch = new QuantileSketch(sketchCompression);
+            } else {
+                values = new DoubleArrayList();
             }
         }
     }
@@ -96,7 +110,9 @@ public class ListAccumulator {
             sum += w*v;
             basesCovered +=w;
             nPts++;
-            if (values != null) {
+            if (sketch != null) {
+                sketch.add(v);
+            } else if (values != null) {
                 values.add(v);
                 if (values.size() > MAX_VALUE_COUNT) {
                     computePercentiles();
@@ -115,7 +131,11 @@ public class ListAccumulator {
 
         mean = Float.isNaN(sum) ? Float.NaN : sum / basesCovered;
 
-        if (values != null) {
+        if (sketch != null) {
+            for (WindowFunction wf : quantileFunctions) {
+                setValue(wf, nPts == 1 ? mean : (float) sketch.percentile(getPercentile(wf)));
+            }
+        } else if (values != null) {
             if (nPts == 1) {
                 for (WindowFunction wf : quantileFunctions) {
                     setValue(wf, mean);
@@ -126,7 +146,7 @@ public class ListAccumulator {
                 }
                 for (WindowFunction wf : quantileFunctions) {
 
-                    List<PercentileValue> pList = percentiles.get(wf);
+                    List<PercentileValue> pList = percentiles == null ? null : percentiles.get(wf);
                     float v = Float.NaN; // <= Default,
                     if (pList != null && pList.size() > 0) {
                         double weightedSum = 0;
@@ -145,6 +165,7 @@ public class ListAccumulator {
             }
         }
         values = null;
+        sketch = null;
         isFinished = true;
 
     }
@@ -159,6 +180,9 @@ public class ListAccumulator {
                     if (Float.isInfinite(v)) {
                         log.error("Infinite percentile (" + wf + ")");
                     } else {
+                        if (percentiles == null) {
+                            percentiles = new HashMap();
+                        }
                         List<PercentileValue> pList = percentiles.get(wf);
                         if (pList == null) {
                             pList = new ArrayList();
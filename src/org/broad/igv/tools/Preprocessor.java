@@ -54,6 +54,8 @@ public class Preprocessor implements DataConsumer {
     boolean compressed = true;
     private boolean skipZeroes = false;
     private int nZoom = 7;
+    private int nThreads = 1;
+    private int sketchCompression = 0;
     int maxExtFactor = 0;
     Zoom[] zoomLevels;
     int nTracks;
@@ -72,6 +74,7 @@ public class Preprocessor implements DataConsumer {
     Zoom genomeZoom;
     File outputFile;
     ListAccumulator allDataStats;
+    PreprocessorPipeline pipeline;
     List<String> chromosomes = new ArrayList();
     Set<String> visitedChromosomes = new HashSet();
     Map<String, String> attributes = new HashMap();
@@ -202,25 +205,21 @@ public class Preprocessor implements DataConsumer {
         }
 
 
-        // Add to raw data
-        rawData.addData(start, end, data, name);
-
-        // Zoom levels
-        for (Zoom zl : zoomLevels) {
-            zl.addData(start, end, data);
-        }
+        if (pipeline != null) {
+            pipeline.addData(start, end, data, name);
+        } else {
 
-        // Whole genome
-        long offset = genome.getCumulativeOffset(chr);
-        int gStart = (int) ((offset + start) / 1000);
-        int gEnd = Math.max(gStart + 1, (int) ((offset + end) / 1000));
+            // Add to raw data
+            rawData.addData(start, end, data, name);
 
+            // Zoom levels
+            for (Zoom zl : zoomLevels) {
+                zl.addData(start, end, data);
+            }
 
-        // Don't include "chrM" in the whole genome view or stats
-        if (genomeZoom != null && !(chr.equals("chrM") || chr.equals("M") || chr.equals("MT"))) {
-            genomeZoom.addData(gStart, gEnd, data);
-            for (int i = 0; i < data.length; i++) {
-                allDataStats.add(gEnd - gStart, data[i]);
+            // Whole genome
+            if (genomeZoom != null && includeInGenome(chr)) {
+                addGenomeData(genome.getCumulativeOffset(chr), start, end, data);
             }
         }
 
@@ -253,13 +252,18 @@ public class Preprocessor implements DataConsumer {
             chromosomes.add(chr);
 
             log.info("Processing chromosome " + chr);
-            if (zoomLevels != null) {
-                for (Zoom zl : zoomLevels) {
-                    zl.close();
-                }
+            if (pipeline == null && nThreads > 1) {
+                pipeline = new PreprocessorPipeline(this, nThreads);
             }
-            if (rawData != null) {
-                rawData.close();
+            if (pipeline == null) {
+                if (zoomLevels != null) {
+                    for (Zoom zl : zoomLevels) {
+                        zl.close();
+                    }
+                }
+                if (rawData != null) {
+                    rawData.close();
+                }
             }
 
             currentChr = chr;
@@ -270,11 +274,55 @@ public class Preprocessor implements DataConsumer {
             }
 
             rawData = new Raw(chr, currentChrLength, 100000);
+
+            // The previous chromosome is closed by the pipeline, in order, before it switches to the new datasets
+            if (pipeline != null) {
+                pipeline.newChromosome(chr, genome.getCumulativeOffset(chr), includeInGenome(chr), rawData, zoomLevels);
+            }
         }
         lastStartPosition = 0;
 
     }
 
+    /**
+     * Stop the threads used to compute tiles,  if any.  Call when done with this preprocessor,  in particular if
+     * parsing failed before {@link #finish()}.
+     */
+    public void shutdown() {
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+    }
+
+    /**
+     * Add data to the whole genome view and statistics.  Genome coordinates are in kbp.
+     */
+    void addGenomeData(long chrOffset, int start, int end, float[] data) {
+        int gStart = (int) ((chrOffset + start) / 1000);
+        int gEnd = Math.max(gStart + 1, (int) ((chrOffset + end) / 1000));
+        genomeZoom.addData(gStart, gEnd, data);
+        for (int i = 0; i < data.length; i++) {
+            allDataStats.add(gEnd - gStart, data[i]);
+        }
+    }
+
+    // Don't include "chrM" in the whole genome view or stats
+    static boolean includeInGenome(String chr) {
+        return !(chr.equals("chrM") || chr.equals("M") || chr.equals("MT"));
+    }
+
+    /**
+     * Write a tile,  or hand it to the pipeline if called from one of its worker threads.
+     */
+    void writeTile(String dsName, int tileNumber, TDFTile tile) throws IOException {
+        PreprocessorPipeline.TileCollector collector = pipeline == null ? null : pipeline.getCollector();
+        if (collector != null) {
+            collector.add(dsName, tileNumber, tile);
+        } else {
+            writer.writeTile(dsName, tileNumber, tile);
+        }
+    }
+
 
     /**
      * Called at end-of-file
@@ -313,21 +361,28 @@ public class Preprocessor implements DataConsumer {
             writer.getRootGroup().setAttribute(entry.getKey(), entry.getValue());
         }
 
-        if (zoomLevels != null) {
-            for (Zoom zl : zoomLevels) {
-                zl.close();
+        if (pipeline != null) {
+            pipeline.finish();
+        } else {
+            if (zoomLevels != null) {
+                for (Zoom zl : zoomLevels) {
+                    zl.close();
+                }
             }
-        }
 
-        if (genomeZoom != null) {
-            genomeZoom.close();
+            if (genomeZoom != null) {
+                genomeZoom.close();
+            }
+
+            if (rawData != null) {
+                rawData.close();
+            }
         }
 
         if (rawData == null) {
             // TODO -- delete .tdf file?
             log.warn("No features were found that matched chromosomes in genome: " + genome.getId());
         } else {
-            rawData.close();
 
             // Record max/min
             allDataStats.finish();
@@ -376,6 +431,23 @@ public class Preprocessor implements DataConsumer {
         this.nZoom = nZoom;
     }
 
+    /**
+     * Set the number of threads used to compute and compress tiles.  With more than 1 thread the raw data, zoom
+     * levels, and whole genome view are accumulated in parallel with parsing.  The output is the same.
+     */
+    public void setNumThreads(int nThreads) {
+        this.nThreads = nThreads;
+    }
+
+    /**
+     * Estimate percentile window functions with a constant memory {@link org.broad.igv.util.stats.QuantileSketch}
+     * of the given compression.  0, the default,  computes exact percentiles.  Must be called before data is added.
+     */
+    public void setSketchCompression(int sketchCompression) {
+        this.sketchCompression = sketchCompression;
+        allDataStats = new ListAccumulator(allDataFunctions, sketchCompression);
+    }
+
 
     /**
      * Class representing a tile of raw (as opposed to summarized) data.
@@ -446,7 +518,7 @@ public class Preprocessor implements DataConsumer {
 
                     String[] n = nameList == null ? null : nameList.toArray(new String[]{});
                     TDFBedTile tile = new TDFBedTile(tileStart, s, e, d, n);
-                    writer.writeTile(dsName, tileNumber, tile);
+                    writeTile(dsName, tileNumber, tile);
                     startArray.clear();
                     endArray.clear();
                     for (int i = 0; i < dataArray.length; i++) {
@@ -647,7 +719,7 @@ public class Preprocessor implements DataConsumer {
 
                 for (int b = startBin; b <= endBin; b++) {
                     if (accumulators[t][b] == null) {
-                        accumulators[t][b] = new ListAccumulator(datasets.keySet());
+                        accumulators[t][b] = new ListAccumulator(datasets.keySet(), sketchCompression);
                     }
                     accumulators[t][b].add(end - start, data[t]);
                 }
@@ -710,7 +782,7 @@ public class Preprocessor implements DataConsumer {
 
                 String dsName = datasets.get(wf).getName();
                 try {
-                    writer.writeTile(dsName, tileNumber, tile);
+                    writeTile(dsName, tileNumber, tile);
                 } catch (IOException exc) {
                     log.error("Error writing tile: " + dsName + " [" + tileNumber + "]", exc);
                     throw new PreprocessingException(exc.getMessage());
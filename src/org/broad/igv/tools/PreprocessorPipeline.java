@@ -0,0 +1,533 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.tools;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.tdf.TDFTile;
+import org.broad.igv.tdf.TDFWriter;
+import org.broad.igv.util.CompressionUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pipelined accumulation of Preprocessor data.
+ * <p/>
+ * The parsing thread validates data as usual and collects it into batches, which are passed through bounded queues
+ * to a set of worker threads.  The work is divided into "lanes" -- the raw data, each zoom level, and the whole
+ * genome view -- and each worker owns a subset of the lanes.  Workers accumulate every batch into their lanes, and
+ * serialize and compress tiles as they are closed.  A writer thread merges the closed tiles from all workers and
+ * passes them to the TDFWriter in the order the single threaded Preprocessor would have written them, so the
+ * output file is the same.
+ */
+class PreprocessorPipeline {
+
+    private static Logger log = Logger.getLogger(PreprocessorPipeline.class);
+
+    static final int BATCH_SIZE = 1000;
+    static final int QUEUE_CAPACITY = 8;
+
+    enum Type {DATA, NEW_CHROMOSOME, FINISH}
+
+    private final Preprocessor preprocessor;
+    private final TDFWriter writer;
+    private final int nTracks;
+    private final List<Worker> workers = new ArrayList<Worker>();
+    private final Thread writerThread;
+    private final List<Thread> threads = new ArrayList<Thread>();
+
+    /**
+     * Collects tiles closed by a lane.  Set for worker threads only, the Preprocessor writes tiles directly if null.
+     */
+    private final ThreadLocal<TileCollector> collector = new ThreadLocal<TileCollector>();
+
+    private volatile Throwable failure;
+    private volatile boolean shutdown = false;
+
+    /**
+     * Sequence number of the next data point
+     */
+    private long nextPoint = 0;
+    private Batch batch;
+
+    // Current chromosome, for the whole genome lane
+    private String chr;
+    private long chrOffset;
+    private boolean includeInGenome;
+
+    PreprocessorPipeline(Preprocessor preprocessor, int nThreads) {
+
+        this.preprocessor = preprocessor;
+        this.writer = preprocessor.writer;
+        this.nTracks = preprocessor.nTracks;
+
+        // Lanes, and the order in which the single threaded Preprocessor writes their tiles.  Data ranks order
+        // tiles closed while adding a data point: raw, zoom levels, genome.  Close ranks order tiles written when
+        // a chromosome, or the file, is finished: zoom levels, genome, raw.
+        int nZoom = preprocessor.getNZoom() + 1;
+        List<Lane> lanes = new ArrayList<Lane>();
+        lanes.add(new RawLane(0, nZoom + 1));
+        for (int z = 0; z < nZoom; z++) {
+            lanes.add(new ZoomLane(z, 1 + z, z));
+        }
+        if (preprocessor.genomeZoom != null) {
+            lanes.add(new GenomeLane(nZoom + 1, nZoom));
+        }
+
+        int nWorkers = Math.max(1, Math.min(nThreads, lanes.size()));
+        for (int w = 0; w < nWorkers; w++) {
+            workers.add(new Worker());
+        }
+        for (int i = 0; i < lanes.size(); i++) {
+            workers.get(i % nWorkers).lanes.add(lanes.get(i));
+        }
+
+        log.info("Accumulating " + lanes.size() + " datasets on " + nWorkers + " threads");
+
+        for (int w = 0; w < nWorkers; w++) {
+            Thread t = new Thread(workers.get(w), "Preprocessor-" + w);
+            t.setDaemon(true);
+            threads.add(t);
+            t.start();
+        }
+        writerThread = new Thread(new TileWriter(), "Preprocessor-writer");
+        writerThread.setDaemon(true);
+        threads.add(writerThread);
+        writerThread.start();
+    }
+
+    /**
+     * Return the tile collector for the current thread,  or null if this is not a worker thread.
+     */
+    TileCollector getCollector() {
+        return collector.get();
+    }
+
+    /**
+     * Start a new chromosome.  The lanes close the tiles of the previous chromosome and switch to the new
+     * datasets,  which have already been created (in order) by the calling thread.
+     */
+    void newChromosome(String chr, long chrOffset, boolean includeInGenome,
+                       Preprocessor.Raw rawData, Preprocessor.Zoom[] zoomLevels) {
+        flush();
+        this.chr = chr;
+        this.chrOffset = chrOffset;
+        this.includeInGenome = includeInGenome;
+
+        Batch b = new Batch(Type.NEW_CHROMOSOME, nextPoint, 0);
+        b.rawData = rawData;
+        b.zoomLevels = zoomLevels;
+        submit(b);
+    }
+
+    void addData(int start, int end, float[] data, String name) {
+        if (batch == null) {
+            batch = new Batch(Type.DATA, nextPoint, nTracks);
+            batch.chr = chr;
+            batch.chrOffset = chrOffset;
+            batch.includeInGenome = includeInGenome;
+        }
+        batch.add(start, end, data, name);
+        nextPoint++;
+        if (batch.size == BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Close all lanes and wait for the last tile to be written.
+     */
+    void finish() {
+        flush();
+        submit(new Batch(Type.FINISH, nextPoint, 0));
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            throw new PreprocessingException("Interrupted waiting for tiles to be written", e);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Stop the worker and writer threads,  and wait for them to exit.  Called when preprocessing ends,  normally or
+     * not,  the threads have already exited if {@link #finish()} succeeded.
+     */
+    void shutdown() {
+        shutdown = true;
+        fail(new PreprocessingException("Preprocessing cancelled"));
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+        try {
+            for (Thread t : threads) {
+                t.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flush() {
+        if (batch != null) {
+            submit(batch);
+            batch = null;
+        }
+    }
+
+    private void submit(Batch b) {
+        for (Worker worker : workers) {
+            put(worker.input, b);
+        }
+    }
+
+    /**
+     * Put an item on a bounded queue,  waiting for space but giving up if any thread has failed.
+     */
+    private <T> void put(BlockingQueue<T> queue, T item) {
+        try {
+            while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        } catch (InterruptedException e) {
+            throw new PreprocessingException("Preprocessing interrupted", e);
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            if (failure instanceof PreprocessingException) {
+                throw (PreprocessingException) failure;
+            }
+            throw new PreprocessingException("Error computing tiles: " + failure.getMessage(), failure);
+        }
+    }
+
+    private void fail(Throwable t) {
+        if (failure == null) {
+            failure = t;
+        }
+    }
+
+
+    /**
+     * A batch of data points for one chromosome,  or a control message.  Batches are shared by all workers and
+     * are not modified once submitted.
+     */
+    static class Batch {
+
+        Type type;
+        long firstPoint;
+        int size = 0;
+        int[] starts;
+        int[] ends;
+        float[] data;     // nTracks values per point
+        String[] names;   // null unless points are named
+
+        String chr;
+        long chrOffset;
+        boolean includeInGenome;
+
+        Preprocessor.Raw rawData;
+        Preprocessor.Zoom[] zoomLevels;
+
+        Batch(Type type, long firstPoint, int nTracks) {
+            this.type = type;
+            this.firstPoint = firstPoint;
+            if (type == Type.DATA) {
+                starts = new int[BATCH_SIZE];
+                ends = new int[BATCH_SIZE];
+                data = new float[BATCH_SIZE * nTracks];
+            }
+        }
+
+        void add(int start, int end, float[] values, String name) {
+            starts[size] = start;
+            ends[size] = end;
+            System.arraycopy(values, 0, data, size * values.length, values.length);
+            if (name != null) {
+                if (names == null) {
+                    names = new String[BATCH_SIZE];
+                }
+                names[size] = name;
+            }
+            size++;
+        }
+    }
+
+    /**
+     * A serialized tile,  with the key used to restore the single threaded write order.
+     */
+    static class TileRecord implements Comparable<TileRecord> {
+
+        long point;
+        int phase;    // 0 = chromosome or file closed before the point, 1 = data point added
+        int rank;
+        String dsName;
+        int tileNumber;
+        byte[] bytes;
+
+        public int compareTo(TileRecord o) {
+            if (point != o.point) {
+                return point < o.point ? -1 : 1;
+            }
+            if (phase != o.phase) {
+                return phase - o.phase;
+            }
+            return rank - o.rank;
+        }
+    }
+
+    /**
+     * Collects, and serializes, the tiles closed by a worker thread.
+     */
+    class TileCollector {
+
+        CompressionUtils compressionUtils = new CompressionUtils();
+        List<TileRecord> records = new ArrayList<TileRecord>();
+        long point;
+        int phase;
+        int rank;
+
+        void setKey(long point, int phase, int rank) {
+            this.point = point;
+            this.phase = phase;
+            this.rank = rank;
+        }
+
+        void add(String dsName, int tileNumber, TDFTile tile) throws IOException {
+            TileRecord record = new TileRecord();
+            record.point = point;
+            record.phase = phase;
+            record.rank = rank;
+            record.dsName = dsName;
+            record.tileNumber = tileNumber;
+            record.bytes = writer.encodeTile(tile, compressionUtils);
+            records.add(record);
+        }
+
+        List<TileRecord> drain() {
+            List<TileRecord> tmp = records;
+            records = new ArrayList<TileRecord>();
+            return tmp;
+        }
+    }
+
+    /**
+     * Result of one batch from one worker
+     */
+    static class BatchResult {
+        List<TileRecord> records;
+        boolean last;
+
+        BatchResult(List<TileRecord> records, boolean last) {
+            this.records = records;
+            this.last = last;
+        }
+    }
+
+
+    abstract class Lane {
+
+        int dataRank;
+        int closeRank;
+
+        Lane(int dataRank, int closeRank) {
+            this.dataRank = dataRank;
+            this.closeRank = closeRank;
+        }
+
+        abstract void addData(Batch b, int i, float[] values);
+
+        abstract void newChromosome(Batch b);
+
+        abstract void close();
+    }
+
+    class RawLane extends Lane {
+
+        Preprocessor.Raw rawData;
+
+        RawLane(int dataRank, int closeRank) {
+            super(dataRank, closeRank);
+        }
+
+        void addData(Batch b, int i, float[] values) {
+            rawData.addData(b.starts[i], b.ends[i], values, b.names == null ? null : b.names[i]);
+        }
+
+        void newChromosome(Batch b) {
+            close();
+            rawData = b.rawData;
+        }
+
+        void close() {
+            if (rawData != null) {
+                rawData.close();
+            }
+        }
+    }
+
+    class ZoomLane extends Lane {
+
+        int level;
+        Preprocessor.Zoom zoom;
+
+        ZoomLane(int level, int dataRank, int closeRank) {
+            super(dataRank, closeRank);
+            this.level = level;
+        }
+
+        void addData(Batch b, int i, float[] values) {
+            zoom.addData(b.starts[i], b.ends[i], values);
+        }
+
+        void newChromosome(Batch b) {
+            close();
+            zoom = b.zoomLevels[level];
+        }
+
+        void close() {
+            if (zoom != null) {
+                zoom.close();
+            }
+        }
+    }
+
+    class GenomeLane extends Lane {
+
+        GenomeLane(int dataRank, int closeRank) {
+            super(dataRank, closeRank);
+        }
+
+        void addData(Batch b, int i, float[] values) {
+            if (b.includeInGenome) {
+                preprocessor.addGenomeData(b.chrOffset, b.starts[i], b.ends[i], values);
+            }
+        }
+
+        void newChromosome(Batch b) {
+            // The whole genome view spans all chromosomes
+        }
+
+        void close() {
+            preprocessor.genomeZoom.close();
+        }
+    }
+
+
+    class Worker implements Runnable {
+
+        List<Lane> lanes = new ArrayList<Lane>();
+        BlockingQueue<Batch> input = new ArrayBlockingQueue<Batch>(QUEUE_CAPACITY);
+        BlockingQueue<BatchResult> output = new ArrayBlockingQueue<BatchResult>(QUEUE_CAPACITY);
+
+        public void run() {
+            TileCollector tileCollector = new TileCollector();
+            collector.set(tileCollector);
+            float[] values = new float[nTracks];
+            try {
+                while (true) {
+                    Batch b = input.take();
+                    switch (b.type) {
+                        case DATA:
+                            for (Lane lane : lanes) {
+                                for (int i = 0; i < b.size; i++) {
+                                    tileCollector.setKey(b.firstPoint + i, 1, lane.dataRank);
+                                    System.arraycopy(b.data, i * nTracks, values, 0, nTracks);
+                                    lane.addData(b, i, values);
+                                }
+                            }
+                            break;
+                        case NEW_CHROMOSOME:
+                            for (Lane lane : lanes) {
+                                tileCollector.setKey(b.firstPoint, 0, lane.closeRank);
+                                lane.newChromosome(b);
+                            }
+                            break;
+                        case FINISH:
+                            for (Lane lane : lanes) {
+                                tileCollector.setKey(b.firstPoint, 0, lane.closeRank);
+                                lane.close();
+                            }
+                            break;
+                    }
+                    boolean last = b.type == Type.FINISH;
+                    put(output, new BatchResult(tileCollector.drain(), last));
+                    if (last) {
+                        break;
+                    }
+                }
+            } catch (Throwable t) {
+                if (!shutdown) {
+                    log.error("Error computing tiles", t);
+                    fail(t);
+                }
+            } finally {
+                collector.remove();
+            }
+        }
+    }
+
+    /**
+     * Takes the results of each batch from all workers,  in order,  and writes the tiles.
+     */
+    class TileWriter implements Runnable {
+
+        public void run() {
+            try {
+                boolean last = false;
+                while (!last) {
+                    List<TileRecord> records = new ArrayList<TileRecord>();
+                    for (Worker worker : workers) {
+                        BatchResult result = null;
+                        while (result == null) {
+                            checkFailure();
+                            result = worker.output.poll(100, TimeUnit.MILLISECONDS);
+                        }
+                        records.addAll(result.records);
+                        last = result.last;
+                    }
+                    // Stable sort, tiles with equal keys come from the same lane and are already in order
+                    Collections.sort(records);
+                    for (TileRecord record : records) {
+                        writer.writeTile(record.dsName, record.tileNumber, record.bytes);
+                    }
+                }
+            } catch (Throwable t) {
+                if (!shutdown) {
+                    log.error("Error writing tiles", t);
+                    fail(t);
+                }
+            }
+        }
+    }
+}
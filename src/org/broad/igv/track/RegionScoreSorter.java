@@ -0,0 +1,260 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.track;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.util.collections.LRUCache;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sorts tracks,  or other items,  by a score which is computed once per item rather than on every comparison.
+ * Scores are computed in parallel on a bounded pool,  and items are then sorted on primitive keys.
+ * <p/>
+ * Track scores are cached per region and score type,  so the several sorts of one sort operation (all tracks,
+ * then the groups of each panel) score each track once.  The cache should be cleared when a new operation starts,
+ * see {@link #clearCache()}.
+ */
+public class RegionScoreSorter {
+
+    private static Logger log = Logger.getLogger(RegionScoreSorter.class);
+
+    // Scores are computed in parallel for at least this many items
+    static final int PARALLEL_THRESHOLD = 8;
+
+    private static final int MAX_CACHED_REGIONS = 8;
+
+    private static ExecutorService scoreExecutor;
+
+    private static final LRUCache<Region, Map<Track, Float>> scoreCache =
+            new LRUCache<Region, Map<Track, Float>>(MAX_CACHED_REGIONS);
+
+    public interface Scorer<T> {
+        float getScore(T item);
+    }
+
+    /**
+     * Sort tracks by descending region score.  Null tracks are placed last.
+     */
+    public static void sortTracks(List<Track> tracks, String chr, int start, int end, int zoom,
+                                  RegionScoreType type, String frameName) {
+        List<Track> nonNull = new ArrayList<Track>(tracks.size());
+        for (Track t : tracks) {
+            if (t != null) nonNull.add(t);
+        }
+        float[] scores = getScores(nonNull, chr, start, end, zoom, type, frameName);
+        sortByScore(nonNull, scores);
+        int nNull = tracks.size() - nonNull.size();
+        tracks.clear();
+        tracks.addAll(nonNull);
+        for (int i = 0; i < nNull; i++) {
+            tracks.add(null);
+        }
+    }
+
+    /**
+     * Return the region scores of the tracks,  using cached scores where possible
+     */
+    public static float[] getScores(List<? extends Track> tracks, final String chr, final int start, final int end,
+                                    final int zoom, final RegionScoreType type, final String frameName) {
+
+        Region region = new Region(chr, start, end, zoom, type, frameName);
+        Map<Track, Float> table;
+        synchronized (scoreCache) {
+            table = scoreCache.get(region);
+            if (table == null) {
+                table = new WeakHashMap<Track, Float>();
+                scoreCache.put(region, table);
+            }
+        }
+
+        float[] scores = new float[tracks.size()];
+        List<Track> missing = new ArrayList<Track>();
+        List<Integer> missingIndexes = new ArrayList<Integer>();
+        synchronized (table) {
+            for (int i = 0; i < tracks.size(); i++) {
+                Float score = table.get(tracks.get(i));
+                if (score == null) {
+                    missing.add(tracks.get(i));
+                    missingIndexes.add(i);
+                } else {
+                    scores[i] = score;
+                }
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            float[] missingScores = computeScores(missing, new Scorer<Track>() {
+                public float getScore(Track track) {
+                    return track.getRegionScore(chr, start, end, zoom, type, frameName);
+                }
+            });
+            synchronized (table) {
+                for (int i = 0; i < missing.size(); i++) {
+                    table.put(missing.get(i), missingScores[i]);
+                    scores[missingIndexes.get(i)] = missingScores[i];
+                }
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Score each item once,  in parallel if there are enough items.  Items which cannot be scored get
+     * -Float.MAX_VALUE,  so they sort last.
+     */
+    public static <T> float[] computeScores(List<T> items, final Scorer<T> scorer) {
+        float[] scores = new float[items.size()];
+        if (items.size() < PARALLEL_THRESHOLD) {
+            for (int i = 0; i < items.size(); i++) {
+                scores[i] = score(scorer, items.get(i));
+            }
+            return scores;
+        }
+
+        ExecutorService executor = getScoreExecutor();
+        List<Future<Float>> futures = new ArrayList<Future<Float>>(items.size());
+        for (final T item : items) {
+            futures.add(executor.submit(new Callable<Float>() {
+                public Float call() throws Exception {
+                    return score(scorer, item);
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                scores[i] = futures.get(i).get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Future<Float> f : futures) {
+                f.cancel(true);
+            }
+            Arrays.fill(scores, -Float.MAX_VALUE);
+        } catch (ExecutionException e) {
+            // score() catches exceptions
+            throw new RuntimeException(e.getCause());
+        }
+        return scores;
+    }
+
+    private static <T> float score(Scorer<T> scorer, T item) {
+        try {
+            return scorer.getScore(item);
+        } catch (Exception e) {
+            log.error("Error scoring " + item + ". Sort might not be accurate.", e);
+            return -Float.MAX_VALUE;
+        }
+    }
+
+    /**
+     * Sort items by descending score,  in the order of {@link Float#compare} (NaN first).  The sort is stable.
+     */
+    public static <T> void sortByScore(List<T> items, float[] scores) {
+        int n = items.size();
+        long[] keys = new long[n];
+        for (int i = 0; i < n; i++) {
+            // Map the float to an int with the same order,  invert for descending order,  and break ties by index
+            int bits = Float.floatToIntBits(scores[i]);
+            int ordered = bits ^ ((bits >> 31) & 0x7fffffff);
+            keys[i] = ((long) ~ordered << 32) | i;
+        }
+        Arrays.sort(keys);
+
+        List<T> sorted = new ArrayList<T>(n);
+        for (long key : keys) {
+            sorted.add(items.get((int) key));
+        }
+        items.clear();
+        items.addAll(sorted);
+    }
+
+    /**
+     * Remove all cached scores.  Call when a new sort operation starts,  as track data may have changed.
+     */
+    public static void clearCache() {
+        synchronized (scoreCache) {
+            scoreCache.clear();
+        }
+    }
+
+    private static synchronized ExecutorService getScoreExecutor() {
+        if (scoreExecutor == null) {
+            int nThreads = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+            scoreExecutor = Executors.newFixedThreadPool(nThreads, new ThreadFactory() {
+                int count = 0;
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Region scorer " + (count++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return scoreExecutor;
+    }
+
+    private static class Region {
+
+        final String chr;
+        final int start;
+        final int end;
+        final int zoom;
+        final RegionScoreType type;
+        final String frameName;
+
+        Region(String chr, int start, int end, int zoom, RegionScoreType type, String frameName) {
+            this.chr = chr;
+            this.start = start;
+            this.end = end;
+            this.zoom = zoom;
+            this.type = type;
+            this.frameName = frameName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Region)) return false;
+            Region r = (Region) o;
+            return start == r.start && end == r.end && zoom == r.zoom && type == r.type &&
+                    (chr == null ? r.chr == null : chr.equals(r.chr)) &&
+                    (frameName == null ? r.frameName == null : frameName.equals(r.frameName));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = chr != null ? chr.hashCode() : 0;
+            result = 31 * result + start;
+            result = 31 * result + end;
+            result = 31 * result + zoom;
+            result = 31 * result + (type != null ? type.hashCode() : 0);
+            result = 31 * result + (frameName != null ? frameName.hashCode() : 0);
+            return result;
+        }
+    }
+}
@@ -25,7 +25,10 @@
 
 package org.broad.igv.track;
 
+import org.apache.log4j.Logger;
+import org.broad.igv.DirectoryManager;
 import org.broad.igv.Globals;
+import org.broad.igv.PreferenceManager;
 import org.broad.igv.data.AbstractDataSource;
 import org.broad.igv.data.DataSource;
 import org.broad.igv.data.DataTile;
@@ -38,6 +41,8 @@ import org.broad.igv.tdf.TDFReader;
 import org.broad.igv.ui.IGV;
 import org.broad.igv.ui.panel.ReferenceFrame;
 import org.broad.igv.ui.util.IndexCreatorDialog;
+import org.broad.igv.ui.util.MessageUtils;
+import org.broad.igv.ui.util.UIUtilities;
 import org.broad.igv.util.FileUtils;
 import org.broad.igv.util.ParsingUtils;
 import org.broad.igv.util.ResourceLocator;
@@ -50,13 +55,16 @@ import htsjdk.tribble.index.Index;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Future;
 import org.broad.igv.feature.genome.GenomeManager;
 
 /**
  * @author jrobinso
  * @date Jun 27, 2010
  */
-abstract public class TribbleFeatureSource implements org.broad.igv.track.FeatureSource {
+abstract public class TribbleFeatureSource implements org.broad.igv.track.FeatureSource<Feature> {
+
+    private static Logger log = Logger.getLogger(TribbleFeatureSource.class);
 
     IGVFeatureReader reader;
     DataSource coverageSource;
@@ -81,13 +89,25 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
         String idxPath = ResourceLocator.indexFile(locator);
         boolean indexExists = FileUtils.resourceExists(idxPath);
 
+        // Large BED and GFF files without an index are indexed in the background.  Use the indexed copy if there is one.
+        FeatureFileIndexer indexer = null;
+        if (!indexExists && locator.isLocal() &&
+                PreferenceManager.getInstance().getAsBoolean(PreferenceManager.AUTO_INDEX_FEATURE_FILES)) {
+            indexer = FeatureFileIndexer.open(DirectoryManager.getFeatureIndexDirectory(), locator.getPath(),
+                    FeatureFileIndexer.MIN_FILE_SIZE);
+            if (indexer != null && indexer.isIndexed()) {
+                return openIndexedCopy(indexer.getIndexedFile(), locator, genome, useCache);
+            }
+        }
+
         // Optionally let the user create an index.
         final int tenMB = 10000000;
         final int oneGB = 1000000000;
         long size = FileUtils.getLength(locator.getPath());
-        final boolean indexRequired =
-                (VariantTrack.isVCF(locator.getTypeString()) && size > tenMB) || size > oneGB;
-        if (!Globals.isHeadless() && locator.isLocal() && !locator.getPath().endsWith(".gz") && !indexExists) {
+        final boolean indexRequired = indexer == null &&
+                ((VariantTrack.isVCF(locator.getTypeString()) && size > tenMB) || size > oneGB);
+        if (!Globals.isHeadless() && locator.isLocal() && !locator.getPath().endsWith(".gz") && !indexExists &&
+                indexer == null) {
             if (size > tenMB) {
                 createIndex(locator, indexRequired);   // Note, might return null.
             }
@@ -99,11 +119,23 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
 
         if (basicReader.hasIndex()) {
             return new IndexedFeatureSource(basicReader, codec, locator, genome, useCache);
+        } else if (indexer != null) {
+            return new AutoIndexingFeatureSource(basicReader, codec, locator, genome, useCache, indexer);
         } else {
             return new NonIndexedFeatureSource(basicReader, codec, locator, genome);
         }
     }
 
+    /**
+     * Open the sorted,  compressed and indexed copy of a feature file.
+     */
+    static IndexedFeatureSource openIndexedCopy(File indexedFile, ResourceLocator locator, Genome genome,
+                                                boolean useCache) throws IOException {
+        FeatureCodec<?, ?> codec = CodecFactory.getCodec(locator, genome);
+        AbstractFeatureReader<?, ?> reader = AbstractFeatureReader.getFeatureReader(indexedFile.getAbsolutePath(), codec, true);
+        return new IndexedFeatureSource(reader, codec, locator, genome, useCache);
+    }
+
 
     /**
      * Present a dialog for the user to create an index.  This method can return null if the user cancels, or there
@@ -140,7 +172,7 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
 
     }
 
-    protected abstract int estimateFeatureWindowSize(FeatureReader reader);
+    protected abstract int estimateFeatureWindowSize(FeatureReader<?> reader);
 
     protected abstract Collection<String> getSequenceNames();
 
@@ -172,6 +204,65 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
         }
     }
 
+    /**
+     * Estimate an appropriate feature window size from the first features of the file.
+     *
+     * @param reader
+     */
+    protected int sampleFeatureWindowSize(FeatureReader<?> reader) {
+
+        // Simple formula for VCF.  Appropriate for human 1KG/dbSNp, probably overly conservative otherwise
+        if (isVCF) {
+            return 10000;
+        }
+
+        CloseableTribbleIterator<? extends htsjdk.tribble.Feature> iter = null;
+
+        try {
+            double mem = RuntimeUtils.getAvailableMemory();
+            iter = reader.iterator();
+            if (iter.hasNext()) {
+
+                int nSamples = 1000;
+                htsjdk.tribble.Feature firstFeature = iter.next();
+                htsjdk.tribble.Feature lastFeature = firstFeature;
+                String chr = firstFeature.getChr();
+                int n = 1;
+                long len = 0;
+                while (iter.hasNext() && n < nSamples) {
+                    htsjdk.tribble.Feature f = iter.next();
+                    if (f != null) {
+                        n++;
+                        if (f.getChr().equals(chr)) {
+                            lastFeature = f;
+                        } else {
+                            len += lastFeature.getEnd() - firstFeature.getStart() + 1;
+                            firstFeature = f;
+                            lastFeature = f;
+                            chr = f.getChr();
+                        }
+                    }
+                }
+                double dMem = mem - RuntimeUtils.getAvailableMemory();
+                double bytesPerFeature = Math.max(100, dMem / n);
+
+                len += lastFeature.getEnd() - firstFeature.getStart() + 1;
+                double featuresPerBase = ((double) n) / len;
+
+                double targetBinMemory = 20000000;  // 20  mega bytes
+                int maxBinSize = Integer.MAX_VALUE;
+                int bs = Math.min(maxBinSize, (int) (targetBinMemory / (bytesPerFeature * featuresPerBase)));
+                return Math.max(1000000, bs);
+            } else {
+                return Integer.MAX_VALUE;
+            }
+        } catch (IOException e) {
+            return 1000000;
+        } finally {
+            if (iter != null) iter.close();
+        }
+    }
+
     static class IndexedFeatureSource extends TribbleFeatureSource {
 
 
@@ -231,68 +322,197 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
         }
 
 
+        @Override
+        protected int estimateFeatureWindowSize(FeatureReader<?> reader) {
+            return sampleFeatureWindowSize(reader);
+        }
+
+    }
+
+
+    /**
+     * Source for a large feature file without an index.  Only the first features are loaded,  so the track can be
+     * shown immediately,  while a sorted,  compressed and indexed copy of the file is made in the background.  Queries
+     * then switch to an {@link IndexedFeatureSource} on the copy,  which is also used directly in later sessions.
+     * If the copy cannot be made the whole file is loaded into memory,  as for smaller files.
+     */
+    static class AutoIndexingFeatureSource extends TribbleFeatureSource implements FeatureFileIndexer.Listener {
+
         /**
-         * Estimate an appropriate feature window size.
-         *
-         * @param reader
+         * Maximum # of features loaded before the indexed copy is available.
+         * Note: This is not final so that it can be manipulated by unit tests.
          */
-        @Override
-        protected int estimateFeatureWindowSize(FeatureReader reader) {
+        static int MAX_PARTIAL_FEATURES = 100000;
+
+        private final ResourceLocator locator;
+        private final boolean useCache;
+        private final Future<File> indexFuture;
+
+        /**
+         * Features loaded from the start of the file,  by chromosome.  Released once the indexed copy is open.
+         */
+        private volatile Map<String, List<Feature>> featureMap;
+
+        /**
+         * Source for the whole file,  the indexed copy or,  if indexing failed,  the file loaded into memory.
+         */
+        private volatile TribbleFeatureSource fullSource;
 
-            // Simple formula for VCF.  Appropriate for human 1KG/dbSNp, probably overly conservative otherwise
-            if(isVCF) {
-                 return 10000;
+        AutoIndexingFeatureSource(AbstractFeatureReader<?, ?> basicReader, FeatureCodec<?, ?> codec, ResourceLocator locator,
+                                  Genome genome, boolean useCache, FeatureFileIndexer indexer) throws IOException {
+
+            super(locator, basicReader, codec, genome, false);
+            this.locator = locator;
+            this.useCache = useCache;
+
+            Map<String, List<Feature>> features = new HashMap<String, List<Feature>>(25);
+            Iterator<Feature> iter = reader.iterator();
+            try {
+                int count = 0;
+                while (iter.hasNext() && count < MAX_PARTIAL_FEATURES) {
+                    Feature f = iter.next();
+                    if (f == null) continue;
+
+                    String seqName = f.getChr();
+                    String igvChr = genome == null ? seqName : genome.getChromosomeAlias(seqName);
+                    List<Feature> featureList = features.get(igvChr);
+                    if (featureList == null) {
+                        featureList = new ArrayList<Feature>();
+                        features.put(igvChr, featureList);
+                    }
+                    featureList.add(f);
+                    count++;
+                }
+            } finally {
+                if (iter instanceof CloseableTribbleIterator) {
+                    ((CloseableTribbleIterator) iter).close();
+                }
             }
-            else {
+            for (List<Feature> featureList : features.values()) {
+                FeatureUtils.sortFeatureList(featureList);
+            }
+            featureMap = features;
 
+            indexFuture = indexer.submit(this);
+        }
+
+        /**
+         * Called on the indexing thread.  Switch to the indexed copy and refresh tracks showing this file.
+         */
+        public void indexCreated(File indexedFile) {
+            try {
+                IndexedFeatureSource source = openIndexedCopy(indexedFile, locator, genome, useCache);
+                source.setFeatureWindowSize(getFeatureWindowSize());
+                fullSource = source;
+                featureMap = null;
+            } catch (IOException e) {
+                log.error("Error opening indexed copy " + indexedFile, e);
+                indexFailed(e);
+                return;
             }
-            CloseableTribbleIterator<htsjdk.tribble.Feature> iter = null;
+            refreshTracks();
+        }
 
+        /**
+         * Called on the indexing thread if the indexed copy could not be made.  Load the whole file,  rather than
+         * leave the track showing only the first features.  If that fails too the user is told the track is
+         * incomplete.
+         */
+        public void indexFailed(Exception e) {
             try {
-                double mem = RuntimeUtils.getAvailableMemory();
-                iter = reader.iterator();
-                if (iter.hasNext()) {
-
-                    int nSamples = 1000;
-                    htsjdk.tribble.Feature firstFeature = iter.next();
-                    htsjdk.tribble.Feature lastFeature = firstFeature;
-                    String chr = firstFeature.getChr();
-                    int n = 1;
-                    long len = 0;
-                    while (iter.hasNext() && n < nSamples) {
-                        htsjdk.tribble.Feature f = iter.next();
-                        if (f != null) {
-                            n++;
-                            if (f.getChr().equals(chr)) {
-                                lastFeature = f;
-                            } else {
-                                len += lastFeature.getEnd() - firstFeature.getStart() + 1;
-                                firstFeature = f;
-                                lastFeature = f;
-                                chr = f.getChr();
+                FeatureCodec<?, ?> codec = CodecFactory.getCodec(locator, genome);
+                AbstractFeatureReader<?, ?> basicReader = AbstractFeatureReader.getFeatureReader(locator.getPath(), codec, false);
+                fullSource = new NonIndexedFeatureSource(basicReader, codec, locator, genome);
+                featureMap = null;
+            } catch (Exception ex) {
+                log.error("Error loading " + locator.getPath(), ex);
+                MessageUtils.showMessage("Could not index or load " + locator.getPath() + ".  Only the first " +
+                        MAX_PARTIAL_FEATURES + " features are shown.");
+                return;
+            }
+            refreshTracks();
+        }
+
+        /**
+         * Drop the packed features of tracks showing this file,  and repaint them
+         */
+        private void refreshTracks() {
+            if (IGV.hasInstance()) {
+                UIUtilities.invokeOnEventThread(new Runnable() {
+                    public void run() {
+                        for (Track t : IGV.getInstance().getAllTracks()) {
+                            ResourceLocator trackLocator = t.getResourceLocator();
+                            if (t instanceof FeatureTrack && trackLocator != null &&
+                                    locator.getPath().equals(trackLocator.getPath())) {
+                                ((FeatureTrack) t).clearPackedFeatures();
                             }
                         }
+                        IGV.getInstance().repaintDataPanels();
                     }
-                    double dMem = mem - RuntimeUtils.getAvailableMemory();
-                    double bytesPerFeature = Math.max(100, dMem / n);
+                });
+            }
+        }
 
-                    len += lastFeature.getEnd() - firstFeature.getStart() + 1;
-                    double featuresPerBase = ((double) n) / len;
+        /**
+         * Completes when the indexed copy has been created.
+         */
+        Future<File> getIndexFuture() {
+            return indexFuture;
+        }
 
-                    double targetBinMemory = 20000000;  // 20  mega bytes
-                    int maxBinSize = Integer.MAX_VALUE;
-                    int bs = Math.min(maxBinSize, (int) (targetBinMemory / (bytesPerFeature * featuresPerBase)));
-                    return Math.max(1000000, bs);
-                } else {
-                    return Integer.MAX_VALUE;
-                }
-            } catch (IOException e) {
-                return 1000000;
-            } finally {
-                if (iter != null) iter.close();
+        @Override
+        public boolean isIndexed() {
+            TribbleFeatureSource source = fullSource;
+            return source != null && source.isIndexed();
+        }
+
+        @Override
+        public Iterator<Feature> getFeatures(String chr, int start, int end) throws IOException {
+            TribbleFeatureSource source = fullSource;
+            if (source != null) {
+                return source.getFeatures(chr, start, end);
             }
+            Map<String, List<Feature>> features = featureMap;
+            List<Feature> featureList = features == null ? null : features.get(chr);
+            if (featureList == null) {
+                return Collections.<Feature>emptyList().iterator();
+            }
+            return CollUtils.filter(featureList, FeatureUtils.getOverlapPredicate(chr, start, end)).iterator();
         }
 
+        @Override
+        public List<LocusScore> getCoverageScores(String chr, int start, int end, int zoom) {
+            TribbleFeatureSource source = fullSource;
+            if (source != null) {
+                return source.getCoverageScores(chr, start, end, zoom);
+            }
+            return coverageSource == null ? null :
+                    coverageSource.getSummaryScoresForRange(chr, start, end, zoom);
+        }
+
+        @Override
+        public void setFeatureWindowSize(int size) {
+            super.setFeatureWindowSize(size);
+            TribbleFeatureSource source = fullSource;
+            if (source != null) {
+                source.setFeatureWindowSize(size);
+            }
+        }
+
+        @Override
+        protected Collection<String> getSequenceNames() {
+            TribbleFeatureSource source = fullSource;
+            if (source != null) {
+                return source.getSequenceNames();
+            }
+            Map<String, List<Feature>> features = featureMap;
+            return features == null ? Collections.<String>emptyList() : features.keySet();
+        }
+
+        @Override
+        protected int estimateFeatureWindowSize(FeatureReader<?> reader) {
+            return sampleFeatureWindowSize(reader);
+        }
     }
 
 
@@ -324,7 +544,9 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
                     featureMap.put(igvChr, featureList);
                 }
                 featureList.add(f);
-                if (f instanceof NamedFeature) FeatureDB.addFeature((NamedFeature) f, genome, GenomeManager.getIGV(genome));
+                if (f instanceof NamedFeature && genome != null) {
+                    FeatureDB.addFeature((NamedFeature) f, genome, GenomeManager.getIGV(genome));
+                }
             }
 
             for (List<Feature> featureList : featureMap.values()) {
@@ -350,7 +572,7 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
         }
 
         @Override
-        public Iterator getFeatures(String chr, int start, int end) throws IOException {
+        public Iterator<Feature> getFeatures(String chr, int start, int end) throws IOException {
             List<Feature> features = featureMap.get(chr);
             if (features == null) {
                 return Collections.<Feature>emptyList().iterator();
@@ -366,7 +588,7 @@ abstract public class TribbleFeatureSource implements org.broad.igv.track.Featur
         }
 
         @Override
-        protected int estimateFeatureWindowSize(FeatureReader reader) {
+        protected int estimateFeatureWindowSize(FeatureReader<?> reader) {
             return 0;
         }
 
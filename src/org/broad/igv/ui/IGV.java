@@ -2420,6 +2420,9 @@ public class IGV {
         final RegionOfInterest r = region == null ? new RegionOfInterest(frame.getChrName(), (int) frame.getOrigin(),
                 (int) frame.getEnd() + 1, frame.getName()) : region;
 
+        // Track data may have changed since the last sort
+        RegionScoreSorter.clearCache();
+
         // Create a rank order of samples.  This is done globally so sorting is consistent across groups and panels.
         final List<String> sortedSamples = sortSamplesByRegionScore(r, type, frame);
 
@@ -2478,29 +2481,7 @@ public class IGV {
             final int start = region.getStart();
             final int end = region.getEnd();
 
-            Comparator<Track> c = new Comparator<Track>() {
-
-                public int compare(Track t1, Track t2) {
-                    try {
-                        if (t1 == null && t2 == null) return 0;
-                        if (t1 == null) return 1;
-                        if (t2 == null) return -1;
-
-
-                        float s1 = t1.getRegionScore(chr, start, end, zoom, type, frameName);
-                        float s2 = t2.getRegionScore(chr, start, end, zoom, type, frameName);
-
-                        return Float.compare(s2, s1);
-
-
-                    } catch (Exception e) {
-                        log.error("Error sorting tracks. Sort might not be accurate.", e);
-                        return 0;
-                    }
-
-                }
-            };
-            Collections.sort(tracks, c);
+            RegionScoreSorter.sortTracks(tracks, chr, start, end, zoom, type, frameName);
 
         }
     }
@@ -30,6 +30,7 @@ import org.broad.igv.feature.Locus;
 import org.broad.igv.feature.exome.ExomeReferenceFrame;
 import org.broad.igv.lists.GeneList;
 import org.broad.igv.track.FeatureTrack;
+import org.broad.igv.track.RegionScoreSorter;
 import org.broad.igv.track.RegionScoreType;
 import org.broad.igv.track.Track;
 import org.broad.igv.ui.IGV;
@@ -38,8 +39,6 @@ import org.broad.igv.ui.util.MessageUtils;
 
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 
@@ -383,16 +382,14 @@ public class FrameManager {
 
     public static void sortFrames(final Track t, int id) {
 
-        Collections.sort(frames.get(id), new Comparator<ReferenceFrame>() {
-            @Override
-            public int compare(ReferenceFrame o1, ReferenceFrame o2) {
-                float s1 = t.getRegionScore(o1.getChromosome().getName(), (int) o1.getOrigin(), (int) o1.getEnd(),
-                        o1.getZoom(), RegionScoreType.SCORE, o1.getName());
-                float s2  = t.getRegionScore(o2.getChromosome().getName(), (int) o2.getOrigin(), (int) o2.getEnd(),
-                        o2.getZoom(), RegionScoreType.SCORE, o2.getName());
-                return (s1 == s2 ? 0 : (s1 > s2) ? -1 : 1);
+        List<ReferenceFrame> frameList = frames.get(id);
+        float[] scores = RegionScoreSorter.computeScores(frameList, new RegionScoreSorter.Scorer<ReferenceFrame>() {
+            public float getScore(ReferenceFrame frame) {
+                return t.getRegionScore(frame.getChromosome().getName(), (int) frame.getOrigin(), (int) frame.getEnd(),
+                        frame.getZoom(), RegionScoreType.SCORE, frame.getName());
             }
         });
+        RegionScoreSorter.sortByScore(frameList, scores);
 
     }
     
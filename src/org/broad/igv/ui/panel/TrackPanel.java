@@ -28,6 +28,7 @@ package org.broad.igv.ui.panel;
 
 import org.apache.log4j.Logger;
 import org.broad.igv.feature.RegionOfInterest;
+import org.broad.igv.track.RegionScoreSorter;
 import org.broad.igv.track.RegionScoreType;
 import org.broad.igv.track.Track;
 import org.broad.igv.track.TrackGroup;
@@ -315,20 +316,28 @@ public class TrackPanel extends IGVPanel {
             final String chr = region.getChr();
             final int start = region.getStart();
             final int end = region.getEnd();
-            Comparator<TrackGroup> c = new Comparator<TrackGroup>() {
-
-                public int compare(TrackGroup group1, TrackGroup group2) {
-                    float s1 = group1.getRegionScore(chr, start, end, zoom, type, frameName);
-                    float s2 = group2.getRegionScore(chr, start, end, zoom, type, frameName);
-
-                    // Use the Float comparator as it handles NaN.  Need to flip the order to make it descending
-                    return Float.compare(s2, s1);
-
 
+            // Score all visible tracks at once,  the group score is the maximum track score as in
+            // TrackGroup.getRegionScore
+            List<Track> visibleTracks = new ArrayList<Track>();
+            for (TrackGroup group : groups) {
+                for (Track track : group.getTracks()) {
+                    if (track.isVisible()) visibleTracks.add(track);
                 }
-            };
+            }
+            float[] trackScores = RegionScoreSorter.getScores(visibleTracks, chr, start, end, zoom, type, frameName);
+
+            float[] groupScores = new float[groups.size()];
+            int t = 0;
+            for (int g = 0; g < groups.size(); g++) {
+                float score = -Float.MAX_VALUE;
+                for (Track track : groups.get(g).getTracks()) {
+                    if (track.isVisible()) score = Math.max(score, trackScores[t++]);
+                }
+                groupScores[g] = score;
+            }
 
-            Collections.sort(groups, c);
+            RegionScoreSorter.sortByScore(groups, groupScores);
         }
 
     }
@@ -35,6 +35,8 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.regex.Pattern;
 
@@ -433,6 +435,25 @@ public class FileUtils {
     }
 
 
+    /**
+     * Return the MD5 digest of the UTF-8 bytes of a string,  as 32 hex digits.  Used to name cache files.
+     */
+    public static String md5Hex(String string) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(string.getBytes("UTF-8"));
+            StringBuilder buffer = new StringBuilder();
+            for (byte b : digest) {
+                buffer.append(String.format("%02x", b & 0xff));
+            }
+            return buffer.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
 
     /**
      * Return the length of the file, which might be remote.
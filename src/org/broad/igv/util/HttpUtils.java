@@ -293,6 +293,20 @@ public class HttpUtils {
         return conn.getHeaderField(key);
     }
 
+    /**
+     * Return the values of several header fields from a single request.  Missing fields are null.
+     */
+    public String[] getHeaderFields(URL url, String... keys) throws IOException {
+        HttpURLConnection conn = openConnectionHeadOrGet(url);
+        String[] values = new String[keys.length];
+        if (conn != null) {
+            for (int i = 0; i < keys.length; i++) {
+                values[i] = conn.getHeaderField(keys[i]);
+            }
+        }
+        return values;
+    }
+
     public long getLastModified(URL url) throws IOException {
         HttpURLConnection conn = openConnectionHeadOrGet(url);
         if (conn == null) return 0;
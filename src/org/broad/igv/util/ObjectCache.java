@@ -33,87 +33,65 @@
  */
 package org.broad.igv.util;
 
-import org.broad.igv.sam.Alignment;
+import org.broad.igv.util.collections.ConcurrentCache;
 
-import java.lang.ref.SoftReference;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 
 /**
- *
+ * A cache of soft references,  with a maximum number of entries.  The least recently used entry is removed when
+ * the cache is full.  Backed by a {@link ConcurrentCache},  so it is safe to share between threads.
  */
 public class ObjectCache<K, V> {
 
-    /**
-     * Maximum number of objects to cache
-     */
-    private int maxSize = 1000;
-    private LinkedHashMap<K, SoftReference<V>> map = new LinkedHashMap<K, SoftReference<V>>();
+    private final ConcurrentCache<K, V> cache;
 
     public ObjectCache() {
         this(50);
     }
 
     public ObjectCache(int maxSize) {
-        this.maxSize = maxSize;
-        map = new LinkedHashMap<K, SoftReference<V>>(maxSize);
+        cache = new ConcurrentCache<K, V>(maxSize, null, true);
     }
 
     public void put(K key, V image) {
-        if (map.size() == maxSize) {
-            // Map has reached maximum size.  Remove the first(oldest) entry.
-            // 
-            for (K k : map.keySet()) {
-                map.remove(k);
-                break;
-            }
-        }
-        SoftReference<V> SoftReference = new SoftReference<V>(image);
-        map.put(key, SoftReference);
+        cache.put(key, image);
     }
 
     public V get(K key) {
-
-        V image = null;
-        SoftReference<V> SoftReference = map.get(key);
-
-        if (SoftReference != null) {
-            image = SoftReference.get();
-        }
-        return image;
+        return cache.get(key);
     }
 
     public Collection<K> getKeys() {
-        return map.keySet();
+        return cache.keys();
     }
 
     public void remove(K key) {
-        map.remove(key);
+        cache.remove(key);
     }
 
     public boolean containsKey(K key) {
-        return map.containsKey(key);
+        return cache.containsKey(key);
     }
 
     public void clear() {
-        map.clear();
+        cache.clear();
     }
 
     public int size() {
-        return map.size();
+        return cache.size();
     }
 
     public Iterator<K> iterator() {
-        return map.keySet().iterator();
+        return cache.keys().iterator();
     }
 
     public int getMaxSize() {
-        return maxSize;
+        return (int) cache.getMaxWeight();
     }
 
     public void setMaxSize(int maxSize) {
-        this.maxSize = maxSize;
+        cache.setMaxWeight(maxSize);
     }
 
 }
@@ -0,0 +1,448 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.collections;
+
+import java.lang.ref.SoftReference;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread safe least-recently-used cache,  bounded by the total weight of its entries.  By default each entry
+ * weighs 1,  so the bound is an entry count.
+ * <p/>
+ * Lookups go to a ConcurrentHashMap and do not block.  Recency is kept in a linked list guarded by a single lock
+ * which lookups only try to acquire:  if another thread holds it the entry is not moved,  so under heavy contention
+ * eviction order is approximately rather than strictly LRU.  Writes take the lock.
+ * <p/>
+ * Optionally values are held by soft references,  so the garbage collector can reclaim them under memory pressure.
+ * {@link #get(Object, Loader)} loads missing values at most once,  concurrent requests for the same key wait for the
+ * first.  Null values are allowed,  and cached.  Null keys are not:  {@link #put} and the loading get throw a
+ * NullPointerException,  other lookups and removal of a null key miss.
+ */
+public class ConcurrentCache<K, V> {
+
+    /**
+     * Returns the weight of an entry,  in arbitrary units (e.g. bytes).  Weights must not change while cached.
+     */
+    public interface Weigher<K, V> {
+        long weigh(K key, V value);
+    }
+
+    public interface Loader<K, V> {
+        V load(K key) throws Exception;
+    }
+
+    /**
+     * Notified when an entry is removed for any reason,  after the cache lock is released.
+     */
+    public interface RemovalListener<K, V> {
+
+        /**
+         * @param evicted true if the entry was removed to stay within the maximum weight,  or because a soft value
+         *                was collected.  False if it was replaced,  removed,  or cleared.
+         */
+        void onRemoval(K key, V value, boolean evicted);
+    }
+
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+    private final ConcurrentHashMap<K, FutureTask<V>> loading = new ConcurrentHashMap<K, FutureTask<V>>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Node<K, V> head;   // Sentinel.  head.next is the least recently used entry
+    private final Weigher<K, V> weigher;
+    private final boolean softValues;
+    private RemovalListener<K, V> removalListener;
+
+    private volatile long maxWeight;
+    private long weight = 0;   // Guarded by lock
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ConcurrentCache(int maxEntries) {
+        this(maxEntries, null, false);
+    }
+
+    /**
+     * @param maxWeight  maximum total weight of cached entries
+     * @param weigher    weigher for entries,  or null to weigh each entry 1
+     * @param softValues if true values are held by soft references
+     */
+    public ConcurrentCache(long maxWeight, Weigher<K, V> weigher, boolean softValues) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.softValues = softValues;
+        this.map = new ConcurrentHashMap<K, Node<K, V>>(16, 0.75f, 16);
+        this.head = new Node<K, V>(null, null, 0, false);
+        head.prev = head;
+        head.next = head;
+    }
+
+    public void setRemovalListener(RemovalListener<K, V> removalListener) {
+        this.removalListener = removalListener;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    /**
+     * Change the maximum weight,  evicting entries if necessary.
+     */
+    public void setMaxWeight(long maxWeight) {
+        this.maxWeight = maxWeight;
+        List<Node<K, V>> removed = new ArrayList<Node<K, V>>();
+        lock.lock();
+        try {
+            evict(removed);
+        } finally {
+            lock.unlock();
+        }
+        notifyRemoved(removed, true);
+    }
+
+    /**
+     * Return the cached value,  or null if the key is not cached.  As for {@link java.util.Map#get(Object)} the key
+     * may be of any type.
+     */
+    public V get(Object key) {
+        if (key == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        Node<K, V> node = map.get(key);
+        if (node != null) {
+            V value = node.getValue();
+            if (value != null || !node.isCleared()) {
+                recordAccess(node);
+                hits.incrementAndGet();
+                return value;
+            }
+            removeCleared(node);
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Return the cached value,  loading it if the key is not cached.  A value is loaded at most once at a time,  other
+     * callers asking for the same key wait for it.
+     *
+     * @throws ExecutionException if the loader throws an exception,  which is the cause
+     */
+    public V get(final K key, final Loader<K, V> loader) throws ExecutionException {
+        Node<K, V> node = map.get(key);
+        if (node != null) {
+            V value = node.getValue();
+            if (value != null || !node.isCleared()) {
+                recordAccess(node);
+                hits.incrementAndGet();
+                return value;
+            }
+            removeCleared(node);
+        }
+        misses.incrementAndGet();
+
+        FutureTask<V> task = new FutureTask<V>(new Callable<V>() {
+            public V call() throws Exception {
+                // Another thread might have finished loading since the lookup above
+                Node<K, V> node = map.get(key);
+                if (node != null && !node.isCleared()) {
+                    return node.getValue();
+                }
+                V value = loader.load(key);
+                loads.incrementAndGet();
+                put(key, value);
+                return value;
+            }
+        });
+        FutureTask<V> existing = loading.putIfAbsent(key, task);
+        if (existing == null) {
+            existing = task;
+            try {
+                task.run();
+            } finally {
+                loading.remove(key, task);
+            }
+        }
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        }
+    }
+
+    public boolean containsKey(Object key) {
+        if (key == null) {
+            return false;
+        }
+        Node<K, V> node = map.get(key);
+        return node != null && !node.isCleared();
+    }
+
+    /**
+     * Add or replace an entry.
+     *
+     * @return the previous value,  or null
+     */
+    public V put(K key, V value) {
+        long w = weigher == null ? 1 : weigher.weigh(key, value);
+        Node<K, V> node = new Node<K, V>(key, value, w, softValues);
+        List<Node<K, V>> removed = new ArrayList<Node<K, V>>();
+        Node<K, V> previous;
+        lock.lock();
+        try {
+            previous = map.put(key, node);
+            if (previous != null) {
+                unlink(previous);
+            }
+            linkLast(node);
+            evict(removed);
+        } finally {
+            lock.unlock();
+        }
+        if (previous != null) {
+            notifyRemoved(Collections.singletonList(previous), false);
+        }
+        notifyRemoved(removed, true);
+        return previous == null ? null : previous.getValue();
+    }
+
+    public V remove(K key) {
+        if (key == null) {
+            return null;
+        }
+        Node<K, V> node;
+        lock.lock();
+        try {
+            node = map.remove(key);
+            if (node != null) {
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (node == null) {
+            return null;
+        }
+        notifyRemoved(Collections.singletonList(node), false);
+        return node.getValue();
+    }
+
+    public void clear() {
+        List<Node<K, V>> removed = new ArrayList<Node<K, V>>();
+        lock.lock();
+        try {
+            for (Node<K, V> node = head.next; node != head; node = node.next) {
+                removed.add(node);
+            }
+            map.clear();
+            head.next = head;
+            head.prev = head;
+            weight = 0;
+        } finally {
+            lock.unlock();
+        }
+        notifyRemoved(removed, false);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    /**
+     * Return the total weight of cached entries
+     */
+    public long getWeight() {
+        lock.lock();
+        try {
+            return weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return a snapshot of the keys,  from least to most recently used.
+     */
+    public List<K> keys() {
+        List<K> keys = new ArrayList<K>(map.size());
+        lock.lock();
+        try {
+            for (Node<K, V> node = head.next; node != head; node = node.next) {
+                keys.add(node.key);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return keys;
+    }
+
+    /**
+     * Return a snapshot of the values,  from least to most recently used.  Collected soft values are omitted.
+     */
+    public List<V> values() {
+        List<V> values = new ArrayList<V>(map.size());
+        lock.lock();
+        try {
+            for (Node<K, V> node = head.next; node != head; node = node.next) {
+                if (!node.isCleared()) {
+                    values.add(node.getValue());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return values;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getLoadCount() {
+        return loads.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ConcurrentCache size=" + size() + " hits=" + getHitCount() + " misses=" + getMissCount() +
+                " loads=" + getLoadCount() + " evictions=" + getEvictionCount();
+    }
+
+    private void recordAccess(Node<K, V> node) {
+        if (lock.tryLock()) {
+            try {
+                // The node might have been removed since the lookup
+                if (node.prev != null) {
+                    unlink(node);
+                    linkLast(node);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void removeCleared(Node<K, V> node) {
+        boolean removed;
+        lock.lock();
+        try {
+            removed = map.remove(node.key, node);
+            if (removed) {
+                unlink(node);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (removed) {
+            evictions.incrementAndGet();
+            notifyRemoved(Collections.singletonList(node), true);
+        }
+    }
+
+    // Called with the lock held.  The most recently added entry is evicted only if it alone exceeds the maximum.
+    private void evict(List<Node<K, V>> removed) {
+        while (weight > maxWeight && head.next != head) {
+            Node<K, V> eldest = head.next;
+            map.remove(eldest.key, eldest);
+            unlink(eldest);
+            removed.add(eldest);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void linkLast(Node<K, V> node) {
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+        weight += node.weight;
+    }
+
+    private void unlink(Node<K, V> node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+    }
+
+    private void notifyRemoved(List<Node<K, V>> nodes, boolean evicted) {
+        RemovalListener<K, V> listener = removalListener;
+        if (listener != null) {
+            for (Node<K, V> node : nodes) {
+                listener.onRemoval(node.key, node.getValue(), evicted);
+            }
+        }
+    }
+
+    private static class Node<K, V> {
+
+        final K key;
+        final Object value;    // V,  or a SoftReference<V>
+        final boolean soft;
+        final long weight;
+        Node<K, V> prev;       // Guarded by lock,  null if not linked
+        Node<K, V> next;
+
+        Node(K key, V value, long weight, boolean soft) {
+            this.key = key;
+            this.soft = soft && value != null;
+            this.value = this.soft ? new SoftReference<V>(value) : value;
+            this.weight = weight;
+        }
+
+        // value is only ever assigned a V or a SoftReference<V>,  according to soft
+        @SuppressWarnings("unchecked")
+        V getValue() {
+            return soft ? ((SoftReference<V>) value).get() : (V) value;
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean isCleared() {
+            return soft && ((SoftReference<V>) value).get() == null;
+        }
+    }
+}
@@ -26,80 +26,75 @@
 package org.broad.igv.util.collections;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * A least-recently-used cache with a maximum size that can be altered.
+ * A least-recently-used cache with a maximum size that can be altered.  Backed by a {@link ConcurrentCache},  so
+ * lookups do not contend on a lock.
+ * <p/>
+ * Unlike the LinkedHashMap this used to extend,  null keys are not supported:  put throws a NullPointerException,
+ * get and containsKey of null return null and false.
  * @author jrobinso
  */
 public class LRUCache<K, V> {
 
     //Logger log = Logger.getLogger(LRUCache.class);
 
-    private AtomicInteger maxEntries;
-
-    private Map<K, V> map;
+    private final ConcurrentCache<K, V> cache;
 
 
     public LRUCache(int max) {
-        this.maxEntries = new AtomicInteger(max);
+        this.cache = new ConcurrentCache<K, V>(max);
     }
 
     public void setMaxEntries(int max){
-        this.maxEntries.set(max);
-    }
-
-    private void createMap() {
-        map = Collections.synchronizedMap(
-                new LinkedHashMap<K, V>(16, 0.75f, true) {
-                    @Override
-                    protected boolean removeEldestEntry(Map.Entry eldest) {
-                        return (size() > maxEntries.get());
-                    }
-                });
-    }
-
-    private Map<K, V> getMap() {
-        if (map == null) {
-            createMap();
-        }
-        return map;
+        cache.setMaxWeight(max);
     }
 
     public V put(K k, V v) {
-        return getMap().put(k, v);
+        return cache.put(k, v);
     }
 
     public V get(Object key) {
-        return getMap().get(key);
+        return cache.get(key);
     }
 
     public boolean containsKey(Object o) {
-        return getMap().containsKey(o);
+        return cache.containsKey(o);
     }
 
     public boolean isEmpty() {
-        return getMap().isEmpty();    //To change body of overridden methods use File | Settings | File Templates.
+        return cache.isEmpty();
     }
 
     public void clear() {
-        getMap().clear();
+        cache.clear();
     }
 
+    /**
+     * Return a snapshot of the keys,  from least to most recently used
+     */
     public Set<K> keySet() {
-        return getMap().keySet();
+        return new LinkedHashSet<K>(cache.keys());
     }
 
+    /**
+     * Return a snapshot of the values,  from least to most recently used
+     */
     public Collection<V> values(){
-        return getMap().values();
+        return cache.values();
     }
 
     public void putAll(Map<K, V> map) {
-        getMap().putAll(map);
+        for (Map.Entry<K, V> entry : map.entrySet()) {
+            cache.put(entry.getKey(), entry.getValue());
+        }
     }
 
     public void putAll(LRUCache<K, V> intervals) {
-        this.putAll(intervals.getMap());
+        for (K key : intervals.cache.keys()) {
+            if (intervals.cache.containsKey(key)) {
+                cache.put(key, intervals.cache.get(key));
+            }
+        }
     }
 }
-
@@ -0,0 +1,348 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.index;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable interval index over primitive arrays,  a read-only alternative to {@link IntervalTree}.
+ * <p/>
+ * Intervals are stored sorted by start.  The sorted array is treated as an implicit balanced binary tree (the node at
+ * index i has level k when its k lowest bits are 1),  and each node records the maximum end of its subtree,  so no
+ * node objects are created and queries walk contiguous arrays.  As with {@link IntervalTree} intervals are closed,
+ * an interval overlaps [start, end] if its low <= end and its high >= start.
+ */
+public class IntervalIndex {
+
+    static final int MAGIC = 0x49564958;   // "IVIX"
+    static final int VERSION = 1;
+
+    // Subtrees at or below this level are scanned linearly
+    private static final int SCAN_LEVEL = 3;
+
+    private final int[] starts;
+    private final int[] ends;
+    private final long[] values;
+    private final int[] maxEnds;
+    private final int n;
+    private final int maxLevel;
+
+    /**
+     * Receives the intervals found by {@link #query(int, int, Visitor)},  in order of start.
+     */
+    public interface Visitor {
+        void visit(int start, int end, long value);
+    }
+
+    private IntervalIndex(int[] starts, int[] ends, long[] values, int[] maxEnds, int n, int maxLevel) {
+        this.starts = starts;
+        this.ends = ends;
+        this.values = values;
+        this.maxEnds = maxEnds;
+        this.n = n;
+        this.maxLevel = maxLevel;
+    }
+
+    /**
+     * Create an index from intervals sorted by start.  The arrays are used directly,  not copied,  and must not be
+     * modified afterwards.
+     *
+     * @throws IllegalArgumentException if the starts are not sorted,  or an interval ends before it starts
+     */
+    public static IntervalIndex fromSorted(int[] starts, int[] ends, long[] values) {
+        int n = starts.length;
+        if (ends.length != n || values.length != n) {
+            throw new IllegalArgumentException("Arrays must have the same length");
+        }
+        for (int i = 0; i < n; i++) {
+            if (i > 0 && starts[i] < starts[i - 1]) {
+                throw new IllegalArgumentException("Intervals are not sorted by start at index " + i);
+            }
+            if (ends[i] < starts[i]) {
+                throw new IllegalArgumentException("Interval at index " + i + " ends before it starts");
+            }
+        }
+        int[] maxEnds = new int[n];
+        int maxLevel = computeMaxEnds(starts, ends, maxEnds, n);
+        return new IntervalIndex(starts, ends, values, maxEnds, n, maxLevel);
+    }
+
+    /**
+     * Fill in the maximum end of the subtree rooted at each node,  and return the level of the root.
+     */
+    private static int computeMaxEnds(int[] starts, int[] ends, int[] maxEnds, int n) {
+        if (n == 0) {
+            return -1;
+        }
+        // Leaves are the even indices.  "last" tracks the max end of the right-most node,  which stands in for
+        // missing right children.
+        int lastIndex = 0;
+        int last = 0;
+        for (int i = 0; i < n; i += 2) {
+            lastIndex = i;
+            maxEnds[i] = last = ends[i];
+        }
+        int k = 1;
+        for (; 1 << k <= n; k++) {
+            int x = 1 << (k - 1);
+            int step = x << 2;
+            for (int i = (x << 1) - 1; i < n; i += step) {
+                int left = maxEnds[i - x];
+                int right = i + x < n ? maxEnds[i + x] : last;
+                int e = ends[i];
+                if (left > e) e = left;
+                if (right > e) e = right;
+                maxEnds[i] = e;
+            }
+            lastIndex = ((lastIndex >> k) & 1) != 0 ? lastIndex - x : lastIndex + x;
+            if (lastIndex < n && maxEnds[lastIndex] > last) {
+                last = maxEnds[lastIndex];
+            }
+        }
+        return k - 1;
+    }
+
+    public int size() {
+        return n;
+    }
+
+    public int getStart(int i) {
+        return starts[i];
+    }
+
+    public int getEnd(int i) {
+        return ends[i];
+    }
+
+    public long getValue(int i) {
+        return values[i];
+    }
+
+    /**
+     * Pass each interval overlapping [start, end] to the visitor,  in order of start.  No objects are allocated.
+     */
+    public void query(int start, int end, Visitor visitor) {
+        if (n > 0) {
+            query(maxLevel, (1 << maxLevel) - 1, start, end, visitor);
+        }
+    }
+
+    private void query(int k, int x, int start, int end, Visitor visitor) {
+        if (k <= SCAN_LEVEL) {
+            int i0 = x >> k << k;
+            int i1 = Math.min(i0 + (1 << (k + 1)) - 1, n);
+            for (int i = i0; i < i1 && starts[i] <= end; i++) {
+                if (ends[i] >= start) {
+                    visitor.visit(starts[i], ends[i], values[i]);
+                }
+            }
+        } else {
+            int half = 1 << (k - 1);
+            int left = x - half;
+            if (left >= n || maxEnds[left] >= start) {
+                query(k - 1, left, start, end, visitor);
+            }
+            if (x < n && starts[x] <= end) {
+                if (ends[x] >= start) {
+                    visitor.visit(starts[x], ends[x], values[x]);
+                }
+                query(k - 1, x + half, start, end, visitor);
+            }
+        }
+    }
+
+    /**
+     * Return the intervals overlapping [start, end],  sorted by start.
+     */
+    public List<Interval> findOverlapping(int start, int end) {
+        if (n == 0) {
+            return Collections.emptyList();
+        }
+        final List<Interval> results = new ArrayList<Interval>();
+        query(start, end, new Visitor() {
+            public void visit(int s, int e, long value) {
+                results.add(new Interval(s, e, value));
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Return all intervals,  sorted by start.
+     */
+    public List<Interval> getIntervals() {
+        List<Interval> results = new ArrayList<Interval>(n);
+        for (int i = 0; i < n; i++) {
+            results.add(new Interval(starts[i], ends[i], values[i]));
+        }
+        return results;
+    }
+
+    /**
+     * Write the index in a binary format that {@link #read(InputStream)} loads without parsing.
+     */
+    public void write(OutputStream os) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(os));
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(n);
+        dos.writeInt(maxLevel);
+        for (int i = 0; i < n; i++) dos.writeInt(starts[i]);
+        for (int i = 0; i < n; i++) dos.writeInt(ends[i]);
+        for (int i = 0; i < n; i++) dos.writeInt(maxEnds[i]);
+        for (int i = 0; i < n; i++) dos.writeLong(values[i]);
+        dos.flush();
+    }
+
+    public void write(File file) throws IOException {
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(file);
+            write(os);
+        } finally {
+            if (os != null) os.close();
+        }
+    }
+
+    /**
+     * Load an index written by {@link #write(OutputStream)}.  The arrays are read in a single block and copied out
+     * in bulk,  the subtree maxima are not recomputed.
+     */
+    public static IntervalIndex read(InputStream is) throws IOException {
+        DataInputStream dis = new DataInputStream(is);
+        if (dis.readInt() != MAGIC) {
+            throw new IOException("Not an interval index");
+        }
+        int version = dis.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported interval index version: " + version);
+        }
+        int n = dis.readInt();
+        int maxLevel = dis.readInt();
+        if (n < 0 || n > Integer.MAX_VALUE / 20) {
+            throw new IOException("Invalid interval count: " + n);
+        }
+
+        byte[] bytes = new byte[n * 20];
+        dis.readFully(bytes);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        int[] starts = new int[n];
+        int[] ends = new int[n];
+        int[] maxEnds = new int[n];
+        long[] values = new long[n];
+        buffer.asIntBuffer().get(starts);
+        buffer.position(n * 4);
+        buffer.asIntBuffer().get(ends);
+        buffer.position(n * 8);
+        buffer.asIntBuffer().get(maxEnds);
+        buffer.position(n * 12);
+        buffer.asLongBuffer().get(values);
+
+        return new IntervalIndex(starts, ends, values, maxEnds, n, maxLevel);
+    }
+
+    public static IntervalIndex read(File file) throws IOException {
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            return read(is);
+        } finally {
+            if (is != null) is.close();
+        }
+    }
+
+
+    /**
+     * Collects intervals in any order and builds an {@link IntervalIndex}.
+     */
+    public static class Builder {
+
+        private int[] starts;
+        private int[] ends;
+        private long[] values;
+        private int size = 0;
+        private boolean sorted = true;
+
+        public Builder() {
+            this(16);
+        }
+
+        public Builder(int capacity) {
+            capacity = Math.max(capacity, 1);
+            starts = new int[capacity];
+            ends = new int[capacity];
+            values = new long[capacity];
+        }
+
+        public Builder add(int start, int end, long value) {
+            if (size == starts.length) {
+                int capacity = size * 2;
+                starts = Arrays.copyOf(starts, capacity);
+                ends = Arrays.copyOf(ends, capacity);
+                values = Arrays.copyOf(values, capacity);
+            }
+            if (size > 0 && start < starts[size - 1]) {
+                sorted = false;
+            }
+            starts[size] = start;
+            ends[size] = end;
+            values[size] = value;
+            size++;
+            return this;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public IntervalIndex build() {
+            int[] s = Arrays.copyOf(starts, size);
+            int[] e = Arrays.copyOf(ends, size);
+            long[] v = Arrays.copyOf(values, size);
+            if (!sorted) {
+                // Sort by start,  keeping the original order of equal starts
+                long[] keys = new long[size];
+                for (int i = 0; i < size; i++) {
+                    keys[i] = ((long) s[i] << 32) | i;
+                }
+                Arrays.sort(keys);
+                for (int i = 0; i < size; i++) {
+                    int j = (int) keys[i];
+                    s[i] = starts[j];
+                    e[i] = ends[j];
+                    v[i] = values[j];
+                }
+            }
+            return fromSorted(s, e, v);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stats;
+
+import java.util.Arrays;
+
+/**
+ * Streaming percentile estimator with bounded memory (a "merging t-digest").
+ * <p/>
+ * Values are buffered until the buffer fills,  then the buffer is sorted and merged into a list of weighted
+ * centroids.  Centroids are small near the tails and larger near the median,  so the rank error of an estimate is
+ * roughly proportional to q(1-q) / compression.  At most compression + 4 centroids are kept, so memory does not
+ * depend on the number of values added.
+ * <p/>
+ * Until the buffer first fills percentiles are exact,  and computed with the same estimation method as
+ * {@code org.apache.commons.math.stat.StatUtils.percentile}.
+ */
+public class QuantileSketch {
+
+    public static final int DEFAULT_COMPRESSION = 100;
+
+    private static final int INITIAL_BUFFER_SIZE = 4;
+
+    private final double compression;
+    private final int maxBufferSize;
+
+    // Unmerged values
+    private double[] buffer;
+    private int bufferSize = 0;
+    private boolean bufferSorted = true;
+
+    // Centroids,  sorted by mean.  Null until the buffer first fills.
+    private double[] means;
+    private double[] weights;
+    private int nCentroids = 0;
+    private double centroidWeight = 0;
+    private double[] tmpMeans;
+    private double[] tmpWeights;
+
+    private long count = 0;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    public QuantileSketch() {
+        this(DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param compression accuracy parameter.  Larger values are more accurate and use more memory.
+     */
+    public QuantileSketch(int compression) {
+        if (compression < 10) {
+            throw new IllegalArgumentException("Compression must be at least 10: " + compression);
+        }
+        this.compression = compression;
+        this.maxBufferSize = 5 * compression;
+    }
+
+    public void add(double v) {
+        if (Double.isNaN(v)) {
+            return;
+        }
+        if (count == 0) {
+            min = v;
+            max = v;
+        } else {
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+        }
+        count++;
+
+        if (buffer == null) {
+            buffer = new double[INITIAL_BUFFER_SIZE];
+        } else if (bufferSize == buffer.length) {
+            if (buffer.length < maxBufferSize) {
+                buffer = Arrays.copyOf(buffer, Math.min(maxBufferSize, 2 * buffer.length));
+            } else {
+                mergeBuffer();
+            }
+        }
+        buffer[bufferSize++] = v;
+        bufferSorted = false;
+    }
+
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Return true if percentiles are computed from all values,  rather than estimated.
+     */
+    public boolean isExact() {
+        return means == null;
+    }
+
+    /**
+     * Return an estimate of the p-th percentile,  0 < p <= 100,  or NaN if no values have been added.
+     */
+    public double percentile(double p) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (count == 1) {
+            return min;
+        }
+        if (means == null) {
+            return exactPercentile(p);
+        }
+        if (bufferSize > 0) {
+            mergeBuffer();
+        }
+        return estimatePercentile(p);
+    }
+
+    private double exactPercentile(double p) {
+        if (!bufferSorted) {
+            Arrays.sort(buffer, 0, bufferSize);
+            bufferSorted = true;
+        }
+        int n = bufferSize;
+        double pos = p * (n + 1) / 100;
+        double fpos = Math.floor(pos);
+        int intPos = (int) fpos;
+        double dif = pos - fpos;
+        if (pos < 1) {
+            return buffer[0];
+        }
+        if (pos >= n) {
+            return buffer[n - 1];
+        }
+        double lower = buffer[intPos - 1];
+        double upper = buffer[intPos];
+        return lower + dif * (upper - lower);
+    }
+
+    /**
+     * Interpolate between centroid centers.  Each centroid is centered at the cumulative weight of the
+     * centroids before it plus half its own weight;  min and max anchor the ends.
+     */
+    private double estimatePercentile(double p) {
+        double index = Math.max(0, Math.min(1, p / 100)) * count;
+
+        double left = 0;
+        double leftValue = min;
+        double cumWeight = 0;
+        for (int i = 0; i < nCentroids; i++) {
+            double center = cumWeight + weights[i] / 2;
+            if (index < center) {
+                return interpolate(index, left, leftValue, center, means[i]);
+            }
+            left = center;
+            leftValue = means[i];
+            cumWeight += weights[i];
+        }
+        return interpolate(index, left, leftValue, count, max);
+    }
+
+    private static double interpolate(double x, double x0, double y0, double x1, double y1) {
+        if (x1 <= x0) {
+            return y1;
+        }
+        return y0 + (x - x0) / (x1 - x0) * (y1 - y0);
+    }
+
+    /**
+     * Merge the sorted buffer with the current centroids.  Adjacent points are combined as long as the combined
+     * centroid spans no more than one unit of the scale function k(q) = compression / (2 pi) * asin(2q - 1).
+     */
+    private void mergeBuffer() {
+
+        Arrays.sort(buffer, 0, bufferSize);
+
+        if (means == null) {
+            int capacity = (int) Math.ceil(compression) + 4;
+            means = new double[capacity];
+            weights = new double[capacity];
+            tmpMeans = new double[capacity];
+            tmpWeights = new double[capacity];
+        }
+
+        double total = centroidWeight + bufferSize;
+        int n = 0;
+        double weightSoFar = 0;
+        double qLimit = qLimit(0);
+
+        double curMean = 0;
+        double curWeight = 0;
+
+        int i = 0;   // centroid index
+        int j = 0;   // buffer index
+        while (i < nCentroids || j < bufferSize) {
+            double m, w;
+            if (j >= bufferSize || (i < nCentroids && means[i] < buffer[j])) {
+                m = means[i];
+                w = weights[i];
+                i++;
+            } else {
+                m = buffer[j];
+                w = 1;
+                j++;
+            }
+
+            if (curWeight == 0) {
+                curMean = m;
+                curWeight = w;
+            } else if ((weightSoFar + curWeight + w) / total <= qLimit) {
+                curWeight += w;
+                curMean += (m - curMean) * w / curWeight;
+            } else {
+                tmpMeans[n] = curMean;
+                tmpWeights[n] = curWeight;
+                n++;
+                weightSoFar += curWeight;
+                qLimit = qLimit(weightSoFar / total);
+                curMean = m;
+                curWeight = w;
+            }
+        }
+        tmpMeans[n] = curMean;
+        tmpWeights[n] = curWeight;
+        n++;
+
+        double[] t = means;
+        means = tmpMeans;
+        tmpMeans = t;
+        t = weights;
+        weights = tmpWeights;
+        tmpWeights = t;
+        nCentroids = n;
+        centroidWeight = total;
+
+        bufferSize = 0;
+        bufferSorted = true;
+    }
+
+    /**
+     * Return the largest quantile a centroid starting at quantile q may extend to.
+     */
+    private double qLimit(double q) {
+        double k = compression / (2 * Math.PI) * Math.asin(2 * q - 1) + 1;
+        if (k >= compression / 4) {
+            return 1;
+        }
+        return (Math.sin(k * 2 * Math.PI / compression) + 1) / 2;
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.apache.log4j.Logger;
+import org.broad.igv.util.HttpUtils;
+import org.broad.igv.util.collections.ConcurrentCache;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Seekable stream over a remote resource which reads through a {@link HttpByteRangeCache}.  Reads are block aligned,
+ * a miss fetches the run of uncached blocks following it (up to {@link #MAX_BLOCKS_PER_REQUEST}) in one request.
+ * <p/>
+ * The resource is identified by its ETag,  or Last-Modified date,  fetched with a HEAD request when the stream is
+ * first read.  Resources with neither are read directly.
+ */
+public class CachingSeekableStream extends SeekableStream {
+
+    private static Logger log = Logger.getLogger(CachingSeekableStream.class);
+
+    static final int MAX_BLOCKS_PER_REQUEST = 16;
+
+    // Validators are re-checked after this interval,  rather than on every open
+    private static final long RESOURCE_INFO_TTL = 5 * 60 * 1000;
+
+    private static final ConcurrentCache<String, ResourceInfo> resourceInfos =
+            new ConcurrentCache<String, ResourceInfo>(1000);
+
+    private final URL url;
+    private final SeekableStream remote;
+    private final HttpByteRangeCache cache;
+
+    private boolean initialized = false;
+    private ResourceInfo info;
+    private String resourceKey;
+    private long length = -1;
+    private long position = 0;
+
+    private long currentBlockNumber = -1;
+    private byte[] currentBlock;
+
+    public CachingSeekableStream(URL url, SeekableStream remote, HttpByteRangeCache cache) {
+        this.url = url;
+        this.remote = remote;
+        this.cache = cache;
+    }
+
+    private void init() {
+        if (initialized) return;
+        initialized = true;
+
+        String source = url.toExternalForm();
+        info = resourceInfos.get(source);
+        if (info == null || System.currentTimeMillis() - info.time > RESOURCE_INFO_TTL) {
+            info = new ResourceInfo();
+            try {
+                String[] fields = HttpUtils.getInstance().getHeaderFields(url, "ETag", "Last-Modified", "Content-Length");
+                info.validator = fields[0] != null ? fields[0] : fields[1];
+                if (fields[2] != null) {
+                    info.contentLength = Long.parseLong(fields[2].trim());
+                    info.length = info.contentLength;
+                }
+            } catch (Exception e) {
+                log.info("Could not fetch headers for " + source + ",  reading without cache");
+                info.validator = null;
+            }
+            resourceInfos.put(source, info);
+        }
+        if (info.validator != null) {
+            resourceKey = HttpByteRangeCache.getResourceKey(url, info.validator, info.contentLength);
+            length = info.length;
+        }
+    }
+
+    /**
+     * Forget the resource validators,  for tests
+     */
+    static void clearResourceInfos() {
+        resourceInfos.clear();
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public long length() {
+        init();
+        return resourceKey == null ? remote.length() : length;
+    }
+
+    public void seek(long position) {
+        this.position = position;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long len = length();
+        long bytesToSkip = len < 0 ? n : Math.max(0, Math.min(n, len - position));
+        position += bytesToSkip;
+        return bytesToSkip;
+    }
+
+    public boolean eof() throws IOException {
+        long len = length();
+        return len >= 0 && position >= len;
+    }
+
+    public int read() throws IOException {
+        byte[] tmp = new byte[1];
+        int n = read(tmp, 0, 1);
+        return n < 0 ? -1 : (int) tmp[0] & 0xFF;
+    }
+
+    public int read(byte[] buffer, int offset, int len) throws IOException {
+        if (offset < 0 || len < 0 || (offset + len) > buffer.length) {
+            throw new IndexOutOfBoundsException("Offset=" + offset + ",len=" + len + ",buflen=" + buffer.length);
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        init();
+        if (resourceKey == null) {
+            remote.seek(position);
+            int n = remote.read(buffer, offset, len);
+            if (n > 0) position += n;
+            return n;
+        }
+
+        int n = 0;
+        while (n < len) {
+            long blockNumber = position / HttpByteRangeCache.BLOCK_SIZE;
+            byte[] block = getBlock(blockNumber);
+            int blockOffset = (int) (position - blockNumber * HttpByteRangeCache.BLOCK_SIZE);
+            if (block == null || blockOffset >= block.length) {
+                break;  // EOF
+            }
+            int count = Math.min(len - n, block.length - blockOffset);
+            System.arraycopy(block, blockOffset, buffer, offset + n, count);
+            n += count;
+            position += count;
+            if (block.length < HttpByteRangeCache.BLOCK_SIZE && blockOffset + count == block.length) {
+                break;  // Last block
+            }
+        }
+        return n == 0 ? -1 : n;
+    }
+
+    private byte[] getBlock(long blockNumber) throws IOException {
+        if (blockNumber != currentBlockNumber) {
+            byte[] block = cache.getBlock(resourceKey, blockNumber);
+            if (block == null) {
+                block = fetchBlocks(blockNumber);
+            }
+            currentBlockNumber = blockNumber;
+            currentBlock = block;
+        }
+        return currentBlock;
+    }
+
+    /**
+     * Fetch a block,  and the uncached blocks following it,  in one request.  Returns the first block,  or null if
+     * it is past the end of the resource.
+     */
+    private byte[] fetchBlocks(long firstBlock) throws IOException {
+        final int blockSize = HttpByteRangeCache.BLOCK_SIZE;
+        long start = firstBlock * blockSize;
+        if (length < 0 && remote.length() >= 0) {
+            // Without a Content-Length header the length is learned from earlier range responses
+            setLength(remote.length());
+        }
+        if (length >= 0 && start >= length) {
+            return null;
+        }
+
+        int nBlocks = 1;
+        while (nBlocks < MAX_BLOCKS_PER_REQUEST && !cache.containsBlock(resourceKey, firstBlock + nBlocks)) {
+            nBlocks++;
+        }
+        long end = start + (long) nBlocks * blockSize;
+        if (length >= 0) {
+            end = Math.min(end, length);
+        }
+
+        byte[] bytes = new byte[(int) (end - start)];
+        int n = 0;
+        remote.seek(start);
+        while (n < bytes.length) {
+            int count = remote.read(bytes, n, bytes.length - n);
+            if (count < 0) break;
+            n += count;
+        }
+        if (n == 0) {
+            return null;
+        }
+        if (n < bytes.length && length < 0) {
+            setLength(start + n);
+        }
+
+        // A short read ends at EOF,  so a partial last block is complete
+        byte[] first = null;
+        for (int i = 0; i * blockSize < n; i++) {
+            int blockStart = i * blockSize;
+            int blockLength = Math.min(blockSize, n - blockStart);
+            cache.putBlock(resourceKey, firstBlock + i, bytes, blockStart, blockLength);
+            if (i == 0) {
+                first = new byte[blockLength];
+                System.arraycopy(bytes, 0, first, 0, blockLength);
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Record the length of a resource served without a Content-Length header,  so later requests stop at the end
+     */
+    private void setLength(long length) {
+        this.length = length;
+        info.length = length;
+    }
+
+    public void close() throws IOException {
+        currentBlock = null;
+        currentBlockNumber = -1;
+        remote.close();
+    }
+
+    @Override
+    public String getSource() {
+        return url.toExternalForm();
+    }
+
+    private static class ResourceInfo {
+        final long time = System.currentTimeMillis();
+        String validator;
+        long contentLength = -1;
+        // The content length,  or the length learned from range responses if there was none
+        volatile long length = -1;
+    }
+}
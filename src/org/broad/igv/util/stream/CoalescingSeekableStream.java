@@ -0,0 +1,326 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Seekable stream for index driven reads of remote files.  A batch of byte ranges passed to {@link #prefetch} is
+ * merged into fewer requests,  joining ranges separated by at most maxGap bytes,  and the merged ranges are fetched
+ * concurrently on separate streams.  Reads covered by the fetched buffers are served from memory,  other reads go to
+ * the underlying stream with read-ahead.
+ * <p/>
+ * Positional reads with {@link #getBuffered} are safe to call from several threads,  the stream methods are not.
+ */
+public class CoalescingSeekableStream extends SeekableStream {
+
+    private static Logger log = Logger.getLogger(CoalescingSeekableStream.class);
+
+    public static final int DEFAULT_MAX_GAP = 16 * 1024;
+    public static final int DEFAULT_READ_AHEAD = 64 * 1024;
+
+    // Maximum number of concurrent range requests,  shared by all streams
+    static final int MAX_CONCURRENT_REQUESTS = 4;
+
+    // Ranges are not merged into requests larger than this
+    static final int MAX_REQUEST_SIZE = 4 * 1024 * 1024;
+
+    // Buffers are dropped when their total size would exceed this
+    static final long MAX_BUFFERED_BYTES = 32 * 1024 * 1024;
+
+    private static ExecutorService rangeExecutor;
+
+    private final String path;
+    private final Callable<SeekableStream> opener;
+    private SeekableStream stream;
+
+    private int maxGap = DEFAULT_MAX_GAP;
+    private int readAhead = DEFAULT_READ_AHEAD;
+    private long position = 0;
+
+    private final TreeMap<Long, byte[]> buffers = new TreeMap<Long, byte[]>();
+    private long bufferedBytes = 0;
+
+    public CoalescingSeekableStream(final String path) {
+        this(path, new Callable<SeekableStream>() {
+            public SeekableStream call() throws Exception {
+                return IGVSeekableStreamFactory.getInstance().getStreamFor(path);
+            }
+        });
+    }
+
+    /**
+     * @param opener opens a new stream on the resource,  called once for each concurrent request
+     */
+    CoalescingSeekableStream(String path, Callable<SeekableStream> opener) {
+        this.path = path;
+        this.opener = opener;
+    }
+
+    public void setMaxGap(int maxGap) {
+        this.maxGap = maxGap;
+    }
+
+    public void setReadAhead(int readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Fetch a batch of byte ranges.  Returns when all ranges are buffered.
+     */
+    public void prefetch(long[] starts, int[] lengths) throws IOException {
+        List<long[]> ranges = mergeRanges(starts, lengths, maxGap);
+        if (ranges.isEmpty()) return;
+        if (ranges.size() == 1) {
+            long[] r = ranges.get(0);
+            addBuffer(r[0], readRange(getStream(), r[0], (int) (r[1] - r[0])));
+            return;
+        }
+
+        ExecutorService executor = getRangeExecutor();
+        List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>(ranges.size());
+        for (final long[] r : ranges) {
+            futures.add(executor.submit(new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    SeekableStream s = openStream();
+                    try {
+                        return readRange(s, r[0], (int) (r[1] - r[0]));
+                    } finally {
+                        s.close();
+                    }
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < ranges.size(); i++) {
+                addBuffer(ranges.get(i)[0], futures.get(i).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted reading " + path);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException("Error reading " + path + ": " + cause);
+        } finally {
+            for (Future<byte[]> f : futures) {
+                f.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Sort and merge ranges,  returning [start, end) pairs
+     */
+    static List<long[]> mergeRanges(long[] starts, int[] lengths, int maxGap) {
+        List<long[]> sorted = new ArrayList<long[]>(starts.length);
+        for (int i = 0; i < starts.length; i++) {
+            if (starts[i] >= 0 && lengths[i] > 0) {
+                sorted.add(new long[]{starts[i], starts[i] + lengths[i]});
+            }
+        }
+        Collections.sort(sorted, new Comparator<long[]>() {
+            public int compare(long[] r1, long[] r2) {
+                return r1[0] < r2[0] ? -1 : (r1[0] == r2[0] ? 0 : 1);
+            }
+        });
+
+        List<long[]> merged = new ArrayList<long[]>();
+        long[] current = null;
+        for (long[] r : sorted) {
+            if (current != null && r[0] <= current[1] + maxGap &&
+                    Math.max(current[1], r[1]) - current[0] <= MAX_REQUEST_SIZE) {
+                current[1] = Math.max(current[1], r[1]);
+            } else {
+                current = new long[]{r[0], r[1]};
+                merged.add(current);
+            }
+        }
+        return merged;
+    }
+
+    private static byte[] readRange(SeekableStream s, long start, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        s.seek(start);
+        int n = 0;
+        while (n < length) {
+            int count = s.read(bytes, n, length - n);
+            if (count < 0) break;
+            n += count;
+        }
+        return n == length ? bytes : Arrays.copyOf(bytes, n);
+    }
+
+    private void addBuffer(long start, byte[] bytes) {
+        if (bytes.length == 0) return;
+        synchronized (buffers) {
+            if (bufferedBytes + bytes.length > MAX_BUFFERED_BYTES) {
+                buffers.clear();
+                bufferedBytes = 0;
+            }
+            byte[] previous = buffers.put(start, bytes);
+            bufferedBytes += bytes.length - (previous == null ? 0 : previous.length);
+        }
+    }
+
+    /**
+     * Return a copy of buffered bytes,  or null if the range is not buffered
+     */
+    public byte[] getBuffered(long start, int length) {
+        synchronized (buffers) {
+            Map.Entry<Long, byte[]> entry = buffers.floorEntry(start);
+            if (entry == null) return null;
+            long offset = start - entry.getKey();
+            byte[] bytes = entry.getValue();
+            if (offset + length > bytes.length) return null;
+            byte[] copy = new byte[length];
+            System.arraycopy(bytes, (int) offset, copy, 0, length);
+            return copy;
+        }
+    }
+
+    public void clearBuffers() {
+        synchronized (buffers) {
+            buffers.clear();
+            bufferedBytes = 0;
+        }
+    }
+
+    private SeekableStream openStream() throws IOException {
+        try {
+            return opener.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Error opening " + path + ": " + e);
+        }
+    }
+
+    private SeekableStream getStream() throws IOException {
+        if (stream == null) {
+            stream = openStream();
+        }
+        return stream;
+    }
+
+    public int read(byte[] buffer, int offset, int len) throws IOException {
+        if (offset < 0 || len < 0 || (offset + len) > buffer.length) {
+            throw new IndexOutOfBoundsException("Offset=" + offset + ",len=" + len + ",buflen=" + buffer.length);
+        }
+        if (len == 0) return 0;
+
+        int n = copyBuffered(position, buffer, offset, len);
+        if (n == 0) {
+            // Not buffered,  read ahead
+            byte[] bytes = readRange(getStream(), position, Math.max(len, readAhead));
+            if (bytes.length == 0) return -1;
+            addBuffer(position, bytes);
+            n = Math.min(len, bytes.length);
+            System.arraycopy(bytes, 0, buffer, offset, n);
+        }
+        position += n;
+        return n;
+    }
+
+    /**
+     * Copy as many bytes as are buffered from the start of the range
+     */
+    private int copyBuffered(long start, byte[] buffer, int offset, int len) {
+        synchronized (buffers) {
+            Map.Entry<Long, byte[]> entry = buffers.floorEntry(start);
+            if (entry == null) return 0;
+            long bufferOffset = start - entry.getKey();
+            byte[] bytes = entry.getValue();
+            if (bufferOffset >= bytes.length) return 0;
+            int n = (int) Math.min(len, bytes.length - bufferOffset);
+            System.arraycopy(bytes, (int) bufferOffset, buffer, offset, n);
+            return n;
+        }
+    }
+
+    public int read() throws IOException {
+        byte[] tmp = new byte[1];
+        int n = read(tmp, 0, 1);
+        return n < 0 ? -1 : (int) tmp[0] & 0xFF;
+    }
+
+    public long length() {
+        try {
+            return getStream().length();
+        } catch (IOException e) {
+            log.error("Error opening " + path, e);
+            return -1;
+        }
+    }
+
+    public long position() {
+        return position;
+    }
+
+    public void seek(long position) {
+        this.position = position;
+    }
+
+    public boolean eof() throws IOException {
+        long length = length();
+        return length >= 0 && position >= length;
+    }
+
+    /**
+     * Close the underlying stream.  Buffered ranges remain readable with {@link #getBuffered}.
+     */
+    public void close() throws IOException {
+        if (stream != null) {
+            stream.close();
+            stream = null;
+        }
+    }
+
+    @Override
+    public String getSource() {
+        return path;
+    }
+
+    private static synchronized ExecutorService getRangeExecutor() {
+        if (rangeExecutor == null) {
+            rangeExecutor = Executors.newFixedThreadPool(MAX_CONCURRENT_REQUESTS, new ThreadFactory() {
+                int count = 0;
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "Range reader " + (count++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return rangeExecutor;
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import org.apache.log4j.Logger;
+import org.broad.igv.DirectoryManager;
+import org.broad.igv.PreferenceManager;
+import org.broad.igv.util.FileUtils;
+import org.broad.igv.util.collections.ConcurrentCache;
+
+import java.io.*;
+import java.net.URL;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent cache of fixed size blocks of remote files,  shared by all remote streams.
+ * <p/>
+ * Blocks of a resource are stored as separate files in a directory named by the hash of the URL and a validator
+ * (ETag or Last-Modified),  so a changed resource gets a new directory.  Signature and token parameters are not part
+ * of the key,  so signed URLs for the same resource share its blocks.  Only the blocks read are stored.  The cache
+ * is bounded in size,  least recently used blocks are evicted first.  Use order is kept across sessions by file
+ * modification times.
+ * <p/>
+ * The cache is off by default,  see HTTP_CACHE_ENABLED.  URLs carrying user credentials are never cached.
+ */
+public class HttpByteRangeCache {
+
+    private static Logger log = Logger.getLogger(HttpByteRangeCache.class);
+
+    public static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Query parameters of signed URLs (S3,  Google Cloud Storage,  CloudFront) and access tokens,  lower case.
+     * Parameters starting with "x-amz-" or "x-goog-" are also ignored.
+     */
+    private static final Set<String> SIGNATURE_PARAMETERS = new HashSet<String>(Arrays.asList(
+            "signature", "expires", "awsaccesskeyid", "googleaccessid", "key-pair-id", "policy", "token",
+            "access_token"));
+
+    private static HttpByteRangeCache instance;
+
+    private final File directory;
+    private final ConcurrentCache<File, Long> blocks;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+
+    /**
+     * Return the shared cache,  or null if it is disabled
+     */
+    public static synchronized HttpByteRangeCache getInstance() {
+        PreferenceManager prefs = PreferenceManager.getInstance();
+        if (!prefs.getAsBoolean(PreferenceManager.HTTP_CACHE_ENABLED)) {
+            return null;
+        }
+        if (instance == null) {
+            long maxBytes = prefs.getAsInt(PreferenceManager.HTTP_CACHE_SIZE_MB) * 1024L * 1024L;
+            instance = new HttpByteRangeCache(DirectoryManager.getHttpCacheDirectory(), maxBytes);
+        }
+        return instance;
+    }
+
+    HttpByteRangeCache(File directory, long maxBytes) {
+        this.directory = directory;
+        blocks = new ConcurrentCache<File, Long>(maxBytes, new ConcurrentCache.Weigher<File, Long>() {
+            public long weigh(File key, Long size) {
+                return size;
+            }
+        }, false);
+        blocks.setRemovalListener(new ConcurrentCache.RemovalListener<File, Long>() {
+            public void onRemoval(File file, Long size, boolean evicted) {
+                if (evicted) {
+                    file.delete();
+                }
+            }
+        });
+        loadIndex();
+    }
+
+    /**
+     * Index the blocks stored by previous sessions,  least recently used first
+     */
+    private void loadIndex() {
+        List<File> files = new ArrayList<File>();
+        File[] dirs = directory.listFiles();
+        if (dirs == null) return;
+        for (File dir : dirs) {
+            File[] blockFiles = dir.isDirectory() ? dir.listFiles() : null;
+            if (blockFiles == null) continue;
+            if (blockFiles.length == 0) {
+                dir.delete();
+            }
+            for (File f : blockFiles) {
+                if (f.getName().endsWith(".tmp")) {
+                    f.delete();
+                } else {
+                    files.add(f);
+                }
+            }
+        }
+        final Map<File, Long> lastModified = new HashMap<File, Long>();
+        for (File f : files) {
+            lastModified.put(f, f.lastModified());
+        }
+        Collections.sort(files, new Comparator<File>() {
+            public int compare(File f1, File f2) {
+                long t1 = lastModified.get(f1);
+                long t2 = lastModified.get(f2);
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+        for (File f : files) {
+            blocks.put(f, f.length());
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("HTTP cache: " + blocks.size() + " blocks,  " + blocks.getWeight() + " bytes");
+        }
+    }
+
+    /**
+     * Return true if blocks of the resource may be cached.  URLs with user credentials are not.
+     */
+    public static boolean isCacheable(URL url) {
+        return url.getUserInfo() == null;
+    }
+
+    /**
+     * Return the key of a version of a resource.  Signature and token parameters of the query are ignored,  they
+     * change from one request to the next.  Other parameters are kept,  they may identify the resource.
+     *
+     * @param validator ETag or Last-Modified value
+     * @param length    content length,  or -1 if not known
+     */
+    public static String getResourceKey(URL url, String validator, long length) {
+        String path = url.getProtocol() + "://" + url.getAuthority() + url.getPath();
+        String query = url.getQuery();
+        if (query != null) {
+            StringBuilder kept = new StringBuilder();
+            for (String param : query.split("&")) {
+                int idx = param.indexOf('=');
+                String name = (idx < 0 ? param : param.substring(0, idx)).toLowerCase();
+                if (param.length() == 0 || SIGNATURE_PARAMETERS.contains(name) ||
+                        name.startsWith("x-amz-") || name.startsWith("x-goog-")) {
+                    continue;
+                }
+                kept.append(kept.length() == 0 ? "?" : "&").append(param);
+            }
+            path += kept;
+        }
+        return FileUtils.md5Hex(path + "\n" + validator + "\n" + length);
+    }
+
+    private File getBlockFile(String resourceKey, long blockNumber) {
+        return new File(new File(directory, resourceKey), String.valueOf(blockNumber));
+    }
+
+    /**
+     * Return a block,  or null if it is not cached.  Blocks are {@link #BLOCK_SIZE} bytes long except the last
+     * block of a resource.
+     */
+    public byte[] getBlock(String resourceKey, long blockNumber) {
+        File file = getBlockFile(resourceKey, blockNumber);
+        if (blocks.get(file) == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            byte[] bytes = readFile(file);
+            file.setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            bytesSaved.addAndGet(bytes.length);
+            return bytes;
+        } catch (IOException e) {
+            // Deleted by another session,  or unreadable
+            blocks.remove(file);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public boolean containsBlock(String resourceKey, long blockNumber) {
+        return blocks.containsKey(getBlockFile(resourceKey, blockNumber));
+    }
+
+    public void putBlock(String resourceKey, long blockNumber, byte[] buffer, int offset, int length) {
+        File dir = new File(directory, resourceKey);
+        File file = new File(dir, String.valueOf(blockNumber));
+        File tmpFile = null;
+        OutputStream os = null;
+        try {
+            dir.mkdirs();
+            tmpFile = File.createTempFile("block" + blockNumber + "-", ".tmp", dir);
+            os = new FileOutputStream(tmpFile);
+            os.write(buffer, offset, length);
+            os.close();
+            os = null;
+            if (!tmpFile.renameTo(file)) {
+                file.delete();
+                if (!tmpFile.renameTo(file)) {
+                    throw new IOException("Could not rename " + tmpFile);
+                }
+            }
+            blocks.put(file, (long) length);
+        } catch (IOException e) {
+            log.error("Error writing HTTP cache block " + file, e);
+            if (tmpFile != null) {
+                tmpFile.delete();
+            }
+        } finally {
+            if (os != null) {
+                try {
+                    os.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        DataInputStream is = new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            is.readFully(bytes);
+            return bytes;
+        } finally {
+            is.close();
+        }
+    }
+
+    /**
+     * Remove all cached blocks
+     */
+    public void clear() {
+        for (File file : blocks.keys()) {
+            blocks.remove(file);
+            file.delete();
+        }
+        File[] dirs = directory.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                dir.delete();
+            }
+        }
+    }
+
+    /**
+     * Number of blocks read from the cache
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Number of blocks not found in the cache
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Bytes read from the cache rather than fetched
+     */
+    public long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    /**
+     * Size of the cached blocks
+     */
+    public long getBytes() {
+        return blocks.getWeight();
+    }
+
+    public long getMaxBytes() {
+        return blocks.getMaxWeight();
+    }
+
+    @Override
+    public String toString() {
+        return "HTTP cache hits=" + getHits() + " misses=" + getMisses() + " bytesSaved=" + getBytesSaved() +
+                " bytes=" + getBytes();
+    }
+}
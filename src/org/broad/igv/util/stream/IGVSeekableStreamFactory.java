@@ -28,6 +28,7 @@ package org.broad.igv.util.stream;
 import htsjdk.samtools.seekablestream.ISeekableStreamFactory;
 import htsjdk.samtools.seekablestream.SeekableFileStream;
 import htsjdk.samtools.seekablestream.SeekableStream;
+import org.broad.igv.util.FileUtils;
 import org.broad.igv.util.HttpUtils;
 
 import java.io.File;
@@ -66,6 +67,10 @@ public class IGVSeekableStreamFactory implements ISeekableStreamFactory {
                 boolean useByteRange = HttpUtils.getInstance().useByteRange(url);
                 if (useByteRange) {
                     is = new IGVSeekableHTTPStream(url);
+                    HttpByteRangeCache cache = HttpByteRangeCache.getInstance();
+                    if (cache != null && HttpByteRangeCache.isCacheable(url)) {
+                        is = new CachingSeekableStream(url, is, cache);
+                    }
                 } else {
                     is = new SeekableServiceStream(url);
                 }
@@ -79,6 +84,19 @@ public class IGVSeekableStreamFactory implements ISeekableStreamFactory {
         }
     }
 
+    /**
+     * Return a memory-mapped stream for a local file,  otherwise the same stream as {@link #getStreamFor(String)}.
+     */
+    public SeekableStream getMappedStreamFor(String path) throws IOException {
+        if (!FileUtils.isRemote(path) && !path.endsWith(".list")) {
+            File file = new File(path);
+            if (file.isFile()) {
+                return new MemoryMappedSeekableStream(file);
+            }
+        }
+        return getStreamFor(path);
+    }
+
     public SeekableStream getBufferedStream(SeekableStream stream){
         return getBufferedStream(stream, IGVSeekableBufferedStream.DEFAULT_BUFFER_SIZE);
     }
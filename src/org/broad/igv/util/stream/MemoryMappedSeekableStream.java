@@ -0,0 +1,258 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A SeekableStream for local files backed by read-only memory mappings.  Reads are served from the operating
+ * system page cache without intermediate heap buffers,  and {@link #slice(long, int)} returns a view of the file
+ * contents without copying.
+ * <p/>
+ * The file is mapped in windows,  lazily.  Consecutive windows overlap so blocks that cross a window boundary
+ * can usually still be sliced;  larger blocks that cross a boundary are copied into a heap buffer.
+ * <p/>
+ * Slices and {@link #read(long, byte[], int, int)} do not change the stream position and can be used from
+ * multiple threads.  The stream methods (seek/read) are not thread safe,  as for other SeekableStreams.
+ * <p/>
+ * {@link #close()} unmaps the windows,  slices must not be used after the stream is closed.
+ */
+public class MemoryMappedSeekableStream extends SeekableStream {
+
+    private static Logger log = Logger.getLogger(MemoryMappedSeekableStream.class);
+
+    static final long DEFAULT_WINDOW_SIZE = 1L << 30;
+    static final int WINDOW_OVERLAP = 1 << 24;
+
+    private final String source;
+    private final long length;
+    private final long windowSize;
+    private final int overlap;
+    private FileChannel channel;
+    private final MappedByteBuffer[] windows;
+    private long position = 0;
+
+    // Reads hold the read lock while they access a window,  close() holds the write lock to unmap them
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public MemoryMappedSeekableStream(File file) throws IOException {
+        this(file, DEFAULT_WINDOW_SIZE, WINDOW_OVERLAP);
+    }
+
+    MemoryMappedSeekableStream(File file, long windowSize, int overlap) throws IOException {
+        this.source = file.getAbsolutePath();
+        this.windowSize = windowSize;
+        this.overlap = overlap;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        channel = raf.getChannel();
+        length = channel.size();
+        windows = new MappedByteBuffer[(int) Math.max(1, (length + windowSize - 1) / windowSize)];
+    }
+
+    /**
+     * Return a read-only view of length bytes starting at position.  The view is big-endian,  callers should set
+     * the byte order as required.
+     */
+    public ByteBuffer slice(long position, int length) throws IOException {
+        if (position < 0 || position + length > this.length) {
+            throw new IOException("Attempt to read past end of file: " + source + " " + position + "+" + length);
+        }
+        int w = (int) (position / windowSize);
+        long windowStart = w * windowSize;
+        lock.readLock().lock();
+        try {
+            MappedByteBuffer window = getWindow(w);
+            int offset = (int) (position - windowStart);
+            if (offset + length <= window.capacity()) {
+                ByteBuffer bb = window.duplicate();
+                bb.position(offset);
+                bb.limit(offset + length);
+                return bb.slice();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // Spans windows,  fall back to a copy
+        byte[] bytes = new byte[length];
+        read(position, bytes, 0, length);
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Read bytes at an absolute position,  without changing the stream position.
+     *
+     * @return the number of bytes read,  which is less than len only at the end of the file,  or -1 at end of file
+     */
+    public int read(long position, byte[] b, int off, int len) throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+        len = (int) Math.min(len, length - position);
+        int n = 0;
+        lock.readLock().lock();
+        try {
+            while (n < len) {
+                long p = position + n;
+                int w = (int) (p / windowSize);
+                MappedByteBuffer window = getWindow(w);
+                int offset = (int) (p - w * windowSize);
+                int count = Math.min(len - n, window.capacity() - offset);
+                ByteBuffer bb = window.duplicate();
+                bb.position(offset);
+                bb.get(b, off + n, count);
+                n += count;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return n;
+    }
+
+    private MappedByteBuffer getWindow(int w) throws IOException {
+        synchronized (windows) {
+            if (windows[w] == null) {
+                if (channel == null) {
+                    throw new IOException("Stream is closed: " + source);
+                }
+                long start = w * windowSize;
+                long size = Math.min(windowSize + overlap, length - start);
+                windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            }
+            return windows[w];
+        }
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public long position() throws IOException {
+        return position;
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        this.position = position;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int n = read(position, buffer, offset, length);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= length) {
+            return -1;
+        }
+        int w = (int) (position / windowSize);
+        int b;
+        lock.readLock().lock();
+        try {
+            b = getWindow(w).get((int) (position - w * windowSize)) & 0xff;
+        } finally {
+            lock.readLock().unlock();
+        }
+        position++;
+        return b;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skip = Math.max(0, Math.min(n, length - position));
+        position += skip;
+        return skip;
+    }
+
+    /**
+     * Closes the file and unmaps the windows,  rather than leaving the mappings to the garbage collector.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            synchronized (windows) {
+                if (channel != null) {
+                    channel.close();
+                    channel = null;
+                }
+                for (int w = 0; w < windows.length; w++) {
+                    if (windows[w] != null) {
+                        unmap(windows[w]);
+                        windows[w] = null;
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Release a mapping through the JDK's internal cleaner (sun.misc.Cleaner,  Java 6 - 8).  If it cannot be
+     * used the mapping is released when the buffer is garbage collected.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            log.debug("Could not unmap buffer,  it is released when garbage collected", e);
+        }
+    }
+
+    @Override
+    public boolean eof() throws IOException {
+        return position >= length;
+    }
+
+    @Override
+    public String getSource() {
+        return source;
+    }
+}
@@ -45,21 +45,37 @@ public class VCFVariant implements Variant {
 
     VariantContext variantContext;
     List<Allele> alternateAlleles;
-    private ZygosityCount zygosityCount;
+    private volatile ZygosityCount zygosityCount;
 
     String chr;
-    private double[] alleleFreqs;
+    private volatile double[] alleleFreqs;
     private double methylationRate = Double.NaN;  // <= signals unknown / not applicable
     private double coveredSampleFraction = Double.NaN;
 
     Map<String, VCFGenotype> genotypeMap;
 
+    // Samples from the file header,  if genotypes are decoded lazily.  Null otherwise.
+    private final Collection<String> headerSampleNames;
+
     private int start = -1;
 
     public VCFVariant(VariantContext variantContext, String chr) {
+        this(variantContext, chr, null);
+    }
+
+    /**
+     * @param headerSampleNames if not null,  genotypes are decoded lazily:  a sample's genotype when it is first
+     *                          requested,  and zygosity counts and allele frequencies when they are first needed.
+     *                          The names,  which must be the samples of the file header,  are returned by
+     *                          {@link #getSampleNames()} without decoding the genotypes.
+     */
+    public VCFVariant(VariantContext variantContext, String chr, Collection<String> headerSampleNames) {
         this.variantContext = variantContext;
         this.chr = chr;
-        init();
+        this.headerSampleNames = headerSampleNames;
+        if (headerSampleNames == null) {
+            init();
+        }
     }
 
     private void init() {
@@ -72,25 +88,35 @@ public class VCFVariant implements Variant {
             genotypeMap.put(sample, vcfGenotype);
         }
 
-        zygosityCount = new ZygosityCount();
+        ZygosityCount zc = new ZygosityCount();
         for (String sample : getSampleNames()) {
             Genotype genotype = getGenotype(sample);
-            zygosityCount.incrementCount(genotype);
+            zc.incrementCount(genotype);
         }
+        zygosityCount = zc;
 
+        computeAlleleFreqs();
+    }
+
+    public boolean isLazy() {
+        return headerSampleNames != null;
+    }
+
+    private void computeAlleleFreqs() {
         String afString = null;
         String[] alleleFreqKeys = {"AF", "GMAF"};
+        double[] afs = null;
         try {
             for (String alleleFreqKey : alleleFreqKeys) {
                 afString = variantContext.getAttributeAsString(alleleFreqKey, "-1");
-                alleleFreqs = parseAFString(afString);
-                if (alleleFreqs[0] >= 0) break;
+                afs = parseAFString(afString);
+                if (afs[0] >= 0) break;
             }
         } catch (NumberFormatException e) {
-            alleleFreqs = new double[]{-1};
+            afs = new double[]{-1};
             log.error("Error parsing allele frequency: " + afString);
         }
-
+        alleleFreqs = afs;
     }
 
     /**
@@ -175,6 +201,9 @@ public class VCFVariant implements Variant {
      * no annotation (unknown allele frequency).
      */
     public double[] getAlleleFreqs() {
+        if (alleleFreqs == null) {
+            computeAlleleFreqs();
+        }
         return alleleFreqs;
     }
 
@@ -182,10 +211,18 @@ public class VCFVariant implements Variant {
      * Return the allele fraction for this variant.  The allele fraction is similiar to allele frequency, but is based
      * on the samples in this VCF as opposed to an AF or GMAF annotation.
      * <p/>
+     * The INFO AC and AN attributes of a bi-allelic variant are always used when present,  whether or not genotypes
+     * have been decoded,  so the value does not change once they are.  Otherwise it is computed from the genotypes.
+     * <p/>
      * A value of -1 indicates unknown
      */
     public double getAlleleFraction() {
 
+        double af = getAlleleFractionFromCounts();
+        if (af >= 0) {
+            return af;
+        }
+
         int total = getHomVarCount() + getHetCount() + getHomRefCount();
         return total == 0 ? -1 : (((double) getHomVarCount() + ((double) getHetCount()) / 2) / total);
     }
@@ -208,8 +245,26 @@ public class VCFVariant implements Variant {
         return coveredSampleFraction;
     }
 
+    /**
+     * Return the allele fraction computed from the AC and AN attributes of a bi-allelic variant,  or -1 if there
+     * are none.  For diploid calls this is the same as the fraction computed from genotypes.
+     */
+    private double getAlleleFractionFromCounts() {
+        if (variantContext.getAlternateAlleles().size() != 1 ||
+                !variantContext.hasAttribute("AC") || !variantContext.hasAttribute("AN")) {
+            return -1;
+        }
+        try {
+            int an = variantContext.getAttributeAsInt("AN", 0);
+            int ac = Integer.parseInt(variantContext.getAttributeAsString("AC", "-1"));
+            return an > 0 && ac >= 0 ? ((double) ac) / an : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
     public Collection<String> getSampleNames() {
-        return variantContext.getSampleNames();
+        return headerSampleNames != null ? headerSampleNames : variantContext.getSampleNames();
     }
 
     public Map<String, Object> getAttributes() {
@@ -218,7 +273,21 @@ public class VCFVariant implements Variant {
 
     @Override
     public Genotype getGenotype(String sample) {
-        return genotypeMap.get(sample);
+        if (headerSampleNames == null) {
+            return genotypeMap.get(sample);
+        }
+        synchronized (this) {
+            if (genotypeMap == null) {
+                genotypeMap = new HashMap<String, VCFGenotype>();
+            }
+            VCFGenotype vcfGenotype = genotypeMap.get(sample);
+            if (vcfGenotype == null && !genotypeMap.containsKey(sample)) {
+                htsjdk.variant.variantcontext.Genotype genotype = variantContext.getGenotype(sample);
+                vcfGenotype = genotype == null ? null : new VCFGenotype(genotype);
+                genotypeMap.put(sample, vcfGenotype);
+            }
+            return vcfGenotype;
+        }
     }
 
     public Collection<String> getFilters() {
@@ -227,22 +296,37 @@ public class VCFVariant implements Variant {
 
     @Override
     public int getHomVarCount() {
-        return zygosityCount.getHomVar();
+        return getZygosityCount().getHomVar();
     }
 
     @Override
     public int getHetCount() {
-        return zygosityCount.getHet();
+        return getZygosityCount().getHet();
     }
 
     @Override
     public int getHomRefCount() {
-        return zygosityCount.getHomRef();
+        return getZygosityCount().getHomRef();
     }
 
     @Override
     public int getNoCallCount() {
-        return zygosityCount.getNoCall();
+        return getZygosityCount().getNoCall();
+    }
+
+    /**
+     * Count zygosity from the genotypes,  without creating a VCFGenotype for each sample.
+     */
+    private ZygosityCount getZygosityCount() {
+        ZygosityCount zc = zygosityCount;
+        if (zc == null) {
+            zc = new ZygosityCount();
+            for (htsjdk.variant.variantcontext.Genotype genotype : variantContext.getGenotypes()) {
+                zc.incrementCount(genotype);
+            }
+            zygosityCount = zc;
+        }
+        return zc;
     }
 
     @Override
@@ -317,15 +401,25 @@ public class VCFVariant implements Variant {
 
         public void incrementCount(Genotype genotype) {
             if (genotype != null) {
-                if (genotype.isHomVar()) {
-                    homVar++;
-                } else if (genotype.isHet()) {
-                    het++;
-                } else if (genotype.isHomRef()) {
-                    homRef++;
-                } else {
-                    noCall++;
-                }
+                increment(genotype.isHomVar(), genotype.isHet(), genotype.isHomRef());
+            }
+        }
+
+        void incrementCount(htsjdk.variant.variantcontext.Genotype genotype) {
+            if (genotype != null) {
+                increment(genotype.isHomVar(), genotype.isHet(), genotype.isHomRef());
+            }
+        }
+
+        private void increment(boolean isHomVar, boolean isHet, boolean isHomRef) {
+            if (isHomVar) {
+                homVar++;
+            } else if (isHet) {
+                het++;
+            } else if (isHomRef) {
+                homRef++;
+            } else {
+                noCall++;
             }
         }
 
@@ -0,0 +1,131 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.bbfile;
+
+import htsjdk.samtools.seekablestream.SeekableFileStream;
+import org.broad.igv.util.FileUtils;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BBIndexCacheTest {
+
+    private static final String PATH = TestUtils.DATA_DIR + "wig/dummy_var_sample.bigwig";
+
+    /**
+     * A second reader of the same file needs no index reads
+     */
+    @Test
+    public void testShared() throws Exception {
+        BBIndexCache cache = BBIndexCache.getInstance();
+
+        BBFileReader reader = new BBFileReader(PATH);
+        List<Integer> counts = query(reader);
+        reader.close();
+        assertTrue(cache.getBytes() > 0);
+
+        long misses = cache.getMissCount();
+        long hits = cache.getHitCount();
+        reader = new BBFileReader(PATH);
+        assertEquals(counts, query(reader));
+        reader.close();
+        assertEquals(misses, cache.getMissCount());
+        assertTrue(cache.getHitCount() > hits);
+    }
+
+    /**
+     * A local file rebuilt in place with the same length is read again
+     */
+    @Test
+    public void testModifiedFile() throws Exception {
+        BBIndexCache cache = BBIndexCache.getInstance();
+        File file = new File(TestUtils.TMP_OUTPUT_DIR, "BBIndexCacheTest.bigwig");
+        FileUtils.copyFile(new File(PATH), file);
+        file.setLastModified(System.currentTimeMillis() - 60000);
+
+        BBFileReader reader = new BBFileReader(file.getPath());
+        List<Integer> counts = query(reader);
+        reader.close();
+
+        long misses = cache.getMissCount();
+        file.setLastModified(System.currentTimeMillis());
+        reader = new BBFileReader(file.getPath());
+        assertEquals(counts, query(reader));
+        reader.close();
+        assertTrue(cache.getMissCount() > misses);
+        file.delete();
+    }
+
+    @Test
+    public void testChromosomeIndex() throws Exception {
+        BBFileReader reader = new BBFileReader(PATH);
+        BBFileHeader header = reader.getBBFileHeader();
+        SeekableFileStream fis = new SeekableFileStream(new File(PATH));
+        BPTree tree = new BPTree(fis, new BBIndexCache.FileId(fis), header.getChromosomeTreeOffset(),
+                header.isLowToHigh());
+
+        // Compare with a traversal of the tree
+        ArrayList<String> names = new ArrayList<String>();
+        tree.findAllChromosomeNames(tree.getRootNode(), names);
+        assertEquals(names, tree.getChromosomeNames());
+
+        for (String name : names) {
+            int id = tree.getChromosomeID(tree.getChromosomeKey(name));
+            assertTrue(id >= 0);
+            assertEquals(name, tree.getChromosomeName(id));
+            assertEquals(name, tree.getChromosomeIDMap(id, id).get(id));
+        }
+        assertEquals(names.size(), tree.getChromosomeIDMap(0, Integer.MAX_VALUE).size());
+        assertEquals(-1, tree.getChromosomeID(tree.getChromosomeKey("noSuchChr")));
+        assertNull(tree.getChromosomeName(-5));
+        reader.close();
+    }
+
+    /**
+     * Item counts of raw data and all zoom levels,  for each chromosome
+     */
+    private List<Integer> query(BBFileReader reader) throws Exception {
+        List<Integer> counts = new ArrayList<Integer>();
+        for (String chr : reader.getChromosomeNames()) {
+            counts.add(reader.getBigWigData(chr, 0, Integer.MAX_VALUE, false).size);
+            for (int z = 1; z <= reader.getBBFileHeader().getZoomLevels(); z++) {
+                ZoomLevelIterator iter = reader.getZoomLevelIterator(z, chr, 0, chr, Integer.MAX_VALUE, false);
+                int n = 0;
+                while (iter.hasNext()) {
+                    iter.next();
+                    n++;
+                }
+                counts.add(n);
+            }
+        }
+        return counts;
+    }
+}
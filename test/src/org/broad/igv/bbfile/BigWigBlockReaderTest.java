@@ -0,0 +1,89 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.bbfile;
+
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Bulk reads should return the same items as {@link BigWigIterator}
+ */
+public class BigWigBlockReaderTest {
+
+    @Test
+    public void testVarStep() throws Exception {
+        compareIterator(TestUtils.DATA_DIR + "wig/dummy_var_sample.bigwig");
+    }
+
+    @Test
+    public void testFixedStep() throws Exception {
+        compareIterator(TestUtils.DATA_DIR + "wig/test_fixedStep.bigwig");
+    }
+
+    private void compareIterator(String path) throws Exception {
+        BBFileReader reader = new BBFileReader(path);
+        assertTrue(reader.isBigWigFile());
+        List<String> chrNames = reader.getChromosomeNames();
+        assertTrue(chrNames.size() > 0);
+
+        int nItems = 0;
+        for (String chr : chrNames) {
+            // Whole chromosome,  and a region cutting through blocks
+            BigWigBlockReader.WigData data = compare(reader, chr, 0, Integer.MAX_VALUE, false);
+            nItems += data.size;
+            if (data.size > 10) {
+                int start = data.starts[data.size / 4] + 1;
+                int end = data.ends[3 * data.size / 4] - 1;
+                compare(reader, chr, start, end, false);
+                compare(reader, chr, start, end, true);
+            }
+        }
+        assertTrue(nItems > 0);
+        reader.close();
+    }
+
+    private BigWigBlockReader.WigData compare(BBFileReader reader, String chr, int start, int end,
+                                              boolean contained) throws Exception {
+        BigWigBlockReader.WigData data = reader.getBigWigData(chr, start, end, contained);
+        BigWigIterator iter = reader.getBigWigIterator(chr, start, chr, end, contained);
+        int n = 0;
+        while (iter.hasNext()) {
+            WigItem item = iter.next();
+            assertTrue(n < data.size);
+            assertEquals(item.getStartBase(), data.starts[n]);
+            assertEquals(item.getEndBase(), data.ends[n]);
+            assertEquals(item.getWigValue(), data.values[n], 0);
+            n++;
+        }
+        assertEquals(n, data.size);
+        assertEquals(data.size, data.starts.length);
+        return data;
+    }
+}
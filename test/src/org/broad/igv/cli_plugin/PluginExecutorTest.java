@@ -0,0 +1,193 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.cli_plugin;
+
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.bed.SimpleBEDFeature;
+import htsjdk.tribble.readers.LineIterator;
+import org.broad.igv.Globals;
+import org.broad.igv.util.TestUtils;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class PluginExecutorTest {
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(!Globals.IS_WINDOWS);
+        PluginExecutor.getInstance().clear();
+    }
+
+    /**
+     * Queries within a tile are answered from the cache,  a query spanning two tiles runs the tool for the new tile
+     */
+    @Test
+    public void testCachedTiles() throws Exception {
+        PluginFeatureSource source = createAwkSource("{print}");
+        PluginExecutor executor = PluginExecutor.getInstance();
+        int tileSize = PluginExecutor.TILE_SIZE;
+
+        List<Feature> features = toList(source.getFeatures("chr1", 100, 200));
+        assertEquals(1, features.size());
+        assertEquals(0, features.get(0).getStart());
+        assertEquals(tileSize, features.get(0).getEnd());
+        long misses = executor.getMissCount();
+
+        features = toList(source.getFeatures("chr1", 5000, 6000));
+        assertEquals(1, features.size());
+        assertEquals(misses, executor.getMissCount());
+
+        features = toList(source.getFeatures("chr1", tileSize - 100, tileSize + 100));
+        assertEquals(2, features.size());
+        assertEquals(tileSize, features.get(1).getStart());
+        assertEquals(misses + 1, executor.getMissCount());
+
+        // Different arguments are cached separately
+        PluginFeatureSource other = createAwkSource("{print $1\"\\t\"$2\"\\t\"$2+10}");
+        features = toList(other.getFeatures("chr1", 100, 200));
+        assertEquals(10, features.get(0).getEnd());
+        assertEquals(misses + 2, executor.getMissCount());
+
+        // Large intervals are run as a whole
+        features = toList(source.getFeatures("chr1", 0, (PluginExecutor.MAX_TILES + 1) * tileSize));
+        assertEquals(1, features.size());
+        assertEquals((PluginExecutor.MAX_TILES + 1) * tileSize, features.get(0).getEnd());
+    }
+
+    @Test
+    public void testMaxProcesses() throws Exception {
+        final PluginExecutor executor = new PluginExecutor(100, 2);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 8; i++) {
+            final int n = i;
+            tasks.add(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    return executor.execute(new Callable<Integer>() {
+                        public Integer call() throws Exception {
+                            int r = running.incrementAndGet();
+                            synchronized (maxRunning) {
+                                maxRunning.set(Math.max(maxRunning.get(), r));
+                            }
+                            Thread.sleep(30);
+                            running.decrementAndGet();
+                            return n;
+                        }
+                    });
+                }
+            });
+        }
+        List<Integer> results = executor.invokeAll(tasks);
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7), results);
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    /**
+     * Input larger than the pipe buffers must not block a process which writes as it reads
+     */
+    @Test
+    public void testStdin() throws Exception {
+        byte[] input = new byte[1 << 20];
+        new Random(1).nextBytes(input);
+        PluginExecutor.PluginProcess pr = PluginExecutor.startProcess(new String[]{"cat"}, input);
+        InputStream is = pr.getInputStream();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = is.read(buffer)) > 0) {
+            output.write(buffer, 0, n);
+        }
+        pr.waitFor();
+        assertArrayEquals(input, output.toByteArray());
+    }
+
+    /**
+     * A tool which exits with an error fails the query,  and its output is not cached
+     */
+    @Test
+    public void testFailedRun() throws Exception {
+        PluginFeatureSource source = createAwkSource("{print} {print \"bad input\" > \"/dev/stderr\"; exit 3}");
+        PluginExecutor executor = PluginExecutor.getInstance();
+        for (int i = 0; i < 2; i++) {
+            long misses = executor.getMissCount();
+            try {
+                source.getFeatures("chr1", 100, 200);
+                fail("Expected an IOException");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("status 3"));
+                assertTrue(e.getMessage(), e.getMessage().contains("bad input"));
+            }
+            assertEquals(misses + 1, executor.getMissCount());
+        }
+    }
+
+    private static PluginFeatureSource createAwkSource(String program) {
+        LinkedHashMap<Argument, Object> arguments = new LinkedHashMap<Argument, Object>();
+        arguments.put(new Argument("Program", Argument.InputType.LONGTEXT, "", null, null, null, true, null), program);
+        Argument locus = new Argument("Locus", Argument.InputType.LOCUS, "", null, null, null, true, null);
+        locus.setStdin(true);
+        arguments.put(locus, null);
+
+        PluginSpecReader.Output output = new PluginSpecReader.Output();
+        output.parser = new PluginSpecReader.Parser();
+        output.parser.decodingCodec = LocusDecoder.class.getName();
+        return new PluginFeatureSource(Arrays.asList("awk"), arguments, output, TestUtils.DATA_DIR + "cli_plugin/cat_plugin.xml");
+    }
+
+    /**
+     * Decodes chr,  start,  end lines without a genome
+     */
+    public static class LocusDecoder implements LineFeatureDecoder<Feature> {
+
+        public Feature decode(String line) {
+            String[] tokens = line.split("\t");
+            return new SimpleBEDFeature(Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]), tokens[0]);
+        }
+
+        public Object readActualHeader(LineIterator reader) {
+            return null;
+        }
+    }
+
+    private static List<Feature> toList(Iterator<Feature> iter) {
+        List<Feature> list = new ArrayList<Feature>();
+        while (iter.hasNext()) {
+            list.add(iter.next());
+        }
+        return list;
+    }
+}
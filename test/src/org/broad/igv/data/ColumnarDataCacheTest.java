@@ -0,0 +1,211 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ColumnarDataCacheTest {
+
+    private File root;
+    private File dataFile;
+    private String[] headings = {"sampleA", "sampleB", "sample C"};
+
+    @Before
+    public void setUp() throws Exception {
+        root = File.createTempFile("columnarCache", "");
+        root.delete();
+        root.mkdir();
+        dataFile = File.createTempFile("columnarCache", ".igv");
+        FileWriter writer = new FileWriter(dataFile);
+        writer.write("Chromosome\tStart\tEnd\tFeature\tsampleA\tsampleB\tsample C\n");
+        writer.close();
+    }
+
+    @After
+    public void tearDown() {
+        dataFile.delete();
+        delete(root);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        ColumnarDataCache cache = ColumnarDataCache.open(root, dataFile.getAbsolutePath(), "hg19", headings, 0);
+        assertNotNull(cache);
+        assertNull(cache.read("chr1"));
+
+        ChromosomeData expected = createData("chr1", 1000, true);
+        cache.write(expected);
+        ChromosomeData cd = cache.read("chr1");
+        assertNotNull(cd);
+        assertDataEquals(expected, cd);
+
+        // Names which are not legal file names,  and no end locations
+        ChromosomeData expected2 = createData("chrUn/gl000220:1", 10, false);
+        cache.write(expected2);
+        assertDataEquals(expected2, cache.read("chrUn/gl000220:1"));
+
+        // Re-opening an unchanged file finds the cached data
+        cache = ColumnarDataCache.open(root, dataFile.getAbsolutePath(), "hg19", headings, 0);
+        assertDataEquals(expected, cache.read("chr1"));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        ColumnarDataCache cache = ColumnarDataCache.open(root, dataFile.getAbsolutePath(), "hg19", headings, 0);
+        cache.write(createData("chr1", 100, true));
+
+        // Different genome
+        cache = ColumnarDataCache.open(root, dataFile.getAbsolutePath(), "hg18", headings, 0);
+        assertNull(cache.read("chr1"));
+        cache.write(createData("chr1", 100, true));
+
+        // Modified file
+        FileWriter writer = new FileWriter(dataFile, true);
+        writer.write("chr1\t1\t2\tp\t1\t2\t3\n");
+        writer.close();
+        cache = ColumnarDataCache.open(root, dataFile.getAbsolutePath(), "hg18", headings, 0);
+        assertNull(cache.read("chr1"));
+    }
+
+    @Test
+    public void testScanRoundTrip() throws Exception {
+        ColumnarDataCache cache = ColumnarDataCache.open(root, dataFile.getAbsolutePath(), "hg19", headings, 0);
+        assertNull(cache.readScan());
+
+        ColumnarDataCache.Scan expected = new ColumnarDataCache.Scan();
+        expected.chromosomeSummaries = new ArrayList<ChromosomeSummary>();
+        for (int i = 1; i <= 3; i++) {
+            ChromosomeSummary summary = new ChromosomeSummary("chr" + i, i * 1000000L);
+            summary.setNDataPoints(i * 10);
+            expected.chromosomeSummaries.add(summary);
+        }
+        expected.longestFeatures = new HashMap<String, Integer>();
+        expected.longestFeatures.put("chr1", 500);
+        expected.logNormalized = true;
+        expected.dataMin = -2.5f;
+        expected.dataMax = 7;
+        expected.summaryLocations = new int[]{1, 20, 300};
+        expected.summaryData = new HashMap<String, float[]>();
+        for (String h : headings) {
+            expected.summaryData.put(h, new float[]{0.5f, Float.NaN, h.length()});
+        }
+        cache.writeScan(expected);
+
+        // Re-opening an unchanged file finds the scan
+        cache = ColumnarDataCache.open(root, dataFile.getAbsolutePath(), "hg19", headings, 0);
+        ColumnarDataCache.Scan scan = cache.readScan();
+        assertNotNull(scan);
+        assertEquals(expected.chromosomeSummaries.size(), scan.chromosomeSummaries.size());
+        for (int i = 0; i < scan.chromosomeSummaries.size(); i++) {
+            ChromosomeSummary e = expected.chromosomeSummaries.get(i);
+            ChromosomeSummary a = scan.chromosomeSummaries.get(i);
+            assertEquals(e.getName(), a.getName());
+            assertEquals(e.getStartPosition(), a.getStartPosition());
+            assertEquals(e.getNDataPts(), a.getNDataPts());
+        }
+        assertEquals(expected.longestFeatures, scan.longestFeatures);
+        assertTrue(scan.logNormalized);
+        assertEquals(expected.dataMin, scan.dataMin, 0);
+        assertEquals(expected.dataMax, scan.dataMax, 0);
+        assertArrayEquals(expected.summaryLocations, scan.summaryLocations);
+        for (String h : headings) {
+            assertArrayEquals(expected.summaryData.get(h), scan.summaryData.get(h), 0);
+        }
+
+        // No temporary files are left behind
+        for (File f : cache.getDirectory().listFiles()) {
+            assertFalse(f.getName().endsWith(".tmp"));
+        }
+
+        // Modified file
+        FileWriter writer = new FileWriter(dataFile, true);
+        writer.write("chr1\t1\t2\tp\t1\t2\t3\n");
+        writer.close();
+        cache = ColumnarDataCache.open(root, dataFile.getAbsolutePath(), "hg19", headings, 0);
+        assertNull(cache.readScan());
+    }
+
+    @Test
+    public void testNotCached() throws Exception {
+        assertNull(ColumnarDataCache.open(root, dataFile.getAbsolutePath(), "hg19", headings, dataFile.length() + 1));
+        assertNull(ColumnarDataCache.open(root, "http://www.example.com/test.igv", "hg19", headings, 0));
+    }
+
+    private ChromosomeData createData(String chr, int nRows, boolean hasEnd) {
+        Random rand = new Random(nRows);
+        ChromosomeData cd = new ChromosomeData(chr);
+        int[] starts = new int[nRows];
+        int[] ends = new int[nRows];
+        String[] probes = new String[nRows];
+        for (int i = 0; i < nRows; i++) {
+            starts[i] = i * 100;
+            ends[i] = starts[i] + rand.nextInt(100);
+            probes[i] = "probe_é" + i;
+        }
+        cd.setStartLocations(starts);
+        cd.setEndLocations(hasEnd ? ends : null);
+        cd.setProbes(probes);
+        for (String h : headings) {
+            float[] values = new float[nRows];
+            for (int i = 0; i < nRows; i++) {
+                values[i] = i % 17 == 0 ? Float.NaN : rand.nextFloat();
+            }
+            cd.setData(h, values);
+        }
+        return cd;
+    }
+
+    private void assertDataEquals(ChromosomeData expected, ChromosomeData cd) {
+        assertEquals(expected.getChr(), cd.getChr());
+        assertArrayEquals(expected.getStartLocations(), cd.getStartLocations());
+        assertArrayEquals(expected.getEndLocations(), cd.getEndLocations());
+        assertArrayEquals(expected.getProbes(), cd.getProbes());
+        for (String h : headings) {
+            assertArrayEquals(expected.getData(h), cd.getData(h), 0);
+        }
+        assertNull(cd.getData("unknown"));
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.data;
+
+import org.broad.igv.track.WindowFunction;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TileCacheTest {
+
+    @Test
+    public void testGetPut() {
+        TileCache cache = new TileCache(16000);
+        TileCache.Source source = cache.newSource("test");
+
+        TileCache.Key key = new TileCache.Key(source, "chr1", 3, 5, WindowFunction.mean);
+        assertNull(cache.get(key));
+        cache.put(key, "tile", 100);
+        assertEquals("tile", cache.get(new TileCache.Key(source, "chr1", 3, 5, WindowFunction.mean)));
+        assertNull(cache.get(new TileCache.Key(source, "chr1", 3, 5, WindowFunction.median)));
+
+        // Same key,  different source
+        TileCache.Source source2 = cache.newSource("test2");
+        assertNull(cache.get(new TileCache.Key(source2, "chr1", 3, 5, WindowFunction.mean)));
+
+        assertEquals(1, source.getHits());
+        assertEquals(2, source.getMisses());
+        assertEquals(100, source.getBytes());
+        assertEquals(1, source2.getMisses());
+    }
+
+    @Test
+    public void testByteBound() {
+        long maxBytes = 16000;
+        TileCache cache = new TileCache(maxBytes);
+        TileCache.Source source = cache.newSource("test");
+        for (int t = 0; t < 1000; t++) {
+            cache.put(new TileCache.Key(source, "chr1", 0, t, null), t, 100);
+            assertTrue(cache.getBytes() <= maxBytes);
+        }
+        assertEquals(cache.getBytes(), source.getBytes());
+        assertTrue(source.getEvictions() > 0);
+        assertEquals(1000 * 100, source.getBytes() + 100 * source.getEvictions());
+
+        // The most recent tile is always retained
+        assertEquals(Integer.valueOf(999), cache.get(new TileCache.Key(source, "chr1", 0, 999, null)));
+
+        // Too large to cache
+        cache.put(new TileCache.Key(source, "chr2", 0, 0, null), "big", maxBytes);
+        assertNull(cache.get(new TileCache.Key(source, "chr2", 0, 0, null)));
+    }
+
+    @Test
+    public void testInvalidate() {
+        TileCache cache = new TileCache(1000000);
+        TileCache.Source source1 = cache.newSource("test1");
+        TileCache.Source source2 = cache.newSource("test2");
+        for (int t = 0; t < 100; t++) {
+            cache.put(new TileCache.Key(source1, "chr1", 0, t, null), t, 10);
+            cache.put(new TileCache.Key(source2, "chr1", 0, t, null), t, 10);
+        }
+
+        cache.invalidate(source1);
+        assertEquals(0, source1.getBytes());
+        assertEquals(1000, source2.getBytes());
+        assertEquals(1000, cache.getBytes());
+        assertNull(cache.get(new TileCache.Key(source1, "chr1", 0, 50, null)));
+        assertEquals(Integer.valueOf(50), cache.get(new TileCache.Key(source2, "chr1", 0, 50, null)));
+
+        // Invalidated sources can still be used,  disposed ones are no longer cached
+        cache.put(new TileCache.Key(source1, "chr1", 0, 50, null), 50, 10);
+        assertEquals(Integer.valueOf(50), cache.get(new TileCache.Key(source1, "chr1", 0, 50, null)));
+        cache.dispose(source2);
+        cache.put(new TileCache.Key(source2, "chr1", 0, 50, null), 50, 10);
+        assertNull(cache.get(new TileCache.Key(source2, "chr1", 0, 50, null)));
+        assertEquals(10, cache.getBytes());
+    }
+
+    /**
+     * A tile replaced under the same key,  or evicted,  is still tracked correctly by its source.
+     */
+    @Test
+    public void testInvalidateReplaced() {
+        TileCache cache = new TileCache(1600);
+        TileCache.Source source = cache.newSource("test");
+        TileCache.Key key = new TileCache.Key(source, "chr1", 0, 0, null);
+        cache.put(key, 1, 10);
+        cache.put(key, 2, 20);
+        assertEquals(1, source.entries.size());
+        assertEquals(20, source.getBytes());
+
+        // Evict the first tiles
+        for (int t = 1; t <= 100; t++) {
+            cache.put(new TileCache.Key(source, "chr1", 0, t, null), t, 100);
+        }
+        assertNull(cache.get(key));
+        assertEquals(16, source.entries.size());
+
+        cache.invalidate(source);
+        assertEquals(0, source.entries.size());
+        assertEquals(0, source.getBytes());
+        assertEquals(0, cache.getBytes());
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.data.seg;
+
+import org.broad.igv.feature.Chromosome;
+import org.broad.igv.feature.LocusScore;
+import org.broad.igv.feature.genome.Genome;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SegmentStoreTest {
+
+    private static final String[] CHRS = {"chr1", "chr2", "chr3"};
+    private static final int[] CHR_LENGTHS = {5000000, 3000000, 2000000};
+
+    @Test
+    public void testSegments() throws Exception {
+        Map<String, Map<String, List<Segment>>> expected = new HashMap<String, Map<String, List<Segment>>>();
+        SegmentStore store = createStore(expected, 20, 2000);
+
+        assertEquals(20, store.getSampleNames().size());
+        assertEquals("S0", store.getSampleNames().get(0));
+        compare(expected, store);
+    }
+
+    @Test
+    public void testWriteRead() throws Exception {
+        Map<String, Map<String, List<Segment>>> expected = new HashMap<String, Map<String, List<Segment>>>();
+        SegmentStore store = createStore(expected, 10, 1000);
+
+        File file = File.createTempFile("segmentStoreTest", ".seg");
+        file.deleteOnExit();
+        store.write(file);
+        SegmentStore mapped = SegmentStore.read(file);
+
+        assertEquals(store.getSampleNames(), mapped.getSampleNames());
+        assertEquals(store.getChromosomes(), mapped.getChromosomes());
+        assertEquals(store.size(), mapped.size());
+        assertEquals(store.getDataMin(), mapped.getDataMin(), 0);
+        assertEquals(store.getDataMax(), mapped.getDataMax(), 0);
+        compare(expected, mapped);
+
+        // Added segments are merged with those of the store
+        SegmentStore.Builder builder = new SegmentStore.Builder(mapped);
+        builder.add("new", "chr1", 10, 20, 1.0f, null);
+        SegmentStore merged = builder.build();
+        assertEquals(store.size() + 1, merged.size());
+        assertEquals(1, merged.getSegments("new", "chr1").size());
+        compare(expected, merged);
+    }
+
+    @Test
+    public void testWholeGenome() throws Exception {
+        List<Chromosome> chromosomes = new ArrayList<Chromosome>();
+        for (int i = 0; i < CHRS.length; i++) {
+            chromosomes.add(new Chromosome(i, CHRS[i], CHR_LENGTHS[i]));
+        }
+        Genome genome = new Genome("test", chromosomes);
+
+        SegmentedAsciiDataSet dataset = new SegmentedAsciiDataSet(genome);
+        Map<String, Map<String, List<Segment>>> expected = new HashMap<String, Map<String, List<Segment>>>();
+        Random rand = new Random(2);
+        for (int i = 0; i < 500; i++) {
+            String sample = "S" + rand.nextInt(3);
+            String chr = CHRS[rand.nextInt(CHRS.length)];
+            int start = rand.nextInt(1000000);
+            // Include segments which are too short for the whole genome view
+            int end = start + (i % 5 == 0 ? rand.nextInt(1000) : rand.nextInt(100000));
+            float value = rand.nextFloat();
+            dataset.addSegment(sample, chr, start, end, value, null);
+            add(expected, sample, chr, new Segment(start, start, end, end, value, null));
+        }
+        dataset.sortLists();
+        assertFalse(dataset.isLogNormalized());
+
+        int nWholeGenome = 0;
+        for (String sample : dataset.getSampleNames()) {
+            List<LocusScore> wgScores = dataset.getWholeGenomeScores(sample);
+            List<Segment> wgExpected = new ArrayList<Segment>();
+            for (String chr : genome.getLongChromosomeNames()) {
+                List<Segment> segments = expected.get(sample).get(chr);
+                if (segments == null) continue;
+                for (Segment seg : sorted(segments)) {
+                    int gStart = genome.getGenomeCoordinate(chr, seg.getStart());
+                    int gEnd = genome.getGenomeCoordinate(chr, seg.getEnd());
+                    if (gEnd > gStart) {
+                        wgExpected.add(new Segment(gStart, gStart, gEnd, gEnd, seg.getScore(), null));
+                    }
+                }
+            }
+            compare(wgExpected, wgScores);
+            nWholeGenome += wgScores.size();
+        }
+        // Some were too short
+        assertTrue(nWholeGenome < 500);
+
+        // Adding after use rebuilds the store
+        dataset.addSegment("S0", "chr1", 100, 200, -1, null);
+        assertTrue(dataset.isLogNormalized());
+        assertEquals(-1.0, dataset.getDataMin("chr1"), 0);
+    }
+
+    private static SegmentStore createStore(Map<String, Map<String, List<Segment>>> expected, int nSamples, int nSegments) {
+        SegmentStore.Builder builder = new SegmentStore.Builder();
+        Random rand = new Random(1);
+        for (int i = 0; i < nSegments; i++) {
+            // The first row of each sample in order,  the rest random
+            String sample = "S" + (i < nSamples ? i : rand.nextInt(nSamples));
+            String chr = CHRS[rand.nextInt(CHRS.length)];
+            int start = rand.nextInt(100) * 1000;
+            int end = start + rand.nextInt(50000);
+            float value = rand.nextFloat() * 4 - 2;
+            String desc = rand.nextInt(3) == 0 ? null : "<br>num.mark: " + i;
+            builder.add(sample, chr, start, end, value, desc);
+            add(expected, sample, chr, new Segment(start, start, end, end, value, desc));
+        }
+        return builder.build();
+    }
+
+    private static void add(Map<String, Map<String, List<Segment>>> expected, String sample, String chr, Segment seg) {
+        Map<String, List<Segment>> chrSegments = expected.get(sample);
+        if (chrSegments == null) {
+            chrSegments = new HashMap<String, List<Segment>>();
+            expected.put(sample, chrSegments);
+        }
+        List<Segment> segments = chrSegments.get(chr);
+        if (segments == null) {
+            segments = new ArrayList<Segment>();
+            chrSegments.put(chr, segments);
+        }
+        segments.add(seg);
+    }
+
+    private static List<Segment> sorted(List<Segment> segments) {
+        List<Segment> sorted = new ArrayList<Segment>(segments);
+        Collections.sort(sorted, new Comparator<Segment>() {
+            public int compare(Segment o1, Segment o2) {
+                return o1.getStart() - o2.getStart();
+            }
+        });
+        return sorted;
+    }
+
+    private static void compare(Map<String, Map<String, List<Segment>>> expected, SegmentStore store) {
+        for (String sample : expected.keySet()) {
+            for (String chr : CHRS) {
+                List<Segment> segments = expected.get(sample).get(chr);
+                List<LocusScore> actual = store.getSegments(sample, chr);
+                if (segments == null) {
+                    assertNull(actual);
+                } else {
+                    compare(sorted(segments), actual);
+                }
+            }
+        }
+        assertNull(store.getSegments("unknown", "chr1"));
+        assertNull(store.getSegments("S0", "unknown"));
+    }
+
+    private static void compare(List<Segment> expected, List<LocusScore> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Segment e = expected.get(i);
+            Segment a = (Segment) actual.get(i);
+            assertEquals(e.getStart(), a.getStart());
+            assertEquals(e.getEnd(), a.getEnd());
+            assertEquals(e.getScore(), a.getScore(), 0);
+            assertEquals(e.getDescription(), a.getDescription());
+        }
+    }
+}
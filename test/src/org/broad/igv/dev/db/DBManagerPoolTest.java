@@ -0,0 +1,72 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.dev.db;
+
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.sql.ResultSet;
+
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+/**
+ * Connection pooling of {@link DBManager}.  Uses a local SQLite database,  no genome is needed.
+ */
+public class DBManagerPoolTest {
+
+    @After
+    public void tearDown() throws Exception {
+        DBManager.shutdown();
+    }
+
+    /**
+     * A failed query returns its connection to the pool,  so later queries do not wait for one
+     */
+    @Test
+    public void testFailedQueryReleasesConnection() throws Exception {
+        File dataDir = new File(TestUtils.DATA_DIR);
+        String url = DBManager.createConnectionURL("sqlite", dataDir.getAbsolutePath(), "sql/unigene.db", null);
+        DBReader reader = new DBReader(new ResourceLocator(url), "unigene", null);
+        for (int i = 0; i <= DBManager.maxConnections; i++) {
+            try {
+                reader.executeQuery("SELECT * FROM noSuchTable");
+                fail("Expected a database error");
+            } catch (RuntimeException e) {
+                // Expected
+            }
+        }
+
+        long t0 = System.currentTimeMillis();
+        ResultSet rs = reader.executeQuery("SELECT * FROM unigene");
+        assertTrue(System.currentTimeMillis() - t0 < DBManager.CONNECTION_WAIT_MS);
+        assertTrue(rs.next());
+        DBManager.closeAll(rs);
+    }
+}
@@ -26,6 +26,7 @@
 package org.broad.igv.dev.db;
 
 import junit.framework.Assert;
+import org.broad.igv.feature.BasicFeature;
 import org.broad.igv.feature.tribble.IGVBEDCodec;
 import org.broad.igv.util.ResourceLocator;
 import org.broad.igv.util.TestUtils;
@@ -33,13 +34,17 @@ import org.broad.igv.variant.vcf.VCFVariant;
 import htsjdk.tribble.AbstractFeatureReader;
 import htsjdk.tribble.AsciiFeatureCodec;
 import htsjdk.tribble.Feature;
+import htsjdk.tribble.readers.LineIterator;
 import org.junit.Test;
 
 import java.io.File;
-import java.util.Iterator;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.*;
 
-import static junit.framework.Assert.assertEquals;
-import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.*;
 
 public class SQLCodecSourceTest {
 
@@ -172,4 +177,197 @@ public class SQLCodecSourceTest {
         assertEquals(1, count);
 
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBinRanges() throws Exception {
+        Random rand = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            int start = rand.nextInt(600000000);
+            int end = start + 1 + rand.nextInt(rand.nextBoolean() ? 10000 : 10000000);
+            int queryStart = Math.max(0, start - rand.nextInt(2000000));
+            int queryEnd = queryStart + 1 + rand.nextInt(3000000);
+            if (end <= queryStart || start >= queryEnd || end > 512 * 1024 * 1024) {
+                continue;
+            }
+            int bin = SQLCodecSource.binFromRange(start, end);
+            int[] ranges = SQLCodecSource.binRanges(queryStart, queryEnd);
+            boolean found = false;
+            for (int r = 0; r < ranges.length; r += 2) {
+                found |= bin >= ranges[r] && bin <= ranges[r + 1];
+            }
+            assertTrue("Bin " + bin + " of " + start + "-" + end + " not queried for " + queryStart + "-" + queryEnd, found);
+        }
+    }
+
+    /**
+     * Compare range queries on a generated UCSC style table,  with and without the bin column,  with the
+     * features expected
+     */
+    @Test
+    public void testQueryBinned() throws Exception {
+        List<BasicFeature> expected = new ArrayList<BasicFeature>();
+        ResourceLocator locator = createRefGene(100000, expected);
+        SQLCodecSource binned = getRefGene(locator, "bin");
+        SQLCodecSource unbinned = getRefGene(locator, null);
+
+        Random rand = new Random(2);
+        for (int q = 0; q < 50; q++) {
+            String chr = "chr" + (1 + rand.nextInt(3));
+            int start = rand.nextInt(CHR_LENGTH);
+            int end = start + rand.nextInt(binned.getFeatureWindowSize());
+
+            List<String> exp = new ArrayList<String>();
+            for (BasicFeature f : expected) {
+                if (f.getChr().equals(chr) && f.getEnd() >= start && f.getStart() <= end) {
+                    exp.add(f.getName());
+                }
+            }
+            List<String> act = getNames(binned.getFeatures(chr, start, end));
+            Collections.sort(exp);
+            Collections.sort(act);
+            assertEquals(exp, act);
+            assertEquals(act, sortedNames(unbinned.getFeatures(chr, start, end)));
+        }
+    }
+
+    @Test
+    public void testConcurrentQueries() throws Exception {
+        List<BasicFeature> expected = new ArrayList<BasicFeature>();
+        final ResourceLocator locator = createRefGene(20000, expected);
+        final SQLCodecSource reference = getRefGene(locator, "bin");
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int t = 0; t < 8; t++) {
+            final int seed = t;
+            futures.add(executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    SQLCodecSource source = getRefGene(locator, "bin");
+                    Random rand = new Random(seed);
+                    for (int q = 0; q < 20; q++) {
+                        int start = rand.nextInt(CHR_LENGTH);
+                        int end = start + 500000;
+                        assertEquals(source.query("chr1", start, end).size(), reference.query("chr1", start, end).size());
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        executor.shutdown();
+
+        DBManager.ConnectionPool pool = DBManager.connectionPool.get(locator.getPath());
+        assertTrue(pool.getOpenCount() > 0);
+        assertTrue(pool.getOpenCount() <= DBManager.maxConnections);
+        assertEquals(pool.getOpenCount(), pool.getIdleCount());
+
+        // Statements are prepared once per connection
+        Connection conn = DBManager.getConnection(locator);
+        PreparedStatement st = DBManager.prepareStatement(conn, "SELECT * FROM refGene WHERE chrom = ?");
+        assertSame(st, DBManager.prepareStatement(conn, "SELECT * FROM refGene WHERE chrom = ?"));
+        conn.close();
+        assertTrue(conn.isClosed());
+        assertEquals(pool.getOpenCount(), pool.getIdleCount());
+
+        DBManager.closeConnection(locator);
+        assertEquals(0, pool.getOpenCount());
+    }
+
+    private static final int CHR_LENGTH = 50000000;
+
+    /**
+     * Create a table of random features on chr1-3,  with a UCSC bin column.  The expected features are added
+     * to {@code features}.
+     */
+    private ResourceLocator createRefGene(int count, List<BasicFeature> features) throws Exception {
+        File dbFile = File.createTempFile("refGene", ".db");
+        dbFile.deleteOnExit();
+        String url = DBManager.createConnectionURL("sqlite", dbFile.getParent(), dbFile.getName(), null);
+        ResourceLocator locator = new ResourceLocator(url);
+
+        Connection conn = DBManager.getConnection(locator);
+        Statement st = conn.createStatement();
+        st.executeUpdate("CREATE TABLE refGene (bin INTEGER, chrom TEXT, txStart INTEGER, txEnd INTEGER, name TEXT)");
+        st.executeUpdate("CREATE INDEX refGene_chrom_bin ON refGene (chrom, bin)");
+        st.close();
+
+        conn.setAutoCommit(false);
+        PreparedStatement insert = conn.prepareStatement("INSERT INTO refGene VALUES (?, ?, ?, ?, ?)");
+        Random rand = new Random(count);
+        for (int i = 0; i < count; i++) {
+            String chr = "chr" + (1 + rand.nextInt(3));
+            int start = rand.nextInt(CHR_LENGTH);
+            int length = rand.nextInt(100) == 0 ? rand.nextInt(5000000) : rand.nextInt(100000);
+            int end = start + 1 + length;
+            String name = "gene" + i;
+            insert.setInt(1, SQLCodecSource.binFromRange(start, end));
+            insert.setString(2, chr);
+            insert.setInt(3, start);
+            insert.setInt(4, end);
+            insert.setString(5, name);
+            insert.executeUpdate();
+
+            BasicFeature f = new BasicFeature(chr, start, end);
+            f.setName(name);
+            features.add(f);
+        }
+        insert.close();
+        conn.commit();
+        conn.setAutoCommit(true);
+        conn.close();
+        return locator;
+    }
+
+    private SQLCodecSource getRefGene(ResourceLocator locator, String binColName) {
+        DBProfile.DBTable table = new DBProfile.DBTable(locator, "refGene", "n/a", binColName, "chrom", "txStart",
+                "txEnd", 2, Integer.MAX_VALUE, null, null, null);
+        return new SQLCodecSource(table, new RefGeneCodec());
+    }
+
+    private static List<String> getNames(Iterator<Feature> features) {
+        List<String> names = new ArrayList<String>();
+        while (features.hasNext()) {
+            names.add(((BasicFeature) features.next()).getName());
+        }
+        return names;
+    }
+
+    private static List<String> sortedNames(Iterator<Feature> features) {
+        List<String> names = getNames(features);
+        Collections.sort(names);
+        return names;
+    }
+
+    /**
+     * Decodes chrom, txStart, txEnd, name.  Unlike the BED codec this doesn't need a genome.
+     */
+    private static class RefGeneCodec extends AsciiFeatureCodec<BasicFeature> {
+
+        RefGeneCodec() {
+            super(BasicFeature.class);
+        }
+
+        @Override
+        public BasicFeature decode(String line) {
+            if (line.startsWith("#")) {
+                return null;
+            }
+            String[] tokens = line.split("\t");
+            BasicFeature feature = new BasicFeature(tokens[0], Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]));
+            feature.setName(tokens[3]);
+            return feature;
+        }
+
+        @Override
+        public Object readActualHeader(LineIterator reader) {
+            return null;
+        }
+
+        @Override
+        public boolean canDecode(String path) {
+            return true;
+        }
+    }
+}
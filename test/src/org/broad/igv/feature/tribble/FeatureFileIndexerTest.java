@@ -0,0 +1,165 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.feature.tribble;
+
+import htsjdk.tribble.readers.TabixReader;
+import org.broad.igv.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class FeatureFileIndexerTest {
+
+    File root;
+
+    @Before
+    public void setUp() throws Exception {
+        root = File.createTempFile("featureIndex", "");
+        root.delete();
+        root.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.deleteDir(root);
+    }
+
+    @Test
+    public void testOpen() throws Exception {
+        File bed = writeBed(10);
+        assertNotNull(FeatureFileIndexer.open(root, bed.getAbsolutePath(), 0));
+        assertNull(FeatureFileIndexer.open(root, bed.getAbsolutePath(), bed.length() + 1));
+        assertNull(FeatureFileIndexer.open(root, "http://www.example.com/test.bed", 0));
+        assertNull(FeatureFileIndexer.open(root, bed.getAbsolutePath() + ".gz", 0));
+        assertNull(FeatureFileIndexer.getTabixFormat("test.vcf"));
+        assertNotNull(FeatureFileIndexer.getTabixFormat("test.gff3"));
+        assertNotNull(FeatureFileIndexer.getTabixFormat("test.bed.txt"));
+    }
+
+    @Test
+    public void testIndexBed() throws Exception {
+        File bed = writeBed(5000);
+        FeatureFileIndexer indexer = FeatureFileIndexer.open(root, bed.getAbsolutePath(), 0);
+        assertFalse(indexer.isIndexed());
+
+        File indexedFile = indexer.submit(null).get();
+        assertEquals(indexer.getIndexedFile(), indexedFile);
+        assertTrue(indexer.isIndexed());
+        assertTrue(FeatureFileIndexer.open(root, bed.getAbsolutePath(), 0).isIndexed());
+
+        // BED is zero based,  tabix queries are one based
+        compareQueries(bed, indexedFile, 1, 2, 0);
+
+        // A modified file must be indexed again
+        bed.setLastModified(bed.lastModified() - 10000);
+        assertFalse(FeatureFileIndexer.open(root, bed.getAbsolutePath(), 0).isIndexed());
+    }
+
+    @Test
+    public void testIndexGFF() throws Exception {
+        Random rand = new Random(2);
+        File gff = File.createTempFile("featureIndex", ".gff3", root);
+        PrintWriter pw = new PrintWriter(gff);
+        pw.println("##gff-version 3");
+        for (int i = 0; i < 3000; i++) {
+            String chr = "chr" + (1 + rand.nextInt(3));
+            int start = 1 + rand.nextInt(1000000);
+            int end = start + rand.nextInt(5000);
+            pw.println(chr + "\ttest\texon\t" + start + "\t" + end + "\t.\t+\t.\tID=f" + i);
+        }
+        pw.close();
+
+        FeatureFileIndexer indexer = FeatureFileIndexer.open(root, gff.getAbsolutePath(), 0);
+        File indexedFile = indexer.submit(null).get();
+        compareQueries(gff, indexedFile, 3, 4, 1);
+    }
+
+    private File writeBed(int nFeatures) throws Exception {
+        Random rand = new Random(1);
+        File bed = File.createTempFile("featureIndex", ".bed", root);
+        PrintWriter pw = new PrintWriter(bed);
+        pw.println("#comment");
+        pw.println("track name=test");
+        for (int i = 0; i < nFeatures; i++) {
+            String chr = "chr" + (1 + rand.nextInt(3));
+            int start = rand.nextInt(1000000);
+            int end = start + (i % 100 == 0 ? 0 : rand.nextInt(5000));
+            pw.println(chr + "\t" + start + "\t" + end + "\tf" + i);
+        }
+        pw.close();
+        return bed;
+    }
+
+    /**
+     * Compare tabix queries of the indexed copy with a scan of the original file
+     */
+    private void compareQueries(File original, File indexedFile, int startCol, int endCol, int startOffset)
+            throws Exception {
+
+        List<String[]> records = new ArrayList<String[]>();
+        Scanner scanner = new Scanner(original);
+        while (scanner.hasNextLine()) {
+            String line = scanner.nextLine();
+            if (!line.startsWith("#") && !line.startsWith("track")) {
+                records.add(line.split("\t"));
+            }
+        }
+        scanner.close();
+
+        TabixReader reader = new TabixReader(indexedFile.getAbsolutePath());
+        Random rand = new Random(3);
+        for (int q = 0; q < 100; q++) {
+            String chr = "chr" + (1 + rand.nextInt(3));
+            int start = 1 + rand.nextInt(1000000);
+            int end = start + rand.nextInt(20000);
+
+            Set<String> expected = new HashSet<String>();
+            for (String[] tokens : records) {
+                int s = Integer.parseInt(tokens[startCol]) + (1 - startOffset);
+                int e = Math.max(s, Integer.parseInt(tokens[endCol]));
+                if (tokens[0].equals(chr) && s <= end && e >= start) {
+                    expected.add(tokens[tokens.length - 1]);
+                }
+            }
+
+            Set<String> actual = new HashSet<String>();
+            TabixReader.Iterator iter = reader.query(chr + ":" + start + "-" + end);
+            String line;
+            while (iter != null && (line = iter.next()) != null) {
+                String[] tokens = line.split("\t");
+                actual.add(tokens[tokens.length - 1]);
+            }
+            assertEquals(expected, actual);
+        }
+        reader.close();
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.maf;
+
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.PrintWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class MAFBinaryReaderTest {
+
+    @Test
+    public void testPackBases() throws Exception {
+        String text = "ACGT-Nacgtn.-A";
+        byte[] packed = MAFTileCodec.packBases(text);
+        assertEquals(7, packed.length);
+        assertEquals(text, MAFTileCodec.unpackBases(packed, text.length()));
+        assertEquals("ACG", MAFTileCodec.unpackBases(MAFTileCodec.packBases("ACG"), 3));
+
+        // Other characters are stored as is
+        assertNull(MAFTileCodec.packBases("ACGRT"));
+    }
+
+    @Test
+    public void testCompareText() throws Exception {
+        String mafFile = TestUtils.DATA_DIR + "maf/ucscSample.maf";
+        File binFile = File.createTempFile("ucscSample", MAFBinaryWriter.EXTENSION);
+        try {
+            MAFBinaryWriter.convert(mafFile, binFile.getAbsolutePath());
+            MAFParser parser = new MAFParser(mafFile);
+            MAFBinaryReader reader = new MAFBinaryReader(binFile.getAbsolutePath());
+
+            assertEquals("hg18 Multiz", reader.getTrackName());
+            assertEquals(new ArrayList<String>(parser.getSpecies()), new ArrayList<String>(reader.getSpecies()));
+            assertEquals("hg18", reader.getRefId());
+            assertAlignmentsEqual(parser.loadAlignments("chr1", 0, 1000000), reader.loadAlignments("chr1", 0, 1000000));
+        } finally {
+            binFile.delete();
+            new File(MAFBinaryWriter.getIndexPath(binFile.getAbsolutePath())).delete();
+            new File(mafFile + ".index").delete();
+        }
+    }
+
+    @Test
+    public void testSelectedSpecies() throws Exception {
+        File mafFile = File.createTempFile("random", ".maf");
+        File binFile = new File(mafFile.getAbsolutePath() + ".bin");
+        try {
+            writeRandomMAF(mafFile, 6, 400);
+            MAFBinaryWriter.convert(mafFile.getAbsolutePath(), binFile.getAbsolutePath(), 1000);
+            List<MultipleAlignmentBlock> allBlocks = parseAll(mafFile);
+
+            MAFBinaryReader reader = new MAFBinaryReader(binFile.getAbsolutePath());
+            Random rand = new Random(3);
+            for (int q = 0; q < 50; q++) {
+                String chr = rand.nextBoolean() ? "chr1" : "chr2";
+                int start = rand.nextInt(30000);
+                int end = start + rand.nextInt(5000);
+                assertAlignmentsEqual(filter(allBlocks, chr, start, end), reader.loadAlignments(chr, start, end));
+            }
+
+            // Only the selected species (and the reference) are decoded
+            reader = new MAFBinaryReader(binFile.getAbsolutePath());
+            List<MultipleAlignmentBlock> blocks = reader.loadAlignments("chr1", 0, 20000, Arrays.asList("sp2"));
+            assertFalse(blocks.isEmpty());
+            boolean hasSp2 = false;
+            for (MultipleAlignmentBlock block : blocks) {
+                assertEquals("sp0", block.getRefSequence().getSpecies());
+                assertNull(block.getSequence("sp1"));
+                hasSp2 |= block.getSequence("sp2") != null;
+            }
+            assertTrue(hasSp2);
+
+            // Selecting another species decodes it in the cached tiles,  without changing blocks already returned
+            List<MultipleAlignmentBlock> sp2Blocks = blocks;
+            List<Integer> sizes = new ArrayList<Integer>();
+            for (MultipleAlignmentBlock block : sp2Blocks) {
+                sizes.add(block.getSequences().size());
+            }
+            blocks = reader.loadAlignments("chr1", 0, 20000, Arrays.asList("sp1", "sp2"));
+            assertAlignmentsEqual(filter(allBlocks, "chr1", 0, 20000), blocks, Arrays.asList("sp0", "sp1", "sp2"));
+            for (int i = 0; i < sp2Blocks.size(); i++) {
+                assertEquals(sizes.get(i).intValue(), sp2Blocks.get(i).getSequences().size());
+                assertNull(sp2Blocks.get(i).getSequence("sp1"));
+            }
+        } finally {
+            mafFile.delete();
+            binFile.delete();
+            new File(mafFile.getAbsolutePath() + ".index").delete();
+            new File(MAFBinaryWriter.getIndexPath(binFile.getAbsolutePath())).delete();
+        }
+    }
+
+    private static List<MultipleAlignmentBlock> parseAll(File mafFile) throws Exception {
+        List<MultipleAlignmentBlock> blocks = new ArrayList<MultipleAlignmentBlock>();
+        BufferedReader reader = new BufferedReader(new FileReader(mafFile));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("a ")) {
+                blocks.add(MAFParser.parseBlock(reader));
+            }
+        }
+        reader.close();
+        return blocks;
+    }
+
+    private static List<MultipleAlignmentBlock> filter(List<MultipleAlignmentBlock> blocks, String chr, int start, int end) {
+        List<MultipleAlignmentBlock> overlapping = new ArrayList<MultipleAlignmentBlock>();
+        for (MultipleAlignmentBlock block : blocks) {
+            if (block.getChr().equals(chr) && block.getEnd() >= start && block.getStart() <= end) {
+                overlapping.add(block);
+            }
+        }
+        return overlapping;
+    }
+
+    private static void assertAlignmentsEqual(List<MultipleAlignmentBlock> expected, List<MultipleAlignmentBlock> actual) {
+        assertAlignmentsEqual(expected, actual, null);
+    }
+
+    private static void assertAlignmentsEqual(List<MultipleAlignmentBlock> expected, List<MultipleAlignmentBlock> actual,
+                                              List<String> species) {
+        if (expected == null || expected.isEmpty()) {
+            assertTrue(actual == null || actual.isEmpty());
+            return;
+        }
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            MultipleAlignmentBlock exp = expected.get(i);
+            MultipleAlignmentBlock act = actual.get(i);
+            assertEquals(exp.getKey().split("_")[0], act.getKey().split("_")[0]);
+            assertEquals(exp.getGaps().size(), act.getGaps().size());
+            for (int pos = exp.getStart(); pos < exp.getEnd(); pos++) {
+                assertEquals(exp.getGapAdjustedIndex(pos), act.getGapAdjustedIndex(pos));
+            }
+            for (MultipleAlignmentBlock.Sequence expSeq : exp.getSequences()) {
+                if (species != null && !species.contains(expSeq.getSpecies())) continue;
+                MultipleAlignmentBlock.Sequence actSeq = act.getSequence(expSeq.getSpecies());
+                assertNotNull(actSeq);
+                assertEquals(expSeq.getChr(), actSeq.getChr());
+                assertEquals(expSeq.getStart(), actSeq.getStart());
+                assertEquals(expSeq.getSize(), actSeq.getSize());
+                assertEquals(expSeq.getStrand(), actSeq.getStrand());
+                assertEquals(expSeq.getSrcSize(), actSeq.getSrcSize());
+                assertEquals(expSeq.getText(), actSeq.getText());
+            }
+        }
+    }
+
+    /**
+     * Write alignment blocks on chr1 and chr2 of the reference species "sp0".  Other species are missing from some
+     * blocks,  and some sequences use characters which are not packed.
+     */
+    private static void writeRandomMAF(File file, int nSpecies, int blocksPerChr) throws Exception {
+        Random rand = new Random(1);
+        PrintWriter pw = new PrintWriter(file);
+        pw.println("##maf version=1");
+        for (String chr : new String[]{"chr1", "chr2"}) {
+            int position = 0;
+            for (int b = 0; b < blocksPerChr; b++) {
+                position += rand.nextInt(50);
+                int width = 20 + rand.nextInt(100);
+                pw.println();
+                pw.println("a score=0");
+                for (int sp = 0; sp < nSpecies; sp++) {
+                    if (sp > 0 && rand.nextInt(3) == 0) {
+                        continue;
+                    }
+                    String alphabet = sp == 0 ? "ACGTacgt" : (rand.nextInt(10) == 0 ? "ACGTNRY" : "ACGTNacgtn");
+                    StringBuilder text = new StringBuilder();
+                    int size = 0;
+                    for (int i = 0; i < width; i++) {
+                        if (i > 0 && rand.nextInt(10) == 0) {
+                            text.append('-');
+                        } else {
+                            text.append(alphabet.charAt(rand.nextInt(alphabet.length())));
+                            size++;
+                        }
+                    }
+                    int start = sp == 0 ? position : rand.nextInt(1000000);
+                    if (sp == 0) {
+                        position += size;
+                    }
+                    pw.println("s sp" + sp + "." + chr + " " + start + " " + size + " " + (rand.nextBoolean() ? "+" : "-") +
+                            " 1000000 " + text);
+                }
+            }
+        }
+        pw.println();
+        pw.close();
+    }
+}
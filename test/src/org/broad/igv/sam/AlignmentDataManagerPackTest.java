@@ -0,0 +1,174 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import htsjdk.samtools.util.CloseableIterator;
+import org.broad.igv.Globals;
+import org.broad.igv.feature.Range;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.sam.reader.AlignmentReader;
+import org.broad.igv.sam.reader.AlignmentReaderFactory;
+import org.broad.igv.ui.IGV;
+import org.broad.igv.ui.panel.FrameManager;
+import org.broad.igv.ui.panel.ReferenceFrame;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Packing of loaded alignments by {@link AlignmentDataManager}.  Does not need a genome,  the frame is fixed.
+ */
+public class AlignmentDataManagerPackTest {
+
+    private static final String chr = "chr3";
+    private static final int start = 125963000;
+    private static final int end = 125968500;
+
+    private boolean headless;
+    private List<ReferenceFrame> frames;
+    private ReferenceFrame frame;
+    private AlignmentDataManager manager;
+
+    @Before
+    public void setUp() throws Exception {
+        headless = Globals.isHeadless();
+        Globals.setHeadless(true);
+
+        frame = new ReferenceFrame("test", IGV.getCID()) {
+            @Override
+            protected Genome getGenome() {
+                return null;
+            }
+
+            @Override
+            public String getChrName() {
+                return chr;
+            }
+
+            @Override
+            public Range getCurrentRange() {
+                return new Range(chr, start + 1000, end - 1000);
+            }
+        };
+        frames = FrameManager.getFrames();
+        FrameManager.setFrames(Arrays.asList(frame));
+
+        ResourceLocator locator = new ResourceLocator(TestUtils.DATA_DIR + "sam/test_2.sam");
+        manager = new AlignmentDataManager(locator, null);
+
+        AlignmentReader reader = AlignmentReaderFactory.getReader(locator);
+        CloseableIterator<Alignment> iter = reader.query(chr, start, end, false);
+        List<Alignment> alignments = new ArrayList<Alignment>();
+        while (iter.hasNext()) {
+            alignments.add(iter.next());
+        }
+        iter.close();
+        reader.close();
+        assertFalse(alignments.isEmpty());
+        manager.putLoadedInterval(new AlignmentInterval(chr, start, end, alignments, null, null, null));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FrameManager.setFrames(frames);
+        Globals.setHeadless(headless);
+    }
+
+    private PackedAlignments getPacking() {
+        return manager.getGroupedAlignmentsContaining(start + 3000, frame);
+    }
+
+    @Test
+    public void testStalePackingDiscarded() throws Exception {
+        AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+
+        int stale = manager.nextPackGeneration();
+        assertTrue(manager.packAlignments(renderOptions));
+        PackedAlignments packed = getPacking();
+        assertNotNull(packed);
+
+        AlignmentTrack.RenderOptions grouped = renderOptions.copy();
+        grouped.groupByOption = AlignmentTrack.GroupOption.STRAND;
+        assertFalse(manager.packAlignments(grouped, stale, null));
+        assertSame(packed, getPacking());
+    }
+
+    @Test
+    public void testPackingReused() throws Exception {
+        AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+
+        assertTrue(manager.packAlignments(renderOptions));
+        PackedAlignments packed = getPacking();
+        assertNotNull(packed);
+        assertSame(packed, getPacking());
+
+        // Equivalent options reuse the packing of the interval
+        assertTrue(manager.packAlignments(renderOptions.copy()));
+        assertSame(packed, getPacking());
+
+        manager.packAlignmentsInBackground(renderOptions, true, null);
+        assertNotSame(packed, getPacking());
+    }
+
+    /**
+     * The pairs option is applied when the packing made with it is published,  even if superseded
+     */
+    @Test
+    public void testViewAsPairs() throws Exception {
+        final AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+        assertTrue(manager.packAlignments(renderOptions));
+        final PackedAlignments packed = getPacking();
+
+        final boolean[] called = new boolean[1];
+        manager.setViewAsPairs(true, renderOptions, new Runnable() {
+            public void run() {
+                assertTrue(renderOptions.isViewPairs());
+                assertNotSame(packed, getPacking());
+                called[0] = true;
+            }
+        });
+        assertTrue(called[0]);
+
+        final AlignmentTrack.RenderOptions unpaired = renderOptions.copy();
+        unpaired.setViewPairs(false);
+        int stale = manager.nextPackGeneration();
+        manager.nextPackGeneration();
+        assertFalse(manager.packAlignments(unpaired, stale, new Runnable() {
+            public void run() {
+                renderOptions.setViewPairs(false);
+            }
+        }));
+        assertFalse(renderOptions.isViewPairs());
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import htsjdk.samtools.util.CloseableIterator;
+import org.broad.igv.Globals;
+import org.broad.igv.sam.reader.AlignmentReader;
+import org.broad.igv.sam.reader.AlignmentReaderFactory;
+import org.broad.igv.util.ResourceLocator;
+import org.broad.igv.util.TestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Packing of a small local file by {@link AlignmentPacker},  including reuse of packings and the row index it packs
+ * with.  No genome is needed.
+ */
+public class AlignmentPackerLocalTest {
+
+    String path = TestUtils.DATA_DIR + "sam/test_2.sam";
+    String chr = "chr3";
+    int start = 125963000;
+    int end = 125968500;
+
+    private boolean headless;
+
+    @Before
+    public void setUp() throws Exception {
+        headless = Globals.isHeadless();
+        Globals.setHeadless(true);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Globals.setHeadless(headless);
+    }
+
+    private AlignmentInterval getAlignmentInterval() throws Exception {
+        AlignmentReader reader = AlignmentReaderFactory.getReader(new ResourceLocator(path));
+        CloseableIterator<Alignment> iter = reader.query(chr, start, end, false);
+        List<Alignment> list = new ArrayList<Alignment>();
+        while (iter.hasNext()) {
+            list.add(iter.next());
+        }
+        iter.close();
+        reader.close();
+        return new AlignmentInterval(chr, start, end, list, null, null, null);
+    }
+
+    @Test
+    public void testPackPairs() throws Exception {
+        AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+        renderOptions.setViewPairs(true);
+        AlignmentInterval interval = getAlignmentInterval();
+
+        Map<String, List<Row>> result = (new AlignmentPacker()).packAlignments(interval, renderOptions);
+        for (List<Row> alignmentrows : result.values()) {
+            for (Row alignmentrow : alignmentrows) {
+                List<Alignment> alignments = alignmentrow.alignments;
+                for (int ii = 1; ii < alignments.size(); ii++) {
+                    assertTrue(alignments.get(ii).getStart() - alignments.get(ii - 1).getEnd() >= AlignmentPacker.MIN_ALIGNMENT_SPACING);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testPackingReused() throws Exception {
+        AlignmentTrack.RenderOptions renderOptions = new AlignmentTrack.RenderOptions();
+        AlignmentInterval interval = getAlignmentInterval();
+        assertFalse(interval.getAlignments().isEmpty());
+        AlignmentPacker packer = new AlignmentPacker();
+
+        PackedAlignments packed = packer.packAlignments(interval, renderOptions);
+        renderOptions.groupByOption = AlignmentTrack.GroupOption.STRAND;
+        PackedAlignments grouped = packer.packAlignments(interval, renderOptions);
+        assertTrue(packed != grouped);
+
+        renderOptions.groupByOption = null;
+        assertTrue(packed == packer.packAlignments(interval, renderOptions));
+
+        interval.clearPackings();
+        assertTrue(packed != packer.packAlignments(interval, renderOptions));
+    }
+
+    @Test
+    public void testRowEnds() {
+        AlignmentPacker.RowEnds rowEnds = new AlignmentPacker.RowEnds(5);
+        assertEquals(0, rowEnds.firstRowEndingBy(0));
+        rowEnds.set(0, 100);
+        rowEnds.set(1, 50);
+        rowEnds.set(2, 200);
+        assertEquals(1, rowEnds.firstRowEndingBy(60));
+        assertEquals(0, rowEnds.firstRowEndingBy(100));
+        assertEquals(3, rowEnds.firstRowEndingBy(40));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam;
+
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import org.broad.igv.PreferenceManager;
+import org.broad.igv.util.TestUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompactAlignmentStoreTest {
+
+    private static final String[] FILES = {"sam/NA12878.muc1.test.sam", "sam/hardSoftClip.sam",
+            "sam/has_padding.sam", "sam/test_padding.sam", "sam/yc_tags.sam", "sam/zf_tags.sam",
+            "bam/chr1_chr2.hg18.bam"};
+
+    @Test
+    public void testCompareOriginal() throws Exception {
+        for (String file : FILES) {
+            compareOriginal(file);
+        }
+    }
+
+    @Test
+    public void testCompareOriginalSoftClipped() throws Exception {
+        PreferenceManager prefs = PreferenceManager.getInstance();
+        String showSoftClipped = prefs.get(PreferenceManager.SAM_SHOW_SOFT_CLIPPED);
+        try {
+            prefs.put(PreferenceManager.SAM_SHOW_SOFT_CLIPPED, "true");
+            compareOriginal("sam/hardSoftClip.sam");
+            compareOriginal("sam/NA12878.muc1.test.sam");
+        } finally {
+            prefs.put(PreferenceManager.SAM_SHOW_SOFT_CLIPPED, showSoftClipped);
+        }
+    }
+
+    @Test
+    public void testRetain() throws Exception {
+        CompactAlignmentStore store = new CompactAlignmentStore(null);
+        List<PicardAlignment> originals = load("sam/NA12878.muc1.test.sam");
+        List<Alignment> views = new ArrayList<Alignment>();
+        for (PicardAlignment al : originals) {
+            views.add(store.add(al));
+        }
+        views.get(1).setMateSequence("ACGT");
+        originals.get(1).setMateSequence("ACGT");
+
+        // Keep every other alignment
+        List<Alignment> retained = new ArrayList<Alignment>();
+        List<PicardAlignment> retainedOriginals = new ArrayList<PicardAlignment>();
+        for (int i = 1; i < views.size(); i += 2) {
+            retained.add(views.get(i));
+            retainedOriginals.add(originals.get(i));
+        }
+        long bytes = store.getRetainedBytes();
+        store.retain(retained);
+
+        assertEquals(retained.size(), store.size());
+        assertTrue(store.getRetainedBytes() < bytes);
+        for (int i = 0; i < retained.size(); i++) {
+            assertEquivalent(retainedOriginals.get(i), retained.get(i));
+        }
+        assertTrue(retained.get(0).getValueString(retained.get(0).getStart(), null).contains("Mate sequence: ACGT"));
+    }
+
+    private void compareOriginal(String file) throws Exception {
+        CompactAlignmentStore store = new CompactAlignmentStore(null);
+        List<PicardAlignment> originals = load(file);
+        List<Alignment> packed = new ArrayList<Alignment>();
+        for (PicardAlignment al : originals) {
+            packed.add(store.add(al));
+        }
+        assertEquals(originals.size(), store.size() + store.getFallbackCount());
+        if (file.equals("sam/test_padding.sam")) {
+            // Reads without sequence are kept as records
+            assertEquals(file, 0, store.size());
+        } else {
+            assertTrue(file, store.size() > 0);
+        }
+        for (int i = 0; i < originals.size(); i++) {
+            Alignment al = packed.get(i);
+            if (al == originals.get(i)) {
+                continue;
+            }
+            assertTrue(al instanceof CompactAlignmentStore.CompactAlignment);
+            assertEquivalent(originals.get(i), al);
+        }
+    }
+
+    private List<PicardAlignment> load(String file) throws Exception {
+        SamReader reader = SamReaderFactory.makeDefault().validationStringency(ValidationStringency.SILENT)
+                .open(new File(TestUtils.DATA_DIR + file));
+        List<PicardAlignment> alignments = new ArrayList<PicardAlignment>();
+        for (SAMRecord record : reader) {
+            if (!record.getReadUnmappedFlag()) {
+                alignments.add(new PicardAlignment(record));
+            }
+        }
+        reader.close();
+        return alignments;
+    }
+
+    private void assertEquivalent(PicardAlignment expected, Alignment al) {
+        String name = expected.getReadName();
+        assertEquals(name, al.getReadName());
+        assertEquals(name, expected.getReadSequence(), al.getReadSequence());
+        assertEquals(name, expected.getChr(), al.getChr());
+        assertEquals(name, expected.getStart(), al.getStart());
+        assertEquals(name, expected.getEnd(), al.getEnd());
+        assertEquals(name, expected.getAlignmentStart(), al.getAlignmentStart());
+        assertEquals(name, expected.getAlignmentEnd(), al.getAlignmentEnd());
+        assertEquals(name, expected.getCigarString(), al.getCigarString());
+        assertEquals(name, expected.getMappingQuality(), al.getMappingQuality());
+        assertEquals(name, expected.getInferredInsertSize(), al.getInferredInsertSize());
+        assertEquals(name, expected.isPaired(), al.isPaired());
+        assertEquals(name, expected.isProperPair(), al.isProperPair());
+        assertEquals(name, expected.isFirstOfPair(), al.isFirstOfPair());
+        assertEquals(name, expected.isSecondOfPair(), al.isSecondOfPair());
+        assertEquals(name, expected.isNegativeStrand(), al.isNegativeStrand());
+        assertEquals(name, expected.isDuplicate(), al.isDuplicate());
+        assertEquals(name, expected.isPrimary(), al.isPrimary());
+        assertEquals(name, expected.isSupplementary(), al.isSupplementary());
+        assertEquals(name, expected.isVendorFailedRead(), al.isVendorFailedRead());
+        assertEquals(name, expected.getPairOrientation(), al.getPairOrientation());
+        assertEquals(name, expected.getFirstOfPairStrand(), al.getFirstOfPairStrand());
+        assertEquals(name, expected.getSecondOfPairStrand(), al.getSecondOfPairStrand());
+        assertEquals(name, expected.getColor(), al.getColor());
+        assertEquals(name, expected.getSample(), al.getSample());
+        assertEquals(name, expected.getReadGroup(), al.getReadGroup());
+        assertEquals(name, expected.getLibrary(), al.getLibrary());
+        assertArrayEquals(name, expected.getGapTypes(), al.getGapTypes());
+
+        ReadMate mate = expected.getMate();
+        if (mate == null) {
+            assertNull(al.getMate());
+        } else {
+            assertEquals(mate.getChr(), al.getMate().getChr());
+            assertEquals(mate.getStart(), al.getMate().getStart());
+            assertEquals(mate.isMapped(), al.getMate().isMapped());
+            assertEquals(mate.isNegativeStrand(), al.getMate().isNegativeStrand());
+        }
+
+        assertBlocksEqual(expected.getAlignmentBlocks(), al.getAlignmentBlocks());
+        assertBlocksEqual(expected.getInsertions(), al.getInsertions());
+
+        for (int pos = expected.getStart() - 1; pos <= expected.getEnd(); pos++) {
+            assertEquals(expected.getBase(pos), al.getBase(pos));
+            assertEquals(expected.getPhred(pos), al.getPhred(pos));
+            assertEquals(expected.getValueString(pos, null), al.getValueString(pos, null));
+        }
+        assertEquals(expected.getClipboardString(expected.getStart()), al.getClipboardString(expected.getStart()));
+
+        for (SAMRecord.SAMTagAndValue tag : expected.getRecord().getAttributes()) {
+            Object value = al.getAttribute(tag.tag);
+            if (tag.value.getClass().isArray()) {
+                assertEquals(tag.value.getClass(), value.getClass());
+            } else {
+                assertEquals(tag.value, value);
+            }
+        }
+        assertEquals(expected.getAttribute("TEMPLATE_ORIENTATION"), al.getAttribute("TEMPLATE_ORIENTATION"));
+        assertNull(al.getAttribute("XX"));
+
+        SAMRecord record = ((CompactAlignmentStore.CompactAlignment) al).toSAMRecord(expected.getRecord().getHeader());
+        assertEquals(expected.getRecord().getSAMString(), record.getSAMString());
+    }
+
+    private void assertBlocksEqual(AlignmentBlock[] expected, AlignmentBlock[] blocks) {
+        if (expected == null) {
+            assertTrue(blocks == null || blocks.length == 0);
+            return;
+        }
+        assertEquals(expected.length, blocks.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].getStart(), blocks[i].getStart());
+            assertEquals(expected[i].getLength(), blocks[i].getLength());
+            assertEquals(expected[i].isSoftClipped(), blocks[i].isSoftClipped());
+            assertEquals(expected[i].hasBases(), blocks[i].hasBases());
+            assertArrayEquals(expected[i].getBases(), blocks[i].getBases());
+            assertArrayEquals(expected[i].getQualities(), blocks[i].getQualities());
+        }
+    }
+}
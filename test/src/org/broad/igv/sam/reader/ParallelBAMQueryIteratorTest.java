@@ -0,0 +1,192 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.sam.reader;
+
+import htsjdk.samtools.*;
+import org.broad.igv.sam.PicardAlignment;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ParallelBAMQueryIteratorTest {
+
+    static File dir;
+    static File bamFile;
+
+    /**
+     * Write a sorted,  indexed BAM file spanning many BGZF blocks
+     */
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        dir = new File(System.getProperty("java.io.tmpdir"), "igvParallelBAMTest" + System.nanoTime());
+        dir.mkdirs();
+        bamFile = new File(dir, "test.bam");
+
+        SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("chr1", 1000000));
+        header.addSequence(new SAMSequenceRecord("chr2", 1000000));
+        header.addSequence(new SAMSequenceRecord("chr3", 1000000));
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+
+        Random rand = new Random(1);
+        String[] cigars = {"100M", "50M2I48M", "10S90M", "40M500N60M", "60M5D40M"};
+        SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, false, bamFile);
+        for (int i = 0; i < 40000; i++) {
+            SAMRecord record = new SAMRecord(header);
+            record.setReadName("read" + i);
+            record.setReferenceName(i % 10 == 0 ? "chr1" : "chr2");
+            record.setAlignmentStart(1 + rand.nextInt(200000));
+            StringBuilder bases = new StringBuilder();
+            StringBuilder qualities = new StringBuilder();
+            for (int k = 0; k < 100; k++) {
+                bases.append("ACGT".charAt(rand.nextInt(4)));
+                qualities.append((char) (33 + rand.nextInt(40)));
+            }
+            record.setReadString(bases.toString());
+            record.setBaseQualityString(qualities.toString());
+            if (i % 50 == 0) {
+                // Unmapped,  placed with its mate
+                record.setReadUnmappedFlag(true);
+                record.setCigarString("*");
+            } else {
+                record.setCigarString(cigars[rand.nextInt(cigars.length)]);
+                record.setMappingQuality(rand.nextInt(60));
+            }
+            record.setAttribute("NM", rand.nextInt(5));
+            writer.addAlignment(record);
+        }
+        writer.close();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void testCompareQuery() throws Exception {
+        SAMFileReader reader = new SAMFileReader(bamFile, new File(dir, "test.bai"));
+        reader.setValidationStringency(ValidationStringency.SILENT);
+        assertTrue(reader.hasIndex());
+
+        int[][] regions = {{1, 200000}, {1000, 2000}, {50000, 150000}, {199990, 300000}, {500000, 600000}};
+        String[] chrs = {"chr1", "chr2", "chr3"};
+        for (String chr : chrs) {
+            for (int[] region : regions) {
+                compareQuery(reader, chr, region[0], region[1], false);
+                compareQuery(reader, chr, region[0], region[1], true);
+            }
+        }
+        compareQuery(reader, "chr2", 1, 0, false);
+        reader.close();
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        SAMFileReader reader = new SAMFileReader(bamFile, new File(dir, "test.bai"));
+        int referenceIndex = reader.getFileHeader().getSequenceIndex("chr2");
+        long[] chunks = ParallelBAMQueryIterator.getChunks(reader.getIndex(), referenceIndex, 1, 200000);
+        ParallelBAMQueryIterator iter = new ParallelBAMQueryIterator(bamFile, reader.getFileHeader(),
+                referenceIndex, 1, 200000, false, chunks);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(iter.hasNext());
+            iter.next();
+        }
+        iter.close();
+        assertFalse(iter.hasNext());
+        reader.close();
+    }
+
+    /**
+     * The reader thread stops if the iterator is dropped without being closed
+     */
+    @Test
+    public void testAbandoned() throws Exception {
+        SAMFileReader reader = new SAMFileReader(bamFile, new File(dir, "test.bai"));
+        int referenceIndex = reader.getFileHeader().getSequenceIndex("chr2");
+        long[] chunks = ParallelBAMQueryIterator.getChunks(reader.getIndex(), referenceIndex, 1, 200000);
+        ParallelBAMQueryIterator iter = new ParallelBAMQueryIterator(bamFile, reader.getFileHeader(),
+                referenceIndex, 1, 200000, false, chunks);
+        assertTrue(iter.hasNext());
+        iter.next();
+        Thread readerThread = iter.getReaderThread();
+        iter = null;
+
+        for (int i = 0; i < 100 && readerThread.isAlive(); i++) {
+            System.gc();
+            readerThread.join(100);
+        }
+        assertFalse(readerThread.isAlive());
+        reader.close();
+    }
+
+    @Test
+    public void testRecordBuffer() {
+        ParallelBAMQueryIterator.RecordBuffer buffer = new ParallelBAMQueryIterator.RecordBuffer();
+        byte[] records = {3, 0, 0, 0, 1, 2, 3, 2, 0, 0, 0, 4, 5, 6, 0};
+        buffer.append(records, 0, 9);
+        assertEquals(7, buffer.completeRecords());
+        buffer.append(records, 9, records.length - 9);
+        assertEquals(13, buffer.completeRecords());
+        assertArrayEquals(new byte[]{3, 0, 0, 0, 1, 2, 3}, buffer.take(7));
+        assertEquals(6, buffer.completeRecords());
+        assertEquals(8, buffer.length);
+    }
+
+    private void compareQuery(SAMFileReader reader, String chr, int start, int end, boolean contained) {
+        List<String> expected = new ArrayList<String>();
+        SAMRecordIterator query = reader.query(chr, start, end, contained);
+        while (query.hasNext()) {
+            expected.add(query.next().getSAMString());
+        }
+        query.close();
+
+        int referenceIndex = reader.getFileHeader().getSequenceIndex(chr);
+        long[] chunks = ParallelBAMQueryIterator.getChunks(reader.getIndex(), referenceIndex, start, end);
+        assertNotNull(chunks);
+        ParallelBAMQueryIterator iter = new ParallelBAMQueryIterator(bamFile, reader.getFileHeader(),
+                referenceIndex, start, end, contained, chunks);
+        List<String> records = new ArrayList<String>();
+        while (iter.hasNext()) {
+            PicardAlignment al = iter.next();
+            records.add(al.getRecord().getSAMString());
+        }
+        iter.close();
+
+        assertEquals(chr + ":" + start + "-" + end, expected.size(), records.size());
+        assertEquals(expected, records);
+    }
+}
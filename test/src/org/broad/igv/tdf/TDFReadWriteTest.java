@@ -37,10 +37,16 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * File file, TrackType trackType, String trackLine, String[] trackNames
@@ -184,6 +190,70 @@ public class TDFReadWriteTest {
     }
 
 
+    /**
+     * Read tiles from many threads at once,  and with the parallel range query
+     */
+    @Test
+    public void testConcurrentRead() throws Exception {
+
+        File testFile = new File("test5.tdf");
+        testFile.deleteOnExit();
+
+        final String dsName = "/chr1/z0/mean";
+        final int nTiles = 50;
+        final int tileWidth = 1000;
+
+        TDFWriter writer = new TDFWriter(testFile, "hg18", type, trackLine, trackNames, wfs, true);
+        writer.createDataset(dsName, TDFDataset.DataType.FLOAT, tileWidth, nTiles);
+        for (int t = 0; t < nTiles; t++) {
+            if (t % 7 == 3) continue;   // leave some tiles empty
+            writer.writeTile(dsName, t, new TDFFixedTile(t * tileWidth, t * tileWidth, 1, tileData(t)));
+        }
+        writer.closeFile();
+
+        final TDFReader reader = TDFReader.getReader(testFile.getAbsolutePath());
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 200; i++) {
+                final int t = i % nTiles;
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        TDFTile tile = reader.readTile(reader.getDataset(dsName), t);
+                        if (t % 7 == 3) {
+                            return tile == null;
+                        }
+                        return tile.getValue(2, 999) == tileData(t)[2][999];
+                    }
+                }));
+            }
+            for (Future<Boolean> f : results) {
+                assertTrue(f.get());
+            }
+            executor.shutdown();
+
+            List<TDFTile> tiles = reader.getDataset(dsName).getTiles(0, nTiles * tileWidth);
+            assertEquals(nTiles - 7, tiles.size());
+            for (TDFTile tile : tiles) {
+                int t = tile.getStartPosition(0) / tileWidth;
+                assertEquals(tileData(t)[1][500], tile.getValue(1, 500), 0);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static float[][] tileData(int tileNumber) {
+        float[][] data = new float[trackNames.length][1000];
+        for (int i = 0; i < trackNames.length; i++) {
+            for (int j = 0; j < 1000; j++) {
+                data[i][j] = tileNumber * 10000 + i * 1000 + j;
+            }
+        }
+        return data;
+    }
+
+
     public static void main(String[] args) {
         org.junit.runner.JUnitCore.runClasses(TDFReadWriteTest.class);
 
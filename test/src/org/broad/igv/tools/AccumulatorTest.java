@@ -29,6 +29,7 @@
  */
 package org.broad.igv.tools;
 
+import org.broad.igv.tdf.Accumulator;
 import org.broad.igv.track.WindowFunction;
 import org.junit.Before;
 import org.junit.Test;
@@ -100,6 +101,47 @@ public class AccumulatorTest {
     }
 
 
+    /**
+     * Test estimation of all percentiles with a quantile sketch
+     */
+    @Test
+    public void testSketch() {
+
+        ListAccumulator accum = new ListAccumulator(wfs, 100);
+        for (int i = 0; i < numberOfPoints; i++) {
+            accum.add(1, (float) Math.random());
+        }
+        accum.finish();
+
+        for (WindowFunction wf : wfs) {
+            double v = accum.getValue(wf);
+            assertEquals(wf.getValue(), values.get(wf), v, 1.0e-2);
+        }
+    }
+
+
+    /**
+     * The single window function Accumulator keeps exact percentiles unless a sketch compression is requested
+     */
+    @Test
+    public void testAccumulatorExactByDefault() {
+
+        Accumulator exact = new Accumulator(WindowFunction.median, 5);
+        Accumulator sketched = new Accumulator(WindowFunction.median, 5, 10);
+        // Skewed values,  well beyond the count a sketch of compression 10 holds exactly
+        for (int i = 0; i < 2001; i++) {
+            float v = (float) (i * i);
+            exact.add(1, v, null);
+            sketched.add(1, v, null);
+        }
+        exact.finish();
+        sketched.finish();
+
+        assertEquals(1000f * 1000f, exact.getValue(), 0);
+        assertTrue(sketched.getValue() != exact.getValue());
+    }
+
+
     /**
      * Pathological case,  all zeroes
      */
@@ -0,0 +1,190 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.tools;
+
+import htsjdk.samtools.*;
+import org.broad.igv.tools.parsers.DataConsumer;
+import org.broad.igv.track.TrackType;
+import org.junit.Ignore;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Throughput benchmark for {@link CoverageCounter}.  A synthetic, coordinate sorted and indexed BAM is generated in
+ * the temp directory and counted repeatedly with a consumer that discards the data, so the timings reflect reading
+ * and counting only.  Run from the command line:
+ * <p/>
+ * java org.broad.igv.tools.CoverageCounterBenchmark [coverage] [chrLength] [repeats] [nChromosomes] [threads]
+ */
+@Ignore
+public class CoverageCounterBenchmark {
+
+    static final int READ_LENGTH = 100;
+
+    public static void main(String[] args) throws Exception {
+
+        int coverage = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+        int chrLength = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        int repeats = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        int nChromosomes = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+        int maxThreads = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+
+        File bamFile = File.createTempFile("coverageBenchmark", ".bam");
+        bamFile.deleteOnExit();
+        new File(bamFile.getAbsolutePath().replace(".bam", ".bai")).deleteOnExit();
+        long nReads = writeSyntheticBam(bamFile, coverage, chrLength, nChromosomes);
+        System.out.println("Synthetic BAM: " + nReads + " reads, " + coverage + "x over " + nChromosomes +
+                " x " + chrLength + " bp");
+
+        int[] windowSizes = {1, 25};
+        int[] flags = {0, CoverageCounter.STRANDS_BY_READ + CoverageCounter.BASES};
+
+        for (int nThreads = 1; nThreads <= maxThreads; nThreads *= 2) {
+            for (int windowSize : windowSizes) {
+                for (int countFlags : flags) {
+                    // Warm up
+                    count(bamFile, windowSize, countFlags, nThreads);
+
+                    long best = Long.MAX_VALUE;
+                    long gcTime = 0;
+                    for (int r = 0; r < repeats; r++) {
+                        long gc0 = totalGCTime();
+                        long t0 = System.currentTimeMillis();
+                        count(bamFile, windowSize, countFlags, nThreads);
+                        best = Math.min(best, System.currentTimeMillis() - t0);
+                        gcTime += totalGCTime() - gc0;
+                    }
+                    double readsPerSecond = (1000.0 * nReads) / best;
+                    System.out.println(String.format("threads=%d window=%d flags=%d  best=%d ms  (%.0f reads/s)  gc=%d ms/run",
+                            nThreads, windowSize, countFlags, best, readsPerSecond, gcTime / repeats));
+                }
+            }
+        }
+    }
+
+    static void count(File bamFile, int windowSize, int countFlags, int nThreads) throws IOException {
+        NullDataConsumer consumer = new NullDataConsumer();
+        CoverageCounter counter = new CoverageCounter(bamFile.getAbsolutePath(), consumer, windowSize, 0, null,
+                null, null, 0, countFlags);
+        counter.setNumThreads(nThreads);
+        counter.parse();
+        if (consumer.nRecords == 0) {
+            throw new RuntimeException("No data counted");
+        }
+    }
+
+    /**
+     * Write a coordinate sorted and indexed BAM of fixed length reads with random bases, strand, and the
+     * occasional deletion or soft clip.
+     */
+    static long writeSyntheticBam(File bamFile, int coverage, int chrLength, int nChromosomes) {
+
+        SAMFileHeader header = new SAMFileHeader();
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+        for (int c = 1; c <= nChromosomes; c++) {
+            header.addSequence(new SAMSequenceRecord("chr" + c, chrLength));
+        }
+
+        SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, true, bamFile);
+
+        Random rand = new Random(1234);
+        byte[] alphabet = {'A', 'C', 'G', 'T', 'N'};
+        long readsPerChr = ((long) coverage) * chrLength / READ_LENGTH;
+        double step = ((double) chrLength - 2 * READ_LENGTH) / readsPerChr;
+
+        try {
+            for (long i = 0; i < readsPerChr * nChromosomes; i++) {
+                SAMRecord record = new SAMRecord(header);
+                record.setReadName("read" + i);
+                record.setReferenceIndex((int) (i / readsPerChr));
+                record.setAlignmentStart(1 + (int) ((i % readsPerChr) * step));
+                record.setMappingQuality(60);
+                record.setReadNegativeStrandFlag(rand.nextBoolean());
+
+                int r = rand.nextInt(20);
+                if (r == 0) {
+                    record.setCigarString("50M5D50M");
+                } else if (r == 1) {
+                    record.setCigarString("10S90M");
+                } else {
+                    record.setCigarString(READ_LENGTH + "M");
+                }
+
+                byte[] bases = new byte[READ_LENGTH];
+                byte[] quals = new byte[READ_LENGTH];
+                for (int b = 0; b < READ_LENGTH; b++) {
+                    bases[b] = alphabet[rand.nextInt(alphabet.length)];
+                    quals[b] = 30;
+                }
+                record.setReadBases(bases);
+                record.setBaseQualities(quals);
+                writer.addAlignment(record);
+            }
+        } finally {
+            writer.close();
+        }
+        return readsPerChr * nChromosomes;
+    }
+
+    static long totalGCTime() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+        return time;
+    }
+
+    static class NullDataConsumer implements DataConsumer {
+
+        long nRecords = 0;
+
+        public void setType(String type) {
+        }
+
+        public void addData(String chr, int start, int end, float[] data, String name) {
+            nRecords++;
+        }
+
+        public void parsingComplete() {
+        }
+
+        public void setTrackParameters(TrackType trackType, String trackLine, String[] trackNames) {
+        }
+
+        public void setTrackParameters(TrackType trackType, String trackLine, String[] trackNames, boolean b) {
+        }
+
+        public void setSortTolerance(int tolerance) {
+        }
+
+        public void setAttribute(String key, String value) {
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.tools;
+
+import htsjdk.samtools.*;
+import org.apache.commons.io.FileUtils;
+import org.broad.igv.feature.Chromosome;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.track.TrackType;
+import org.broad.igv.track.WindowFunction;
+import org.broad.igv.util.TestUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Coverage counts of synthetic BAM files,  on a synthetic genome.  Does not need a loaded genome or IGV instance.
+ */
+public class CoverageCounterSyntheticTest {
+
+    @After
+    public void tearDown() throws Exception {
+        TestUtils.clearOutputDir();
+    }
+
+    /**
+     * Compare the counts for a synthetic BAM against counts computed base by base from the records.  Reads
+     * straddle the ring buffer boundary (window 1024 at window size 1) and a long read forces the ring to grow.
+     */
+    @Test
+    public void testRingBufferCounts() throws Exception {
+
+        File dir = new File(TestUtils.TMP_OUTPUT_DIR);
+        dir.mkdirs();
+        File bamFile = new File(dir, "testRingBuffer.bam");
+        List<SAMRecord> records = writeSyntheticBam(bamFile);
+
+        List<Chromosome> chromosomes = Arrays.asList(new Chromosome(0, "chr1", 1000000), new Chromosome(1, "chr2", 1000000));
+        Genome syntheticGenome = new Genome("synthetic", chromosomes);
+
+        int[] windowSizes = {1, 25};
+        int[] extFactors = {0, 60};
+        int[] flags = {0, CoverageCounter.STRANDS_BY_READ, CoverageCounter.BASES,
+                CoverageCounter.STRANDS_BY_READ + CoverageCounter.BASES};
+
+        for (int windowSize : windowSizes) {
+            for (int extFactor : extFactors) {
+                for (int countFlags : flags) {
+                    CoverageCounterTest.TestDataConsumer dc = new CoverageCounterTest.TestDataConsumer();
+                    CoverageCounter cc = new CoverageCounter(bamFile.getAbsolutePath(), dc, windowSize, extFactor,
+                            null, syntheticGenome, null, 0, countFlags);
+                    cc.parse();
+
+                    Map<String, float[]> expected = expectedCounts(records, windowSize, extFactor, countFlags);
+                    String msg = "window=" + windowSize + " ext=" + extFactor + " flags=" + countFlags;
+                    assertEquals(msg, String.valueOf(records.size()), dc.attributes.get("totalCount"));
+                    assertEquals(msg, expected.size(), dc.testDatas.size());
+                    for (CoverageCounterTest.TestData td : dc.testDatas) {
+                        String key = td.chr + ":" + td.start;
+                        float[] exp = expected.get(key);
+                        assertNotNull(msg + " unexpected window " + key, exp);
+                        assertEquals(msg, td.start + windowSize, td.end);
+                        assertEquals(msg, exp.length, td.data.length);
+                        for (int i = 0; i < exp.length; i++) {
+                            assertEquals(msg + " " + key + " col " + i, exp[i], td.data[i], 1e-5);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Counting on several threads spills each chromosome to a temporary file and replays them in order.  The wig and
+     * TDF output must be byte-identical to a single threaded count, and the spill files removed.
+     */
+    @Test
+    public void testThreadsIdenticalOutput() throws Exception {
+
+        File dir = new File(TestUtils.TMP_OUTPUT_DIR);
+        dir.mkdirs();
+        File bamFile = new File(dir, "testThreads.bam");
+        writeSyntheticBam(bamFile);
+
+        List<Chromosome> chromosomes = Arrays.asList(new Chromosome(0, "chr1", 1000000), new Chromosome(1, "chr2", 1000000));
+        Genome syntheticGenome = new Genome("synthetic", chromosomes);
+
+        int[] threads = {1, 4};
+        int[] flags = {0, CoverageCounter.STRANDS_BY_READ + CoverageCounter.BASES};
+        for (int countFlags : flags) {
+            byte[][] wigBytes = new byte[threads.length][];
+            byte[][] tdfBytes = new byte[threads.length][];
+            for (int t = 0; t < threads.length; t++) {
+                File wigFile = new File(dir, "testThreads" + threads[t] + ".wig");
+                File tdfFile = new File(dir, "testThreads" + threads[t] + ".tdf");
+                File spillDir = new File(dir, "spill" + threads[t]);
+                spillDir.mkdirs();
+
+                Preprocessor p = new Preprocessor(tdfFile, syntheticGenome, Arrays.asList(WindowFunction.mean), -1, null);
+                p.setSkipZeroes(true);
+                CoverageCounter cc = new CoverageCounter(bamFile.getAbsolutePath(), p, 25, 60, wigFile,
+                        syntheticGenome, null, 0, countFlags);
+                cc.setNumThreads(threads[t]);
+                cc.setTmpDir(spillDir);
+                p.setTrackParameters(TrackType.COVERAGE, null, cc.getTrackNames("testThreads "));
+                cc.parse();
+                p.finish();
+
+                assertEquals(0, spillDir.listFiles().length);
+                spillDir.delete();
+                wigBytes[t] = FileUtils.readFileToByteArray(wigFile);
+                tdfBytes[t] = FileUtils.readFileToByteArray(tdfFile);
+            }
+            assertTrue(wigBytes[0].length > 0);
+            for (int t = 1; t < threads.length; t++) {
+                assertTrue("wig output differs for " + threads[t] + " threads", Arrays.equals(wigBytes[0], wigBytes[t]));
+                assertTrue("tdf output differs for " + threads[t] + " threads", Arrays.equals(tdfBytes[0], tdfBytes[t]));
+            }
+        }
+    }
+
+    /**
+     * Records written to a spill file are replayed unchanged, with the chromosome of each record restored.
+     */
+    @Test
+    public void testSpillFileReplay() throws Exception {
+
+        File dir = new File(TestUtils.TMP_OUTPUT_DIR);
+        dir.mkdirs();
+        CoverageCounter.SpillFile spillFile = new CoverageCounter.SpillFile(File.createTempFile("spill", ".bin", dir));
+
+        CoverageCounterTest.TestDataConsumer expected = new CoverageCounterTest.TestDataConsumer();
+        for (int i = 0; i < 100; i++) {
+            String chr = i < 60 ? "chr1" : "chr2";
+            float[] data = {i, i / 3.0f, Float.NaN};
+            spillFile.addData(chr, i * 10, i * 10 + 10, data, null);
+            expected.addData(chr, i * 10, i * 10 + 10, data, null);
+        }
+        spillFile.parsingComplete();
+
+        CoverageCounterTest.TestDataConsumer actual = new CoverageCounterTest.TestDataConsumer();
+        spillFile.replay(actual, null, new float[3]);
+        spillFile.delete();
+        assertFalse(spillFile.file.exists());
+
+        assertEquals(expected.testDatas.size(), actual.testDatas.size());
+        for (int i = 0; i < expected.testDatas.size(); i++) {
+            CoverageCounterTest.TestData e = expected.testDatas.get(i);
+            CoverageCounterTest.TestData a = actual.testDatas.get(i);
+            assertEquals(e.chr, a.chr);
+            assertEquals(e.start, a.start);
+            assertEquals(e.end, a.end);
+            assertTrue(Arrays.equals(e.data, a.data));
+        }
+    }
+
+    /**
+     * Write an indexed BAM of reads at fixed positions around multiples of 1024, including a 3000 bp read,  deletions,
+     * soft clips,  reads on both strands,  and a second chromosome.
+     *
+     * @return the records written
+     */
+    static List<SAMRecord> writeSyntheticBam(File bamFile) {
+
+        SAMFileHeader header = new SAMFileHeader();
+        header.addSequence(new SAMSequenceRecord("chr1", 1000000));
+        header.addSequence(new SAMSequenceRecord("chr2", 1000000));
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+
+        Random rand = new Random(7);
+        String[] cigars = {"50M", "50M", "20M10D30M", "5S45M", "25M2I23M"};
+        int[] starts = {1, 900, 1000, 1010, 1020, 1024, 1025, 1030, 1500, 2000, 2040, 2047, 2048, 2100, 4090, 4096};
+        List<SAMRecord> records = new ArrayList<SAMRecord>();
+
+        for (String chr : new String[]{"chr1", "chr2"}) {
+            for (int start : starts) {
+                for (int n = 0; n < 3; n++) {
+                    String cigar = (chr.equals("chr1") && start == 1500 && n == 0) ? "3000M" : cigars[rand.nextInt(cigars.length)];
+                    records.add(newRecord(header, chr, start + n * 7, cigar, rand));
+                }
+            }
+        }
+
+        SAMFileWriter writer = new SAMFileWriterFactory().setCreateIndex(true).makeBAMWriter(header, false, bamFile);
+        for (SAMRecord record : records) {
+            writer.addAlignment(record);
+        }
+        writer.close();
+        return records;
+    }
+
+    private static SAMRecord newRecord(SAMFileHeader header, String chr, int start, String cigar, Random rand) {
+        SAMRecord record = new SAMRecord(header);
+        record.setReadName("read" + chr + start + cigar);
+        record.setReferenceName(chr);
+        record.setAlignmentStart(start);
+        record.setCigarString(cigar);
+        record.setMappingQuality(60);
+        record.setReadNegativeStrandFlag(rand.nextBoolean());
+        int readLength = record.getCigar().getReadLength();
+        StringBuilder bases = new StringBuilder();
+        StringBuilder qualities = new StringBuilder();
+        for (int k = 0; k < readLength; k++) {
+            bases.append("ACGTN".charAt(rand.nextInt(5)));
+            qualities.append('I');
+        }
+        record.setReadString(bases.toString());
+        record.setBaseQualityString(qualities.toString());
+        return record;
+    }
+
+    /**
+     * Count coverage base by base from the records,  one map entry per non-empty window keyed by chr:start.
+     */
+    private static Map<String, float[]> expectedCounts(List<SAMRecord> records, int windowSize, int extFactor, int countFlags) {
+
+        boolean strands = (countFlags & CoverageCounter.STRANDS_BY_READ) != 0;
+        boolean bases = (countFlags & CoverageCounter.BASES) != 0;
+        String nucleotides = "ACGTN";
+
+        // Counts per window: total, then per strand, then per strand and nucleotide
+        Map<String, int[]> counts = new LinkedHashMap<String, int[]>();
+        for (SAMRecord record : records) {
+            boolean negative = record.getReadNegativeStrandFlag();
+            int strand = negative ? 1 : 0;
+            byte[] readBases = record.getReadBases();
+            for (AlignmentBlock block : record.getAlignmentBlocks()) {
+                int blockStart = block.getReferenceStart() - 1;
+                int blockEnd = blockStart + block.getLength();
+                int start = blockStart;
+                int end = blockEnd;
+                if (extFactor > 0) {
+                    if (negative) {
+                        start = Math.max(0, start - extFactor);
+                    } else {
+                        end += extFactor;
+                    }
+                }
+                for (int pos = start; pos < end; pos++) {
+                    String key = record.getReferenceName() + ":" + (pos / windowSize) * windowSize;
+                    int[] c = counts.get(key);
+                    if (c == null) {
+                        c = new int[3 + 2 * nucleotides.length()];
+                        counts.put(key, c);
+                    }
+                    c[0]++;
+                    c[1 + strand]++;
+                    int offset = pos - blockStart;
+                    if (offset >= 0 && offset < block.getLength()) {
+                        int b = nucleotides.indexOf(readBases[block.getReadStart() - 1 + offset]);
+                        c[3 + strand * nucleotides.length() + b]++;
+                    }
+                }
+            }
+        }
+
+        Map<String, float[]> expected = new HashMap<String, float[]>();
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            int[] c = entry.getValue();
+            float[] data;
+            if (bases) {
+                data = new float[(strands ? 2 : 1) * nucleotides.length()];
+                for (int s = 0; s < 2; s++) {
+                    for (int b = 0; b < nucleotides.length(); b++) {
+                        data[(strands ? s * nucleotides.length() : 0) + b] += c[3 + s * nucleotides.length() + b];
+                    }
+                }
+            } else if (strands) {
+                data = new float[]{c[1], c[2]};
+            } else {
+                data = new float[]{c[0]};
+            }
+            for (int i = 0; i < data.length; i++) {
+                data[i] /= windowSize;
+            }
+            expected.put(entry.getKey(), data);
+        }
+        return expected;
+    }
+}
@@ -335,7 +335,7 @@ public class CoverageCounterTest extends AbstractHeadlessTest {
         }
     }
 
-    private static class TestData {
+    static class TestData {
         public String chr;
         public int start;
         public int end;
@@ -0,0 +1,156 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.tools;
+
+import org.broad.igv.exceptions.ParserException;
+import org.broad.igv.feature.Chromosome;
+import org.broad.igv.feature.genome.Genome;
+import org.broad.igv.track.WindowFunction;
+import org.junit.Test;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class PreprocessorTest {
+
+    static String[] chrNames = {"chr1", "chr2", "chrM", "chr3"};
+    static int[] chrLengths = {2000000, 1000000, 16000, 500000};
+
+    /**
+     * Tiles computed on multiple threads must produce the same file as the single threaded preprocessor.
+     */
+    @Test
+    public void testMultipleThreads() throws Exception {
+
+        List<Chromosome> chromosomes = new ArrayList<Chromosome>();
+        for (int i = 0; i < chrNames.length; i++) {
+            chromosomes.add(new Chromosome(i, chrNames[i], chrLengths[i]));
+        }
+        Genome genome = new Genome("test", chromosomes);
+
+        File inputFile = File.createTempFile("preprocessorTest", ".bedgraph");
+        inputFile.deleteOnExit();
+        writeBedGraph(inputFile);
+
+        byte[] expected = toTDF(inputFile, genome, 1);
+        assertArrayEquals(expected, toTDF(inputFile, genome, 2));
+        assertArrayEquals(expected, toTDF(inputFile, genome, 4));
+    }
+
+    /**
+     * The worker threads must stop if parsing fails before the preprocessor is finished.
+     */
+    @Test
+    public void testShutdownAfterFailure() throws Exception {
+
+        List<Chromosome> chromosomes = new ArrayList<Chromosome>();
+        for (int i = 0; i < chrNames.length; i++) {
+            chromosomes.add(new Chromosome(i, chrNames[i], chrLengths[i]));
+        }
+        Genome genome = new Genome("test", chromosomes);
+
+        // chr1 appears in two blocks,  which is an error
+        File inputFile = File.createTempFile("preprocessorTest", ".bedgraph");
+        inputFile.deleteOnExit();
+        PrintWriter pw = new PrintWriter(new FileWriter(inputFile));
+        try {
+            pw.println("chr1\t0\t100\t1.0");
+            pw.println("chr2\t0\t100\t1.0");
+            pw.println("chr1\t200\t300\t1.0");
+        } finally {
+            pw.close();
+        }
+
+        File outputFile = File.createTempFile("preprocessorTest", ".tdf");
+        outputFile.deleteOnExit();
+
+        List<WindowFunction> wfs = Arrays.asList(WindowFunction.mean);
+        Preprocessor p = new Preprocessor(outputFile, genome, wfs, -1, null);
+        p.setNumThreads(4);
+        try {
+            p.preprocess(inputFile, 5, null);
+            fail("Expected parsing to fail");
+        } catch (ParserException e) {
+            // expected
+        } finally {
+            p.shutdown();
+        }
+
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            assertFalse(t.getName(), t.getName().startsWith("Preprocessor-"));
+        }
+    }
+
+    private byte[] toTDF(File inputFile, Genome genome, int nThreads) throws IOException {
+        File outputFile = File.createTempFile("preprocessorTest", ".tdf");
+        outputFile.deleteOnExit();
+
+        List<WindowFunction> wfs = Arrays.asList(WindowFunction.mean, WindowFunction.max);
+        Preprocessor p = new Preprocessor(outputFile, genome, wfs, -1, null);
+        p.setNumThreads(nThreads);
+        p.preprocess(inputFile, 5, null);
+        p.finish();
+
+        byte[] bytes = new byte[(int) outputFile.length()];
+        DataInputStream dis = new DataInputStream(new FileInputStream(outputFile));
+        try {
+            dis.readFully(bytes);
+        } finally {
+            dis.close();
+        }
+        return bytes;
+    }
+
+    private void writeBedGraph(File file) throws IOException {
+        Random rand = new Random(1234);
+        PrintWriter pw = new PrintWriter(new FileWriter(file));
+        try {
+            for (int c = 0; c < chrNames.length; c++) {
+                int position = 0;
+                while (true) {
+                    int length = 1 + rand.nextInt(200);
+                    if (rand.nextInt(10) == 0) {
+                        position += rand.nextInt(50000);
+                    }
+                    if (position + length >= chrLengths[c]) {
+                        break;
+                    }
+                    pw.println(chrNames[c] + "\t" + position + "\t" + (position + length) + "\t" + rand.nextGaussian());
+                    position += length;
+                }
+            }
+        } finally {
+            pw.close();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.track;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class RegionScoreSorterTest {
+
+    @After
+    public void tearDown() {
+        RegionScoreSorter.clearCache();
+    }
+
+    @Test
+    public void testSortByScore() {
+        List<String> items = new ArrayList<String>(Arrays.asList("a", "b", "c", "d", "e", "f", "g"));
+        float[] scores = {1, Float.NaN, -2, 5, 1, -Float.MAX_VALUE, -0.5f};
+        RegionScoreSorter.sortByScore(items, scores);
+
+        // Descending in Float.compare order,  NaN first,  ties keep their order
+        assertEquals(Arrays.asList("b", "d", "a", "e", "g", "c", "f"), items);
+    }
+
+    @Test
+    public void testComputeScoresOnce() {
+        int n = 100;
+        List<Integer> items = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            items.add(i);
+        }
+        final AtomicInteger count = new AtomicInteger();
+        float[] scores = RegionScoreSorter.computeScores(items, new RegionScoreSorter.Scorer<Integer>() {
+            public float getScore(Integer item) {
+                count.incrementAndGet();
+                if (item == 50) throw new IllegalStateException("test");
+                return item % 10;
+            }
+        });
+        assertEquals(n, count.get());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i == 50 ? -Float.MAX_VALUE : i % 10, scores[i], 0);
+        }
+    }
+
+    @Test
+    public void testSortTracks() {
+        AtomicInteger count = new AtomicInteger();
+        List<Track> tracks = new ArrayList<Track>();
+        float[] scores = {3, 7, 1, 7, 2, 9, 0, 4, 5, 6};
+        for (int i = 0; i < scores.length; i++) {
+            tracks.add(newTrack("t" + i, scores[i], count));
+            if (i == 3) tracks.add(null);
+        }
+
+        RegionScoreSorter.sortTracks(tracks, "chr1", 0, 100, 0, RegionScoreType.SCORE, "frame");
+        assertEquals(scores.length, count.get());
+        assertEquals(scores.length + 1, tracks.size());
+        assertNull(tracks.get(scores.length));
+        String[] expected = {"t5", "t1", "t3", "t9", "t8", "t7", "t0", "t4", "t2", "t6"};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], tracks.get(i).getName());
+        }
+
+        // Scores are reused for the same region,  until the cache is cleared
+        RegionScoreSorter.sortTracks(tracks, "chr1", 0, 100, 0, RegionScoreType.SCORE, "frame");
+        assertEquals(scores.length, count.get());
+        RegionScoreSorter.sortTracks(tracks, "chr1", 0, 200, 0, RegionScoreType.SCORE, "frame");
+        assertEquals(2 * scores.length, count.get());
+        RegionScoreSorter.clearCache();
+        RegionScoreSorter.sortTracks(tracks, "chr1", 0, 100, 0, RegionScoreType.SCORE, "frame");
+        assertEquals(3 * scores.length, count.get());
+    }
+
+    private static Track newTrack(final String name, final float score, final AtomicInteger count) {
+        return (Track) Proxy.newProxyInstance(Track.class.getClassLoader(), new Class[]{Track.class},
+                new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String m = method.getName();
+                        if (m.equals("getRegionScore")) {
+                            count.incrementAndGet();
+                            return score;
+                        } else if (m.equals("getName") || m.equals("toString")) {
+                            return name;
+                        } else if (m.equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        } else if (m.equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        throw new UnsupportedOperationException(m);
+                    }
+                });
+    }
+}
@@ -25,7 +25,13 @@
 
 package org.broad.igv.track;
 
+import htsjdk.tribble.AbstractFeatureReader;
+import htsjdk.tribble.Feature;
+import htsjdk.tribble.FeatureCodec;
 import org.broad.igv.Globals;
+import org.broad.igv.feature.tribble.CodecFactory;
+import org.broad.igv.feature.tribble.FeatureFileIndexer;
+import org.broad.igv.util.FileUtils;
 import org.broad.igv.util.ResourceLocator;
 import org.junit.Assert;
 import org.junit.Assume;
@@ -33,6 +39,13 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.broad.igv.util.TestUtils;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
 
 /**
  * @author jrobinso
@@ -78,4 +91,108 @@ public class TribbleFeatureSourceTest {
             Assert.assertTrue(msg, curFileHandles - baseFileHandles <= maxDiff);
         }
     }
+
+    /**
+     * A non-indexed file shows the first features,  then all features once the indexed copy has been made
+     */
+    @Test
+    public void testAutoIndexing() throws Exception {
+        File root = File.createTempFile("featureIndex", "");
+        root.delete();
+        root.mkdir();
+        int maxPartial = TribbleFeatureSource.AutoIndexingFeatureSource.MAX_PARTIAL_FEATURES;
+        try {
+            File gff = writeUnsortedGFF(root);
+
+            TribbleFeatureSource.AutoIndexingFeatureSource.MAX_PARTIAL_FEATURES = 500;
+            ResourceLocator locator = new ResourceLocator(gff.getAbsolutePath());
+            FeatureCodec codec = CodecFactory.getCodec(locator, null);
+            AbstractFeatureReader reader = AbstractFeatureReader.getFeatureReader(gff.getAbsolutePath(), codec, false);
+            FeatureFileIndexer indexer = FeatureFileIndexer.open(root, gff.getAbsolutePath(), 0);
+
+            TribbleFeatureSource.AutoIndexingFeatureSource source =
+                    new TribbleFeatureSource.AutoIndexingFeatureSource(reader, codec, locator, null, false, indexer);
+            int partialCount = count(source.getFeatures("chr2", 1, 200000));
+            Assert.assertTrue(partialCount <= 500);
+
+            source.getIndexFuture().get();
+            Assert.assertTrue(source.isIndexed());
+            Assert.assertEquals(1000, count(source.getFeatures("chr2", 1, 200000)));
+            Assert.assertEquals(1000, count(source.getFeatures("chr1", 1, 200000)));
+
+            // The copy is used directly next time
+            Assert.assertTrue(FeatureFileIndexer.open(root, gff.getAbsolutePath(), 0).isIndexed());
+            TribbleFeatureSource indexed = TribbleFeatureSource.openIndexedCopy(indexer.getIndexedFile(), locator, null, false);
+            Assert.assertEquals(1000, count(indexed.getFeatures("chr1", 1, 200000)));
+        } finally {
+            TribbleFeatureSource.AutoIndexingFeatureSource.MAX_PARTIAL_FEATURES = maxPartial;
+            FileUtils.deleteDir(root);
+        }
+    }
+
+    /**
+     * If the indexed copy cannot be made the whole file is loaded
+     */
+    @Test
+    public void testAutoIndexingFailure() throws Exception {
+        File root = File.createTempFile("featureIndex", "");
+        root.delete();
+        root.mkdir();
+        int maxPartial = TribbleFeatureSource.AutoIndexingFeatureSource.MAX_PARTIAL_FEATURES;
+        try {
+            File gff = writeUnsortedGFF(root);
+
+            TribbleFeatureSource.AutoIndexingFeatureSource.MAX_PARTIAL_FEATURES = 500;
+            ResourceLocator locator = new ResourceLocator(gff.getAbsolutePath());
+            FeatureCodec codec = CodecFactory.getCodec(locator, null);
+            AbstractFeatureReader reader = AbstractFeatureReader.getFeatureReader(gff.getAbsolutePath(), codec, false);
+            FeatureFileIndexer indexer = FeatureFileIndexer.open(root, gff.getAbsolutePath(), 0);
+
+            // Replace the copy's directory with a file,  so the copy cannot be written
+            File directory = indexer.getIndexedFile().getParentFile();
+            FileUtils.deleteDir(directory);
+            Assert.assertTrue(directory.createNewFile());
+
+            TribbleFeatureSource.AutoIndexingFeatureSource source =
+                    new TribbleFeatureSource.AutoIndexingFeatureSource(reader, codec, locator, null, false, indexer);
+            try {
+                source.getIndexFuture().get();
+                Assert.fail("Expected indexing to fail");
+            } catch (ExecutionException e) {
+                // Expected
+            }
+            Assert.assertFalse(source.isIndexed());
+            Assert.assertEquals(1000, count(source.getFeatures("chr2", 1, 200000)));
+            Assert.assertEquals(1000, count(source.getFeatures("chr1", 1, 200000)));
+        } finally {
+            TribbleFeatureSource.AutoIndexingFeatureSource.MAX_PARTIAL_FEATURES = maxPartial;
+            FileUtils.deleteDir(root);
+        }
+    }
+
+    /**
+     * Write 2000 features,  unsorted with features on chr2 first
+     */
+    private static File writeUnsortedGFF(File dir) throws IOException {
+        File gff = new File(dir, "test.gff3");
+        PrintWriter pw = new PrintWriter(gff);
+        pw.println("##gff-version 3");
+        Random rand = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            String chr = i < 1000 ? "chr2" : "chr1";
+            int start = 1 + rand.nextInt(100000);
+            pw.println(chr + "\ttest\texon\t" + start + "\t" + (start + 100) + "\t.\t+\t.\tID=f" + i);
+        }
+        pw.close();
+        return gff;
+    }
+
+    private static int count(Iterator<Feature> iter) {
+        int n = 0;
+        while (iter.hasNext()) {
+            iter.next();
+            n++;
+        }
+        return n;
+    }
 }
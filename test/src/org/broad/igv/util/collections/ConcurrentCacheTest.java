@@ -0,0 +1,211 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.collections;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentCacheTest {
+
+    @Test
+    public void testLRU() {
+        ConcurrentCache<String, Integer> cache = new ConcurrentCache<String, Integer>(3);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.put("c", 3);
+        assertEquals(1, (int) cache.get("a"));   // b is now the least recently used
+        cache.put("d", 4);
+
+        assertEquals(3, cache.size());
+        assertFalse(cache.containsKey("b"));
+        assertEquals(Arrays.asList("c", "a", "d"), cache.keys());
+        assertEquals(Arrays.asList(3, 1, 4), cache.values());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(1, cache.getHitCount());
+
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.getMissCount());
+
+        cache.setMaxWeight(1);
+        assertEquals(Arrays.asList("d"), cache.keys());
+    }
+
+    @Test
+    public void testNullValues() {
+        ConcurrentCache<String, Integer> cache = new ConcurrentCache<String, Integer>(3);
+        cache.put("a", null);
+        assertTrue(cache.containsKey("a"));
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void testNullKeys() {
+        ConcurrentCache<String, Integer> cache = new ConcurrentCache<String, Integer>(3);
+        assertNull(cache.get(null));
+        assertFalse(cache.containsKey(null));
+        assertNull(cache.remove(null));
+        try {
+            cache.put(null, 1);
+            fail("Expected NullPointerException");
+        } catch (NullPointerException e) {
+            // Expected
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testWeigher() {
+        final List<String> evicted = new ArrayList<String>();
+        ConcurrentCache<String, int[]> cache = new ConcurrentCache<String, int[]>(100,
+                new ConcurrentCache.Weigher<String, int[]>() {
+                    public long weigh(String key, int[] value) {
+                        return value.length;
+                    }
+                }, false);
+        cache.setRemovalListener(new ConcurrentCache.RemovalListener<String, int[]>() {
+            public void onRemoval(String key, int[] value, boolean wasEvicted) {
+                if (wasEvicted) evicted.add(key);
+            }
+        });
+
+        cache.put("a", new int[40]);
+        cache.put("b", new int[40]);
+        assertEquals(80, cache.getWeight());
+        cache.put("c", new int[30]);
+        assertEquals(70, cache.getWeight());
+        assertEquals(Arrays.asList("a"), evicted);
+
+        // Replacing is not an eviction
+        cache.put("b", new int[10]);
+        assertEquals(40, cache.getWeight());
+        assertEquals(Arrays.asList("a"), evicted);
+
+        // Too heavy to cache on its own
+        cache.put("d", new int[200]);
+        assertFalse(cache.containsKey("d"));
+        assertEquals(0, cache.getWeight());
+        assertEquals(0, cache.size());
+
+        cache.put("e", new int[5]);
+        cache.remove("e");
+        cache.put("f", new int[5]);
+        cache.clear();
+        assertEquals(0, cache.getWeight());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testLoadOnce() throws Exception {
+        final ConcurrentCache<Integer, String> cache = new ConcurrentCache<Integer, String>(100);
+        final AtomicInteger loadCount = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ConcurrentCache.Loader<Integer, String> loader = new ConcurrentCache.Loader<Integer, String>() {
+            public String load(Integer key) throws Exception {
+                loadCount.incrementAndGet();
+                Thread.sleep(50);
+                return "value" + key;
+            }
+        };
+
+        int nThreads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        for (int i = 0; i < nThreads; i++) {
+            futures.add(executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    start.await();
+                    return cache.get(1, loader);
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<String> f : futures) {
+            assertEquals("value1", f.get());
+        }
+        executor.shutdown();
+
+        assertEquals(1, loadCount.get());
+        assertEquals(1, cache.getLoadCount());
+        assertEquals("value1", cache.get(1, loader));
+        assertEquals(1, loadCount.get());
+    }
+
+    @Test
+    public void testLoadException() throws Exception {
+        ConcurrentCache<Integer, String> cache = new ConcurrentCache<Integer, String>(100);
+        try {
+            cache.get(1, new ConcurrentCache.Loader<Integer, String>() {
+                public String load(Integer key) throws Exception {
+                    throw new IllegalStateException("test");
+                }
+            });
+            fail("Expected an ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertFalse(cache.containsKey(1));
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final ConcurrentCache<Integer, Integer> cache = new ConcurrentCache<Integer, Integer>(50);
+        int nThreads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < nThreads; i++) {
+            final int seed = i;
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    java.util.Random rand = new java.util.Random(seed);
+                    for (int n = 0; n < 20000; n++) {
+                        int key = rand.nextInt(100);
+                        Integer value = cache.get(key);
+                        if (value == null) {
+                            cache.put(key, key);
+                        } else {
+                            assertEquals(key, (int) value);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        executor.shutdown();
+        assertTrue(cache.size() <= 50);
+        assertEquals(cache.size(), cache.getWeight());
+        assertEquals(cache.size(), cache.keys().size());
+    }
+}
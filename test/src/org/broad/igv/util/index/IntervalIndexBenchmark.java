@@ -0,0 +1,175 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.index;
+
+import org.junit.Ignore;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares {@link IntervalIndex} with {@link IntervalTree}:  build time,  heap used,  query time for short and long
+ * query windows,  and save / load time of the index.  The default of 10M intervals needs a large heap,  e.g. -Xmx6g.
+ * Run from the command line:
+ * <p/>
+ * java org.broad.igv.util.index.IntervalIndexBenchmark [nIntervals] [nQueries] [repeats]
+ */
+@Ignore
+public class IntervalIndexBenchmark {
+
+    public static void main(String[] args) throws Exception {
+
+        int nIntervals = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        int nQueries = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        int repeats = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        // Sorted intervals, ~100 bp apart, mostly short with the occasional long one
+        Random rand = new Random(1234);
+        int[] starts = new int[nIntervals];
+        int[] ends = new int[nIntervals];
+        long[] values = new long[nIntervals];
+        int pos = 0;
+        for (int i = 0; i < nIntervals; i++) {
+            pos += rand.nextInt(200);
+            starts[i] = pos;
+            ends[i] = pos + (rand.nextInt(100) == 0 ? rand.nextInt(100000) : rand.nextInt(500));
+            values[i] = i;
+        }
+        int maxPos = pos;
+        System.out.println(nIntervals + " intervals over " + maxPos + " bp");
+
+        long heap0 = usedHeap();
+        long t0 = System.currentTimeMillis();
+        IntervalIndex index = IntervalIndex.fromSorted(starts, ends, values);
+        long indexBuild = System.currentTimeMillis() - t0;
+        long indexHeap = usedHeap() - heap0;
+
+        heap0 = usedHeap();
+        t0 = System.currentTimeMillis();
+        IntervalTree tree = new IntervalTree();
+        for (int i = 0; i < nIntervals; i++) {
+            tree.insert(new Interval(starts[i], ends[i], values[i]));
+        }
+        long treeBuild = System.currentTimeMillis() - t0;
+        long treeHeap = usedHeap() - heap0;
+
+        System.out.println(String.format("build   index=%d ms (%d MB)  tree=%d ms (%d MB)",
+                indexBuild, indexHeap >> 20, treeBuild, treeHeap >> 20));
+
+        for (int width : new int[]{1000, 100000}) {
+            int[] queryStarts = new int[nQueries];
+            for (int q = 0; q < nQueries; q++) {
+                queryStarts[q] = rand.nextInt(maxPos);
+            }
+            // Warm up
+            queryIndex(index, queryStarts, width);
+            queryTree(tree, queryStarts, width);
+
+            long bestIndex = Long.MAX_VALUE, bestTree = Long.MAX_VALUE;
+            long gcIndex = 0, gcTree = 0;
+            long hits = 0;
+            for (int r = 0; r < repeats; r++) {
+                long gc0 = totalGCTime();
+                t0 = System.nanoTime();
+                hits = queryIndex(index, queryStarts, width);
+                bestIndex = Math.min(bestIndex, System.nanoTime() - t0);
+                gcIndex += totalGCTime() - gc0;
+
+                gc0 = totalGCTime();
+                t0 = System.nanoTime();
+                long treeHits = queryTree(tree, queryStarts, width);
+                bestTree = Math.min(bestTree, System.nanoTime() - t0);
+                gcTree += totalGCTime() - gc0;
+                if (treeHits != hits) {
+                    throw new RuntimeException("Hit counts differ: " + hits + " vs " + treeHits);
+                }
+            }
+            System.out.println(String.format("query width=%d  hits/query=%.1f  index=%.0f ns/query (gc=%d ms)  " +
+                            "tree=%.0f ns/query (gc=%d ms)",
+                    width, (double) hits / nQueries, (double) bestIndex / nQueries, gcIndex / repeats,
+                    (double) bestTree / nQueries, gcTree / repeats));
+        }
+        tree = null;
+
+        File file = File.createTempFile("intervalIndexBenchmark", ".bin");
+        file.deleteOnExit();
+        t0 = System.currentTimeMillis();
+        index.write(file);
+        long writeTime = System.currentTimeMillis() - t0;
+        t0 = System.currentTimeMillis();
+        IntervalIndex loaded = IntervalIndex.read(file);
+        long readTime = System.currentTimeMillis() - t0;
+        if (loaded.size() != index.size()) {
+            throw new RuntimeException("Loaded index has wrong size");
+        }
+        System.out.println(String.format("persist write=%d ms  read=%d ms  (%d MB)",
+                writeTime, readTime, file.length() >> 20));
+    }
+
+    static long queryIndex(IntervalIndex index, int[] queryStarts, int width) {
+        CountingVisitor visitor = new CountingVisitor();
+        for (int start : queryStarts) {
+            index.query(start, start + width, visitor);
+        }
+        return visitor.count;
+    }
+
+    static long queryTree(IntervalTree tree, int[] queryStarts, int width) {
+        long count = 0;
+        for (int start : queryStarts) {
+            List<Interval> intervals = tree.findOverlapping(start, start + width);
+            count += intervals.size();
+        }
+        return count;
+    }
+
+    static class CountingVisitor implements IntervalIndex.Visitor {
+        long count;
+
+        public void visit(int start, int end, long value) {
+            count++;
+        }
+    }
+
+    static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static long totalGCTime() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, gc.getCollectionTime());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.index;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IntervalIndexTest {
+
+    @Test
+    public void testCompareTree() {
+        Random rand = new Random(1);
+        for (int n : new int[]{0, 1, 2, 3, 7, 8, 9, 15, 16, 17, 100, 1000, 5000}) {
+            IntervalIndex.Builder builder = new IntervalIndex.Builder();
+            IntervalTree tree = new IntervalTree();
+            for (int i = 0; i < n; i++) {
+                int start = rand.nextInt(100000);
+                // Mostly short intervals,  with a few long ones
+                int length = rand.nextInt(10) == 0 ? rand.nextInt(20000) : rand.nextInt(200);
+                builder.add(start, start + length, i);
+                tree.insert(new Interval(start, start + length, i));
+            }
+            IntervalIndex index = builder.build();
+            assertEquals(n, index.size());
+
+            for (int q = 0; q < 200; q++) {
+                int start = rand.nextInt(110000) - 5000;
+                int end = start + rand.nextInt(q % 2 == 0 ? 100 : 10000);
+                List<Interval> expected = tree.findOverlapping(start, end);
+                List<Interval> actual = index.findOverlapping(start, end);
+                assertSameIntervals(expected, actual);
+                for (int i = 1; i < actual.size(); i++) {
+                    assertTrue(actual.get(i - 1).getLow() <= actual.get(i).getLow());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testClosedIntervals() {
+        IntervalIndex index = new IntervalIndex.Builder().add(10, 20, 1).add(20, 30, 2).add(40, 40, 3).build();
+        assertEquals(2, index.findOverlapping(20, 20).size());
+        assertEquals(1, index.findOverlapping(0, 10).size());
+        assertEquals(1, index.findOverlapping(40, 50).size());
+        assertEquals(0, index.findOverlapping(31, 39).size());
+    }
+
+    @Test
+    public void testQueryVisitor() {
+        IntervalIndex index = IntervalIndex.fromSorted(new int[]{0, 5, 6, 8}, new int[]{3, 8, 10, 9},
+                new long[]{100, 200, 300, 400});
+        final long[] sum = new long[1];
+        index.query(7, 8, new IntervalIndex.Visitor() {
+            public void visit(int start, int end, long value) {
+                sum[0] += value;
+            }
+        });
+        assertEquals(900, sum[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFromSortedUnsorted() {
+        IntervalIndex.fromSorted(new int[]{5, 0}, new int[]{6, 1}, new long[]{0, 0});
+    }
+
+    @Test
+    public void testReadWrite() throws Exception {
+        Random rand = new Random(2);
+        IntervalIndex.Builder builder = new IntervalIndex.Builder();
+        for (int i = 0; i < 3000; i++) {
+            int start = rand.nextInt(1000000);
+            builder.add(start, start + rand.nextInt(5000), rand.nextLong());
+        }
+        IntervalIndex index = builder.build();
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        index.write(bos);
+        IntervalIndex loaded = IntervalIndex.read(new ByteArrayInputStream(bos.toByteArray()));
+
+        assertEquals(index.size(), loaded.size());
+        for (int i = 0; i < index.size(); i++) {
+            assertEquals(index.getStart(i), loaded.getStart(i));
+            assertEquals(index.getEnd(i), loaded.getEnd(i));
+            assertEquals(index.getValue(i), loaded.getValue(i));
+        }
+        for (int q = 0; q < 100; q++) {
+            int start = rand.nextInt(1000000);
+            assertSameIntervals(index.findOverlapping(start, start + 10000), loaded.findOverlapping(start, start + 10000));
+        }
+    }
+
+    private static void assertSameIntervals(List<Interval> expected, List<Interval> actual) {
+        assertEquals(sortedValues(expected), sortedValues(actual));
+    }
+
+    private static List<Long> sortedValues(List<Interval> intervals) {
+        List<Long> values = new ArrayList<Long>();
+        for (Interval iv : intervals) {
+            values.add(iv.getValue());
+        }
+        Collections.sort(values);
+        return values;
+    }
+}
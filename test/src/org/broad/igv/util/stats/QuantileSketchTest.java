@@ -0,0 +1,120 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stats;
+
+import org.apache.commons.math.stat.StatUtils;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class QuantileSketchTest {
+
+    static double[] percentiles = {2, 10, 50, 90, 98};
+
+    /**
+     * Until the buffer fills percentiles should match StatUtils exactly
+     */
+    @Test
+    public void testExact() {
+        Random rand = new Random(1);
+        for (int n = 2; n <= 500; n += 7) {
+            QuantileSketch sketch = new QuantileSketch(100);
+            double[] values = new double[n];
+            for (int i = 0; i < n; i++) {
+                // Include ties
+                values[i] = rand.nextInt(n / 2 + 1);
+                sketch.add(values[i]);
+            }
+            assertTrue(sketch.isExact());
+            for (double p : percentiles) {
+                assertEquals(StatUtils.percentile(values, p), sketch.percentile(p), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testUniform() {
+        Random rand = new Random(2);
+        int n = 1000000;
+        QuantileSketch sketch = new QuantileSketch(100);
+        for (int i = 0; i < n; i++) {
+            sketch.add(rand.nextDouble());
+        }
+        assertFalse(sketch.isExact());
+        assertEquals(n, sketch.size());
+        for (double p : percentiles) {
+            assertEquals(p / 100, sketch.percentile(p), 0.005);
+        }
+    }
+
+    /**
+     * Compare rank error of estimates for a skewed distribution
+     */
+    @Test
+    public void testRankError() {
+        Random rand = new Random(3);
+        int n = 200000;
+        double[] values = new double[n];
+        QuantileSketch sketch = new QuantileSketch(100);
+        for (int i = 0; i < n; i++) {
+            values[i] = Math.exp(rand.nextGaussian() * 2);
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+        for (double p : percentiles) {
+            double estimate = sketch.percentile(p);
+            int rank = Arrays.binarySearch(values, estimate);
+            if (rank < 0) rank = -rank - 1;
+            assertEquals(p / 100, ((double) rank) / n, 0.005);
+        }
+    }
+
+    @Test
+    public void testEmptyAndNaN() {
+        QuantileSketch sketch = new QuantileSketch();
+        assertTrue(Double.isNaN(sketch.percentile(50)));
+        sketch.add(Double.NaN);
+        assertEquals(0, sketch.size());
+        assertTrue(Double.isNaN(sketch.percentile(50)));
+        sketch.add(3);
+        assertEquals(3, sketch.percentile(2), 0);
+        assertEquals(3, sketch.percentile(98), 0);
+    }
+
+    @Test
+    public void testConstant() {
+        QuantileSketch sketch = new QuantileSketch(20);
+        for (int i = 0; i < 100000; i++) {
+            sketch.add(7);
+        }
+        for (double p : percentiles) {
+            assertEquals(7, sketch.percentile(p), 0);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import htsjdk.samtools.seekablestream.SeekableFileStream;
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CoalescingSeekableStreamTest {
+
+    private File file;
+    private byte[] content;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        content = new byte[200000];
+        new Random(1).nextBytes(content);
+        file = File.createTempFile("coalesce", ".bin");
+        FileOutputStream os = new FileOutputStream(file);
+        os.write(content);
+        os.close();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * Each seek of an opened stream stands for a range request
+     */
+    private CoalescingSeekableStream newStream() {
+        return new CoalescingSeekableStream(file.getPath(), new Callable<SeekableStream>() {
+            public SeekableStream call() throws Exception {
+                return new SeekableFileStream(file) {
+                    @Override
+                    public void seek(long position) throws IOException {
+                        requests.incrementAndGet();
+                        super.seek(position);
+                    }
+                };
+            }
+        });
+    }
+
+    @Test
+    public void testMergeRanges() {
+        long[] starts = {1000, 0, 150, 5000, -1, 1050};
+        int[] lengths = {100, 100, 50, 10, 10, 500};
+        List<long[]> merged = CoalescingSeekableStream.mergeRanges(starts, lengths, 100);
+        assertEquals(3, merged.size());
+        assertArrayEquals(new long[]{0, 200}, merged.get(0));
+        assertArrayEquals(new long[]{1000, 1550}, merged.get(1));
+        assertArrayEquals(new long[]{5000, 5010}, merged.get(2));
+
+        merged = CoalescingSeekableStream.mergeRanges(starts, lengths, 10000);
+        assertEquals(1, merged.size());
+        assertArrayEquals(new long[]{0, 5010}, merged.get(0));
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        CoalescingSeekableStream stream = newStream();
+        stream.setMaxGap(1000);
+        long[] starts = {100, 600, 1500, 50000, 50500, 120000};
+        int[] lengths = {400, 800, 200, 300, 100, 5000};
+        stream.prefetch(starts, lengths);
+        assertEquals(3, requests.get());
+
+        for (int i = 0; i < starts.length; i++) {
+            checkBytes((int) starts[i], stream.getBuffered(starts[i], lengths[i]));
+        }
+        // Within a gap
+        checkBytes(550, stream.getBuffered(550, 10));
+        assertNull(stream.getBuffered(2000, 10));
+
+        // Buffered reads make no requests
+        byte[] buffer = new byte[1000];
+        stream.seek(200);
+        assertEquals(1000, stream.read(buffer, 0, 1000));
+        checkBytes(200, buffer);
+        assertEquals(1200, stream.position());
+        assertEquals(3, requests.get());
+        stream.close();
+    }
+
+    @Test
+    public void testReadAhead() throws Exception {
+        CoalescingSeekableStream stream = newStream();
+        stream.setReadAhead(10000);
+        byte[] buffer = new byte[100];
+        for (int p = 0; p < 10000; p += 100) {
+            stream.seek(p);
+            stream.readFully(buffer);
+            checkBytes(p, buffer);
+        }
+        assertEquals(1, requests.get());
+
+        // End of file
+        stream.seek(content.length - 50);
+        assertEquals(50, stream.read(buffer, 0, 100));
+        checkBytes(content.length - 50, java.util.Arrays.copyOf(buffer, 50));
+        stream.seek(content.length);
+        assertEquals(-1, stream.read(buffer, 0, 100));
+        assertTrue(stream.eof());
+        stream.close();
+    }
+
+    private void checkBytes(int start, byte[] bytes) {
+        assertNotNull(bytes);
+        for (int i = 0; i < bytes.length; i++) {
+            assertEquals(content[start + i], bytes[i]);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.util.stream;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MemoryMappedSeekableStreamTest {
+
+    static byte[] expectedBytes;
+    static File testFile;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        expectedBytes = new byte[20000];
+        new Random(1).nextBytes(expectedBytes);
+        testFile = File.createTempFile("mappedStreamTest", ".dat");
+        testFile.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(testFile);
+        fos.write(expectedBytes);
+        fos.close();
+    }
+
+    @Test
+    public void testSeekRead() throws Exception {
+        MemoryMappedSeekableStream stream = new MemoryMappedSeekableStream(testFile);
+        assertEquals(expectedBytes.length, stream.length());
+
+        stream.seek(700);
+        assertEquals(expectedBytes[700] & 0xff, stream.read());
+        assertEquals(701, stream.position());
+
+        byte[] buffer = new byte[1000];
+        stream.seek(19500);
+        assertEquals(500, stream.read(buffer, 0, 1000));
+        assertTrue(stream.eof());
+        assertEquals(-1, stream.read(buffer, 0, 1000));
+        for (int i = 0; i < 500; i++) {
+            assertEquals(expectedBytes[19500 + i], buffer[i]);
+        }
+        stream.close();
+    }
+
+    /**
+     * Small windows,  so reads and slices cross window boundaries
+     */
+    @Test
+    public void testWindows() throws Exception {
+        MemoryMappedSeekableStream stream = new MemoryMappedSeekableStream(testFile, 1024, 100);
+        Random rand = new Random(2);
+        for (int i = 0; i < 1000; i++) {
+            int length = rand.nextInt(300);
+            int position = rand.nextInt(expectedBytes.length - length);
+
+            byte[] bytes = new byte[length];
+            stream.seek(position);
+            stream.readFully(bytes);
+            assertArrayEquals(copy(position, length), bytes);
+
+            ByteBuffer slice = stream.slice(position, length);
+            assertEquals(length, slice.remaining());
+            byte[] sliceBytes = new byte[length];
+            slice.get(sliceBytes);
+            assertArrayEquals(copy(position, length), sliceBytes);
+        }
+        stream.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void testSlicePastEnd() throws Exception {
+        MemoryMappedSeekableStream stream = new MemoryMappedSeekableStream(testFile);
+        try {
+            stream.slice(expectedBytes.length - 10, 20);
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Closing the stream unmaps the file,  and later reads fail
+     */
+    @Test
+    public void testClose() throws Exception {
+        MemoryMappedSeekableStream stream = new MemoryMappedSeekableStream(testFile, 1024, 100);
+        byte[] bytes = new byte[5000];
+        stream.readFully(bytes);
+        assertArrayEquals(copy(0, bytes.length), bytes);
+
+        File maps = new File("/proc/self/maps");
+        boolean linux = maps.exists();
+        if (linux) {
+            assertTrue(isMapped(maps, testFile));
+        }
+
+        stream.close();
+        if (linux) {
+            assertFalse(isMapped(maps, testFile));
+        }
+        try {
+            stream.read(0, bytes, 0, 10);
+            fail("Read after close");
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    private static boolean isMapped(File maps, File file) throws IOException {
+        String path = file.getCanonicalPath();
+        BufferedReader reader = new BufferedReader(new FileReader(maps));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.endsWith(path)) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static byte[] copy(int position, int length) {
+        byte[] bytes = new byte[length];
+        System.arraycopy(expectedBytes, position, bytes, 0, length);
+        return bytes;
+    }
+}
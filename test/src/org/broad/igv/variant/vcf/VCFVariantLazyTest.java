@@ -0,0 +1,165 @@
+/*
+ * The MIT License (MIT)
+ *
+ * Copyright (c) 2007-2015 Broad Institute
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.broad.igv.variant.vcf;
+
+import htsjdk.tribble.readers.AsciiLineReader;
+import htsjdk.tribble.readers.AsciiLineReaderIterator;
+import htsjdk.variant.variantcontext.VariantContext;
+import htsjdk.variant.vcf.VCFCodec;
+import htsjdk.variant.vcf.VCFHeader;
+import org.broad.igv.util.TestUtils;
+import org.broad.igv.variant.Genotype;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Variants with lazily decoded genotypes should report the same values as eagerly decoded ones
+ */
+public class VCFVariantLazyTest {
+
+    @Test
+    public void testCompareEager() throws Exception {
+        compareEager(new FileInputStream(TestUtils.DATA_DIR + "vcf/ex2.vcf"));
+    }
+
+    /**
+     * A wider file,  with AC and AN attributes on some lines
+     */
+    @Test
+    public void testCompareEagerWide() throws Exception {
+        int nSamples = 300;
+        Random rand = new Random(1);
+        StringBuilder vcf = new StringBuilder();
+        vcf.append("##fileformat=VCFv4.1\n");
+        vcf.append("##INFO=<ID=AC,Number=A,Type=Integer,Description=\"Allele count\">\n");
+        vcf.append("##INFO=<ID=AN,Number=1,Type=Integer,Description=\"Allele number\">\n");
+        vcf.append("##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n");
+        vcf.append("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT");
+        for (int s = 0; s < nSamples; s++) {
+            // Sorted names,  otherwise htsjdk decodes genotypes eagerly
+            vcf.append(String.format("\tS%04d", s));
+        }
+        vcf.append("\n");
+        String[] gts = {"0/0", "0/1", "1/1", "./.", "0|1"};
+        for (int v = 0; v < 50; v++) {
+            StringBuilder genotypes = new StringBuilder();
+            int ac = 0, an = 0;
+            for (int s = 0; s < nSamples; s++) {
+                String gt = gts[rand.nextInt(gts.length)];
+                genotypes.append("\t" + gt);
+                if (!gt.startsWith(".")) {
+                    an += 2;
+                    ac += (gt.charAt(0) - '0') + (gt.charAt(2) - '0');
+                }
+            }
+            String info = v % 2 == 0 ? "AC=" + ac + ";AN=" + an : ".";
+            vcf.append("1\t" + (1000 + v * 10) + "\t.\tA\tG\t50\tPASS\t" + info + "\tGT" + genotypes + "\n");
+        }
+        compareEager(new ByteArrayInputStream(vcf.toString().getBytes()));
+    }
+
+    /**
+     * AC and AN are used whenever present,  even if they disagree with the genotypes in the file,  so the allele
+     * fraction is the same before and after the genotypes are decoded
+     */
+    @Test
+    public void testAlleleFractionSource() throws Exception {
+        String vcf = "##fileformat=VCFv4.1\n" +
+                "##INFO=<ID=AC,Number=A,Type=Integer,Description=\"Allele count\">\n" +
+                "##INFO=<ID=AN,Number=1,Type=Integer,Description=\"Allele number\">\n" +
+                "##FORMAT=<ID=GT,Number=1,Type=String,Description=\"Genotype\">\n" +
+                "#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO\tFORMAT\tS1\tS2\tS3\n" +
+                "1\t1000\t.\tA\tG\t50\tPASS\tAC=10;AN=100\tGT\t0/1\t1/1\t0/0\n";
+        VCFCodec codec = new VCFCodec();
+        AsciiLineReaderIterator iter = new AsciiLineReaderIterator(
+                new AsciiLineReader(new ByteArrayInputStream(vcf.getBytes())));
+        VCFHeader header = (VCFHeader) codec.readActualHeader(iter);
+        String line = iter.next();
+        iter.close();
+
+        VCFVariant lazy = new VCFVariant(codec.decode(line), "chr1", header.getGenotypeSamples());
+        VCFVariant eager = new VCFVariant(codec.decode(line), "chr1");
+
+        assertEquals(0.1, lazy.getAlleleFraction(), 1.0e-9);
+        assertEquals(1, lazy.getHetCount());
+        assertEquals(0.1, lazy.getAlleleFraction(), 1.0e-9);
+        assertEquals(0.1, eager.getAlleleFraction(), 1.0e-9);
+    }
+
+    private void compareEager(InputStream is) throws Exception {
+        VCFCodec codec = new VCFCodec();
+        AsciiLineReaderIterator iter = new AsciiLineReaderIterator(new AsciiLineReader(is));
+        VCFHeader header = (VCFHeader) codec.readActualHeader(iter);
+        List<String> samples = header.getGenotypeSamples();
+
+        List<String> lines = new ArrayList<String>();
+        while (iter.hasNext()) {
+            lines.add(iter.next());
+        }
+        iter.close();
+        assertTrue(lines.size() > 0);
+
+        for (String line : lines) {
+            VCFVariant eager = new VCFVariant(codec.decode(line), "chr1");
+            VariantContext lazyContext = codec.decode(line);
+            VCFVariant lazy = new VCFVariant(lazyContext, "chr1", samples);
+
+            assertTrue(lazy.isLazy());
+            assertFalse(eager.isLazy());
+            // Nothing decoded yet
+            assertTrue(lazyContext.getGenotypes().isLazyWithData());
+
+            assertEquals(eager.getAlleleFraction(), lazy.getAlleleFraction(), 1.0e-9);
+            assertArrayEquals(eager.getAlleleFreqs(), lazy.getAlleleFreqs(), 0);
+            assertEquals(eager.getSampleNames().size(), lazy.getSampleNames().size());
+            if (lazyContext.hasAttribute("AC")) {
+                // Summaries came from INFO
+                assertTrue(lazyContext.getGenotypes().isLazyWithData());
+            }
+
+            assertEquals(eager.getHomVarCount(), lazy.getHomVarCount());
+            assertEquals(eager.getHetCount(), lazy.getHetCount());
+            assertEquals(eager.getHomRefCount(), lazy.getHomRefCount());
+            assertEquals(eager.getNoCallCount(), lazy.getNoCallCount());
+
+            for (String sample : samples) {
+                Genotype eg = eager.getGenotype(sample);
+                Genotype lg = lazy.getGenotype(sample);
+                assertEquals(eg.getGenotypeString(), lg.getGenotypeString());
+                assertEquals(eg.getAttributes(), lg.getAttributes());
+                assertSame(lg, lazy.getGenotype(sample));
+            }
+        }
+    }
+}